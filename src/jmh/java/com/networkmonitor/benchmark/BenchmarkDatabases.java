@@ -0,0 +1,114 @@
+package com.networkmonitor.benchmark;
+
+import com.networkmonitor.service.DatabaseManager;
+import com.networkmonitor.service.SyntheticLoader;
+import com.networkmonitor.service.SyntheticTraffic;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.Instant;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+/**
+ * Seeded databases for the benchmarks, kept under target/jmh-data and reused
+ * across forks and runs. DatabaseManager is a singleton, so each fork opens
+ * exactly one of them.
+ */
+final class BenchmarkDatabases {
+
+    static final Path DATA_DIR = Paths.get("target", "jmh-data");
+    /** Fixed so reruns reuse the seeded files and query the same ranges. */
+    static final long END_MILLIS = Instant.parse("2025-01-01T00:00:00Z").toEpochMilli();
+    /** One sample every 10 seconds; a year is about 3.15M samples of three interfaces. */
+    static final long SAMPLE_SPACING_MS = 10_000;
+    static final long HOUR_MS = 60 * 60 * 1000L;
+    private static final String SEED_VERSION = "2";
+
+    private BenchmarkDatabases() {
+    }
+
+    static long spanOf(String dataset) {
+        switch (dataset) {
+            case "hour":
+                return HOUR_MS;
+            case "month":
+                return 30 * 24 * HOUR_MS;
+            case "year":
+                return 365 * 24 * HOUR_MS;
+            default:
+                throw new IllegalArgumentException("Unknown dataset: " + dataset);
+        }
+    }
+
+    /**
+     * Opens the seeded database for the dataset, building it first if needed.
+     */
+    static DatabaseManager open(String backend, String dataset) throws IOException, SQLException {
+        Path db = DATA_DIR.resolve(backend + "-" + dataset + ".db");
+        boolean seeded = Files.exists(db) && SEED_VERSION.equals(readSetting(db, "benchmark_seed"));
+        if (!seeded) {
+            delete(db);
+        }
+        DatabaseManager manager = configure(db, backend);
+        if (!seeded) {
+            seed(manager, spanOf(dataset));
+            manager.saveSetting("benchmark_seed", SEED_VERSION);
+        }
+        return manager;
+    }
+
+    /**
+     * Opens an empty database, replacing any previous one with the same name.
+     */
+    static DatabaseManager openEmpty(String name, String backend) throws IOException {
+        Path db = DATA_DIR.resolve(name + "-" + backend + ".db");
+        delete(db);
+        return configure(db, backend);
+    }
+
+    private static DatabaseManager configure(Path db, String backend) throws IOException {
+        Files.createDirectories(DATA_DIR);
+        DatabaseManager.configure(db.toString(), false, backend);
+        return DatabaseManager.getInstance();
+    }
+
+    private static void seed(DatabaseManager manager, long spanMillis) {
+        new SyntheticLoader(manager, new SyntheticTraffic(SyntheticTraffic.DEFAULT_SEED, 0))
+                .fill(END_MILLIS - spanMillis, END_MILLIS, SAMPLE_SPACING_MS, written -> {
+                });
+    }
+
+    private static String readSetting(Path db, String key) {
+        try (Connection connection = DriverManager.getConnection("jdbc:sqlite:" + db);
+                PreparedStatement pstmt = connection.prepareStatement("SELECT value FROM settings WHERE key = ?")) {
+            pstmt.setString(1, key);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                return rs.next() ? rs.getString(1) : null;
+            }
+        } catch (SQLException e) {
+            return null;
+        }
+    }
+
+    private static void delete(Path db) throws IOException {
+        for (String suffix : new String[] { "", "-wal", "-shm" }) {
+            Files.deleteIfExists(Paths.get(db + suffix));
+        }
+        Path segments = Paths.get(db + ".segments");
+        if (Files.isDirectory(segments)) {
+            try (Stream<Path> files = Files.walk(segments)) {
+                for (Path path : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator) {
+                    Files.delete(path);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,55 @@
+package com.networkmonitor.benchmark;
+
+import com.networkmonitor.model.UsageRecord;
+import com.networkmonitor.service.NetworkCollector;
+import com.networkmonitor.service.NetworkTracker;
+import com.networkmonitor.service.OshiNetworkCollector;
+import com.networkmonitor.service.ProcNetDevCollector;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One sampler tick per collector backend. Run with -prof gc (the profile's
+ * default) to see the allocation per tick.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class NetworkTrackerBenchmark {
+
+    @Param({ "proc", "oshi" })
+    public String collector;
+
+    private NetworkTracker tracker;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        NetworkCollector source = collector.equals("proc")
+                ? new ProcNetDevCollector(Path.of(ProcNetDevCollector.DEFAULT_PATH))
+                : new OshiNetworkCollector();
+        tracker = new NetworkTracker(source);
+        // The first call only establishes the baseline counters
+        tracker.getNetworkUsageDelta();
+    }
+
+    @Benchmark
+    public UsageRecord getNetworkUsageDelta() {
+        return tracker.getNetworkUsageDelta();
+    }
+}
@@ -0,0 +1,88 @@
+package com.networkmonitor.benchmark;
+
+import com.networkmonitor.model.UsageRecord;
+import com.networkmonitor.service.DatabaseManager;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Dashboard read paths against databases holding an hour, a month and a
+ * year of samples, on each storage backend.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class QueryBenchmark {
+
+    // The chart asks for four buckets per pixel of an 800 px wide plot
+    private static final int CHART_BUCKETS = 3200;
+
+    @Param({ "hour", "month", "year" })
+    public String dataset;
+
+    @Param({ "sqlite", "segments" })
+    public String backend;
+
+    private DatabaseManager databaseManager;
+    private long start;
+    private long end;
+    private long chartInterval;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        databaseManager = BenchmarkDatabases.open(backend, dataset);
+        end = BenchmarkDatabases.END_MILLIS;
+        start = end - BenchmarkDatabases.spanOf(dataset);
+        chartInterval = Math.max(1000, (end - start) / CHART_BUCKETS);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        databaseManager.closeConnection();
+    }
+
+    /** Raw samples of the last hour, as the live chart reseeds them. */
+    @Benchmark
+    public List<UsageRecord> getUsageInRangeLastHour() {
+        return databaseManager.getUsageInRange(end - BenchmarkDatabases.HOUR_MS, end);
+    }
+
+    /** Chart buckets the way the history view asks for them. */
+    @Benchmark
+    public List<UsageRecord> getAggregatedUsageChart() {
+        return databaseManager.getAggregatedUsage(start, end, chartInterval);
+    }
+
+    /** Hourly buckets, answered from the rollups. */
+    @Benchmark
+    public List<UsageRecord> getAggregatedUsageHourly() {
+        return databaseManager.getAggregatedUsage(start, end, BenchmarkDatabases.HOUR_MS);
+    }
+
+    @Benchmark
+    public UsageRecord getTotalUsage() {
+        return databaseManager.getTotalUsage(start, end);
+    }
+
+    @Benchmark
+    public List<UsageRecord> getDailyUsage() {
+        return databaseManager.getDailyUsage(start, end);
+    }
+}
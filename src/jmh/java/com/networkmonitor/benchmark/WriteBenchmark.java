@@ -0,0 +1,80 @@
+package com.networkmonitor.benchmark;
+
+import com.networkmonitor.model.UsageRecord;
+import com.networkmonitor.service.DatabaseManager;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sample ingest: what the sampler thread pays per insertUsage call, and the
+ * cost per sample of writing one sample per transaction versus a batch.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class WriteBenchmark {
+
+    private static final int BATCH_SIZE = 64;
+
+    @Param({ "sqlite", "segments" })
+    public String backend;
+
+    private DatabaseManager databaseManager;
+    private long timestamp;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        databaseManager = BenchmarkDatabases.openEmpty("write", backend);
+        timestamp = BenchmarkDatabases.END_MILLIS;
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        databaseManager.closeConnection();
+    }
+
+    private UsageRecord nextSample() {
+        timestamp += BenchmarkDatabases.SAMPLE_SPACING_MS;
+        return new UsageRecord(timestamp, 123_456, 7_890);
+    }
+
+    /** The sampler's cost: the write itself happens on the flush thread. */
+    @Benchmark
+    public void insertUsage() {
+        databaseManager.insertUsage(nextSample());
+    }
+
+    /** One transaction per sample. */
+    @Benchmark
+    public void insertSingle() {
+        databaseManager.insertUsage(nextSample());
+        databaseManager.flushPendingWrites();
+    }
+
+    /** One transaction per 64 samples, the default flush batch. */
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    public void insertBatched() {
+        for (int i = 0; i < BATCH_SIZE; i++) {
+            databaseManager.insertUsage(nextSample());
+        }
+        databaseManager.flushPendingWrites();
+    }
+}
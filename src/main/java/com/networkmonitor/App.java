@@ -1,5 +1,6 @@
 package com.networkmonitor;
 
+import com.networkmonitor.ui.DashboardController;
 import javafx.application.Application;
 import javafx.fxml.FXMLLoader;
 import javafx.scene.Parent;
@@ -11,6 +12,7 @@ import java.io.IOException;
 public class App extends Application {
 
     private static Scene scene;
+    private static DashboardController controller;
 
     @Override
     public void start(Stage stage) throws IOException {
@@ -27,11 +29,17 @@ public class App extends Application {
 
     private static Parent loadFXML(String fxml) throws IOException {
         FXMLLoader fxmlLoader = new FXMLLoader(App.class.getResource("/" + fxml + ".fxml"));
-        return fxmlLoader.load();
+        Parent root = fxmlLoader.load();
+        controller = fxmlLoader.getController();
+        return root;
     }
 
     @Override
     public void stop() {
+        // Store any buffered samples before the connection goes away
+        if (controller != null) {
+            controller.shutdown();
+        }
         // Close database connection
         com.networkmonitor.service.DatabaseManager.getInstance().closeConnection();
         // Force exit to kill any background threads (like the executor in controller)
@@ -40,7 +48,7 @@ public class App extends Application {
 
     public static void main(String[] args) {
         try {
-            launch();
+            launch(args);
         } catch (Exception e) {
             e.printStackTrace();
         }
@@ -0,0 +1,80 @@
+package com.networkmonitor;
+
+import com.networkmonitor.service.AggregatorService;
+import com.networkmonitor.service.AnomalyDetector;
+import com.networkmonitor.service.CollectorService;
+import com.networkmonitor.service.DatabaseManager;
+import com.networkmonitor.service.Diagnostics;
+import com.networkmonitor.service.MetricsServer;
+import com.networkmonitor.service.ProcessAttributor;
+import com.networkmonitor.service.QuotaAccountant;
+import com.networkmonitor.service.SampleFeed;
+import com.networkmonitor.service.UsagePusher;
+
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Runs the collector without any UI. Samples are stored exactly as in the
+ * desktop app, so a viewer started with --viewer can attach to the same
+ * database read-only. With --aggregate the samples come from other machines'
+ * pushers instead.
+ */
+public class CollectorDaemon {
+
+    public static void run() {
+        DatabaseManager databaseManager = DatabaseManager.getInstance();
+        int aggregatorPort = AggregatorService.configuredPort();
+        SampleFeed feed = aggregatorPort > 0
+                ? new AggregatorService(databaseManager, aggregatorPort)
+                : new CollectorService(databaseManager);
+        QuotaAccountant quotaAccountant = feed.getQuotaAccountant();
+        CountDownLatch stopped = new CountDownLatch(1);
+
+        feed.addListener((record, intervalNanos) -> {
+            if (quotaAccountant.shouldAlert()) {
+                System.err.println(String.format("Quota alert: %.2f GB of %.1f GB used (%d%% threshold)",
+                        quotaAccountant.getUsedGB(), quotaAccountant.getMonthlyQuotaGB(),
+                        quotaAccountant.getAlertThresholdPercent()));
+                quotaAccountant.saveAlertState();
+            }
+        });
+
+        MetricsServer metricsServer = MetricsServer.startIfEnabled(feed, databaseManager);
+        ProcessAttributor processAttributor = ProcessAttributor.startIfEnabled(feed, databaseManager);
+        UsagePusher pusher = UsagePusher.startIfEnabled(feed, databaseManager);
+        AnomalyDetector anomalyDetector = AnomalyDetector.start(feed, databaseManager);
+        feed.addListener((record, intervalNanos) -> {
+            AnomalyDetector.Anomaly anomaly;
+            while ((anomaly = anomalyDetector.pollAlert()) != null) {
+                System.err.println("Traffic alert: " + anomaly);
+            }
+        });
+
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            if (metricsServer != null) {
+                metricsServer.stop();
+            }
+            if (processAttributor != null) {
+                processAttributor.stop();
+            }
+            feed.stop();
+            if (pusher != null) {
+                // After the collector, so its last samples go too
+                pusher.stop();
+            }
+            databaseManager.closeConnection();
+            System.out.print(Diagnostics.report());
+            stopped.countDown();
+        }, "collector-shutdown"));
+
+        feed.start();
+        System.out.println((aggregatorPort > 0 ? "Aggregating every " : "Collecting every ")
+                + feed.getSampleIntervalMillis() + " ms; stop with Ctrl+C");
+
+        try {
+            stopped.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
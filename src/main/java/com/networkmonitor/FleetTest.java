@@ -0,0 +1,128 @@
+package com.networkmonitor;
+
+import com.networkmonitor.model.UsageRecord;
+import com.networkmonitor.service.AggregatorService;
+import com.networkmonitor.service.DatabaseManager;
+import com.networkmonitor.service.Diagnostics;
+import com.networkmonitor.service.SyntheticTraffic;
+import com.networkmonitor.service.UsagePusher;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs an aggregator and the given number of pushers in one process, all
+ * over localhost. Each simulated host pushes a synthetic sample every
+ * {@value #HOST_SAMPLE_INTERVAL_MS} ms for {@value #DURATION_MS} ms, far
+ * more often than a real collector, to load the aggregator. At the end the
+ * stored per-host totals are checked against what each host generated, and
+ * the aggregator's record rate and CPU time are reported. Meant for a
+ * scratch database: the samples are left behind.
+ */
+public class FleetTest {
+
+    private static final long DURATION_MS = 60 * 1000;
+    private static final long HOST_SAMPLE_INTERVAL_MS = 10;
+
+    /**
+     * @return the process exit code: 0 if every host's totals matched
+     */
+    public static int run(int hosts) {
+        DatabaseManager databaseManager = DatabaseManager.getInstance();
+        long testStart = System.currentTimeMillis();
+        AggregatorService aggregator = new AggregatorService(databaseManager, 0);
+        aggregator.start();
+        if (aggregator.getPort() == 0) {
+            return 1;
+        }
+
+        List<UsagePusher> pushers = new ArrayList<>(hosts);
+        List<SyntheticTraffic> traffic = new ArrayList<>(hosts);
+        long[][] generated = new long[hosts][2];
+        for (int i = 0; i < hosts; i++) {
+            UsagePusher pusher = new UsagePusher(String.format("host-%03d", i), "127.0.0.1", aggregator.getPort());
+            pusher.start();
+            pushers.add(pusher);
+            traffic.add(new SyntheticTraffic(SyntheticTraffic.DEFAULT_SEED + i));
+        }
+
+        ScheduledExecutorService generator = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "fleet-traffic");
+            t.setDaemon(true);
+            return t;
+        });
+        long[] bytes = new long[2];
+        generator.scheduleAtFixedRate(() -> {
+            long now = System.currentTimeMillis();
+            for (int i = 0; i < hosts; i++) {
+                traffic.get(i).bytes(0, now, HOST_SAMPLE_INTERVAL_MS, bytes);
+                generated[i][0] += bytes[0];
+                generated[i][1] += bytes[1];
+                pushers.get(i).onSample(new UsageRecord(now, bytes[0], bytes[1]),
+                        TimeUnit.MILLISECONDS.toNanos(HOST_SAMPLE_INTERVAL_MS));
+            }
+        }, 0, HOST_SAMPLE_INTERVAL_MS, TimeUnit.MILLISECONDS);
+
+        System.out.println("Fleet test: " + hosts + " hosts pushing a sample every " + HOST_SAMPLE_INTERVAL_MS
+                + " ms to port " + aggregator.getPort() + " for " + DURATION_MS / 1000 + " s");
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        long ioThreadId = -1;
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            if (thread.getName().equals("aggregator-io")) {
+                ioThreadId = thread.getId();
+            }
+        }
+        try {
+            Thread.sleep(DURATION_MS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        long ioCpuNanos = ioThreadId >= 0 ? threads.getThreadCpuTime(ioThreadId) : -1;
+        long wallMillis = System.currentTimeMillis() - testStart;
+
+        generator.shutdownNow();
+        try {
+            generator.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        for (UsagePusher pusher : pushers) {
+            pusher.stop();
+        }
+        aggregator.stop();
+        databaseManager.flushPendingWrites();
+
+        System.out.print(Diagnostics.report());
+        long records = Diagnostics.counter("aggregator.records").get();
+        System.out.println(String.format("Aggregator: %d records, %.0f records/s, I/O thread CPU %.1f%% of one core",
+                records, records * 1000.0 / wallMillis, ioCpuNanos / 1e4 / wallMillis));
+
+        Map<String, UsageRecord> stored = databaseManager.getUsageByInterface(testStart, Long.MAX_VALUE);
+        int mismatched = 0;
+        long expectedTotal = 0;
+        for (int i = 0; i < hosts; i++) {
+            UsageRecord host = stored.get(pushers.get(i).getHostName());
+            expectedTotal += generated[i][0] + generated[i][1];
+            if (host == null || host.getDownloadBytes() != generated[i][0]
+                    || host.getUploadBytes() != generated[i][1]) {
+                mismatched++;
+                System.out.println(pushers.get(i).getHostName() + ": generated " + generated[i][0] + " down, "
+                        + generated[i][1] + " up; stored " + (host == null ? "nothing" : host.getDownloadBytes()
+                                + " down, " + host.getUploadBytes() + " up"));
+            }
+        }
+        UsageRecord fleet = databaseManager.getTotalUsage(testStart, Long.MAX_VALUE);
+        boolean ok = mismatched == 0 && fleet.getDownloadBytes() + fleet.getUploadBytes() == expectedTotal;
+        System.out.println("Fleet total: generated " + expectedTotal + " bytes, stored "
+                + (fleet.getDownloadBytes() + fleet.getUploadBytes()));
+        System.out.println(ok ? "Totals match" : "Totals DIFFER (" + mismatched + " hosts)");
+        databaseManager.closeConnection();
+        return ok ? 0 : 1;
+    }
+}
@@ -0,0 +1,46 @@
+package com.networkmonitor;
+
+import com.networkmonitor.service.DatabaseManager;
+import com.networkmonitor.service.SyntheticLoader;
+import com.networkmonitor.service.SyntheticTraffic;
+
+/**
+ * Fills an empty database with generated history ending now, for testing at
+ * production scale. The seed can be set with -Dnetworkmonitor.synthetic.seed.
+ */
+public class HistoryGenerator {
+
+    private static final long DAY_MS = 24 * 60 * 60 * 1000L;
+
+    /**
+     * @return the process exit code
+     */
+    public static int run(long days, long intervalMillis) {
+        DatabaseManager databaseManager = DatabaseManager.getInstance();
+        SyntheticTraffic traffic = new SyntheticTraffic(
+                Long.getLong("networkmonitor.synthetic.seed", SyntheticTraffic.DEFAULT_SEED));
+        long end = System.currentTimeMillis() / intervalMillis * intervalMillis;
+        long start = end - days * DAY_MS;
+        long total = (end - start) / intervalMillis;
+        long step = Math.max(1, total / 20);
+        long[] nextReport = { step };
+
+        System.out.println("Generating " + total + " samples (" + days + " days every " + intervalMillis +
+                " ms, " + traffic.getInterfaceCount() + " interfaces each)");
+        long started = System.nanoTime();
+        long written = new SyntheticLoader(databaseManager, traffic).fill(start, end, intervalMillis, done -> {
+            if (done >= nextReport[0]) {
+                System.out.println(String.format("  %d%%", done * 100 / total));
+                nextReport[0] += step;
+            }
+        });
+        databaseManager.closeConnection();
+        if (written < 0) {
+            return 1;
+        }
+        double seconds = (System.nanoTime() - started) / 1e9;
+        System.out.println(String.format("Generated %d samples in %.1f s (%.0f samples/s)",
+                written, seconds, written / seconds));
+        return 0;
+    }
+}
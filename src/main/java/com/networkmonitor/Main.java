@@ -1,7 +1,109 @@
 package com.networkmonitor;
 
+import com.networkmonitor.service.DatabaseManager;
+import com.networkmonitor.service.UsageStore;
+
+import java.util.ArrayList;
+import java.util.List;
+
 public class Main {
     public static void main(String[] args) {
-        App.main(args);
+        boolean headless = false;
+        boolean viewer = false;
+        String dbPath = null;
+        String store = null;
+        long generateDays = 0;
+        long soakMinutes = 0;
+        long fleetTestHosts = 0;
+        boolean aggregate = false;
+        boolean push = false;
+        long intervalMillis = DatabaseManager.DEFAULT_SAMPLE_INTERVAL_MS;
+        List<String> appArgs = new ArrayList<>();
+        for (String arg : args) {
+            if (arg.equals("--headless")) {
+                headless = true;
+            } else if (arg.equals("--viewer")) {
+                viewer = true;
+            } else if (arg.startsWith("--db=")) {
+                dbPath = arg.substring("--db=".length());
+            } else if (arg.startsWith("--store=")) {
+                store = arg.substring("--store=".length());
+            } else if (arg.startsWith("--generate=")) {
+                generateDays = parsePositive(arg, "--generate=");
+            } else if (arg.startsWith("--soak=")) {
+                soakMinutes = parsePositive(arg, "--soak=");
+            } else if (arg.startsWith("--interval=")) {
+                intervalMillis = parsePositive(arg, "--interval=");
+            } else if (arg.startsWith("--fleet-test=")) {
+                fleetTestHosts = parsePositive(arg, "--fleet-test=");
+            } else if (arg.startsWith("--aggregate=")) {
+                // Read by AggregatorService.configuredPort()
+                aggregate = true;
+                System.setProperty("networkmonitor.aggregator.port",
+                        String.valueOf(parsePositive(arg, "--aggregate=")));
+            } else if (arg.startsWith("--push=")) {
+                // Read by UsagePusher; overrides the push_target setting for this run
+                push = true;
+                System.setProperty("networkmonitor.push.target", arg.substring("--push=".length()));
+            } else if (arg.startsWith("--metrics=")) {
+                // Read by MetricsServer; overrides the metrics_port setting for this run
+                System.setProperty("networkmonitor.metrics.port", String.valueOf(parsePositive(arg, "--metrics=")));
+            } else {
+                appArgs.add(arg);
+            }
+        }
+
+        if (store != null && !store.equals(UsageStore.SQLITE) && !store.equals(UsageStore.SEGMENTS)) {
+            System.err.println("Error: --store must be " + UsageStore.SQLITE + " or " + UsageStore.SEGMENTS);
+            System.exit(1);
+        }
+        if (store != null && viewer) {
+            System.err.println("Error: --viewer uses the store chosen by the collector; drop --store");
+            System.exit(1);
+        }
+        int modes = (headless ? 1 : 0) + (viewer ? 1 : 0) + (generateDays > 0 ? 1 : 0) + (soakMinutes > 0 ? 1 : 0)
+                + (fleetTestHosts > 0 ? 1 : 0);
+        if (modes > 1) {
+            System.err.println("Error: --headless, --viewer, --generate, --soak and --fleet-test cannot be combined");
+            System.exit(1);
+        }
+        if (aggregate && (push || viewer || generateDays > 0 || soakMinutes > 0 || fleetTestHosts > 0)) {
+            System.err.println("Error: --aggregate only combines with --headless, --db, --store and --metrics");
+            System.exit(1);
+        }
+        if ((soakMinutes > 0 || fleetTestHosts > 0) && dbPath == null) {
+            // The soak leaves its samples behind, so never point it at real data by default
+            System.err.println("Error: --soak and --fleet-test need a scratch database given with --db");
+            System.exit(1);
+        }
+        if (dbPath != null || viewer || store != null) {
+            DatabaseManager.configure(dbPath != null ? dbPath : DatabaseManager.DEFAULT_DB_PATH, viewer, store);
+        }
+
+        if (generateDays > 0) {
+            System.exit(HistoryGenerator.run(generateDays, intervalMillis));
+        } else if (soakMinutes > 0) {
+            System.exit(SoakTest.run(soakMinutes * 60 * 1000, intervalMillis));
+        } else if (fleetTestHosts > 0) {
+            System.exit(FleetTest.run((int) fleetTestHosts));
+        } else if (headless) {
+            // Kept apart from App so no JavaFX classes are loaded
+            CollectorDaemon.run();
+        } else {
+            App.main(appArgs.toArray(new String[0]));
+        }
+    }
+
+    private static long parsePositive(String arg, String prefix) {
+        try {
+            long value = Long.parseLong(arg.substring(prefix.length()));
+            if (value > 0) {
+                return value;
+            }
+        } catch (NumberFormatException ignored) {
+        }
+        System.err.println("Error: " + prefix + " needs a positive number");
+        System.exit(1);
+        return 0;
     }
 }
@@ -0,0 +1,174 @@
+package com.networkmonitor;
+
+import com.networkmonitor.model.UsageRecord;
+import com.networkmonitor.service.CollectorService;
+import com.networkmonitor.service.DatabaseManager;
+import com.networkmonitor.service.Diagnostics;
+import com.networkmonitor.service.LatencyHistogram;
+import com.networkmonitor.service.NetworkCollector;
+import com.networkmonitor.service.QuotaAccountant;
+import com.networkmonitor.service.SyntheticNetworkCollector;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs the collector for a long time against generated traffic, together
+ * with the quota check and the dashboard's chart queries, and reports tick
+ * and query latency and the heap left after a full GC once a minute. At the
+ * end the totals the tracker reported and the ones stored are checked
+ * against the traffic the synthetic collector knows it generated.
+ * Meant for a scratch database: the samples are left behind.
+ */
+public class SoakTest {
+
+    private static final long REPORT_INTERVAL_MS = 60 * 1000;
+    private static final long QUERY_INTERVAL_MS = 5 * 1000;
+    private static final long HOUR_MS = 60 * 60 * 1000L;
+    // As the history chart asks: four buckets per pixel of an 800 px plot
+    private static final int CHART_BUCKETS = 3200;
+
+    /**
+     * @return the process exit code: 0 if the totals matched
+     */
+    public static int run(long durationMillis, long sampleIntervalMillis) {
+        if (System.getProperty("networkmonitor.collector") == null) {
+            System.setProperty("networkmonitor.collector", "synthetic");
+            System.setProperty("networkmonitor.synthetic.step", String.valueOf(sampleIntervalMillis));
+        }
+
+        DatabaseManager databaseManager = DatabaseManager.getInstance();
+        databaseManager.saveSetting("sample_interval_ms", String.valueOf(sampleIntervalMillis));
+        long soakStart = System.currentTimeMillis();
+        CollectorService collector = new CollectorService(databaseManager);
+        QuotaAccountant quotaAccountant = collector.getQuotaAccountant();
+        NetworkCollector source = collector.getNetworkTracker().getCollector();
+
+        LatencyHistogram tickWindow = new LatencyHistogram();
+        LatencyHistogram tickTotal = new LatencyHistogram();
+        LatencyHistogram queryWindow = new LatencyHistogram();
+        LatencyHistogram queryTotal = new LatencyHistogram();
+        AtomicLong trackedDown = new AtomicLong();
+        AtomicLong trackedUp = new AtomicLong();
+
+        collector.addListener((record, intervalNanos) -> {
+            long tickNanos = collector.getLastTickNanos();
+            tickWindow.record(tickNanos);
+            tickTotal.record(tickNanos);
+            trackedDown.addAndGet(record.getDownloadBytes());
+            trackedUp.addAndGet(record.getUploadBytes());
+            // What the dashboard and the daemon do after every sample
+            if (quotaAccountant.shouldAlert()) {
+                quotaAccountant.saveAlertState();
+            }
+        });
+
+        ScheduledExecutorService queryExecutor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "soak-queries");
+            t.setDaemon(true);
+            return t;
+        });
+        queryExecutor.scheduleWithFixedDelay(() -> {
+            try {
+                long started = System.nanoTime();
+                runChartQueries(databaseManager, quotaAccountant);
+                long queryNanos = System.nanoTime() - started;
+                queryWindow.record(queryNanos);
+                queryTotal.record(queryNanos);
+            } catch (RuntimeException e) {
+                System.err.println("Error running soak queries: " + e.getMessage());
+            }
+        }, QUERY_INTERVAL_MS, QUERY_INTERVAL_MS, TimeUnit.MILLISECONDS);
+
+        System.out.println("Soak test: sampling every " + sampleIntervalMillis + " ms with the " +
+                source.getName() + " collector for " + durationMillis / 60000 + " min");
+        collector.start();
+
+        List<double[]> heapPoints = new ArrayList<>();
+        long deadline = soakStart + durationMillis;
+        try {
+            while (System.currentTimeMillis() < deadline) {
+                Thread.sleep(Math.min(REPORT_INTERVAL_MS, Math.max(1, deadline - System.currentTimeMillis())));
+                double heapMB = heapAfterGcMB();
+                double hours = (System.currentTimeMillis() - soakStart) / (double) HOUR_MS;
+                heapPoints.add(new double[] { hours, heapMB });
+                System.out.println(String.format("[%6.1f min] ticks %s | queries %s | heap %.1f MB",
+                        hours * 60, tickWindow.summary(), queryWindow.summary(), heapMB));
+                tickWindow.reset();
+                queryWindow.reset();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        queryExecutor.shutdownNow();
+        collector.stop();
+        databaseManager.flushPendingWrites();
+
+        System.out.print(Diagnostics.report());
+        System.out.println("Ticks:   " + tickTotal.summary());
+        System.out.println("Queries: " + queryTotal.summary());
+        if (heapPoints.size() >= 2) {
+            System.out.println(String.format("Heap after GC: %.1f MB -> %.1f MB, trend %+.2f MB/hour",
+                    heapPoints.get(0)[1], heapPoints.get(heapPoints.size() - 1)[1], slope(heapPoints)));
+        }
+
+        UsageRecord stored = databaseManager.getTotalUsage(soakStart, System.currentTimeMillis());
+        System.out.println("Tracked: " + trackedDown.get() + " down, " + trackedUp.get() + " up");
+        System.out.println("Stored:  " + stored.getDownloadBytes() + " down, " + stored.getUploadBytes() + " up");
+        boolean ok = stored.getDownloadBytes() == trackedDown.get() && stored.getUploadBytes() == trackedUp.get();
+        if (source instanceof SyntheticNetworkCollector) {
+            SyntheticNetworkCollector synthetic = (SyntheticNetworkCollector) source;
+            long[] expected = synthetic.getExpectedBytes();
+            System.out.println("Expected: " + expected[0] + " down, " + expected[1] + " up (" +
+                    synthetic.getSampleCount() + " samples, " + synthetic.getGeneratedBytes() + " bytes generated)");
+            ok = ok && expected[0] == trackedDown.get() && expected[1] == trackedUp.get();
+        }
+        System.out.println(ok ? "Totals match" : "Totals DIFFER");
+        databaseManager.closeConnection();
+        return ok ? 0 : 1;
+    }
+
+    /**
+     * The queries the dashboard issues while open: the live window, the
+     * history chart, the daily table and the month-to-date total.
+     */
+    private static void runChartQueries(DatabaseManager databaseManager, QuotaAccountant quotaAccountant) {
+        long now = System.currentTimeMillis();
+        databaseManager.getUsageInRange(now - 5 * 60 * 1000, now);
+        long dayStart = now - 24 * HOUR_MS;
+        databaseManager.getAggregatedUsage(dayStart, now, Math.max(1000, (now - dayStart) / CHART_BUCKETS));
+        databaseManager.getDailyUsage(now - 30 * 24 * HOUR_MS, now);
+        databaseManager.getUsageByInterface(dayStart, now);
+        quotaAccountant.getProgress();
+    }
+
+    private static double heapAfterGcMB() {
+        System.gc();
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed() / (1024.0 * 1024.0);
+    }
+
+    /**
+     * Least-squares slope of {x, y} points.
+     */
+    private static double slope(List<double[]> points) {
+        double n = points.size();
+        double sumX = 0;
+        double sumY = 0;
+        double sumXY = 0;
+        double sumXX = 0;
+        for (double[] p : points) {
+            sumX += p[0];
+            sumY += p[1];
+            sumXY += p[0] * p[1];
+            sumXX += p[0] * p[0];
+        }
+        double denominator = n * sumXX - sumX * sumX;
+        return denominator == 0 ? 0 : (n * sumXY - sumX * sumY) / denominator;
+    }
+}
@@ -0,0 +1,24 @@
+package com.networkmonitor.model;
+
+public class InterfaceUsageRecord extends UsageRecord {
+    private String interfaceName;
+
+    public InterfaceUsageRecord(String interfaceName, long timestamp, long downloadBytes, long uploadBytes) {
+        super(timestamp, downloadBytes, uploadBytes);
+        this.interfaceName = interfaceName;
+    }
+
+    public String getInterfaceName() {
+        return interfaceName;
+    }
+
+    @Override
+    public String toString() {
+        return "InterfaceUsageRecord{" +
+                "interfaceName='" + interfaceName + '\'' +
+                ", timestamp=" + getTimestamp() +
+                ", downloadBytes=" + getDownloadBytes() +
+                ", uploadBytes=" + getUploadBytes() +
+                '}';
+    }
+}
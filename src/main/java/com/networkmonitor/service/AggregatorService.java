@@ -0,0 +1,454 @@
+package com.networkmonitor.service;
+
+import com.networkmonitor.model.InterfaceUsageRecord;
+import com.networkmonitor.model.UsageRecord;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Feed for a fleet: instead of sampling this machine, accepts usage pushed
+ * by {@link UsagePusher}s on other machines (see {@link PushProtocol}) and
+ * turns it into one fleet-wide sample per tick. Each host is stored as an
+ * interface of that sample, so the fleet total is what the chart, rollups,
+ * quota and exports see, and per-host totals come from
+ * {@link DatabaseManager#getUsageByInterface}.
+ * <p>
+ * One thread does all the work with non-blocking I/O: it accepts
+ * connections, decodes batches into per-host tick totals and stores each
+ * tick once it is {@value #LATENESS_MS} ms old, so pushes from all hosts for
+ * that tick have arrived. Records older than that, such as a backlog sent
+ * after an outage, are stored at their own tick on the next pass: the rollups
+ * add them to the buckets already written, and they are not passed to
+ * listeners, which follow the live feed. Records from a clock ahead of this
+ * one go to the current tick.
+ * <p>
+ * Each batch is answered with the newest timestamp of that host's records
+ * that has been stored and flushed, so a pusher only forgets records that
+ * survive a crash here. Records at or before a host's newest accepted
+ * timestamp are dropped as repeats; the stored watermarks are kept in the
+ * database so that holds across restarts too.
+ */
+public class AggregatorService implements SampleFeed {
+
+    // Longer than the pushers' interval plus a slow round trip
+    public static final long LATENESS_MS = 10_000;
+    private static final int READ_BUFFER_BYTES = 64 * 1024;
+    private static final long STOP_TIMEOUT_MS = 5000;
+    // Room for a whole fleet reconnecting at once after a restart
+    private static final int ACCEPT_BACKLOG = 1024;
+
+    private static final Diagnostics.Stage BATCH_STAGE = Diagnostics.stage("aggregator.batch");
+    private static final Diagnostics.Stage EMIT_STAGE = Diagnostics.stage("aggregator.emit");
+    private static final Diagnostics.Counter RECORDS = Diagnostics.counter("aggregator.records");
+    private static final Diagnostics.Counter LATE_RECORDS = Diagnostics.counter("aggregator.lateRecords");
+    private static final Diagnostics.Counter REPEATED_RECORDS = Diagnostics.counter("aggregator.repeatedRecords");
+    private static final Diagnostics.Counter PROTOCOL_ERRORS = Diagnostics.counter("aggregator.protocolErrors");
+
+    /** Records of one batch, decoded before any of them is applied. */
+    private static final class DecodedBatch implements PushProtocol.RecordVisitor {
+        long[] timestamps = new long[256];
+        long[] downloads = new long[256];
+        long[] uploads = new long[256];
+        int size;
+
+        @Override
+        public void visit(long timestamp, long downloadBytes, long uploadBytes) {
+            if (size == timestamps.length) {
+                timestamps = Arrays.copyOf(timestamps, size * 2);
+                downloads = Arrays.copyOf(downloads, size * 2);
+                uploads = Arrays.copyOf(uploads, size * 2);
+            }
+            timestamps[size] = timestamp;
+            downloads[size] = downloadBytes;
+            uploads[size] = uploadBytes;
+            size++;
+        }
+    }
+
+    /** State of one pusher connection, owned by the I/O thread. */
+    private static final class Connection {
+        final SocketChannel channel;
+        ByteBuffer in = ByteBuffer.allocate(READ_BUFFER_BYTES);
+        ByteBuffer out;
+        String host; // null until HELLO
+
+        Connection(SocketChannel channel) {
+            this.channel = channel;
+        }
+    }
+
+    private final DatabaseManager databaseManager;
+    private final QuotaAccountant quotaAccountant;
+    private final RetentionService retentionService;
+    private final List<SampleListener> listeners = new CopyOnWriteArrayList<>();
+    private final int requestedPort;
+    private final long tickMillis;
+    private ServerSocketChannel server;
+    private Selector selector;
+    private Thread ioThread;
+    private volatile boolean running;
+
+    // Owned by the I/O thread. Per host in a tick: {download, upload, newest timestamp}
+    private final TreeMap<Long, Map<String, long[]>> openTicks = new TreeMap<>();
+    private final Map<String, Long> lastTimestampByHost;
+    // Newest timestamp per host stored and flushed, and emitted but not yet flushed
+    private final Map<String, Long> storedTimestampByHost;
+    private final Map<String, Long> unflushedTimestampByHost = new HashMap<>();
+    private final DecodedBatch decoded = new DecodedBatch();
+    private long watermark = Long.MIN_VALUE;
+
+    /**
+     * @param port 0 picks a free one; see {@link #getPort()}
+     */
+    public AggregatorService(DatabaseManager databaseManager, int port) {
+        this.databaseManager = databaseManager;
+        this.requestedPort = port;
+        this.tickMillis = Math.max(CollectorService.PERSIST_PERIOD_MS,
+                databaseManager.getLongSetting("sample_interval_ms", DatabaseManager.DEFAULT_SAMPLE_INTERVAL_MS));
+        // Tells a viewer of this database that its interfaces are hosts
+        databaseManager.saveSetting("fleet_database", "true");
+        this.storedTimestampByHost = databaseManager.getPusherWatermarks();
+        this.lastTimestampByHost = new HashMap<>(storedTimestampByHost);
+        this.retentionService = new RetentionService(databaseManager);
+        retentionService.start();
+        this.quotaAccountant = new QuotaAccountant(databaseManager);
+    }
+
+    /**
+     * Port from -Dnetworkmonitor.aggregator.port, set by --aggregate.
+     *
+     * @return the port, or 0 when this process isn't an aggregator
+     */
+    public static int configuredPort() {
+        return Integer.getInteger("networkmonitor.aggregator.port", 0);
+    }
+
+    /**
+     * Starts listening on all addresses. Pushed data isn't authenticated, so
+     * the port belongs behind a firewall or on a private network.
+     */
+    @Override
+    public synchronized void start() {
+        if (ioThread != null) {
+            return;
+        }
+        try {
+            selector = Selector.open();
+            server = ServerSocketChannel.open();
+            server.bind(new InetSocketAddress(requestedPort), ACCEPT_BACKLOG);
+            server.configureBlocking(false);
+            server.register(selector, SelectionKey.OP_ACCEPT);
+        } catch (IOException e) {
+            System.err.println("Error starting aggregator: " + e.getMessage());
+            return;
+        }
+        running = true;
+        ioThread = new Thread(this::run, "aggregator-io");
+        ioThread.setDaemon(true);
+        ioThread.start();
+        System.out.println("Aggregating pushed usage on port " + getPort());
+    }
+
+    /**
+     * Closes every connection and stores all open ticks.
+     */
+    @Override
+    public synchronized void stop() {
+        retentionService.stop();
+        if (ioThread == null) {
+            return;
+        }
+        running = false;
+        selector.wakeup();
+        try {
+            ioThread.join(STOP_TIMEOUT_MS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        ioThread = null;
+    }
+
+    /** The port listened on, or 0 before start. */
+    public int getPort() {
+        return server == null ? 0 : server.socket().getLocalPort();
+    }
+
+    private void run() {
+        try {
+            while (running) {
+                long now = System.currentTimeMillis();
+                emitClosedTicks(now - LATENESS_MS);
+                flushEmitted();
+                // Wake for the next tick to close
+                selector.select(Math.max(1, tickMillis - Math.floorMod(now - LATENESS_MS, tickMillis)));
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if (!key.isValid()) {
+                        continue;
+                    }
+                    if (key.isAcceptable()) {
+                        accept();
+                    } else {
+                        Connection connection = (Connection) key.attachment();
+                        try {
+                            if (key.isReadable()) {
+                                read(key, connection);
+                            }
+                            if (key.isValid() && key.isWritable()) {
+                                write(key, connection);
+                            }
+                        } catch (IOException e) {
+                            if (e instanceof ProtocolException) {
+                                PROTOCOL_ERRORS.increment();
+                                System.err.println("Error from pusher " + describe(connection) + ": "
+                                        + e.getMessage());
+                            }
+                            close(key);
+                        }
+                    }
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            System.err.println("Error in aggregator: " + e.getMessage());
+        } finally {
+            for (SelectionKey key : selector.keys()) {
+                close(key);
+            }
+            try {
+                selector.close();
+            } catch (IOException ignored) {
+            }
+            emitClosedTicks(Long.MAX_VALUE);
+            flushEmitted();
+            quotaAccountant.checkpoint();
+        }
+    }
+
+    private void accept() throws IOException {
+        SocketChannel channel;
+        while ((channel = server.accept()) != null) {
+            channel.configureBlocking(false);
+            channel.socket().setTcpNoDelay(true);
+            channel.register(selector, SelectionKey.OP_READ, new Connection(channel));
+        }
+    }
+
+    private void read(SelectionKey key, Connection connection) throws IOException {
+        int read = connection.channel.read(connection.in);
+        if (read < 0) {
+            close(key);
+            return;
+        }
+        ByteBuffer in = connection.in;
+        in.flip();
+        boolean acked = false;
+        ByteBuffer payload;
+        while ((payload = PushProtocol.nextFrame(in)) != null) {
+            byte type = payload.get();
+            if (type == PushProtocol.HELLO && connection.host == null) {
+                connection.host = PushProtocol.readHello(payload);
+            } else if (type == PushProtocol.BATCH && connection.host != null) {
+                ingest(connection.host, payload);
+                acked = true;
+            } else {
+                throw new ProtocolException("Unexpected frame type " + type);
+            }
+        }
+        if (in.position() == 0 && in.limit() == in.capacity()) {
+            // A frame larger than the buffer: grow up to the largest allowed
+            ByteBuffer grown = ByteBuffer.allocate(Math.min(in.capacity() * 2, PushProtocol.MAX_FRAME_BYTES + 5));
+            grown.put(in);
+            connection.in = grown;
+        } else {
+            in.compact();
+        }
+        if (acked) {
+            queueAck(key, connection);
+        }
+    }
+
+    /**
+     * Adds a batch to the open ticks. The whole batch is decoded first, so a
+     * malformed one changes nothing and can be resent whole.
+     */
+    private void ingest(String host, ByteBuffer payload) throws ProtocolException {
+        long started = System.nanoTime();
+        decoded.size = 0;
+        PushProtocol.readBatch(payload, decoded);
+
+        long last = lastTimestampByHost.getOrDefault(host, Long.MIN_VALUE);
+        long currentTick = Math.floorDiv(System.currentTimeMillis(), tickMillis) * tickMillis;
+        for (int i = 0; i < decoded.size; i++) {
+            long timestamp = decoded.timestamps[i];
+            if (timestamp <= last) {
+                REPEATED_RECORDS.increment();
+                continue;
+            }
+            last = timestamp;
+            long tick = Math.floorDiv(timestamp, tickMillis) * tickMillis;
+            if (tick < watermark) {
+                LATE_RECORDS.increment();
+            } else if (tick > currentTick) {
+                tick = currentTick;
+            }
+            long[] totals = openTicks.computeIfAbsent(tick, t -> new HashMap<>())
+                    .computeIfAbsent(host, h -> new long[3]);
+            totals[0] += decoded.downloads[i];
+            totals[1] += decoded.uploads[i];
+            totals[2] = timestamp;
+        }
+        if (last != Long.MIN_VALUE) {
+            lastTimestampByHost.put(host, last);
+        }
+        RECORDS.add(decoded.size);
+        BATCH_STAGE.record(started, decoded.size);
+    }
+
+    private void queueAck(SelectionKey key, Connection connection) throws IOException {
+        byte[] ack = PushProtocol.ack(storedTimestampByHost.getOrDefault(connection.host, 0L));
+        if (connection.out != null && connection.out.hasRemaining()) {
+            // Still sending an earlier ack; the newer one supersedes it
+            ByteBuffer pending = ByteBuffer.allocate(connection.out.remaining() + ack.length);
+            pending.put(connection.out).put(ack).flip();
+            connection.out = pending;
+        } else {
+            connection.out = ByteBuffer.wrap(ack);
+        }
+        write(key, connection);
+    }
+
+    private void write(SelectionKey key, Connection connection) throws IOException {
+        connection.channel.write(connection.out);
+        key.interestOps(connection.out.hasRemaining()
+                ? SelectionKey.OP_READ | SelectionKey.OP_WRITE
+                : SelectionKey.OP_READ);
+    }
+
+    private void close(SelectionKey key) {
+        key.cancel();
+        try {
+            key.channel().close();
+        } catch (IOException ignored) {
+        }
+    }
+
+    private static String describe(Connection connection) {
+        if (connection.host != null) {
+            return connection.host;
+        }
+        try {
+            return String.valueOf(connection.channel.getRemoteAddress());
+        } catch (IOException e) {
+            return "?";
+        }
+    }
+
+    /**
+     * Stores every open tick that ends at or before the cutoff, in order.
+     */
+    private void emitClosedTicks(long cutoffMillis) {
+        long closedBefore = cutoffMillis == Long.MAX_VALUE ? Long.MAX_VALUE
+                : Math.floorDiv(cutoffMillis, tickMillis) * tickMillis;
+        while (!openTicks.isEmpty() && openTicks.firstKey() < closedBefore) {
+            Map.Entry<Long, Map<String, long[]>> tick = openTicks.pollFirstEntry();
+            emit(tick.getKey(), tick.getValue(), tick.getKey() >= watermark);
+        }
+        if (closedBefore != Long.MAX_VALUE) {
+            watermark = Math.max(watermark, closedBefore);
+        }
+    }
+
+    /**
+     * Writes the emitted ticks and, once they are on disk, advances the
+     * timestamps acknowledged to their hosts. A host's ticks are emitted in
+     * order, so everything it sent up to its newest emitted record is stored.
+     */
+    private void flushEmitted() {
+        if (unflushedTimestampByHost.isEmpty() || !databaseManager.flushPendingWrites()) {
+            return; // retried on the next pass
+        }
+        databaseManager.savePusherWatermarks(unflushedTimestampByHost);
+        storedTimestampByHost.putAll(unflushedTimestampByHost);
+        unflushedTimestampByHost.clear();
+    }
+
+    /**
+     * @param live false for a tick backfilled behind ones already emitted
+     */
+    private void emit(long tick, Map<String, long[]> hosts, boolean live) {
+        long started = System.nanoTime();
+        // The end of the tick, like a sample, but still inside its buckets
+        long timestamp = tick + tickMillis - 1;
+        long download = 0;
+        long upload = 0;
+        List<InterfaceUsageRecord> perHost = new ArrayList<>(hosts.size());
+        for (Map.Entry<String, long[]> host : hosts.entrySet()) {
+            perHost.add(new InterfaceUsageRecord(host.getKey(), timestamp, host.getValue()[0],
+                    host.getValue()[1]));
+            download += host.getValue()[0];
+            upload += host.getValue()[1];
+            unflushedTimestampByHost.merge(host.getKey(), host.getValue()[2], Math::max);
+        }
+        UsageRecord record = new UsageRecord(timestamp, download, upload);
+        try {
+            if (live) {
+                databaseManager.insertUsage(record, perHost);
+            } else {
+                // Not in the live buffer, which only takes samples in time order
+                databaseManager.persistUsage(record, perHost);
+            }
+            quotaAccountant.record(record);
+        } catch (RuntimeException e) {
+            System.err.println("Error storing fleet usage: " + e.getMessage());
+        }
+        if (!live) {
+            EMIT_STAGE.record(started, perHost.size());
+            return;
+        }
+        for (SampleListener listener : listeners) {
+            try {
+                listener.onSample(record, tickMillis * 1_000_000);
+            } catch (RuntimeException e) {
+                System.err.println("Error in sample listener: " + e.getMessage());
+            }
+        }
+        EMIT_STAGE.record(started, perHost.size());
+    }
+
+    @Override
+    public void addListener(SampleListener listener) {
+        listeners.add(listener);
+    }
+
+    @Override
+    public long getSampleIntervalMillis() {
+        return tickMillis;
+    }
+
+    @Override
+    public QuotaAccountant getQuotaAccountant() {
+        return quotaAccountant;
+    }
+
+    @Override
+    public boolean isReadOnly() {
+        return false;
+    }
+}
@@ -0,0 +1,362 @@
+package com.networkmonitor.service;
+
+import com.networkmonitor.model.UsageRecord;
+
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Flags traffic surges against what is normal for the hour of the week.
+ * For each direction a baseline of hourly average rates is kept per hour of
+ * the week (168 slots) as an exponentially weighted mean and variance of
+ * log rates, seeded from the hourly rollups of the last few weeks and
+ * updated as each hour completes. Every sample updates a one-minute moving
+ * average of the rate; when its log is more than the sensitivity in
+ * standard deviations above the slot's mean for a minute on end, and above
+ * {@value #MIN_ALERT_RATE} bytes/s, an {@link Anomaly} is raised. Work per
+ * sample is constant and nothing is read from the database after seeding.
+ * <p>
+ * Hours of the week seen fewer than {@value #MIN_SLOT_HOURS} times fall
+ * back to a baseline for the hour of the day, and nothing is flagged in an
+ * hour of the day seen fewer times than that. Hours are learned clipped to
+ * the threshold, so a surge doesn't become normal by itself. Sensitivity
+ * comes from the anomaly_sensitivity setting; 0 turns alerts off.
+ */
+public class AnomalyDetector implements SampleListener {
+
+    public static final double DEFAULT_SENSITIVITY = 4.0;
+    // Quieter traffic is never worth an alert, whatever its baseline
+    public static final double MIN_ALERT_RATE = 128 * 1024;
+    private static final long HOUR_MS = RollupTier.HOUR.getResolutionMillis();
+    // Hours of the week, then hours of the day as their fallback
+    private static final int SLOTS = 7 * 24;
+    private static final int DAY_SLOTS = 24;
+    private static final int SEED_WEEKS = 4;
+    // Moving average time constant and how long a surge must last
+    private static final double FAST_TAU_MS = 60_000;
+    private static final long SUSTAIN_MS = 60_000;
+    // Back under half the threshold this long before the next alert
+    private static final long REARM_MS = 10 * 60_000;
+    // Weight of a new hour in its slot: about the last month of weeks, or week of days
+    private static final double SLOT_ALPHA = 0.25;
+    private static final int MIN_SLOT_HOURS = 2;
+    // An hour needs this much coverage to be learned from
+    private static final double MIN_HOUR_COVERAGE = 0.5;
+    // Floor for the spread of log rates, so a steady baseline doesn't flag small changes
+    private static final double MIN_LOG_SD = 0.5;
+    private static final int MAX_PENDING_ALERTS = 16;
+
+    private static final Diagnostics.Counter ANOMALIES = Diagnostics.counter("anomaly.raised");
+
+    /**
+     * A surge in one direction, raised once when it has lasted a minute.
+     */
+    public static final class Anomaly {
+        private final String direction;
+        private final long timestamp;
+        private final double rate;
+        private final double expectedRate;
+        private final double score;
+
+        Anomaly(String direction, long timestamp, double rate, double expectedRate, double score) {
+            this.direction = direction;
+            this.timestamp = timestamp;
+            this.rate = rate;
+            this.expectedRate = expectedRate;
+            this.score = score;
+        }
+
+        /** "download" or "upload". */
+        public String getDirection() {
+            return direction;
+        }
+
+        public long getTimestamp() {
+            return timestamp;
+        }
+
+        /** One-minute average rate in bytes per second when raised. */
+        public double getRate() {
+            return rate;
+        }
+
+        /** Typical hourly average rate for this hour of the week. */
+        public double getExpectedRate() {
+            return expectedRate;
+        }
+
+        /** Standard deviations above the baseline, in log rates. */
+        public double getScore() {
+            return score;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s at %.1f KB/s, %.0fx the usual %.1f KB/s (%.1f sigma)", direction,
+                    rate / 1024, rate / Math.max(1, expectedRate), expectedRate / 1024, score);
+        }
+    }
+
+    /**
+     * Baseline and live state for one direction.
+     */
+    private static final class Baseline {
+        final String direction;
+        final double[] slotMean = new double[SLOTS + DAY_SLOTS];
+        final double[] slotVariance = new double[SLOTS + DAY_SLOTS];
+        final int[] slotHours = new int[SLOTS + DAY_SLOTS];
+
+        double fastRate;
+        boolean fastStarted;
+        long aboveSinceMillis = Long.MIN_VALUE;
+        long normalSinceMillis = Long.MIN_VALUE;
+        boolean alerted;
+
+        // The hour being accumulated
+        double hourBytes;
+
+        Baseline(String direction) {
+            this.direction = direction;
+        }
+
+        void learnHour(int slot, double rate, double sensitivity) {
+            double x = Math.log1p(rate);
+            if (isReady(slot) && sensitivity > 0) {
+                // Clipped so a surge doesn't pull the baseline up to itself
+                x = Math.min(x, mean(slot) + sensitivity * spread(slot));
+            }
+            learn(slot, x);
+            learn(SLOTS + slot % DAY_SLOTS, x);
+        }
+
+        private void learn(int slot, double x) {
+            if (slotHours[slot] == 0) {
+                slotMean[slot] = x;
+            } else {
+                double delta = x - slotMean[slot];
+                slotMean[slot] += SLOT_ALPHA * delta;
+                slotVariance[slot] = (1 - SLOT_ALPHA) * (slotVariance[slot] + SLOT_ALPHA * delta * delta);
+            }
+            slotHours[slot] = Math.min(slotHours[slot] + 1, Integer.MAX_VALUE - 1);
+        }
+
+        boolean isReady(int slot) {
+            return slotHours[SLOTS + slot % DAY_SLOTS] >= MIN_SLOT_HOURS;
+        }
+
+        private int fallback(int slot) {
+            return slotHours[slot] >= MIN_SLOT_HOURS ? slot : SLOTS + slot % DAY_SLOTS;
+        }
+
+        double mean(int slot) {
+            return slotMean[fallback(slot)];
+        }
+
+        double spread(int slot) {
+            return Math.max(MIN_LOG_SD, Math.sqrt(slotVariance[fallback(slot)]));
+        }
+    }
+
+    private final ZoneId zone = ZoneId.systemDefault();
+    private final Baseline download = new Baseline("download");
+    private final Baseline upload = new Baseline("upload");
+    private final ArrayDeque<Anomaly> pending = new ArrayDeque<>();
+    private double sensitivity;
+
+    private long hourStart = Long.MIN_VALUE;
+    private int hourSlot;
+    private long hourCoveredMillis;
+    // Hours before this come from the seed; live samples start here
+    private long firstLiveHour = Long.MAX_VALUE;
+    private long lastTimestamp = Long.MIN_VALUE;
+
+    public AnomalyDetector(double sensitivity) {
+        this.sensitivity = sensitivity;
+    }
+
+    /**
+     * Subscribes a detector to the feed and seeds it from the hourly
+     * rollups in the background. Call before the feed starts.
+     */
+    public static AnomalyDetector start(SampleFeed feed, DatabaseManager databaseManager) {
+        double sensitivity = DEFAULT_SENSITIVITY;
+        try {
+            sensitivity = Double.parseDouble(databaseManager.getSetting("anomaly_sensitivity",
+                    String.valueOf(DEFAULT_SENSITIVITY)));
+        } catch (NumberFormatException e) {
+            System.err.println("Invalid value for setting anomaly_sensitivity, using " + DEFAULT_SENSITIVITY);
+        }
+        AnomalyDetector detector = new AnomalyDetector(sensitivity);
+        feed.addListener(detector);
+        Thread seeder = new Thread(() -> detector.seed(databaseManager), "anomaly-seed");
+        seeder.setDaemon(true);
+        seeder.start();
+        return detector;
+    }
+
+    /**
+     * Learns the hours of the last few weeks from the hourly rollups, with the
+     * same coverage rule as live hours: an hour the collector only ran for
+     * part of is averaged over the time it ran, and skipped when that is
+     * under half the hour. Hours already seen live are skipped.
+     */
+    public void seed(DatabaseManager databaseManager) {
+        long end = Math.floorDiv(System.currentTimeMillis(), HOUR_MS) * HOUR_MS;
+        long start = end - SEED_WEEKS * SLOTS * HOUR_MS;
+        List<UsageRecord> hours = databaseManager.getAggregatedUsage(start, end - 1, HOUR_MS);
+        Map<Long, RateStats> ratesByHour = new HashMap<>();
+        for (RateStats rates : databaseManager.getAggregatedRateStats(start, end - 1, HOUR_MS)) {
+            ratesByHour.put(rates.getTimestamp(), rates);
+        }
+        long sampleIntervalMillis = databaseManager.getLongSetting("sample_interval_ms",
+                DatabaseManager.DEFAULT_SAMPLE_INTERVAL_MS);
+        synchronized (this) {
+            for (UsageRecord hour : hours) {
+                if (hour.getTimestamp() >= firstLiveHour) {
+                    break;
+                }
+                double coveredMillis = coveredMillis(hour, ratesByHour.get(hour.getTimestamp()),
+                        sampleIntervalMillis);
+                if (coveredMillis < MIN_HOUR_COVERAGE * HOUR_MS) {
+                    continue;
+                }
+                int slot = slotOf(hour.getTimestamp());
+                download.learnHour(slot, hour.getDownloadBytes() * 1000.0 / coveredMillis, sensitivity);
+                upload.learnHour(slot, hour.getUploadBytes() * 1000.0 / coveredMillis, sensitivity);
+            }
+        }
+    }
+
+    /**
+     * Estimates how much of a stored hour was sampled. With evenly spaced
+     * samples the hour's bytes over the mean of its sample rates is the time
+     * they cover; an idle hour, whose rates are all 0, is estimated from the
+     * number of samples at the configured interval instead.
+     */
+    static double coveredMillis(UsageRecord hour, RateStats rates, long sampleIntervalMillis) {
+        if (rates == null || rates.isEmpty()) {
+            return 0;
+        }
+        double meanRate = rates.getDownload().getMean() + rates.getUpload().getMean();
+        double bytes = hour.getDownloadBytes() + hour.getUploadBytes();
+        double covered = meanRate > 0 ? bytes * 1000.0 / meanRate
+                : (double) rates.getSampleCount() * sampleIntervalMillis;
+        return Math.min(HOUR_MS, covered);
+    }
+
+    @Override
+    public synchronized void onSample(UsageRecord record, long intervalNanos) {
+        long timestamp = record.getTimestamp();
+        long intervalMillis = intervalNanos / 1_000_000;
+        if (intervalMillis <= 0 || timestamp <= lastTimestamp) {
+            return;
+        }
+        lastTimestamp = timestamp;
+
+        long hour = Math.floorDiv(timestamp, HOUR_MS) * HOUR_MS;
+        if (hour != hourStart) {
+            closeHour();
+            hourStart = hour;
+            hourSlot = slotOf(hour);
+            hourCoveredMillis = 0;
+            firstLiveHour = Math.min(firstLiveHour, hour);
+        }
+        hourCoveredMillis += intervalMillis;
+        download.hourBytes += record.getDownloadBytes();
+        upload.hourBytes += record.getUploadBytes();
+
+        double alpha = 1 - Math.exp(-intervalMillis / FAST_TAU_MS);
+        check(download, record.getDownloadBytes() * 1000.0 / intervalMillis, alpha, timestamp);
+        check(upload, record.getUploadBytes() * 1000.0 / intervalMillis, alpha, timestamp);
+    }
+
+    private void closeHour() {
+        if (hourStart != Long.MIN_VALUE && hourCoveredMillis >= MIN_HOUR_COVERAGE * HOUR_MS) {
+            download.learnHour(hourSlot, download.hourBytes * 1000.0 / hourCoveredMillis, sensitivity);
+            upload.learnHour(hourSlot, upload.hourBytes * 1000.0 / hourCoveredMillis, sensitivity);
+        }
+        download.hourBytes = 0;
+        upload.hourBytes = 0;
+    }
+
+    private void check(Baseline baseline, double rate, double alpha, long timestamp) {
+        if (!baseline.fastStarted) {
+            baseline.fastRate = rate;
+            baseline.fastStarted = true;
+        } else {
+            baseline.fastRate += alpha * (rate - baseline.fastRate);
+        }
+        if (sensitivity <= 0 || !baseline.isReady(hourSlot)) {
+            return;
+        }
+        double score = score(baseline, hourSlot);
+        if (score > sensitivity && baseline.fastRate >= MIN_ALERT_RATE) {
+            baseline.normalSinceMillis = Long.MIN_VALUE;
+            if (baseline.aboveSinceMillis == Long.MIN_VALUE) {
+                baseline.aboveSinceMillis = timestamp;
+            }
+            if (!baseline.alerted && timestamp - baseline.aboveSinceMillis >= SUSTAIN_MS) {
+                baseline.alerted = true;
+                if (pending.size() >= MAX_PENDING_ALERTS) {
+                    pending.pollFirst();
+                }
+                pending.addLast(new Anomaly(baseline.direction, timestamp, baseline.fastRate,
+                        Math.expm1(baseline.mean(hourSlot)), score));
+                ANOMALIES.increment();
+            }
+            return;
+        }
+        baseline.aboveSinceMillis = Long.MIN_VALUE;
+        if (score < sensitivity / 2) {
+            if (baseline.normalSinceMillis == Long.MIN_VALUE) {
+                baseline.normalSinceMillis = timestamp;
+            }
+            if (timestamp - baseline.normalSinceMillis >= REARM_MS) {
+                baseline.alerted = false;
+            }
+        }
+    }
+
+    private static double score(Baseline baseline, int slot) {
+        return (Math.log1p(baseline.fastRate) - baseline.mean(slot)) / baseline.spread(slot);
+    }
+
+    private int slotOf(long hourStartMillis) {
+        ZonedDateTime local = Instant.ofEpochMilli(hourStartMillis).atZone(zone);
+        return (local.getDayOfWeek().getValue() - 1) * 24 + local.getHour();
+    }
+
+    /**
+     * @return the oldest anomaly not yet taken, or null
+     */
+    public synchronized Anomaly pollAlert() {
+        return pending.pollFirst();
+    }
+
+    /**
+     * @return standard deviations the current download and upload rates are
+     *         above normal for this hour of the week; 0 before there is a baseline
+     */
+    public synchronized double[] getScores() {
+        return new double[] {
+                download.isReady(hourSlot) ? score(download, hourSlot) : 0,
+                upload.isReady(hourSlot) ? score(upload, hourSlot) : 0 };
+    }
+
+    public synchronized double getSensitivity() {
+        return sensitivity;
+    }
+
+    /**
+     * @param sensitivity standard deviations above normal that count as a
+     *                    surge; 0 turns alerts off
+     */
+    public synchronized void setSensitivity(double sensitivity) {
+        this.sensitivity = Math.max(0, sensitivity);
+    }
+}
@@ -0,0 +1,321 @@
+package com.networkmonitor.service;
+
+import com.networkmonitor.model.InterfaceUsageRecord;
+import com.networkmonitor.model.UsageRecord;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Samples the network counters and persists them, independent of any UI.
+ * Runs the same way inside the dashboard and in the headless daemon.
+ * <p>
+ * The sampling thread only reads the counters, on a fixed schedule kept on
+ * the monotonic clock, and hands each sample to two consumer threads through
+ * lock-free bounded queues: one stores it and accounts it against the quota,
+ * the other calls the listeners. However slow either one gets, the next
+ * sample is taken on time; a consumer that falls a whole queue behind gets
+ * samples folded together instead (see {@link SampleQueue}).
+ */
+public class CollectorService implements SampleFeed {
+
+    // Below this sampling interval samples are coalesced before storage
+    private static final long HIGH_FREQUENCY_THRESHOLD_MS = 1000;
+    public static final long MIN_SAMPLE_INTERVAL_MS = 100;
+    public static final long PERSIST_PERIOD_MS = 1000;
+    // Over 100 seconds at the fastest interval
+    private static final int QUEUE_CAPACITY = 1024;
+    // Consumers wake this often when idle to notice a stop
+    private static final long IDLE_WAIT_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+    private static final long STOP_TIMEOUT_MS = 5000;
+
+    private static final Diagnostics.Stage JITTER_STAGE = Diagnostics.stage("collector.jitter");
+    private static final Diagnostics.Stage READ_STAGE = Diagnostics.stage("collector.read");
+    private static final Diagnostics.Stage TICK_STAGE = Diagnostics.stage("collector.tick");
+    private static final Diagnostics.Stage STORE_WAIT_STAGE = Diagnostics.stage("queue.store.wait");
+    private static final Diagnostics.Stage INSERT_STAGE = Diagnostics.stage("collector.insert");
+    private static final Diagnostics.Stage QUOTA_STAGE = Diagnostics.stage("collector.quota");
+    private static final Diagnostics.Stage LISTENERS_WAIT_STAGE = Diagnostics.stage("queue.listeners.wait");
+    private static final Diagnostics.Stage LISTENERS_STAGE = Diagnostics.stage("collector.listeners");
+    private static final Diagnostics.Counter SKIPPED_TICKS = Diagnostics.counter("collector.skippedTicks");
+
+    private final DatabaseManager databaseManager;
+    private final NetworkTracker networkTracker;
+    private final QuotaAccountant quotaAccountant;
+    private final RetentionService retentionService;
+    private final List<SampleListener> listeners = new CopyOnWriteArrayList<>();
+    private final SampleQueue storeQueue = new SampleQueue(QUEUE_CAPACITY, "store");
+    private final SampleQueue listenerQueue = new SampleQueue(QUEUE_CAPACITY, "listeners");
+    private Thread samplerThread;
+    private Thread storeThread;
+    private Thread listenerThread;
+    private volatile boolean sampling;
+    private volatile boolean stopped;
+    private volatile long sampleIntervalMillis = DatabaseManager.DEFAULT_SAMPLE_INTERVAL_MS;
+    private volatile boolean highFrequency;
+    private volatile long lastTickNanos;
+
+    // Owned by the store thread
+    private SampleCoalescer persistCoalescer; // null unless in high-frequency mode
+
+    public CollectorService(DatabaseManager databaseManager) {
+        this.databaseManager = databaseManager;
+        this.networkTracker = new NetworkTracker();
+        networkTracker.setInterfaceFilter(
+                databaseManager.getSetting("interface_include", ""),
+                databaseManager.getSetting("interface_exclude", NetworkTracker.DEFAULT_EXCLUDED_INTERFACES));
+
+        // Old samples are expired in the background, not before the first sample
+        this.retentionService = new RetentionService(databaseManager);
+        retentionService.start();
+
+        // Loads quota settings and the month-to-date total once
+        this.quotaAccountant = new QuotaAccountant(databaseManager);
+    }
+
+    /**
+     * (Re)starts the sampler at the configured interval. Intervals under one
+     * second switch to high-frequency mode, where samples are coalesced into
+     * one-second records for storage.
+     */
+    @Override
+    public synchronized void start() {
+        if (stopped) {
+            return;
+        }
+        sampleIntervalMillis = Math.max(MIN_SAMPLE_INTERVAL_MS,
+                databaseManager.getLongSetting("sample_interval_ms", DatabaseManager.DEFAULT_SAMPLE_INTERVAL_MS));
+        // The store thread swaps its coalescer when it sees the change
+        highFrequency = sampleIntervalMillis < HIGH_FREQUENCY_THRESHOLD_MS;
+
+        if (samplerThread != null) {
+            // Picks up the new interval and samples right away
+            LockSupport.unpark(samplerThread);
+            return;
+        }
+        storeThread = startThread("sample-store", this::runStore);
+        storeQueue.setConsumer(storeThread);
+        listenerThread = startThread("sample-listeners", this::runListeners);
+        listenerQueue.setConsumer(listenerThread);
+        sampling = true;
+        samplerThread = startThread("network-sampler", this::runSampler);
+    }
+
+    private static Thread startThread(String name, Runnable body) {
+        Thread thread = new Thread(body, name);
+        thread.setDaemon(true);
+        thread.start();
+        return thread;
+    }
+
+    /**
+     * Stops sampling and stores everything collected so far.
+     */
+    @Override
+    public synchronized void stop() {
+        if (stopped) {
+            return;
+        }
+        retentionService.stop();
+        sampling = false;
+        try {
+            if (samplerThread != null) {
+                LockSupport.unpark(samplerThread);
+                samplerThread.join(STOP_TIMEOUT_MS);
+                // The sampler is gone, so this thread may publish what it left folded
+                if (!storeQueue.flushOverflow(STOP_TIMEOUT_MS) || !listenerQueue.flushOverflow(STOP_TIMEOUT_MS)) {
+                    System.err.println("Error stopping collector: queues did not drain");
+                }
+            }
+            stopped = true;
+            if (storeThread != null) {
+                LockSupport.unpark(storeThread);
+                LockSupport.unpark(listenerThread);
+                storeThread.join(STOP_TIMEOUT_MS);
+                listenerThread.join(STOP_TIMEOUT_MS);
+            } else {
+                quotaAccountant.checkpoint();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        networkTracker.close();
+    }
+
+    public void setSampleInterval(long intervalMillis) {
+        long interval = Math.max(MIN_SAMPLE_INTERVAL_MS, intervalMillis);
+        if (interval != sampleIntervalMillis) {
+            databaseManager.saveSetting("sample_interval_ms", String.valueOf(interval));
+            start();
+        }
+    }
+
+    /**
+     * Saves and applies the interface filters (comma-separated globs).
+     */
+    public void setInterfaceFilter(String include, String exclude) {
+        databaseManager.saveSetting("interface_include", include.trim());
+        databaseManager.saveSetting("interface_exclude", exclude.trim());
+        networkTracker.setInterfaceFilter(include, exclude);
+    }
+
+    /**
+     * Ticks at fixed multiples of the interval from when it was set, so late
+     * ticks don't push the later ones back. Ticks missed by more than a whole
+     * interval, e.g. across a suspend, are skipped; the next delta covers them.
+     */
+    private void runSampler() {
+        long intervalNanos = 0;
+        long deadline = 0;
+        while (sampling) {
+            long configured = TimeUnit.MILLISECONDS.toNanos(sampleIntervalMillis);
+            if (configured != intervalNanos) {
+                intervalNanos = configured;
+                deadline = System.nanoTime();
+            }
+            long wait = deadline - System.nanoTime();
+            if (wait > 0) {
+                LockSupport.parkNanos(this, wait);
+                // Woken early by start() or stop(), or spuriously
+                continue;
+            }
+            JITTER_STAGE.record(deadline);
+            sample();
+
+            deadline += intervalNanos;
+            long behind = System.nanoTime() - deadline;
+            if (behind >= intervalNanos) {
+                long missed = behind / intervalNanos;
+                deadline += missed * intervalNanos;
+                SKIPPED_TICKS.add(missed);
+            }
+        }
+    }
+
+    private void sample() {
+        try {
+            long started = System.nanoTime();
+            UsageRecord record = networkTracker.getNetworkUsageDelta();
+            List<InterfaceUsageRecord> interfaces = networkTracker.getLastInterfaceDeltas();
+            long intervalNanos = networkTracker.getLastIntervalNanos();
+            READ_STAGE.record(started, interfaces.size());
+
+            storeQueue.publish(record, interfaces, intervalNanos);
+            listenerQueue.publish(record, Collections.emptyList(), intervalNanos);
+            lastTickNanos = System.nanoTime() - started;
+            TICK_STAGE.record(started);
+        } catch (RuntimeException e) {
+            // Keep sampling; the next delta covers this tick
+            System.err.println("Error sampling network usage: " + e.getMessage());
+        }
+    }
+
+    private void runStore() {
+        while (true) {
+            if (highFrequency != (persistCoalescer != null)) {
+                drainPersistCoalescer();
+                persistCoalescer = highFrequency ? new SampleCoalescer(PERSIST_PERIOD_MS) : null;
+            }
+            SampleQueue.Sample sample = storeQueue.poll(IDLE_WAIT_NANOS);
+            if (sample == null) {
+                if (stopped && storeQueue.isEmpty()) {
+                    break;
+                }
+                continue;
+            }
+            STORE_WAIT_STAGE.record(sample.queuedNanos);
+            try {
+                store(sample);
+            } catch (RuntimeException e) {
+                System.err.println("Error storing network usage: " + e.getMessage());
+            }
+        }
+        drainPersistCoalescer();
+        quotaAccountant.checkpoint();
+    }
+
+    private void store(SampleQueue.Sample sample) {
+        long started = System.nanoTime();
+        if (persistCoalescer == null) {
+            databaseManager.insertUsage(sample.record, sample.interfaces);
+        } else {
+            // Every sample feeds the live buffer; storage gets one record per period
+            databaseManager.appendRecentSample(sample.record);
+            if (persistCoalescer.offer(sample.record, sample.interfaces, sample.intervalNanos)) {
+                databaseManager.persistUsage(persistCoalescer.getRecord(), persistCoalescer.getInterfaceRecords());
+            }
+        }
+        INSERT_STAGE.record(started);
+
+        started = System.nanoTime();
+        quotaAccountant.record(sample.record);
+        QUOTA_STAGE.record(started);
+    }
+
+    private void drainPersistCoalescer() {
+        if (persistCoalescer != null && persistCoalescer.drain(System.currentTimeMillis())) {
+            databaseManager.persistUsage(persistCoalescer.getRecord(), persistCoalescer.getInterfaceRecords());
+        }
+    }
+
+    private void runListeners() {
+        while (true) {
+            SampleQueue.Sample sample = listenerQueue.poll(IDLE_WAIT_NANOS);
+            if (sample == null) {
+                if (stopped && listenerQueue.isEmpty()) {
+                    break;
+                }
+                continue;
+            }
+            LISTENERS_WAIT_STAGE.record(sample.queuedNanos);
+            long started = System.nanoTime();
+            for (SampleListener listener : listeners) {
+                try {
+                    listener.onSample(sample.record, sample.intervalNanos);
+                } catch (RuntimeException e) {
+                    System.err.println("Error in sample listener: " + e.getMessage());
+                }
+            }
+            LISTENERS_STAGE.record(started);
+        }
+    }
+
+    @Override
+    public void addListener(SampleListener listener) {
+        listeners.add(listener);
+    }
+
+    @Override
+    public long getSampleIntervalMillis() {
+        return sampleIntervalMillis;
+    }
+
+    @Override
+    public QuotaAccountant getQuotaAccountant() {
+        return quotaAccountant;
+    }
+
+    @Override
+    public boolean isReadOnly() {
+        return false;
+    }
+
+    /**
+     * Time the latest tick took to read the counters and hand the sample
+     * over.
+     */
+    public long getLastTickNanos() {
+        return lastTickNanos;
+    }
+
+    public RetentionService getRetentionService() {
+        return retentionService;
+    }
+
+    public NetworkTracker getNetworkTracker() {
+        return networkTracker;
+    }
+}
@@ -0,0 +1,110 @@
+package com.networkmonitor.service;
+
+import com.networkmonitor.model.UsageRecord;
+
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Feed for a read-only viewer: polls the database that a collector daemon
+ * writes and replays new samples to listeners. Samples show up as the
+ * daemon flushes them, so they arrive in batches. Everything after the
+ * newest sample stored on attach is replayed, including samples the daemon
+ * had collected but not yet flushed then.
+ */
+public class DatabaseFollower implements SampleFeed {
+
+    private static final long POLL_INTERVAL_MS = 2000;
+
+    private final DatabaseManager databaseManager;
+    private final QuotaAccountant quotaAccountant;
+    private final List<SampleListener> listeners = new CopyOnWriteArrayList<>();
+    // Spacing of stored samples; high-frequency samples are stored coalesced
+    private final long storedSpacingMillis;
+    private ScheduledExecutorService executorService;
+    private long lastTimestamp;
+
+    public DatabaseFollower(DatabaseManager databaseManager) {
+        this.databaseManager = databaseManager;
+        // The quota total is loaded through the same sample replay starts after
+        this.lastTimestamp = newestStoredTimestamp(databaseManager);
+        this.quotaAccountant = new QuotaAccountant(databaseManager, lastTimestamp);
+        long sampleIntervalMillis = Math.max(CollectorService.MIN_SAMPLE_INTERVAL_MS,
+                databaseManager.getLongSetting("sample_interval_ms", DatabaseManager.DEFAULT_SAMPLE_INTERVAL_MS));
+        this.storedSpacingMillis = Math.max(sampleIntervalMillis, CollectorService.PERSIST_PERIOD_MS);
+    }
+
+    private static long newestStoredTimestamp(DatabaseManager databaseManager) {
+        try {
+            long[] range = databaseManager.getUsageStore().getTimeRange();
+            // Nothing stored yet: everything the daemon writes is new
+            return range != null ? range[1] : 0;
+        } catch (SQLException | IOException e) {
+            System.err.println("Error reading stored time range: " + e.getMessage());
+            return System.currentTimeMillis();
+        }
+    }
+
+    @Override
+    public synchronized void start() {
+        executorService = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "database-follower");
+            t.setDaemon(true);
+            return t;
+        });
+        executorService.scheduleWithFixedDelay(this::poll, 0, POLL_INTERVAL_MS, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public synchronized void stop() {
+        if (executorService != null) {
+            executorService.shutdownNow();
+        }
+    }
+
+    private void poll() {
+        try {
+            List<UsageRecord> records = databaseManager.getUsageInRange(lastTimestamp + 1,
+                    System.currentTimeMillis());
+            for (UsageRecord record : records) {
+                long intervalNanos = (record.getTimestamp() - lastTimestamp) * 1_000_000;
+                if (intervalNanos > 2 * storedSpacingMillis * 1_000_000) {
+                    // Gap (e.g. the first record after attaching): assume one interval
+                    intervalNanos = storedSpacingMillis * 1_000_000;
+                }
+                lastTimestamp = record.getTimestamp();
+                quotaAccountant.record(record);
+                for (SampleListener listener : listeners) {
+                    listener.onSample(record, intervalNanos);
+                }
+            }
+        } catch (RuntimeException e) {
+            System.err.println("Error following database: " + e.getMessage());
+        }
+    }
+
+    @Override
+    public void addListener(SampleListener listener) {
+        listeners.add(listener);
+    }
+
+    @Override
+    public long getSampleIntervalMillis() {
+        return storedSpacingMillis;
+    }
+
+    @Override
+    public QuotaAccountant getQuotaAccountant() {
+        return quotaAccountant;
+    }
+
+    @Override
+    public boolean isReadOnly() {
+        return true;
+    }
+}
@@ -1,27 +1,192 @@
 package com.networkmonitor.service;
 
+import com.networkmonitor.model.InterfaceUsageRecord;
 import com.networkmonitor.model.UsageRecord;
 
 import java.sql.*;
 import java.io.File;
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.TreeMap;
+import java.util.function.BooleanSupplier;
+import java.util.function.LongUnaryOperator;
 
 public class DatabaseManager {
 
-    private static final String DB_URL = "jdbc:sqlite:network_stats.db";
+    public static final String DEFAULT_DB_PATH = "network_stats.db";
+    private static final int DEFAULT_FLUSH_BATCH_SIZE = 64;
+    private static final long DEFAULT_FLUSH_INTERVAL_MS = 10_000;
+    // 2 added per-bucket rate sketches
+    private static final String ROLLUP_VERSION = "2";
+    // Comfortably more than one hour of samples at the default 2 second tick
+    private static final int DEFAULT_RECENT_SAMPLE_CAPACITY = 4096;
+    public static final long DEFAULT_SAMPLE_INTERVAL_MS = 2000;
+    // Query thread, database follower and one spare
+    private static final int DEFAULT_READ_POOL_SIZE = 3;
+    // Page cache per connection; native memory, not Java heap
+    private static final long DEFAULT_CACHE_SIZE_KB = 8 * 1024;
+    private static final long DEFAULT_MMAP_SIZE_MB = 256;
+    public static final long DEFAULT_RETENTION_DAYS = 365;
+    // Pages returned to the file system per incremental_vacuum step
+    private static final int VACUUM_CHUNK_PAGES = 1024;
+    // 95th-percentile billing measures average rates over 5 minutes
+    public static final long BILLING_INTERVAL_MS = 5 * 60 * 1000;
+
+    private static final Diagnostics.Stage IMPORT_STAGE = Diagnostics.stage("db.importSamples");
+    private static final Diagnostics.Stage RANGE_STAGE = Diagnostics.stage("db.getUsageInRange");
+    private static final Diagnostics.Stage AGGREGATED_STAGE = Diagnostics.stage("db.getAggregatedUsage");
+    private static final Diagnostics.Stage TOTAL_STAGE = Diagnostics.stage("db.getTotalUsage");
+    private static final Diagnostics.Stage DAILY_STAGE = Diagnostics.stage("db.getDailyUsage");
+    private static final Diagnostics.Stage RATE_STATS_STAGE = Diagnostics.stage("db.getRateStats");
+    private static final Diagnostics.Stage BY_INTERFACE_STAGE = Diagnostics.stage("db.getUsageByInterface");
+    private static final Diagnostics.Stage BY_PROCESS_STAGE = Diagnostics.stage("db.getUsageByProcess");
+    private static final Diagnostics.Stage SAVE_PROCESS_STAGE = Diagnostics.stage("db.saveProcessUsage");
+    private static final Diagnostics.Stage SAVE_WATERMARKS_STAGE = Diagnostics.stage("db.savePusherWatermarks");
+    private static final Diagnostics.Stage SAVE_SETTING_STAGE = Diagnostics.stage("db.saveSetting");
+    private static final Diagnostics.Stage GET_SETTING_STAGE = Diagnostics.stage("db.getSetting");
+    private static final Diagnostics.Stage CLEAR_STAGE = Diagnostics.stage("db.clearDataInRange");
+    private static final Diagnostics.Stage RETENTION_STAGE = Diagnostics.stage("db.applyRetention");
+
     private static DatabaseManager instance;
-    private Connection connection;
+    private static String dbPath = DEFAULT_DB_PATH;
+    private static boolean readOnly = false;
+    private static String storageBackend = null;
+    // Single writer; also serves settings and the interface dictionary. In
+    // read-only mode it is opened read-only and never written.
+    private Connection writeConnection;
+    private StatementCache writeStatements;
+    private ReadConnectionPool readPool;
+    private UsagePartitions partitions;
+    private UsageStore usageStore;
+    private InterfaceRegistry interfaceRegistry;
+    private UsageWriteBuffer writeBuffer;
+    private RecentSampleBuffer recentSamples;
 
     private DatabaseManager() {
         try {
-            connection = DriverManager.getConnection(DB_URL);
+            if (readOnly) {
+                // Viewer attached to a database owned by another process: no schema
+                // changes, no writes, and no live buffer since nothing is collected here
+                writeConnection = ReadConnectionPool.openConnection(dbPath, DEFAULT_CACHE_SIZE_KB, 0);
+                writeStatements = new StatementCache(writeConnection);
+                readPool = new ReadConnectionPool(dbPath, DEFAULT_READ_POOL_SIZE, DEFAULT_CACHE_SIZE_KB,
+                        DEFAULT_MMAP_SIZE_MB * 1024 * 1024);
+                usageStore = openUsageStore();
+                interfaceRegistry = new InterfaceRegistry(writeConnection);
+                return;
+            }
+
+            writeConnection = DriverManager.getConnection("jdbc:sqlite:" + dbPath);
+            writeStatements = new StatementCache(writeConnection);
             initializeDatabase();
-        } catch (SQLException e) {
+
+            readPool = new ReadConnectionPool(dbPath,
+                    (int) getLongSetting("read_pool_size", DEFAULT_READ_POOL_SIZE),
+                    getLongSetting("db_cache_size_kb", DEFAULT_CACHE_SIZE_KB),
+                    getLongSetting("db_mmap_size_mb", DEFAULT_MMAP_SIZE_MB) * 1024 * 1024);
+            storageBackend = chooseStorageBackend();
+            usageStore = openUsageStore();
+            backfillRollups();
+
+            int batchSize = (int) getLongSetting("write_flush_batch_size", DEFAULT_FLUSH_BATCH_SIZE);
+            long flushInterval = getLongSetting("write_flush_interval_ms", DEFAULT_FLUSH_INTERVAL_MS);
+            interfaceRegistry = new InterfaceRegistry(writeConnection);
+            writeBuffer = new UsageWriteBuffer(writeStatements, usageStore, interfaceRegistry, batchSize,
+                    flushInterval);
+
+            // Size the live buffer to hold an hour at the configured sample rate
+            long sampleInterval = Math.max(1, getLongSetting("sample_interval_ms", DEFAULT_SAMPLE_INTERVAL_MS));
+            long hourOfSamples = 60 * 60 * 1000 / sampleInterval + 64;
+            int recentCapacity = (int) getLongSetting("recent_sample_capacity",
+                    Math.max(DEFAULT_RECENT_SAMPLE_CAPACITY, hourOfSamples));
+            recentSamples = new RecentSampleBuffer(recentCapacity, System.currentTimeMillis());
+        } catch (SQLException | IOException e) {
             System.err.println("Database connection failed: " + e.getMessage());
         }
     }
 
+    /**
+     * Selects the database file and access mode. Must be called before the
+     * first {@link #getInstance()}.
+     */
+    public static synchronized void configure(String path, boolean readOnlyMode) {
+        configure(path, readOnlyMode, null);
+    }
+
+    /**
+     * Also selects where raw samples are stored ({@link UsageStore#SQLITE} or
+     * {@link UsageStore#SEGMENTS}); the choice is saved for later runs. Null
+     * keeps the saved choice.
+     */
+    public static synchronized void configure(String path, boolean readOnlyMode, String backend) {
+        if (instance != null) {
+            throw new IllegalStateException("DatabaseManager already initialized");
+        }
+        dbPath = path;
+        readOnly = readOnlyMode;
+        storageBackend = backend;
+    }
+
+    /**
+     * The backend for raw samples: the saved one, or the one asked for with
+     * --store while the saved one holds no samples. Samples aren't moved
+     * between backends, and rollups are rebuilt from the store in use during
+     * purges and retention, so a store must hold every raw sample the
+     * database has.
+     */
+    private String chooseStorageBackend() throws SQLException, IOException {
+        String saved = getSetting("storage_backend", UsageStore.SQLITE);
+        if (storageBackend == null || storageBackend.equals(saved)) {
+            return saved;
+        }
+        UsageStore current = UsageStore.SEGMENTS.equals(saved)
+                ? new SegmentUsageStore(Paths.get(dbPath + ".segments"), true, SegmentUsageStore.DEFAULT_SEGMENT_ROWS,
+                        writeConnection)
+                : new SqliteUsageStore(writeStatements, readPool, new UsagePartitions(writeConnection, true));
+        long[] range;
+        try {
+            range = current.getTimeRange();
+        } finally {
+            current.close();
+        }
+        if (range != null) {
+            System.err.println("Error: this database keeps its samples in the " + saved + " store; not switching to "
+                    + storageBackend + ". Start a new database to use " + storageBackend + ".");
+            return saved;
+        }
+        saveSetting("storage_backend", storageBackend);
+        return storageBackend;
+    }
+
+    /**
+     * Raw samples go to monthly SQLite tables by default, or to memory-mapped
+     * segment files next to the database; see {@link #chooseStorageBackend()}.
+     */
+    private UsageStore openUsageStore() throws IOException {
+        String backend = storageBackend != null ? storageBackend : getSetting("storage_backend", UsageStore.SQLITE);
+        if (UsageStore.SEGMENTS.equals(backend)) {
+            return new SegmentUsageStore(Paths.get(dbPath + ".segments"), readOnly,
+                    (int) getLongSetting("segment_rows", SegmentUsageStore.DEFAULT_SEGMENT_ROWS), writeConnection);
+        }
+        partitions = new UsagePartitions(writeConnection, readOnly);
+        return new SqliteUsageStore(writeStatements, readPool, partitions);
+    }
+
+    public boolean isReadOnly() {
+        return readOnly;
+    }
+
     public static synchronized DatabaseManager getInstance() {
         if (instance == null) {
             instance = new DatabaseManager();
@@ -30,200 +195,1039 @@ public class DatabaseManager {
     }
 
     private void initializeDatabase() {
-        String sql = "CREATE TABLE IF NOT EXISTS network_usage (" +
-                "timestamp INTEGER," +
-                "download_bytes INTEGER," +
-                "upload_bytes INTEGER" +
-                ");";
-
-        // Index for faster range queries
+        // Raw samples live in monthly tables created by UsagePartitions; an older
+        // single network_usage table is still read and indexed here
         String indexSql = "CREATE INDEX IF NOT EXISTS idx_timestamp ON network_usage(timestamp);";
+        String interfaceIndexSql = "CREATE INDEX IF NOT EXISTS idx_interface_timestamp " +
+                "ON network_usage(interface_id, timestamp);";
+
+        String interfacesSql = "CREATE TABLE IF NOT EXISTS interfaces (" +
+                "id INTEGER PRIMARY KEY," +
+                "name TEXT NOT NULL UNIQUE" +
+                ");";
 
         String settingsSql = "CREATE TABLE IF NOT EXISTS settings (" +
                 "key TEXT PRIMARY KEY," +
                 "value TEXT" +
                 ");";
 
-        try (Statement stmt = connection.createStatement()) {
-            stmt.execute(sql);
-            stmt.execute(indexSql);
+        // Busiest processes per bucket, written by ProcessAttributor
+        String processUsageSql = "CREATE TABLE IF NOT EXISTS process_usage (" +
+                "bucket INTEGER NOT NULL," +
+                "name TEXT NOT NULL," +
+                "download_bytes INTEGER NOT NULL," +
+                "upload_bytes INTEGER NOT NULL," +
+                "PRIMARY KEY (bucket, name)" +
+                ");";
+
+        // Newest pushed timestamp stored per host, written by AggregatorService
+        String pusherWatermarksSql = "CREATE TABLE IF NOT EXISTS pusher_watermarks (" +
+                "host TEXT PRIMARY KEY," +
+                "stored_through INTEGER NOT NULL" +
+                ");";
+
+        try (Statement stmt = writeConnection.createStatement()) {
+            boolean empty;
+            try (ResultSet rs = stmt.executeQuery("SELECT COUNT(*) FROM sqlite_master")) {
+                empty = rs.next() && rs.getLong(1) == 0;
+            }
+            if (empty) {
+                // Only takes effect before the first table is created; lets pages freed
+                // by retention be handed back to the file system a chunk at a time
+                stmt.execute("PRAGMA auto_vacuum=INCREMENTAL;");
+            }
+            // WAL lets batched commits append to the log instead of rewriting pages,
+            // and lets the read connections keep reading while the writer commits
+            stmt.execute("PRAGMA journal_mode=WAL;");
+            // In WAL mode NORMAL only syncs at checkpoints; a crash can lose the
+            // last commits but never corrupts the database
+            stmt.execute("PRAGMA synchronous=NORMAL;");
+            stmt.execute("PRAGMA cache_size=-" + DEFAULT_CACHE_SIZE_KB + ";");
+            if (hasTable(stmt, UsagePartitions.LEGACY_TABLE)) {
+                migrateInterfaceColumn(stmt);
+                stmt.execute(indexSql);
+                stmt.execute(interfaceIndexSql);
+            }
+            stmt.execute(interfacesSql);
+            stmt.execute("INSERT OR IGNORE INTO interfaces(id, name) VALUES(" +
+                    InterfaceRegistry.UNATTRIBUTED_ID + ", '" + InterfaceRegistry.UNATTRIBUTED_NAME + "');");
             stmt.execute(settingsSql);
+            stmt.execute(processUsageSql);
+            stmt.execute(pusherWatermarksSql);
+
+            // Rollup tables: one row per bucket, maintained as samples are flushed.
+            // The rate columns hold encoded RateSketches, null when no sample had a rate
+            for (RollupTier tier : RollupTier.values()) {
+                if (tier.isRollup()) {
+                    stmt.execute("CREATE TABLE IF NOT EXISTS " + tier.getTableName() + " (" +
+                            "bucket INTEGER PRIMARY KEY," +
+                            "download_bytes INTEGER NOT NULL," +
+                            "upload_bytes INTEGER NOT NULL," +
+                            "download_rates BLOB," +
+                            "upload_rates BLOB" +
+                            ");");
+                    migrateRateColumns(stmt, tier.getTableName());
+                }
+            }
         } catch (SQLException e) {
             System.err.println("Database initialization failed: " + e.getMessage());
         }
     }
 
+    private static boolean hasTable(Statement stmt, String table) throws SQLException {
+        try (ResultSet rs = stmt.executeQuery(
+                "SELECT 1 FROM sqlite_master WHERE type = 'table' AND name = '" + table + "'")) {
+            return rs.next();
+        }
+    }
+
+    /**
+     * Databases created before per-interface tracking have no interface_id
+     * column; their rows become unattributed. Adding a column with a default
+     * doesn't rewrite the table, so this is instant even on large files.
+     */
+    private void migrateInterfaceColumn(Statement stmt) throws SQLException {
+        if (!hasColumn(stmt, UsagePartitions.LEGACY_TABLE, "interface_id")) {
+            stmt.execute("ALTER TABLE network_usage ADD COLUMN interface_id INTEGER NOT NULL DEFAULT 0;");
+        }
+    }
+
+    /**
+     * Rollups created before rate statistics get the sketch columns here and
+     * are filled in by {@link #backfillRollups()}.
+     */
+    private void migrateRateColumns(Statement stmt, String table) throws SQLException {
+        if (!hasColumn(stmt, table, "download_rates")) {
+            stmt.execute("ALTER TABLE " + table + " ADD COLUMN download_rates BLOB;");
+            stmt.execute("ALTER TABLE " + table + " ADD COLUMN upload_rates BLOB;");
+        }
+    }
+
+    private static boolean hasColumn(Statement stmt, String table, String column) throws SQLException {
+        try (ResultSet rs = stmt.executeQuery("PRAGMA table_info(" + table + ")")) {
+            while (rs.next()) {
+                if (column.equals(rs.getString("name"))) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Builds the rollup tables from existing raw samples the first time a
+     * database created before rollups, or before their rate sketches,
+     * existed is opened.
+     */
+    private void backfillRollups() {
+        if (ROLLUP_VERSION.equals(getSetting("rollup_version", ""))) {
+            return;
+        }
+        synchronized (writeConnection) {
+            try {
+                long[] range = usageStore.getTimeRange();
+                if (range != null) {
+                    System.out.println("Building usage rollups from existing samples...");
+                    rebuildRollups(range[0], range[1]);
+                }
+                saveSetting("rollup_version", ROLLUP_VERSION);
+            } catch (SQLException | IOException e) {
+                System.err.println("Error building rollups: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Recomputes every rollup bucket touching [startMillis, endMillis] from the
+     * raw samples that remain in that range. Commits any transaction already
+     * open on the writer along with the rebuild.
+     */
+    private void rebuildRollups(long startMillis, long endMillis) throws SQLException, IOException {
+        synchronized (writeConnection) {
+            boolean autoCommit = writeConnection.getAutoCommit();
+            writeConnection.setAutoCommit(false);
+            try {
+                List<RollupRebuild> rebuilds = new ArrayList<>();
+                for (RollupTier tier : RollupTier.values()) {
+                    if (!tier.isRollup()) {
+                        continue;
+                    }
+                    long firstBucket = tier.bucketOf(startMillis);
+                    long lastBucket = tier.bucketOf(endMillis);
+                    PreparedStatement delete = writeStatements.prepare(
+                            "DELETE FROM " + tier.getTableName() + " WHERE bucket BETWEEN ? AND ?");
+                    delete.setLong(1, firstBucket);
+                    delete.setLong(2, lastBucket);
+                    delete.executeUpdate();
+                    rebuilds.add(new RollupRebuild(tier, firstBucket, lastBucket, writeStatements.prepare(
+                            "INSERT INTO " + tier.getTableName() +
+                                    "(bucket, download_bytes, upload_bytes, download_rates, upload_rates) " +
+                                    "VALUES(?, ?, ?, ?, ?)")));
+                }
+
+                // One pass over the widest range feeds every tier, a bucket at a
+                // time. Read on this thread, which holds the writer, so the store
+                // sees raw rows deleted earlier in this transaction.
+                RollupTier widest = RollupTier.values()[RollupTier.values().length - 1];
+                long from = widest.bucketOf(startMillis);
+                long to = widest.bucketOf(endMillis) + widest.getResolutionMillis();
+                RateStats.scan(usageStore, from, to, (timestamp, download, upload, interval) -> {
+                    for (RollupRebuild rebuild : rebuilds) {
+                        rebuild.add(timestamp, download, upload, interval);
+                    }
+                });
+                for (RollupRebuild rebuild : rebuilds) {
+                    rebuild.finish();
+                }
+                writeConnection.commit();
+            } catch (SQLException | IOException e) {
+                writeConnection.rollback();
+                throw e;
+            } finally {
+                writeConnection.setAutoCommit(autoCommit);
+            }
+        }
+    }
+
+    /**
+     * Accumulates one tier's current bucket during a rebuild and inserts it
+     * once the samples move past it.
+     */
+    private static final class RollupRebuild {
+        private final RollupTier tier;
+        private final long firstBucket;
+        private final long lastBucket;
+        private final PreparedStatement insert;
+        private long bucket = Long.MIN_VALUE;
+        private long download;
+        private long upload;
+        private RateStats rates;
+
+        RollupRebuild(RollupTier tier, long firstBucket, long lastBucket, PreparedStatement insert) {
+            this.tier = tier;
+            this.firstBucket = firstBucket;
+            this.lastBucket = lastBucket;
+            this.insert = insert;
+        }
+
+        void add(long timestamp, long downloadBytes, long uploadBytes, long intervalMillis) throws IOException {
+            long sampleBucket = tier.bucketOf(timestamp);
+            // Only buckets that were cleared are rebuilt
+            if (sampleBucket < firstBucket || sampleBucket > lastBucket) {
+                return;
+            }
+            if (sampleBucket != bucket) {
+                finish();
+                bucket = sampleBucket;
+                rates = new RateStats(sampleBucket);
+            }
+            download += downloadBytes;
+            upload += uploadBytes;
+            rates.addSample(downloadBytes, uploadBytes, intervalMillis);
+        }
+
+        void finish() throws IOException {
+            if (rates == null) {
+                return;
+            }
+            try {
+                insert.setLong(1, bucket);
+                insert.setLong(2, download);
+                insert.setLong(3, upload);
+                insert.setBytes(4, rates.isEmpty() ? null : rates.getDownload().encode());
+                insert.setBytes(5, rates.isEmpty() ? null : rates.getUpload().encode());
+                insert.executeUpdate();
+            } catch (SQLException e) {
+                throw new IOException(e);
+            }
+            download = 0;
+            upload = 0;
+            rates = null;
+        }
+    }
+
+    /**
+     * Queues a sample for the next batched write and keeps it in memory for
+     * live-window queries.
+     */
     public void insertUsage(UsageRecord record) {
-        String sql = "INSERT INTO network_usage(timestamp, download_bytes, upload_bytes) VALUES(?, ?, ?)";
+        insertUsage(record, Collections.emptyList());
+    }
 
-        try (PreparedStatement pstmt = connection.prepareStatement(sql)) {
-            pstmt.setLong(1, record.getTimestamp());
-            pstmt.setLong(2, record.getDownloadBytes());
-            pstmt.setLong(3, record.getUploadBytes());
-            pstmt.executeUpdate();
-        } catch (SQLException e) {
-            System.err.println("Error inserting record: " + e.getMessage());
+    /**
+     * Queues a sample along with its per-interface breakdown. The total is
+     * what the rollups and live queries see; the breakdown is stored as raw rows.
+     */
+    public void insertUsage(UsageRecord record, List<InterfaceUsageRecord> interfaceRecords) {
+        appendRecentSample(record);
+        persistUsage(record, interfaceRecords);
+    }
+
+    /**
+     * Adds a sample to the in-memory live buffer only. In high-frequency mode
+     * every sample goes here while coalesced samples are persisted.
+     */
+    public void appendRecentSample(UsageRecord record) {
+        if (recentSamples != null) {
+            recentSamples.append(record.getTimestamp(), record.getDownloadBytes(), record.getUploadBytes());
         }
     }
 
-    public List<UsageRecord> getUsageInRange(long startMillis, long endMillis) {
-        List<UsageRecord> records = new ArrayList<>();
-        String sql = "SELECT timestamp, download_bytes, upload_bytes FROM network_usage WHERE timestamp BETWEEN ? AND ? ORDER BY timestamp ASC";
+    /**
+     * Queues a sample for storage without adding it to the live buffer.
+     */
+    public void persistUsage(UsageRecord record, List<InterfaceUsageRecord> interfaceRecords) {
+        if (writeBuffer != null) {
+            writeBuffer.add(record, interfaceRecords);
+        }
+    }
 
-        try (PreparedStatement pstmt = connection.prepareStatement(sql)) {
+    public RecentSampleBuffer getRecentSamples() {
+        return recentSamples;
+    }
 
-            pstmt.setLong(1, startMillis);
-            pstmt.setLong(2, endMillis);
+    /**
+     * Writes any queued samples immediately.
+     *
+     * @return false if the write failed; the samples stay queued for a retry
+     */
+    public boolean flushPendingWrites() {
+        return writeBuffer == null || writeBuffer.flush();
+    }
 
-            ResultSet rs = pstmt.executeQuery();
-            while (rs.next()) {
-                records.add(new UsageRecord(
-                        rs.getLong("timestamp"),
-                        rs.getLong("download_bytes"),
-                        rs.getLong("upload_bytes")));
+    /**
+     * Stores a block of samples in one transaction, bypassing the live buffer
+     * and the write queue. Used to bulk-load history; the samples must be in
+     * time order and later than anything already stored.
+     *
+     * @return true if the block was written
+     */
+    public boolean importSamples(List<UsageRecord> records, List<List<InterfaceUsageRecord>> interfaceRecords) {
+        if (writeBuffer == null) {
+            System.err.println("Cannot import samples: database is open read-only.");
+            return false;
+        }
+        long started = System.nanoTime();
+        try {
+            writeBuffer.writeNow(records, interfaceRecords);
+            IMPORT_STAGE.record(started, records.size());
+            return true;
+        } catch (SQLException | IOException e) {
+            System.err.println("Error importing samples: " + e.getMessage());
+            return false;
+        }
+    }
+
+    public List<UsageRecord> getUsageInRange(long startMillis, long endMillis) {
+        long started = System.nanoTime();
+        if (recentSamples != null && recentSamples.covers(startMillis)) {
+            List<UsageRecord> recent = recentSamples.getRange(startMillis, endMillis);
+            RANGE_STAGE.record(started, recent.size());
+            return recent;
+        }
+
+        List<UsageRecord> records = new ArrayList<>();
+        // Keep a flush from moving rows between the table and the pending
+        // buffer while we read both
+        beginPendingRead();
+        try {
+            // Rows of the same tick belong to different interfaces; the store combines them
+            usageStore.scanTotals(startMillis, exclusiveEnd(endMillis),
+                    (timestamp, download, upload) -> records.add(new UsageRecord(timestamp, download, upload)));
+            if (writeBuffer != null) {
+                records.addAll(writeBuffer.getPendingInRange(startMillis, endMillis));
             }
-        } catch (SQLException e) {
+        } catch (SQLException | IOException e) {
             System.err.println("Error querying records: " + e.getMessage());
+        } finally {
+            endPendingRead();
         }
+        RANGE_STAGE.record(started, records.size());
         return records;
     }
 
     /**
-     * Aggregates data for efficient plotting of large time ranges
+     * Aggregates data for efficient plotting of large time ranges.
+     * Whole buckets are read from the coarsest rollup that divides the interval;
+     * only the partial edges of the range touch finer tiers or raw samples.
      */
     public List<UsageRecord> getAggregatedUsage(long startMillis, long endMillis, long intervalMillis) {
-        List<UsageRecord> records = new ArrayList<>();
-        // SQLite integer division for grouping
-        String sql = "SELECT (timestamp / ?) * ? as bucket, " +
-                "SUM(download_bytes) as total_down, " +
-                "SUM(upload_bytes) as total_up " +
-                "FROM network_usage " +
-                "WHERE timestamp BETWEEN ? AND ? " +
-                "GROUP BY bucket " +
-                "ORDER BY bucket ASC";
-
-        try (PreparedStatement pstmt = connection.prepareStatement(sql)) {
-
-            pstmt.setLong(1, intervalMillis);
-            pstmt.setLong(2, intervalMillis);
-            pstmt.setLong(3, startMillis);
-            pstmt.setLong(4, endMillis);
-
-            ResultSet rs = pstmt.executeQuery();
-            while (rs.next()) {
-                records.add(new UsageRecord(
-                        rs.getLong("bucket"), // timestamp bucket
-                        rs.getLong("total_down"),
-                        rs.getLong("total_up")));
+        long started = System.nanoTime();
+        flushPendingWrites();
+        Map<Long, long[]> buckets = new TreeMap<>();
+        RollupTier maxTier = RollupTier.coarsestFor(intervalMillis);
+
+        try {
+            for (RollupPlanner.Segment segment : RollupPlanner.plan(startMillis, exclusiveEnd(endMillis), maxTier)) {
+                if (!segment.getTier().isRollup()) {
+                    usageStore.aggregate(segment.getFromMillis(), segment.getToMillis(), intervalMillis, 0,
+                            (slot, download, upload) -> {
+                                long[] totals = buckets.computeIfAbsent(slot, k -> new long[2]);
+                                totals[0] += download;
+                                totals[1] += upload;
+                            });
+                    continue;
+                }
+                // SQLite integer division for grouping
+                String sql = "SELECT (bucket / ?) * ? as slot, " +
+                        "SUM(download_bytes) as total_down, " +
+                        "SUM(upload_bytes) as total_up " +
+                        "FROM " + segment.getTier().getTableName() + " " +
+                        "WHERE bucket >= ? AND bucket < ? " +
+                        "GROUP BY slot";
+
+                try (ReadConnectionPool.Lease lease = readPool.acquire()) {
+                    PreparedStatement pstmt = lease.prepare(sql);
+                    pstmt.setLong(1, intervalMillis);
+                    pstmt.setLong(2, intervalMillis);
+                    pstmt.setLong(3, segment.getFromMillis());
+                    pstmt.setLong(4, segment.getToMillis());
+
+                    try (ResultSet rs = pstmt.executeQuery()) {
+                        while (rs.next()) {
+                            long[] totals = buckets.computeIfAbsent(rs.getLong("slot"), k -> new long[2]);
+                            totals[0] += rs.getLong("total_down");
+                            totals[1] += rs.getLong("total_up");
+                        }
+                    }
+                }
             }
-        } catch (SQLException e) {
+        } catch (SQLException | IOException e) {
             System.err.println("Error querying aggregated records: " + e.getMessage());
         }
+
+        List<UsageRecord> records = new ArrayList<>(buckets.size());
+        for (Map.Entry<Long, long[]> entry : buckets.entrySet()) {
+            records.add(new UsageRecord(entry.getKey(), entry.getValue()[0], entry.getValue()[1]));
+        }
+        AGGREGATED_STAGE.record(started, records.size());
         return records;
     }
 
     public UsageRecord getTotalUsage(long startMillis, long endMillis) {
-        String sql = "SELECT SUM(download_bytes) as total_down, SUM(upload_bytes) as total_up FROM network_usage WHERE timestamp BETWEEN ? AND ?";
+        long started = System.nanoTime();
+        if (recentSamples != null && recentSamples.covers(startMillis)) {
+            long[] totals = new long[2];
+            recentSamples.sumRange(startMillis, endMillis, totals);
+            TOTAL_STAGE.record(started, 1);
+            return new UsageRecord(endMillis, totals[0], totals[1]);
+        }
 
-        try (PreparedStatement pstmt = connection.prepareStatement(sql)) {
+        long totalDown = 0;
+        long totalUp = 0;
 
-            pstmt.setLong(1, startMillis);
-            pstmt.setLong(2, endMillis);
+        beginPendingRead();
+        try {
+            for (RollupPlanner.Segment segment : RollupPlanner.plan(startMillis, exclusiveEnd(endMillis),
+                    RollupTier.DAY)) {
+                if (!segment.getTier().isRollup()) {
+                    long[] totals = usageStore.sum(segment.getFromMillis(), segment.getToMillis());
+                    totalDown += totals[0];
+                    totalUp += totals[1];
+                    continue;
+                }
+                String sql = "SELECT SUM(download_bytes) as total_down, SUM(upload_bytes) as total_up " +
+                        "FROM " + segment.getTier().getTableName() + " " +
+                        "WHERE bucket >= ? AND bucket < ?";
+
+                try (ReadConnectionPool.Lease lease = readPool.acquire()) {
+                    PreparedStatement pstmt = lease.prepare(sql);
+                    pstmt.setLong(1, segment.getFromMillis());
+                    pstmt.setLong(2, segment.getToMillis());
 
-            ResultSet rs = pstmt.executeQuery();
-            if (rs.next()) {
-                return new UsageRecord(
-                        endMillis,
-                        rs.getLong("total_down"),
-                        rs.getLong("total_up"));
+                    try (ResultSet rs = pstmt.executeQuery()) {
+                        if (rs.next()) {
+                            totalDown += rs.getLong("total_down");
+                            totalUp += rs.getLong("total_up");
+                        }
+                    }
+                }
             }
-        } catch (SQLException e) {
+
+            if (writeBuffer != null) {
+                long[] pendingTotals = writeBuffer.sumPending(startMillis, endMillis);
+                totalDown += pendingTotals[0];
+                totalUp += pendingTotals[1];
+            }
+        } catch (SQLException | IOException e) {
             System.err.println("Error querying total usage: " + e.getMessage());
+        } finally {
+            endPendingRead();
         }
-        return new UsageRecord(endMillis, 0, 0);
+        TOTAL_STAGE.record(started, 1);
+        return new UsageRecord(endMillis, totalDown, totalUp);
     }
 
     public List<UsageRecord> getDailyUsage(long startMillis, long endMillis) {
-        List<UsageRecord> records = new ArrayList<>();
-        // Group by day using SQLite date formatting
-        String sql = "SELECT strftime('%Y-%m-%d', timestamp / 1000, 'unixepoch', 'localtime') as day, " +
-                "SUM(download_bytes) as total_down, " +
-                "SUM(upload_bytes) as total_up, " +
-                "MAX(timestamp) as last_ts " +
-                "FROM network_usage " +
-                "WHERE timestamp BETWEEN ? AND ? " +
-                "GROUP BY day " +
-                "ORDER BY day ASC";
-
-        try (PreparedStatement pstmt = connection.prepareStatement(sql)) {
-            pstmt.setLong(1, startMillis);
-            pstmt.setLong(2, endMillis);
+        long started = System.nanoTime();
+        flushPendingWrites();
+        // Local days line up with hourly buckets unless the zone has a fractional-hour offset
+        TimeZone zone = TimeZone.getDefault();
+        boolean hourAligned = zone.getRawOffset() % RollupTier.HOUR.getResolutionMillis() == 0
+                && zone.getDSTSavings() % RollupTier.HOUR.getResolutionMillis() == 0;
+        RollupTier maxTier = hourAligned ? RollupTier.HOUR : RollupTier.MINUTE;
+        DateTimeFormatter dayFormat = DateTimeFormatter.ofPattern("yyyy-MM-dd").withZone(ZoneId.systemDefault());
 
-            ResultSet rs = pstmt.executeQuery();
-            while (rs.next()) {
-                // We reuse UsageRecord; we'll store the day string in the 'date' field in CSV
-                // later,
-                // but for now we store the last_ts to keep it compatible with UsageRecord
-                // constructor
-                records.add(new UsageRecord(
-                        rs.getLong("last_ts"),
-                        rs.getLong("total_down"),
-                        rs.getLong("total_up")));
+        // day -> {download, upload, last timestamp}
+        Map<String, long[]> days = new TreeMap<>();
+        try {
+            for (RollupPlanner.Segment segment : RollupPlanner.plan(startMillis, exclusiveEnd(endMillis), maxTier)) {
+                if (!segment.getTier().isRollup()) {
+                    // Only the ragged edges of the range, so binning in Java is cheap
+                    usageStore.scanTotals(segment.getFromMillis(), segment.getToMillis(),
+                            (timestamp, download, upload) -> {
+                                long[] totals = days.computeIfAbsent(
+                                        dayFormat.format(Instant.ofEpochMilli(timestamp)), k -> new long[3]);
+                                totals[0] += download;
+                                totals[1] += upload;
+                                totals[2] = Math.max(totals[2], timestamp);
+                            });
+                    continue;
+                }
+                // Group by day using SQLite date formatting
+                String sql = "SELECT strftime('%Y-%m-%d', bucket / 1000, 'unixepoch', 'localtime') as day, " +
+                        "SUM(download_bytes) as total_down, " +
+                        "SUM(upload_bytes) as total_up, " +
+                        "MAX(bucket) as last_ts " +
+                        "FROM " + segment.getTier().getTableName() + " " +
+                        "WHERE bucket >= ? AND bucket < ? " +
+                        "GROUP BY day";
+
+                try (ReadConnectionPool.Lease lease = readPool.acquire()) {
+                    PreparedStatement pstmt = lease.prepare(sql);
+                    pstmt.setLong(1, segment.getFromMillis());
+                    pstmt.setLong(2, segment.getToMillis());
+
+                    try (ResultSet rs = pstmt.executeQuery()) {
+                        while (rs.next()) {
+                            long[] totals = days.computeIfAbsent(rs.getString("day"), k -> new long[3]);
+                            totals[0] += rs.getLong("total_down");
+                            totals[1] += rs.getLong("total_up");
+                            totals[2] = Math.max(totals[2], rs.getLong("last_ts"));
+                        }
+                    }
+                }
             }
-        } catch (SQLException e) {
+        } catch (SQLException | IOException e) {
             System.err.println("Error querying daily usage: " + e.getMessage());
         }
+
+        List<UsageRecord> records = new ArrayList<>(days.size());
+        for (long[] totals : days.values()) {
+            // We reuse UsageRecord; the timestamp is the last sample of the day so the
+            // CSV export can format the date from it
+            records.add(new UsageRecord(totals[2], totals[0], totals[1]));
+        }
+        DAILY_STAGE.record(started, records.size());
         return records;
     }
 
+    /**
+     * Peak, mean and percentiles of the per-sample rates over the whole range,
+     * merged from the rollup sketches; only the ragged edges of the range are
+     * read from raw samples.
+     */
+    public RateStats getRateStats(long startMillis, long endMillis) {
+        long started = System.nanoTime();
+        Map<Long, RateStats> slots = collectRateStats(startMillis, endMillis, RollupTier.DAY,
+                timestamp -> startMillis);
+        RateStats stats = slots.getOrDefault(startMillis, new RateStats(startMillis));
+        RATE_STATS_STAGE.record(started, 1);
+        return stats;
+    }
+
+    /**
+     * Rate statistics per bucket, for charting peaks and percentiles next to
+     * the averages from {@link #getAggregatedUsage}. Buckets without a rated
+     * sample are left out.
+     */
+    public List<RateStats> getAggregatedRateStats(long startMillis, long endMillis, long intervalMillis) {
+        long started = System.nanoTime();
+        Map<Long, RateStats> slots = collectRateStats(startMillis, endMillis,
+                RollupTier.coarsestFor(intervalMillis),
+                timestamp -> Math.floorDiv(timestamp, intervalMillis) * intervalMillis);
+        List<RateStats> stats = new ArrayList<>(slots.size());
+        for (RateStats slot : slots.values()) {
+            if (!slot.isEmpty()) {
+                stats.add(slot);
+            }
+        }
+        RATE_STATS_STAGE.record(started, stats.size());
+        return stats;
+    }
+
+    private Map<Long, RateStats> collectRateStats(long startMillis, long endMillis, RollupTier maxTier,
+            LongUnaryOperator slotOf) {
+        flushPendingWrites();
+        Map<Long, RateStats> slots = new TreeMap<>();
+        try {
+            for (RollupPlanner.Segment segment : RollupPlanner.plan(startMillis, exclusiveEnd(endMillis), maxTier)) {
+                if (!segment.getTier().isRollup()) {
+                    RateStats.scan(usageStore, segment.getFromMillis(), segment.getToMillis(),
+                            (timestamp, download, upload, interval) -> slots
+                                    .computeIfAbsent(slotOf.applyAsLong(timestamp), RateStats::new)
+                                    .addSample(download, upload, interval));
+                    continue;
+                }
+                String sql = "SELECT bucket, download_rates, upload_rates " +
+                        "FROM " + segment.getTier().getTableName() + " " +
+                        "WHERE bucket >= ? AND bucket < ? AND download_rates IS NOT NULL";
+
+                try (ReadConnectionPool.Lease lease = readPool.acquire()) {
+                    PreparedStatement pstmt = lease.prepare(sql);
+                    pstmt.setLong(1, segment.getFromMillis());
+                    pstmt.setLong(2, segment.getToMillis());
+
+                    try (ResultSet rs = pstmt.executeQuery()) {
+                        while (rs.next()) {
+                            long bucket = rs.getLong(1);
+                            slots.computeIfAbsent(slotOf.applyAsLong(bucket), RateStats::new)
+                                    .merge(new RateStats(bucket, RateSketch.decode(rs.getBytes(2)),
+                                            RateSketch.decode(rs.getBytes(3))));
+                        }
+                    }
+                }
+            }
+        } catch (SQLException | IOException e) {
+            System.err.println("Error querying rate statistics: " + e.getMessage());
+        }
+        return slots;
+    }
+
+    /**
+     * The rate used for burstable billing: the given percentile (0.95 for
+     * 95th-percentile billing) of the average rates over each
+     * {@value #BILLING_INTERVAL_MS} ms interval in the range, each direction
+     * on its own. Exact, since 5-minute totals come straight from the minute
+     * rollups. Intervals without samples are not counted.
+     *
+     * @return {download, upload} in bytes per second
+     */
+    public double[] getBillingRates(long startMillis, long endMillis, double fraction) {
+        List<UsageRecord> intervals = getAggregatedUsage(startMillis, endMillis, BILLING_INTERVAL_MS);
+        if (intervals.isEmpty()) {
+            return new double[2];
+        }
+        double[] download = new double[intervals.size()];
+        double[] upload = new double[intervals.size()];
+        for (int i = 0; i < intervals.size(); i++) {
+            download[i] = intervals.get(i).getDownloadBytes() * 1000.0 / BILLING_INTERVAL_MS;
+            upload[i] = intervals.get(i).getUploadBytes() * 1000.0 / BILLING_INTERVAL_MS;
+        }
+        Arrays.sort(download);
+        Arrays.sort(upload);
+        // Nearest rank: the top (1 - fraction) of intervals are forgiven
+        int rank = (int) Math.max(1, Math.ceil(fraction * intervals.size())) - 1;
+        return new double[] { download[rank], upload[rank] };
+    }
+
+    /**
+     * Totals per interface over the range, busiest first.
+     */
+    public Map<String, UsageRecord> getUsageByInterface(long startMillis, long endMillis) {
+        long started = System.nanoTime();
+        flushPendingWrites();
+        Map<Long, long[]> totalsById = Collections.emptyMap();
+        try {
+            totalsById = usageStore.sumByInterface(startMillis, exclusiveEnd(endMillis));
+        } catch (SQLException | IOException e) {
+            System.err.println("Error querying interface usage: " + e.getMessage());
+        }
+
+        List<Map.Entry<Long, long[]>> sorted = new ArrayList<>(totalsById.entrySet());
+        sorted.sort((a, b) -> Long.compare(b.getValue()[0] + b.getValue()[1], a.getValue()[0] + a.getValue()[1]));
+        Map<String, UsageRecord> usage = new LinkedHashMap<>();
+        for (Map.Entry<Long, long[]> entry : sorted) {
+            usage.put(interfaceRegistry.getName(entry.getKey()),
+                    new UsageRecord(endMillis, entry.getValue()[0], entry.getValue()[1]));
+        }
+        BY_INTERFACE_STAGE.record(started, usage.size());
+        return usage;
+    }
+
+    /**
+     * Estimated totals per process over the buckets overlapping the range,
+     * busiest first. Each bucket only names its busiest processes, so a
+     * process that was sometimes outside them is partly counted under
+     * {@link ProcessAttributor#OTHER_NAME}.
+     */
+    public Map<String, UsageRecord> getUsageByProcess(long startMillis, long endMillis) {
+        long started = System.nanoTime();
+        String sql = "SELECT name, SUM(download_bytes), SUM(upload_bytes) FROM process_usage " +
+                "WHERE bucket >= ? AND bucket <= ? GROUP BY name " +
+                "ORDER BY SUM(download_bytes) + SUM(upload_bytes) DESC";
+        Map<String, UsageRecord> usage = new LinkedHashMap<>();
+        try (ReadConnectionPool.Lease lease = readPool.acquire()) {
+            PreparedStatement pstmt = lease.prepare(sql);
+            pstmt.setLong(1, Math.floorDiv(startMillis, ProcessAttributor.BUCKET_MS) * ProcessAttributor.BUCKET_MS);
+            pstmt.setLong(2, endMillis);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    usage.put(rs.getString(1), new UsageRecord(endMillis, rs.getLong(2), rs.getLong(3)));
+                }
+            }
+        } catch (SQLException e) {
+            System.err.println("Error querying process usage: " + e.getMessage());
+        }
+        BY_PROCESS_STAGE.record(started, usage.size());
+        return usage;
+    }
+
+    /**
+     * Replaces the stored rows of one process bucket.
+     */
+    public void saveProcessUsage(long bucket, Map<String, UsageRecord> usage) {
+        if (readOnly) {
+            return;
+        }
+        long started = System.nanoTime();
+        synchronized (writeConnection) {
+            try {
+                writeConnection.setAutoCommit(false);
+                PreparedStatement delete = writeStatements.prepare("DELETE FROM process_usage WHERE bucket = ?");
+                delete.setLong(1, bucket);
+                delete.executeUpdate();
+                PreparedStatement insert = writeStatements.prepare(
+                        "INSERT INTO process_usage(bucket, name, download_bytes, upload_bytes) VALUES(?, ?, ?, ?)");
+                for (Map.Entry<String, UsageRecord> entry : usage.entrySet()) {
+                    insert.setLong(1, bucket);
+                    insert.setString(2, entry.getKey());
+                    insert.setLong(3, entry.getValue().getDownloadBytes());
+                    insert.setLong(4, entry.getValue().getUploadBytes());
+                    insert.addBatch();
+                }
+                insert.executeBatch();
+                writeConnection.commit();
+            } catch (SQLException e) {
+                System.err.println("Error saving process usage: " + e.getMessage());
+                try {
+                    writeConnection.rollback();
+                } catch (SQLException ignored) {
+                }
+            } finally {
+                try {
+                    writeConnection.setAutoCommit(true);
+                } catch (SQLException ignored) {
+                }
+            }
+        }
+        SAVE_PROCESS_STAGE.record(started, usage.size());
+    }
+
+    /**
+     * @return per pushing host, the newest timestamp of its records stored
+     */
+    public Map<String, Long> getPusherWatermarks() {
+        Map<String, Long> watermarks = new HashMap<>();
+        synchronized (writeConnection) {
+            try {
+                PreparedStatement pstmt = writeStatements.prepare(
+                        "SELECT host, stored_through FROM pusher_watermarks");
+                try (ResultSet rs = pstmt.executeQuery()) {
+                    while (rs.next()) {
+                        watermarks.put(rs.getString(1), rs.getLong(2));
+                    }
+                }
+            } catch (SQLException e) {
+                System.err.println("Error reading pusher watermarks: " + e.getMessage());
+            }
+        }
+        return watermarks;
+    }
+
+    /**
+     * Saves the given hosts' watermarks in one transaction.
+     *
+     * @return true if they were saved
+     */
+    public boolean savePusherWatermarks(Map<String, Long> watermarks) {
+        if (readOnly) {
+            return false;
+        }
+        long started = System.nanoTime();
+        boolean saved = false;
+        synchronized (writeConnection) {
+            try {
+                writeConnection.setAutoCommit(false);
+                PreparedStatement upsert = writeStatements.prepare(
+                        "INSERT OR REPLACE INTO pusher_watermarks(host, stored_through) VALUES(?, ?)");
+                for (Map.Entry<String, Long> entry : watermarks.entrySet()) {
+                    upsert.setString(1, entry.getKey());
+                    upsert.setLong(2, entry.getValue());
+                    upsert.addBatch();
+                }
+                upsert.executeBatch();
+                writeConnection.commit();
+                saved = true;
+            } catch (SQLException e) {
+                System.err.println("Error saving pusher watermarks: " + e.getMessage());
+                try {
+                    writeConnection.rollback();
+                } catch (SQLException ignored) {
+                }
+            } finally {
+                try {
+                    writeConnection.setAutoCommit(true);
+                } catch (SQLException ignored) {
+                }
+            }
+        }
+        SAVE_WATERMARKS_STAGE.record(started, watermarks.size());
+        return saved;
+    }
+
     public void saveSetting(String key, String value) {
+        if (readOnly) {
+            return;
+        }
+        long started = System.nanoTime();
         String sql = "INSERT OR REPLACE INTO settings(key, value) VALUES(?, ?)";
-        try (PreparedStatement pstmt = connection.prepareStatement(sql)) {
-            pstmt.setString(1, key);
-            pstmt.setString(2, value);
-            pstmt.executeUpdate();
-        } catch (SQLException e) {
-            System.err.println("Error saving setting: " + e.getMessage());
+        synchronized (writeConnection) {
+            try {
+                PreparedStatement pstmt = writeStatements.prepare(sql);
+                pstmt.setString(1, key);
+                pstmt.setString(2, value);
+                pstmt.executeUpdate();
+            } catch (SQLException e) {
+                System.err.println("Error saving setting: " + e.getMessage());
+            }
+        }
+        SAVE_SETTING_STAGE.record(started, 1);
+    }
+
+    /**
+     * Saves several settings in one transaction, for values that are only
+     * meaningful together.
+     */
+    public void saveSettings(Map<String, String> settings) {
+        if (readOnly) {
+            return;
         }
+        long started = System.nanoTime();
+        String sql = "INSERT OR REPLACE INTO settings(key, value) VALUES(?, ?)";
+        synchronized (writeConnection) {
+            try {
+                writeConnection.setAutoCommit(false);
+                PreparedStatement pstmt = writeStatements.prepare(sql);
+                for (Map.Entry<String, String> entry : settings.entrySet()) {
+                    pstmt.setString(1, entry.getKey());
+                    pstmt.setString(2, entry.getValue());
+                    pstmt.addBatch();
+                }
+                pstmt.executeBatch();
+                writeConnection.commit();
+            } catch (SQLException e) {
+                System.err.println("Error saving settings: " + e.getMessage());
+                try {
+                    writeConnection.rollback();
+                } catch (SQLException ignored) {
+                }
+            } finally {
+                try {
+                    writeConnection.setAutoCommit(true);
+                } catch (SQLException ignored) {
+                }
+            }
+        }
+        SAVE_SETTING_STAGE.record(started, settings.size());
     }
 
     public String getSetting(String key, String defaultValue) {
+        // Settings are tiny and also read while the read pool is being set up,
+        // so they go through the writer connection
+        long started = System.nanoTime();
         String sql = "SELECT value FROM settings WHERE key = ?";
-        try (PreparedStatement pstmt = connection.prepareStatement(sql)) {
-            pstmt.setString(1, key);
-            ResultSet rs = pstmt.executeQuery();
-            if (rs.next()) {
-                return rs.getString("value");
+        String value = defaultValue;
+        synchronized (writeConnection) {
+            try {
+                PreparedStatement pstmt = writeStatements.prepare(sql);
+                pstmt.setString(1, key);
+                try (ResultSet rs = pstmt.executeQuery()) {
+                    if (rs.next()) {
+                        value = rs.getString("value");
+                    }
+                }
+            } catch (SQLException e) {
+                System.err.println("Error getting setting: " + e.getMessage());
             }
-        } catch (SQLException e) {
-            System.err.println("Error getting setting: " + e.getMessage());
         }
-        return defaultValue;
+        GET_SETTING_STAGE.record(started, 1);
+        return value;
     }
 
-    public void performAutoCleanup() {
-        // Delete records older than 1 year (365 days)
-        long yearAgo = System.currentTimeMillis() - (365L * 24 * 60 * 60 * 1000);
-        clearDataInRange(0, yearAgo);
-        System.out.println("Auto-cleanup: Removed records older than " + new java.util.Date(yearAgo));
+    public long getLongSetting(String key, long defaultValue) {
+        try {
+            return Long.parseLong(getSetting(key, String.valueOf(defaultValue)));
+        } catch (NumberFormatException e) {
+            System.err.println("Invalid value for setting " + key + ", using " + defaultValue);
+            return defaultValue;
+        }
     }
 
+    /**
+     * Deletes samples with timestamps in [startMillis, endMillis].
+     */
     public void clearDataInRange(long startMillis, long endMillis) {
-        String sql = "DELETE FROM network_usage WHERE timestamp BETWEEN ? AND ?";
-        try (PreparedStatement pstmt = connection.prepareStatement(sql)) {
-            pstmt.setLong(1, startMillis);
-            pstmt.setLong(2, endMillis);
-            int rows = pstmt.executeUpdate();
-            System.out.println("Cleanup: Deleted " + rows + " records.");
-        } catch (SQLException e) {
-            System.err.println("Error clearing data: " + e.getMessage());
+        if (readOnly) {
+            System.err.println("Cannot clear data: database is open read-only.");
+            return;
+        }
+        long started = System.nanoTime();
+        flushPendingWrites();
+        synchronized (writeConnection) {
+            try {
+                // Raw rows and rollups change in one transaction so readers never
+                // see one without the other
+                writeConnection.setAutoCommit(false);
+                long rows = usageStore.delete(startMillis, exclusiveEnd(endMillis));
+                // Process buckets can't be split, so any the range touches go
+                PreparedStatement processes = writeStatements.prepare(
+                        "DELETE FROM process_usage WHERE bucket >= ? AND bucket <= ?");
+                processes.setLong(1, Math.floorDiv(startMillis, ProcessAttributor.BUCKET_MS)
+                        * ProcessAttributor.BUCKET_MS);
+                processes.setLong(2, endMillis);
+                processes.executeUpdate();
+                // Commits the SQL side; store files change only once that succeeded
+                rebuildRollups(startMillis, endMillis);
+                usageStore.commit();
+                if (recentSamples != null) {
+                    recentSamples.removeRange(startMillis, endMillis);
+                }
+                System.out.println("Cleanup: Deleted " + rows + " records.");
+                CLEAR_STAGE.record(started, rows);
+            } catch (SQLException | IOException e) {
+                System.err.println("Error clearing data: " + e.getMessage());
+                try {
+                    writeConnection.rollback();
+                } catch (SQLException ignored) {
+                }
+                usageStore.rollback();
+            } finally {
+                try {
+                    writeConnection.setAutoCommit(true);
+                } catch (SQLException ignored) {
+                }
+            }
         }
     }
 
+    /**
+     * Removes samples and rollup buckets older than cutoffMillis without
+     * holding the writer for long: the store expires raw data in small steps
+     * so flushes interleave, and freed pages are then returned to the file
+     * system in chunks.
+     *
+     * @return the number of raw rows deleted, where known
+     */
+    public long applyRetention(long cutoffMillis, BooleanSupplier cancelled) {
+        if (readOnly) {
+            return 0;
+        }
+        long started = System.nanoTime();
+        long rows = 0;
+        try {
+            rows = usageStore.expireBefore(cutoffMillis, cancelled);
+            long buckets = 0;
+            for (RollupTier tier : RollupTier.values()) {
+                if (tier.isRollup()) {
+                    buckets += SqliteUsageStore.deleteInChunks(writeStatements, tier.getTableName(),
+                            tier.getTimeColumn(), tier.bucketOf(cutoffMillis), cancelled);
+                }
+            }
+            buckets += SqliteUsageStore.deleteInChunks(writeStatements, "process_usage", "bucket",
+                    cutoffMillis, cancelled);
+            if (cancelled.getAsBoolean()) {
+                RETENTION_STAGE.record(started, rows);
+                return rows;
+            }
+            // The buckets holding the cutoff lost their older samples
+            rebuildRollups(cutoffMillis, cutoffMillis);
+            if (rows > 0 || buckets > 0) {
+                System.out.println("Retention: Deleted " + rows + " records older than " +
+                        new java.util.Date(cutoffMillis));
+                vacuumIncrementally(cancelled);
+            }
+        } catch (SQLException | IOException e) {
+            System.err.println("Error applying retention: " + e.getMessage());
+        }
+        RETENTION_STAGE.record(started, rows);
+        return rows;
+    }
+
+    /**
+     * Hands free pages back to the file system. Only databases created with
+     * incremental auto-vacuum can do this; older files keep the pages and
+     * reuse them for new samples.
+     */
+    private void vacuumIncrementally(BooleanSupplier cancelled) throws SQLException {
+        while (!cancelled.getAsBoolean()) {
+            synchronized (writeConnection) {
+                try (Statement stmt = writeConnection.createStatement()) {
+                    if (pragmaLong(stmt, "auto_vacuum") != 2 || pragmaLong(stmt, "freelist_count") == 0) {
+                        return;
+                    }
+                    stmt.execute("PRAGMA incremental_vacuum(" + VACUUM_CHUNK_PAGES + ");");
+                }
+            }
+            if (!SqliteUsageStore.pauseBetweenChunks()) {
+                return;
+            }
+        }
+    }
+
+    private static long pragmaLong(Statement stmt, String pragma) throws SQLException {
+        try (ResultSet rs = stmt.executeQuery("PRAGMA " + pragma + ";")) {
+            return rs.next() ? rs.getLong(1) : 0;
+        }
+    }
+
+
+    private void beginPendingRead() {
+        if (writeBuffer != null) {
+            writeBuffer.getVisibilityLock().readLock().lock();
+        }
+    }
+
+    private void endPendingRead() {
+        if (writeBuffer != null) {
+            writeBuffer.getVisibilityLock().readLock().unlock();
+        }
+    }
+
+    /**
+     * Opens a separate read-only connection for long-running reads such as
+     * exports, so they don't occupy a pooled connection. The caller closes it.
+     */
+    Connection openReadConnection() throws SQLException {
+        return readPool.openStandalone();
+    }
+
+    UsageStore getUsageStore() {
+        return usageStore;
+    }
+
+    private static long exclusiveEnd(long endMillis) {
+        return endMillis == Long.MAX_VALUE ? endMillis : endMillis + 1;
+    }
+
     public void closeConnection() {
+        // Guarantee queued samples reach disk before the connection goes away
+        if (writeBuffer != null) {
+            writeBuffer.close();
+            writeBuffer = null;
+        }
+        if (usageStore != null) {
+            usageStore.close();
+        }
+        if (readPool != null) {
+            readPool.close();
+        }
         try {
-            if (connection != null && !connection.isClosed()) {
-                connection.close();
+            if (writeConnection != null && !writeConnection.isClosed()) {
+                synchronized (writeConnection) {
+                    writeStatements.close();
+                    writeConnection.close();
+                }
             }
         } catch (SQLException e) {
             System.err.println("Error closing database connection: " + e.getMessage());
@@ -0,0 +1,182 @@
+package com.networkmonitor.service;
+
+import jdk.jfr.EventType;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Process-wide latency histograms and row counters for the sampling, UI and
+ * database stages. Call sites keep their {@link Stage} in a static field and
+ * time themselves with System.nanoTime(); recording is lock-free and doesn't
+ * allocate. Each recording is also emitted as a {@link StageEvent} when a JFR
+ * recording is running. Plain {@link Counter}s count events such as skipped
+ * ticks.
+ */
+public final class Diagnostics {
+
+    private static final EventType STAGE_EVENT_TYPE = EventType.getEventType(StageEvent.class);
+    private static final List<Stage> stages = new ArrayList<>();
+    private static final List<Counter> counters = new ArrayList<>();
+
+    private Diagnostics() {
+    }
+
+    /**
+     * One timed stage, e.g. "collector.read" or "db.getTotalUsage".
+     */
+    public static final class Stage {
+        private final String name;
+        private final LatencyHistogram latency = new LatencyHistogram();
+        private final LongAdder rows = new LongAdder();
+
+        private Stage(String name) {
+            this.name = name;
+        }
+
+        /**
+         * Records the time since startNanos.
+         */
+        public void record(long startNanos) {
+            record(startNanos, 0);
+        }
+
+        /**
+         * Records the time since startNanos and the rows the stage read or
+         * wrote.
+         */
+        public void record(long startNanos, long rowCount) {
+            long elapsed = System.nanoTime() - startNanos;
+            latency.record(elapsed);
+            rows.add(rowCount);
+            if (STAGE_EVENT_TYPE.isEnabled()) {
+                StageEvent event = new StageEvent();
+                event.stage = name;
+                event.elapsed = elapsed;
+                event.rows = rowCount;
+                event.commit();
+            }
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public LatencyHistogram getLatency() {
+            return latency;
+        }
+
+        public long getRows() {
+            return rows.sum();
+        }
+
+        void reset() {
+            latency.reset();
+            rows.reset();
+        }
+    }
+
+    /**
+     * An event count, e.g. "collector.skippedTicks".
+     */
+    public static final class Counter {
+        private final String name;
+        private final LongAdder count = new LongAdder();
+
+        private Counter(String name) {
+            this.name = name;
+        }
+
+        public void increment() {
+            count.increment();
+        }
+
+        public void add(long n) {
+            count.add(n);
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public long get() {
+            return count.sum();
+        }
+
+        void reset() {
+            count.reset();
+        }
+    }
+
+    /**
+     * Returns the stage with the given name, registering it on first use.
+     */
+    public static synchronized Stage stage(String name) {
+        for (Stage stage : stages) {
+            if (stage.name.equals(name)) {
+                return stage;
+            }
+        }
+        Stage stage = new Stage(name);
+        stages.add(stage);
+        return stage;
+    }
+
+    public static synchronized List<Stage> getStages() {
+        return new ArrayList<>(stages);
+    }
+
+    /**
+     * Returns the counter with the given name, registering it on first use.
+     */
+    public static synchronized Counter counter(String name) {
+        for (Counter counter : counters) {
+            if (counter.name.equals(name)) {
+                return counter;
+            }
+        }
+        Counter counter = new Counter(name);
+        counters.add(counter);
+        return counter;
+    }
+
+    public static synchronized List<Counter> getCounters() {
+        return new ArrayList<>(counters);
+    }
+
+    public static synchronized void reset() {
+        for (Stage stage : stages) {
+            stage.reset();
+        }
+        for (Counter counter : counters) {
+            counter.reset();
+        }
+    }
+
+    /**
+     * @return a table of count, p50, p99, max and rows per stage that has run,
+     *         then the counters
+     */
+    public static String report() {
+        StringBuilder report = new StringBuilder(String.format("%-26s %9s %9s %9s %9s %12s%n",
+                "Stage", "Count", "p50 ms", "p99 ms", "Max ms", "Rows"));
+        for (Stage stage : getStages()) {
+            LatencyHistogram latency = stage.getLatency();
+            if (latency.getCount() == 0) {
+                continue;
+            }
+            report.append(String.format("%-26s %9d %9.2f %9.2f %9.2f %12d%n", stage.getName(),
+                    latency.getCount(), latency.getPercentile(0.5) / 1e6, latency.getPercentile(0.99) / 1e6,
+                    latency.getMax() / 1e6, stage.getRows()));
+        }
+        List<Counter> registered = getCounters();
+        if (!registered.isEmpty()) {
+            report.append(String.format("%-26s %9s%n", "Counter", "Count"));
+            for (Counter counter : registered) {
+                report.append(String.format("%-26s %9d%n", counter.getName(), counter.get()));
+            }
+        }
+        return report.toString();
+    }
+}
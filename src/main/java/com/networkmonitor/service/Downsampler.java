@@ -0,0 +1,77 @@
+package com.networkmonitor.service;
+
+/**
+ * Reduces a series to a fixed number of points for display using
+ * Largest-Triangle-Three-Buckets. Unlike averaging into buckets, LTTB keeps
+ * the points that shape the line, so short spikes survive the reduction.
+ */
+public final class Downsampler {
+
+    private Downsampler() {
+    }
+
+    /**
+     * Picks up to threshold points from the first count entries of x/y.
+     * The first and last points are always kept.
+     *
+     * @param x         x values in ascending order.
+     * @param y         y values.
+     * @param count     number of valid entries in x and y.
+     * @param threshold maximum number of points to return (at least 3).
+     * @return indices of the selected points, in ascending order.
+     */
+    public static int[] lttb(long[] x, double[] y, int count, int threshold) {
+        if (threshold >= count || threshold < 3) {
+            int[] all = new int[count];
+            for (int i = 0; i < count; i++) {
+                all[i] = i;
+            }
+            return all;
+        }
+
+        int[] selected = new int[threshold];
+        int selectedCount = 0;
+        selected[selectedCount++] = 0;
+
+        // Buckets span the points between the fixed first and last ones
+        double bucketSize = (double) (count - 2) / (threshold - 2);
+        int previous = 0;
+
+        for (int bucket = 0; bucket < threshold - 2; bucket++) {
+            int bucketStart = (int) (bucket * bucketSize) + 1;
+            int bucketEnd = (int) ((bucket + 1) * bucketSize) + 1;
+
+            // Average of the next bucket is the third corner of the triangle
+            int nextStart = bucketEnd;
+            int nextEnd = Math.min((int) ((bucket + 2) * bucketSize) + 1, count);
+            double avgX = 0;
+            double avgY = 0;
+            for (int i = nextStart; i < nextEnd; i++) {
+                avgX += x[i];
+                avgY += y[i];
+            }
+            int nextSize = nextEnd - nextStart;
+            avgX /= nextSize;
+            avgY /= nextSize;
+
+            // Relative to the previously selected point to keep the numbers small
+            double originX = x[previous];
+            double originY = y[previous];
+            double maxArea = -1;
+            int chosen = bucketStart;
+            for (int i = bucketStart; i < bucketEnd; i++) {
+                double area = Math.abs((originX - avgX) * (y[i] - originY)
+                        - (originX - x[i]) * (avgY - originY));
+                if (area > maxArea) {
+                    maxArea = area;
+                    chosen = i;
+                }
+            }
+            selected[selectedCount++] = chosen;
+            previous = chosen;
+        }
+
+        selected[selectedCount] = count - 1;
+        return selected;
+    }
+}
@@ -0,0 +1,81 @@
+package com.networkmonitor.service;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Reusable snapshot of cumulative per-interface byte counters.
+ * Collectors fill it in place each tick, so steady-state sampling doesn't
+ * allocate; interface names are interned and only allocated the first time
+ * an interface is seen.
+ */
+public class InterfaceCounters {
+
+    private String[] names = new String[16];
+    private long[] bytesRecv = new long[16];
+    private long[] bytesSent = new long[16];
+    private int count = 0;
+
+    // Names seen so far, with their bytes for allocation-free lookup
+    private String[] knownNames = new String[16];
+    private byte[][] knownNameBytes = new byte[16][];
+    private int knownCount = 0;
+
+    /**
+     * Starts a new snapshot, discarding the previous entries.
+     */
+    public void clear() {
+        count = 0;
+    }
+
+    public void add(String name, long recv, long sent) {
+        if (count == names.length) {
+            int capacity = count * 2;
+            names = Arrays.copyOf(names, capacity);
+            bytesRecv = Arrays.copyOf(bytesRecv, capacity);
+            bytesSent = Arrays.copyOf(bytesSent, capacity);
+        }
+        names[count] = name;
+        bytesRecv[count] = recv;
+        bytesSent[count] = sent;
+        count++;
+    }
+
+    /**
+     * Returns the interned name for the given ASCII bytes, allocating a String
+     * only for a name that hasn't been seen before.
+     */
+    public String internName(byte[] buffer, int offset, int length) {
+        for (int i = 0; i < knownCount; i++) {
+            byte[] known = knownNameBytes[i];
+            if (known.length == length && Arrays.equals(known, 0, length, buffer, offset, offset + length)) {
+                return knownNames[i];
+            }
+        }
+        if (knownCount == knownNames.length) {
+            knownNames = Arrays.copyOf(knownNames, knownCount * 2);
+            knownNameBytes = Arrays.copyOf(knownNameBytes, knownCount * 2);
+        }
+        String name = new String(buffer, offset, length, StandardCharsets.US_ASCII);
+        knownNames[knownCount] = name;
+        knownNameBytes[knownCount] = Arrays.copyOfRange(buffer, offset, offset + length);
+        knownCount++;
+        return name;
+    }
+
+    public int size() {
+        return count;
+    }
+
+    public String getName(int index) {
+        return names[index];
+    }
+
+    public long getBytesRecv(int index) {
+        return bytesRecv[index];
+    }
+
+    public long getBytesSent(int index) {
+        return bytesSent[index];
+    }
+}
@@ -0,0 +1,92 @@
+package com.networkmonitor.service;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Dictionary of interface names, so raw rows store a small integer id
+ * instead of repeating the name. Ids are cached in memory after first use.
+ * Anything that touches the database takes the connection lock before the
+ * registry's own, the same order as the write buffer's flush.
+ */
+public class InterfaceRegistry {
+
+    /** Id for rows that aren't tied to one interface (legacy data, idle ticks). */
+    public static final long UNATTRIBUTED_ID = 0;
+    public static final String UNATTRIBUTED_NAME = "*";
+
+    private final Connection connection;
+    private final Map<String, Long> idsByName = new HashMap<>();
+    private final Map<Long, String> namesById = new HashMap<>();
+
+    public InterfaceRegistry(Connection connection) {
+        this.connection = connection;
+        load();
+    }
+
+    private void load() {
+        synchronized (connection) {
+            try (Statement stmt = connection.createStatement();
+                    ResultSet rs = stmt.executeQuery("SELECT id, name FROM interfaces")) {
+                while (rs.next()) {
+                    cache(rs.getLong("id"), rs.getString("name"));
+                }
+            } catch (SQLException e) {
+                System.err.println("Error loading interfaces: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Returns the id for the interface, registering it on first sight.
+     */
+    public long resolve(String name) throws SQLException {
+        synchronized (this) {
+            Long id = idsByName.get(name);
+            if (id != null) {
+                return id;
+            }
+        }
+        synchronized (connection) {
+            try (PreparedStatement insert = connection.prepareStatement(
+                    "INSERT OR IGNORE INTO interfaces(name) VALUES(?)")) {
+                insert.setString(1, name);
+                insert.executeUpdate();
+            }
+            try (PreparedStatement select = connection.prepareStatement(
+                    "SELECT id FROM interfaces WHERE name = ?")) {
+                select.setString(1, name);
+                ResultSet rs = select.executeQuery();
+                if (!rs.next()) {
+                    throw new SQLException("Interface not registered: " + name);
+                }
+                cache(rs.getLong("id"), name);
+                return rs.getLong("id");
+            }
+        }
+    }
+
+    public String getName(long id) {
+        synchronized (this) {
+            String name = namesById.get(id);
+            if (name != null || id == UNATTRIBUTED_ID) {
+                return name != null ? name : UNATTRIBUTED_NAME;
+            }
+        }
+        // Registered by another connection since we last looked
+        load();
+        synchronized (this) {
+            return namesById.getOrDefault(id, UNATTRIBUTED_NAME);
+        }
+    }
+
+    private synchronized void cache(long id, String name) {
+        idsByName.put(name, id);
+        namesById.put(id, name);
+    }
+}
@@ -0,0 +1,142 @@
+package com.networkmonitor.service;
+
+import com.networkmonitor.model.UsageRecord;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * In-memory usage state for scrapers: byte counters since start, the latest
+ * rates and totals over the last minute to the last day. Updated from the
+ * sample feed, so reading it never touches the database. Window totals are
+ * kept in 10-second slots covering a day, seeded once from storage.
+ */
+public class LiveMetrics implements SampleListener {
+
+    public static final long SLOT_MS = 10_000;
+    private static final int SLOTS = (int) (24 * 60 * 60 * 1000L / SLOT_MS);
+
+    private final long[] slotIndex = new long[SLOTS];
+    private final long[] slotDownload = new long[SLOTS];
+    private final long[] slotUpload = new long[SLOTS];
+    private long downloadTotal;
+    private long uploadTotal;
+    private long samples;
+    private long lastTimestamp;
+    private double downloadRate;
+    private double uploadRate;
+    // Samples before this are covered by the seed
+    private long seedEndMillis = Long.MIN_VALUE;
+    private long firstSampleMillis = Long.MAX_VALUE;
+
+    public LiveMetrics() {
+        Arrays.fill(slotIndex, -1);
+    }
+
+    /**
+     * Loads the last day of totals from storage, up to the first sample this
+     * instance received so nothing is counted twice. Whole minutes come from
+     * the minute rollups and are spread evenly over their 10-second slots;
+     * only the last partial minute is read from raw samples. Call once, off
+     * the UI thread.
+     */
+    public void seed(DatabaseManager databaseManager) {
+        long end;
+        synchronized (this) {
+            end = Math.min(firstSampleMillis, System.currentTimeMillis());
+            seedEndMillis = end;
+        }
+        long minuteMillis = RollupTier.MINUTE.getResolutionMillis();
+        long start = Math.floorDiv(end - SLOTS * SLOT_MS, minuteMillis) * minuteMillis;
+        long wholeMinutesEnd = Math.floorDiv(end, minuteMillis) * minuteMillis;
+        List<UsageRecord> minutes = databaseManager.getAggregatedUsage(start, wholeMinutesEnd - 1, minuteMillis);
+        List<UsageRecord> tail = databaseManager.getAggregatedUsage(wholeMinutesEnd, end - 1, SLOT_MS);
+        int slotsPerMinute = (int) (minuteMillis / SLOT_MS);
+        synchronized (this) {
+            for (UsageRecord minute : minutes) {
+                for (int i = 0; i < slotsPerMinute; i++) {
+                    addToSlot(minute.getTimestamp() + i * SLOT_MS, share(minute.getDownloadBytes(), i, slotsPerMinute),
+                            share(minute.getUploadBytes(), i, slotsPerMinute));
+                }
+            }
+            for (UsageRecord bucket : tail) {
+                addToSlot(bucket.getTimestamp(), bucket.getDownloadBytes(), bucket.getUploadBytes());
+            }
+        }
+    }
+
+    /** Part i of n of total; the parts add up to total exactly. */
+    private static long share(long total, int i, int n) {
+        return total / n + (i < total % n ? 1 : 0);
+    }
+
+    @Override
+    public synchronized void onSample(UsageRecord record, long intervalNanos) {
+        long timestamp = record.getTimestamp();
+        firstSampleMillis = Math.min(firstSampleMillis, timestamp);
+        downloadTotal += record.getDownloadBytes();
+        uploadTotal += record.getUploadBytes();
+        samples++;
+        lastTimestamp = Math.max(lastTimestamp, timestamp);
+        downloadRate = SampleCoalescer.ratePerSecond(record.getDownloadBytes(), intervalNanos);
+        uploadRate = SampleCoalescer.ratePerSecond(record.getUploadBytes(), intervalNanos);
+        if (timestamp >= seedEndMillis) {
+            addToSlot(timestamp, record.getDownloadBytes(), record.getUploadBytes());
+        }
+    }
+
+    private void addToSlot(long timestamp, long download, long upload) {
+        long index = Math.floorDiv(timestamp, SLOT_MS);
+        int slot = (int) Math.floorMod(index, (long) SLOTS);
+        if (slotIndex[slot] != index) {
+            if (slotIndex[slot] > index) {
+                return; // older than a day
+            }
+            slotIndex[slot] = index;
+            slotDownload[slot] = 0;
+            slotUpload[slot] = 0;
+        }
+        slotDownload[slot] += download;
+        slotUpload[slot] += upload;
+    }
+
+    /**
+     * @return {download, upload} over the last windowMillis, to 10 seconds
+     */
+    public synchronized long[] getWindowTotals(long windowMillis, long nowMillis) {
+        long newest = Math.floorDiv(nowMillis, SLOT_MS);
+        long oldest = newest - Math.min(SLOTS, Math.max(1, windowMillis / SLOT_MS)) + 1;
+        long[] totals = new long[2];
+        for (int slot = 0; slot < SLOTS; slot++) {
+            if (slotIndex[slot] >= oldest && slotIndex[slot] <= newest) {
+                totals[0] += slotDownload[slot];
+                totals[1] += slotUpload[slot];
+            }
+        }
+        return totals;
+    }
+
+    public synchronized long getDownloadTotal() {
+        return downloadTotal;
+    }
+
+    public synchronized long getUploadTotal() {
+        return uploadTotal;
+    }
+
+    public synchronized long getSampleCount() {
+        return samples;
+    }
+
+    public synchronized long getLastTimestamp() {
+        return lastTimestamp;
+    }
+
+    public synchronized double getDownloadRate() {
+        return downloadRate;
+    }
+
+    public synchronized double getUploadRate() {
+        return uploadRate;
+    }
+}
@@ -0,0 +1,206 @@
+package com.networkmonitor.service;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Optional HTTP endpoint for scrapers, on localhost only:
+ * /metrics in Prometheus text format and /metrics.json. Answers come from
+ * {@link LiveMetrics}, the quota accountant and {@link Diagnostics}, all in
+ * memory, so frequent scrapes cost next to nothing and never wait on the
+ * database. Enabled by the metrics_port setting or
+ * -Dnetworkmonitor.metrics.port; 0 turns it off.
+ */
+public class MetricsServer {
+
+    private static final long[] WINDOWS_MS = { 60_000, 5 * 60_000, 60 * 60_000, 24 * 60 * 60_000 };
+    private static final String[] WINDOW_NAMES = { "1m", "5m", "1h", "24h" };
+    private static final double BYTES_PER_GB = 1024.0 * 1024.0 * 1024.0;
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final LiveMetrics metrics;
+    private final QuotaAccountant quotaAccountant;
+
+    private MetricsServer(HttpServer server, LiveMetrics metrics, QuotaAccountant quotaAccountant) {
+        this.server = server;
+        this.metrics = metrics;
+        this.quotaAccountant = quotaAccountant;
+        this.executor = Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "metrics-http");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /**
+     * Starts the endpoint if a port is configured and subscribes it to the
+     * feed. Call before the feed starts so no sample is missed.
+     *
+     * @return the running server, or null when disabled or the port is taken
+     */
+    public static MetricsServer startIfEnabled(SampleFeed feed, DatabaseManager databaseManager) {
+        long port = Long.getLong("networkmonitor.metrics.port", databaseManager.getLongSetting("metrics_port", 0));
+        if (port <= 0) {
+            return null;
+        }
+        HttpServer server;
+        try {
+            server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), (int) port), 0);
+        } catch (IOException e) {
+            System.err.println("Error starting metrics endpoint: " + e.getMessage());
+            return null;
+        }
+
+        LiveMetrics metrics = new LiveMetrics();
+        feed.addListener(metrics);
+        MetricsServer metricsServer = new MetricsServer(server, metrics, feed.getQuotaAccountant());
+        server.createContext("/metrics", exchange -> metricsServer.handle(exchange, false));
+        server.createContext("/metrics.json", exchange -> metricsServer.handle(exchange, true));
+        server.setExecutor(metricsServer.executor);
+        // Window totals start from storage; runs before the first request is served
+        metricsServer.executor.execute(() -> metrics.seed(databaseManager));
+        server.start();
+        System.out.println("Metrics at http://localhost:" + port + "/metrics");
+        return metricsServer;
+    }
+
+    private void handle(HttpExchange exchange, boolean json) throws IOException {
+        try {
+            if (!exchange.getRequestMethod().equals("GET") && !exchange.getRequestMethod().equals("HEAD")) {
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+            byte[] body = (json ? renderJson() : renderPrometheus()).getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type",
+                    json ? "application/json" : "text/plain; version=0.0.4; charset=utf-8");
+            if (exchange.getRequestMethod().equals("HEAD")) {
+                exchange.sendResponseHeaders(200, -1);
+                return;
+            }
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+
+    String renderPrometheus() {
+        long now = System.currentTimeMillis();
+        StringBuilder out = new StringBuilder(2048);
+
+        header(out, "networkmonitor_bytes_total", "counter", "Bytes transferred since the monitor started.");
+        out.append("networkmonitor_bytes_total{direction=\"download\"} ")
+                .append(metrics.getDownloadTotal()).append('\n');
+        out.append("networkmonitor_bytes_total{direction=\"upload\"} ")
+                .append(metrics.getUploadTotal()).append('\n');
+
+        header(out, "networkmonitor_rate_bytes_per_second", "gauge", "Rate over the latest sample.");
+        out.append("networkmonitor_rate_bytes_per_second{direction=\"download\"} ")
+                .append(number(metrics.getDownloadRate())).append('\n');
+        out.append("networkmonitor_rate_bytes_per_second{direction=\"upload\"} ")
+                .append(number(metrics.getUploadRate())).append('\n');
+
+        header(out, "networkmonitor_window_bytes", "gauge", "Bytes over a trailing window, to 10 seconds.");
+        for (int i = 0; i < WINDOWS_MS.length; i++) {
+            long[] totals = metrics.getWindowTotals(WINDOWS_MS[i], now);
+            out.append("networkmonitor_window_bytes{window=\"").append(WINDOW_NAMES[i])
+                    .append("\",direction=\"download\"} ").append(totals[0]).append('\n');
+            out.append("networkmonitor_window_bytes{window=\"").append(WINDOW_NAMES[i])
+                    .append("\",direction=\"upload\"} ").append(totals[1]).append('\n');
+        }
+
+        header(out, "networkmonitor_quota_used_bytes", "gauge", "Month-to-date usage counted against the quota.");
+        out.append("networkmonitor_quota_used_bytes ").append(quotaAccountant.getMonthToDateBytes()).append('\n');
+        header(out, "networkmonitor_quota_limit_bytes", "gauge", "Monthly quota; 0 when none is set.");
+        out.append("networkmonitor_quota_limit_bytes ").append(quotaLimitBytes()).append('\n');
+        header(out, "networkmonitor_quota_used_ratio", "gauge", "Share of the monthly quota used.");
+        out.append("networkmonitor_quota_used_ratio ").append(number(quotaAccountant.getProgress())).append('\n');
+
+        header(out, "networkmonitor_samples_total", "counter", "Samples received since the monitor started.");
+        out.append("networkmonitor_samples_total ").append(metrics.getSampleCount()).append('\n');
+        header(out, "networkmonitor_last_sample_timestamp_seconds", "gauge", "Time of the latest sample.");
+        out.append("networkmonitor_last_sample_timestamp_seconds ")
+                .append(number(metrics.getLastTimestamp() / 1000.0)).append('\n');
+
+        header(out, "networkmonitor_stage_seconds", "summary", "Latency of internal stages (see Diagnostics).");
+        for (Diagnostics.Stage stage : Diagnostics.getStages()) {
+            LatencyHistogram latency = stage.getLatency();
+            long count = latency.getCount();
+            if (count == 0) {
+                continue;
+            }
+            String label = "{stage=\"" + stage.getName() + "\"";
+            out.append("networkmonitor_stage_seconds").append(label).append(",quantile=\"0.5\"} ")
+                    .append(number(latency.getPercentile(0.5) / 1e9)).append('\n');
+            out.append("networkmonitor_stage_seconds").append(label).append(",quantile=\"0.99\"} ")
+                    .append(number(latency.getPercentile(0.99) / 1e9)).append('\n');
+            out.append("networkmonitor_stage_seconds_sum").append(label).append("} ")
+                    .append(number(latency.getMean() * count / 1e9)).append('\n');
+            out.append("networkmonitor_stage_seconds_count").append(label).append("} ").append(count).append('\n');
+        }
+
+        header(out, "networkmonitor_events_total", "counter", "Diagnostic event counts, e.g. skipped ticks.");
+        for (Diagnostics.Counter counter : Diagnostics.getCounters()) {
+            out.append("networkmonitor_events_total{counter=\"").append(counter.getName()).append("\"} ")
+                    .append(counter.get()).append('\n');
+        }
+        return out.toString();
+    }
+
+    String renderJson() {
+        long now = System.currentTimeMillis();
+        StringBuilder out = new StringBuilder(1024);
+        out.append("{\"timestamp\":").append(now);
+        out.append(",\"samples\":").append(metrics.getSampleCount());
+        out.append(",\"lastSampleTimestamp\":").append(metrics.getLastTimestamp());
+        out.append(",\"bytesTotal\":{\"download\":").append(metrics.getDownloadTotal())
+                .append(",\"upload\":").append(metrics.getUploadTotal()).append('}');
+        out.append(",\"rateBytesPerSecond\":{\"download\":").append(number(metrics.getDownloadRate()))
+                .append(",\"upload\":").append(number(metrics.getUploadRate())).append('}');
+        out.append(",\"windows\":{");
+        for (int i = 0; i < WINDOWS_MS.length; i++) {
+            long[] totals = metrics.getWindowTotals(WINDOWS_MS[i], now);
+            if (i > 0) {
+                out.append(',');
+            }
+            out.append('"').append(WINDOW_NAMES[i]).append("\":{\"download\":").append(totals[0])
+                    .append(",\"upload\":").append(totals[1]).append('}');
+        }
+        out.append('}');
+        out.append(",\"quota\":{\"usedBytes\":").append(quotaAccountant.getMonthToDateBytes())
+                .append(",\"limitBytes\":").append(quotaLimitBytes())
+                .append(",\"usedRatio\":").append(number(quotaAccountant.getProgress())).append('}');
+        out.append("}\n");
+        return out.toString();
+    }
+
+    private long quotaLimitBytes() {
+        return (long) (quotaAccountant.getMonthlyQuotaGB() * BYTES_PER_GB);
+    }
+
+    private static void header(StringBuilder out, String name, String type, String help) {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    private static String number(double value) {
+        // Locale-independent and valid in both formats
+        return Double.toString(value);
+    }
+
+    public void stop() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+}
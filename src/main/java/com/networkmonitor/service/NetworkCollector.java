@@ -0,0 +1,54 @@
+package com.networkmonitor.service;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Source of cumulative per-interface byte counters.
+ */
+public interface NetworkCollector {
+
+    /**
+     * Reads the current counters of every interface into the given snapshot,
+     * replacing its previous contents.
+     */
+    void sample(InterfaceCounters counters) throws IOException;
+
+    String getName();
+
+    /**
+     * Releases whatever the collector holds open. Nothing by default.
+     */
+    default void close() throws IOException {
+    }
+
+    /**
+     * Picks the cheapest backend available on this machine. The choice can be
+     * forced with -Dnetworkmonitor.collector=proc|oshi, or replaced with
+     * generated traffic with -Dnetworkmonitor.collector=synthetic (see
+     * {@link SyntheticNetworkCollector}; the networkmonitor.synthetic.seed and
+     * networkmonitor.synthetic.step properties set its seed and clock step).
+     */
+    static NetworkCollector createDefault() {
+        String forced = System.getProperty("networkmonitor.collector", "");
+        Path procNetDev = Path.of(ProcNetDevCollector.DEFAULT_PATH);
+        if (forced.equals("synthetic")) {
+            return new SyntheticNetworkCollector(
+                    new SyntheticTraffic(Long.getLong("networkmonitor.synthetic.seed", SyntheticTraffic.DEFAULT_SEED)),
+                    Long.getLong("networkmonitor.synthetic.step", DatabaseManager.DEFAULT_SAMPLE_INTERVAL_MS),
+                    System.currentTimeMillis());
+        }
+        if (forced.equals("oshi")) {
+            return new OshiNetworkCollector();
+        }
+        if (forced.equals("proc") || Files.isReadable(procNetDev)) {
+            try {
+                return new ProcNetDevCollector(procNetDev);
+            } catch (IOException e) {
+                System.err.println("Falling back to OSHI collector: " + e.getMessage());
+            }
+        }
+        return new OshiNetworkCollector();
+    }
+}
@@ -1,75 +1,219 @@
 package com.networkmonitor.service;
 
-import oshi.SystemInfo;
-import oshi.hardware.NetworkIF;
-import oshi.hardware.HardwareAbstractionLayer;
+import com.networkmonitor.model.InterfaceUsageRecord;
 
+import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
 
 public class NetworkTracker {
 
-    private final SystemInfo systemInfo;
-    private final HardwareAbstractionLayer hardware;
-    private long previousBytesRecv = 0;
-    private long previousBytesSent = 0;
-    private boolean isFirstRun = true;
+    // Bridges and container/VM links re-carry traffic already seen on the uplink
+    public static final String DEFAULT_EXCLUDED_INTERFACES = "veth*,docker*,br-*,virbr*";
+
+    private final NetworkCollector collector;
+    private final InterfaceCounters counters = new InterfaceCounters();
+    // Last seen {bytesRecv, bytesSent, generation} per interface name
+    private final Map<String, long[]> previousCounters = new HashMap<>();
+    private long generation = 0;
+
+    // Timestamps come from the monotonic clock, anchored to wall time
+    private long anchorWallMillis;
+    private long anchorNanos;
+    private long lastSampleNanos;
+    private long lastIntervalNanos;
+    private long lastTimestamp = Long.MIN_VALUE;
+    private List<InterfaceUsageRecord> lastInterfaceDeltas = Collections.emptyList();
+    private Pattern includePattern = null;
+    private Pattern excludePattern = compileGlobs(DEFAULT_EXCLUDED_INTERFACES);
 
     public NetworkTracker() {
-        this.systemInfo = new SystemInfo();
-        this.hardware = systemInfo.getHardware();
+        this(NetworkCollector.createDefault());
+    }
+
+    public NetworkTracker(NetworkCollector collector) {
+        this.collector = collector;
         initBaseLine();
     }
 
     private void initBaseLine() {
-        List<NetworkIF> networkIFs = hardware.getNetworkIFs();
-        for (NetworkIF net : networkIFs) {
-            net.updateAttributes();
-            previousBytesRecv += net.getBytesRecv();
-            previousBytesSent += net.getBytesSent();
+        anchorWallMillis = System.currentTimeMillis();
+        anchorNanos = System.nanoTime();
+        lastSampleNanos = anchorNanos;
+        if (readCounters()) {
+            for (int i = 0; i < counters.size(); i++) {
+                previousCounters.put(counters.getName(i),
+                        new long[] { counters.getBytesRecv(i), counters.getBytesSent(i), generation });
+            }
         }
     }
 
+    public NetworkCollector getCollector() {
+        return collector;
+    }
+
     /**
-     * Calculates the bytes received and sent since the last call.
-     * 
-     * @return UsageRecord with current timestamp and delta bytes.
+     * Restricts tracking to interfaces matching the include list and not
+     * matching the exclude list. Both are comma-separated glob patterns
+     * (e.g. "eth*,wlan0"); an empty include list means all interfaces.
      */
-    public synchronized com.networkmonitor.model.UsageRecord getNetworkUsageDelta() {
-        List<NetworkIF> networkIFs = hardware.getNetworkIFs();
-
-        long currentTotalRecv = 0;
-        long currentTotalSent = 0;
+    public synchronized void setInterfaceFilter(String include, String exclude) {
+        this.includePattern = compileGlobs(include);
+        this.excludePattern = compileGlobs(exclude);
+    }
 
-        for (NetworkIF net : networkIFs) {
-            net.updateAttributes();
-            currentTotalRecv += net.getBytesRecv();
-            currentTotalSent += net.getBytesSent();
+    public synchronized boolean isTracked(String interfaceName) {
+        if (includePattern != null && !includePattern.matcher(interfaceName).matches()) {
+            return false;
         }
+        return excludePattern == null || !excludePattern.matcher(interfaceName).matches();
+    }
 
+    /**
+     * Calculates the bytes received and sent since the last call, summed over
+     * all tracked interfaces. The per-interface breakdown of the same delta is
+     * available from {@link #getLastInterfaceDeltas()}.
+     *
+     * @return UsageRecord with current timestamp and delta bytes.
+     */
+    public synchronized com.networkmonitor.model.UsageRecord getNetworkUsageDelta() {
+        long nowNanos = System.nanoTime();
+        lastIntervalNanos = nowNanos - lastSampleNanos;
+        lastSampleNanos = nowNanos;
+        long timestamp = monotonicTimestamp(nowNanos);
         long deltaRecv = 0;
         long deltaSent = 0;
+        List<InterfaceUsageRecord> interfaceDeltas = Collections.emptyList();
 
-        if (!isFirstRun) {
-            deltaRecv = currentTotalRecv - previousBytesRecv;
-            deltaSent = currentTotalSent - previousBytesSent;
-        } else {
-            isFirstRun = false;
-        }
+        if (readCounters()) {
+            generation++;
+            for (int i = 0; i < counters.size(); i++) {
+                String name = counters.getName(i);
+                if (!isTracked(name)) {
+                    continue;
+                }
+                long bytesRecv = counters.getBytesRecv(i);
+                long bytesSent = counters.getBytesSent(i);
+
+                long[] previous = previousCounters.get(name);
+                if (previous == null) {
+                    // New interface: this reading becomes its baseline
+                    previousCounters.put(name, new long[] { bytesRecv, bytesSent, generation });
+                    continue;
+                }
 
-        // Handle potential counter wrap-around or reset (though OSHI usually handles
-        // this, simpler to ignore negative deltas)
-        if (deltaRecv < 0)
-            deltaRecv = 0;
-        if (deltaSent < 0)
-            deltaSent = 0;
+                // Handle counter wrap-around or reset (e.g. interface re-created) by
+                // ignoring negative deltas
+                long recv = Math.max(0, bytesRecv - previous[0]);
+                long sent = Math.max(0, bytesSent - previous[1]);
+                previous[0] = bytesRecv;
+                previous[1] = bytesSent;
+                previous[2] = generation;
 
-        previousBytesRecv = currentTotalRecv;
-        previousBytesSent = currentTotalSent;
+                if (recv > 0 || sent > 0) {
+                    if (interfaceDeltas.isEmpty()) {
+                        interfaceDeltas = new ArrayList<>();
+                    }
+                    interfaceDeltas.add(new InterfaceUsageRecord(name, timestamp, recv, sent));
+                    deltaRecv += recv;
+                    deltaSent += sent;
+                }
+            }
+
+            // Forget interfaces that went away so they get a fresh baseline if they return
+            for (Iterator<long[]> it = previousCounters.values().iterator(); it.hasNext();) {
+                if (it.next()[2] != generation) {
+                    it.remove();
+                }
+            }
+        }
+        lastInterfaceDeltas = interfaceDeltas;
 
         return new com.networkmonitor.model.UsageRecord(
-                System.currentTimeMillis(),
+                timestamp,
                 deltaRecv,
                 deltaSent);
     }
+
+    /**
+     * Wall-clock time derived from the monotonic clock, so sample spacing isn't
+     * distorted by clock adjustments. Re-anchors if the wall clock jumps (e.g.
+     * after suspend) and never goes backwards.
+     */
+    private long monotonicTimestamp(long nowNanos) {
+        long timestamp = anchorWallMillis + (nowNanos - anchorNanos) / 1_000_000;
+        long wall = System.currentTimeMillis();
+        if (Math.abs(wall - timestamp) > 1000) {
+            anchorWallMillis = wall;
+            anchorNanos = nowNanos;
+            timestamp = wall;
+        }
+        if (timestamp <= lastTimestamp) {
+            timestamp = lastTimestamp + 1;
+        }
+        lastTimestamp = timestamp;
+        return timestamp;
+    }
+
+    /**
+     * Time actually covered by the last delta, for computing true rates.
+     */
+    public synchronized long getLastIntervalNanos() {
+        return lastIntervalNanos;
+    }
+
+    /**
+     * Releases the collector, e.g. the open /proc/net/dev handle.
+     */
+    public synchronized void close() {
+        try {
+            collector.close();
+        } catch (IOException e) {
+            System.err.println("Error closing network collector: " + e.getMessage());
+        }
+    }
+
+    private boolean readCounters() {
+        try {
+            collector.sample(counters);
+            return true;
+        } catch (IOException e) {
+            System.err.println("Error reading network counters: " + e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Per-interface deltas from the last call to {@link #getNetworkUsageDelta()}.
+     * Interfaces without traffic are omitted.
+     */
+    public synchronized List<InterfaceUsageRecord> getLastInterfaceDeltas() {
+        return lastInterfaceDeltas;
+    }
+
+    private static Pattern compileGlobs(String globs) {
+        if (globs == null || globs.isBlank()) {
+            return null;
+        }
+        StringBuilder regex = new StringBuilder();
+        for (String glob : globs.split(",")) {
+            String trimmed = glob.trim();
+            if (trimmed.isEmpty()) {
+                continue;
+            }
+            if (regex.length() > 0) {
+                regex.append('|');
+            }
+            for (String part : trimmed.split("\\*", -1)) {
+                regex.append(Pattern.quote(part)).append(".*");
+            }
+            regex.setLength(regex.length() - 2);
+        }
+        return regex.length() == 0 ? null : Pattern.compile(regex.toString());
+    }
 }
@@ -0,0 +1,31 @@
+package com.networkmonitor.service;
+
+import oshi.SystemInfo;
+import oshi.hardware.HardwareAbstractionLayer;
+import oshi.hardware.NetworkIF;
+
+/**
+ * Portable collector backed by OSHI. Used where /proc/net/dev isn't available.
+ */
+public class OshiNetworkCollector implements NetworkCollector {
+
+    private final HardwareAbstractionLayer hardware;
+
+    public OshiNetworkCollector() {
+        this.hardware = new SystemInfo().getHardware();
+    }
+
+    @Override
+    public void sample(InterfaceCounters counters) {
+        counters.clear();
+        for (NetworkIF net : hardware.getNetworkIFs()) {
+            net.updateAttributes();
+            counters.add(net.getName(), net.getBytesRecv(), net.getBytesSent());
+        }
+    }
+
+    @Override
+    public String getName() {
+        return "oshi";
+    }
+}
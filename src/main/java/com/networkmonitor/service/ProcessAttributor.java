@@ -0,0 +1,306 @@
+package com.networkmonitor.service;
+
+import com.networkmonitor.model.UsageRecord;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Splits measured traffic between processes on Linux. Every few seconds the
+ * processes owning sockets are found with {@link ProcessSocketScanner}, and
+ * the bytes the interfaces moved since the last scan are shared among them in
+ * proportion to what each read and wrote other than through storage, from
+ * /proc/&lt;pid&gt;/io. The kernel keeps no per-socket byte counters in /proc,
+ * so this is an estimate: pipe and terminal I/O of socket owners counts
+ * towards their share, and traffic of processes this user can't inspect is
+ * shared among the visible ones. Traffic no visible process accounts for is
+ * stored as {@value #UNATTRIBUTED_NAME}.
+ * <p>
+ * Totals are kept per process name in {@value #BUCKET_MS} ms buckets; each
+ * bucket stores the {@value #TOP_PROCESSES} busiest names and folds the rest
+ * into {@value #OTHER_NAME}. Enabled by the process_attribution setting
+ * (default true) when /proc is available.
+ */
+public class ProcessAttributor implements SampleListener {
+
+    public static final long BUCKET_MS = 5 * 60 * 1000;
+    public static final int TOP_PROCESSES = 10;
+    public static final String OTHER_NAME = "(other)";
+    public static final String UNATTRIBUTED_NAME = "(unattributed)";
+    private static final long SCAN_INTERVAL_MS = 5000;
+    // The open bucket is rewritten this often so the dashboard sees it fill
+    private static final long SAVE_INTERVAL_MS = 60_000;
+
+    private static final Diagnostics.Stage SCAN_STAGE = Diagnostics.stage("process.scan");
+
+    private final ProcessSocketScanner scanner;
+    private final Path root;
+    private final DatabaseManager databaseManager;
+    private final ScheduledExecutorService executor;
+
+    // Written by the feed's listener thread, taken by the scan thread
+    private long pendingDownload;
+    private long pendingUpload;
+    private long pendingEndMillis = Long.MIN_VALUE;
+
+    // Owned by the scan thread: {rchar - read_bytes, wchar - write_bytes} per pid at the last scan
+    private Map<Integer, long[]> lastIo = new HashMap<>();
+    private long bucket = Long.MIN_VALUE;
+    private final Map<String, long[]> bucketTotals = new HashMap<>();
+    private long lastSaveMillis;
+
+    ProcessAttributor(Path root, DatabaseManager databaseManager) {
+        this.root = root;
+        this.scanner = new ProcessSocketScanner(root);
+        this.databaseManager = databaseManager;
+        this.executor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "process-scan");
+            t.setDaemon(true);
+            // Attribution can wait; sampling and the UI can't
+            t.setPriority(Thread.MIN_PRIORITY);
+            return t;
+        });
+    }
+
+    /**
+     * Subscribes to the feed and starts scanning, unless the feed doesn't
+     * sample this machine, /proc is missing or the process_attribution
+     * setting is false. Synthetic traffic isn't attributed to the real
+     * processes either. Call before the feed starts.
+     *
+     * @return the running attributor, or null when disabled
+     */
+    public static ProcessAttributor startIfEnabled(SampleFeed feed, DatabaseManager databaseManager) {
+        if (!(feed instanceof CollectorService)
+                || !ProcessSocketScanner.isSupported(ProcessSocketScanner.DEFAULT_ROOT)
+                || System.getProperty("networkmonitor.collector", "").equals("synthetic")
+                || !Boolean.parseBoolean(databaseManager.getSetting("process_attribution", "true"))) {
+            return null;
+        }
+        ProcessAttributor attributor = new ProcessAttributor(ProcessSocketScanner.DEFAULT_ROOT, databaseManager);
+        feed.addListener(attributor);
+        attributor.executor.scheduleWithFixedDelay(attributor::scanSafely, 0, SCAN_INTERVAL_MS,
+                TimeUnit.MILLISECONDS);
+        return attributor;
+    }
+
+    @Override
+    public synchronized void onSample(UsageRecord record, long intervalNanos) {
+        pendingDownload += record.getDownloadBytes();
+        pendingUpload += record.getUploadBytes();
+        pendingEndMillis = Math.max(pendingEndMillis, record.getTimestamp());
+    }
+
+    private void scanSafely() {
+        try {
+            scan();
+        } catch (IOException | RuntimeException e) {
+            System.err.println("Error attributing traffic to processes: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Shares the traffic since the last scan among the socket owners and
+     * stores the bucket when it closes. Runs on the scan thread.
+     */
+    void scan() throws IOException {
+        long started = System.nanoTime();
+        Map<Integer, String> owners = scanner.scan();
+
+        Map<Integer, long[]> io = new HashMap<>();
+        Map<String, long[]> shares = new HashMap<>();
+        long readTotal = 0;
+        long writeTotal = 0;
+        for (Map.Entry<Integer, String> owner : owners.entrySet()) {
+            long[] current = readIo(owner.getKey());
+            if (current == null) {
+                continue;
+            }
+            io.put(owner.getKey(), current);
+            long[] previous = lastIo.get(owner.getKey());
+            if (previous == null) {
+                continue; // first sighting only sets the baseline
+            }
+            // Counters that went backwards belong to a new process with the same pid
+            long read = Math.max(0, current[0] - previous[0]);
+            long write = Math.max(0, current[1] - previous[1]);
+            long[] share = shares.computeIfAbsent(owner.getValue(), name -> new long[2]);
+            share[0] += read;
+            share[1] += write;
+            readTotal += read;
+            writeTotal += write;
+        }
+        lastIo = io;
+
+        long download;
+        long upload;
+        long endMillis;
+        synchronized (this) {
+            download = pendingDownload;
+            upload = pendingUpload;
+            endMillis = pendingEndMillis;
+            pendingDownload = 0;
+            pendingUpload = 0;
+        }
+        if (endMillis == Long.MIN_VALUE) {
+            SCAN_STAGE.record(started, owners.size());
+            return; // no sample yet
+        }
+
+        long sampleBucket = Math.floorDiv(endMillis, BUCKET_MS) * BUCKET_MS;
+        if (sampleBucket != bucket) {
+            if (bucket != Long.MIN_VALUE) {
+                save();
+            }
+            openBucket(sampleBucket);
+        }
+        distribute(download, readTotal, shares, 0);
+        distribute(upload, writeTotal, shares, 1);
+
+        if (System.currentTimeMillis() - lastSaveMillis >= SAVE_INTERVAL_MS) {
+            save();
+        }
+        SCAN_STAGE.record(started, owners.size());
+    }
+
+    private void distribute(long bytes, long weightTotal, Map<String, long[]> shares, int direction) {
+        if (bytes <= 0) {
+            return;
+        }
+        if (weightTotal <= 0) {
+            bucketTotals.computeIfAbsent(UNATTRIBUTED_NAME, name -> new long[2])[direction] += bytes;
+            return;
+        }
+        long assigned = 0;
+        String largest = null;
+        long largestWeight = -1;
+        for (Map.Entry<String, long[]> share : shares.entrySet()) {
+            long weight = share.getValue()[direction];
+            if (weight <= 0) {
+                continue;
+            }
+            long part = (long) ((double) bytes * weight / weightTotal);
+            bucketTotals.computeIfAbsent(share.getKey(), name -> new long[2])[direction] += part;
+            assigned += part;
+            if (weight > largestWeight) {
+                largestWeight = weight;
+                largest = share.getKey();
+            }
+        }
+        // Rounding leftovers go to the biggest share so totals match the interfaces
+        bucketTotals.get(largest)[direction] += bytes - assigned;
+    }
+
+    /**
+     * @return {rchar - read_bytes, wchar - write_bytes}, or null when the
+     *         process is gone or belongs to another user
+     */
+    private long[] readIo(int pid) {
+        List<String> lines;
+        try {
+            lines = Files.readAllLines(root.resolve(pid + "/io"), StandardCharsets.US_ASCII);
+        } catch (IOException e) {
+            return null;
+        }
+        long rchar = 0;
+        long wchar = 0;
+        long readBytes = 0;
+        long writeBytes = 0;
+        for (String line : lines) {
+            int colon = line.indexOf(':');
+            if (colon < 0) {
+                continue;
+            }
+            long value;
+            try {
+                value = Long.parseLong(line.substring(colon + 1).trim());
+            } catch (NumberFormatException e) {
+                continue;
+            }
+            switch (line.substring(0, colon)) {
+                case "rchar":
+                    rchar = value;
+                    break;
+                case "wchar":
+                    wchar = value;
+                    break;
+                case "read_bytes":
+                    readBytes = value;
+                    break;
+                case "write_bytes":
+                    writeBytes = value;
+                    break;
+                default:
+                    break;
+            }
+        }
+        return new long[] { Math.max(0, rchar - readBytes), Math.max(0, wchar - writeBytes) };
+    }
+
+    /**
+     * Starts a bucket, picking up what an earlier run already stored for it.
+     */
+    private void openBucket(long start) {
+        bucket = start;
+        bucketTotals.clear();
+        for (Map.Entry<String, UsageRecord> stored : databaseManager
+                .getUsageByProcess(start, start + BUCKET_MS - 1).entrySet()) {
+            bucketTotals.put(stored.getKey(), new long[] {
+                    stored.getValue().getDownloadBytes(), stored.getValue().getUploadBytes() });
+        }
+    }
+
+    private void save() {
+        lastSaveMillis = System.currentTimeMillis();
+        if (bucket == Long.MIN_VALUE) {
+            return;
+        }
+        List<Map.Entry<String, long[]>> sorted = new ArrayList<>(bucketTotals.entrySet());
+        sorted.sort((a, b) -> Long.compare(b.getValue()[0] + b.getValue()[1], a.getValue()[0] + a.getValue()[1]));
+        Map<String, UsageRecord> top = new LinkedHashMap<>();
+        long otherDownload = 0;
+        long otherUpload = 0;
+        for (Map.Entry<String, long[]> entry : sorted) {
+            if (top.size() < TOP_PROCESSES && !entry.getKey().equals(OTHER_NAME)) {
+                top.put(entry.getKey(), new UsageRecord(bucket, entry.getValue()[0], entry.getValue()[1]));
+            } else {
+                otherDownload += entry.getValue()[0];
+                otherUpload += entry.getValue()[1];
+            }
+        }
+        if (otherDownload > 0 || otherUpload > 0) {
+            top.put(OTHER_NAME, new UsageRecord(bucket, otherDownload, otherUpload));
+        }
+        databaseManager.saveProcessUsage(bucket, top);
+    }
+
+    /**
+     * Stops scanning and stores the open bucket. Samples arriving afterwards
+     * aren't attributed.
+     */
+    public void stop() {
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(5, TimeUnit.SECONDS)) {
+                executor.shutdownNow();
+                return;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        }
+        // Attribute the tail with what the last scan saw, then store it
+        scanSafely();
+        save();
+    }
+}
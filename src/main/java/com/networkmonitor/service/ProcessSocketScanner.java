@@ -0,0 +1,231 @@
+package com.networkmonitor.service;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Finds which processes own open sockets on Linux. Socket inodes are listed
+ * in /proc/net/{tcp,tcp6,udp,udp6}; the owner of one is only found by
+ * reading the fd links under /proc/&lt;pid&gt;/fd, which is the expensive part.
+ * The inode to pid map is therefore cached across scans: fd directories are
+ * only read when a socket appears that isn't placed yet, processes not seen
+ * before are read first, and reading stops as soon as every new socket is
+ * placed. Sockets no readable process owns (other users' processes, unless
+ * running as root) are retried only every few scans.
+ * <p>
+ * Not thread-safe.
+ */
+class ProcessSocketScanner {
+
+    static final Path DEFAULT_ROOT = Path.of("/proc");
+    private static final String[] SOCKET_TABLES = { "net/tcp", "net/tcp6", "net/udp", "net/udp6" };
+    private static final String TCP_LISTEN = "0A";
+    // Scans before sockets without a readable owner are looked for again
+    private static final int UNPLACED_RETRY_SCANS = 12;
+
+    private static final class ProcessEntry {
+        String name;
+        // Sockets seen in this process's fd directory when it was last read
+        final Set<Long> sockets = new HashSet<>();
+    }
+
+    private final Path root;
+    private final Map<Integer, ProcessEntry> processes = new HashMap<>();
+    private final Map<Long, Integer> ownerByInode = new HashMap<>();
+    // Inode -> scan at which to look for its owner again
+    private final Map<Long, Long> unplaced = new HashMap<>();
+    private long scans;
+    private final Diagnostics.Counter fdDirectoryReads = Diagnostics.counter("process.fdDirectoryReads");
+
+    ProcessSocketScanner(Path root) {
+        this.root = root;
+    }
+
+    static boolean isSupported(Path root) {
+        return Files.isReadable(root.resolve(SOCKET_TABLES[0]));
+    }
+
+    /**
+     * @return pid -> process name for every process owning an open socket
+     *         that can carry traffic (listening TCP sockets don't)
+     */
+    Map<Integer, String> scan() throws IOException {
+        scans++;
+        Set<Long> open = readSocketInodes();
+        ownerByInode.keySet().retainAll(open);
+        unplaced.keySet().retainAll(open);
+
+        Set<Long> unknown = new HashSet<>();
+        for (Long inode : open) {
+            if (!ownerByInode.containsKey(inode)) {
+                Long retryAt = unplaced.get(inode);
+                if (retryAt == null || retryAt <= scans) {
+                    unknown.add(inode);
+                }
+            }
+        }
+        if (!unknown.isEmpty()) {
+            placeSockets(unknown);
+            for (Long inode : unknown) {
+                unplaced.put(inode, scans + UNPLACED_RETRY_SCANS);
+            }
+        }
+
+        Map<Integer, String> owners = new HashMap<>();
+        for (Integer pid : ownerByInode.values()) {
+            ProcessEntry entry = processes.get(pid);
+            if (entry != null) {
+                owners.put(pid, entry.name);
+            }
+        }
+        return owners;
+    }
+
+    /**
+     * Reads fd directories until every inode in unknown is placed, removing
+     * placed ones from it: new processes first, then those that held sockets
+     * before, then the rest.
+     */
+    private void placeSockets(Set<Long> unknown) throws IOException {
+        Set<Integer> running = listProcesses();
+        processes.keySet().retainAll(running);
+        ownerByInode.values().retainAll(running);
+
+        List<Integer> order = new ArrayList<>(running.size());
+        List<Integer> withSockets = new ArrayList<>();
+        List<Integer> rest = new ArrayList<>();
+        for (Integer pid : running) {
+            ProcessEntry entry = processes.get(pid);
+            if (entry == null) {
+                order.add(pid);
+            } else if (!entry.sockets.isEmpty()) {
+                withSockets.add(pid);
+            } else {
+                rest.add(pid);
+            }
+        }
+        order.addAll(withSockets);
+        order.addAll(rest);
+
+        for (Integer pid : order) {
+            if (unknown.isEmpty()) {
+                return;
+            }
+            ProcessEntry entry = readProcess(pid);
+            if (entry == null) {
+                processes.remove(pid);
+                continue;
+            }
+            processes.put(pid, entry);
+            for (Long inode : entry.sockets) {
+                // A socket shared after fork stays with the first owner found
+                if (unknown.remove(inode)) {
+                    ownerByInode.put(inode, pid);
+                }
+            }
+        }
+    }
+
+    private Set<Integer> listProcesses() throws IOException {
+        Set<Integer> pids = new HashSet<>();
+        try (DirectoryStream<Path> entries = Files.newDirectoryStream(root)) {
+            for (Path entry : entries) {
+                String name = entry.getFileName().toString();
+                if (!name.isEmpty() && Character.isDigit(name.charAt(0))) {
+                    try {
+                        pids.add(Integer.parseInt(name));
+                    } catch (NumberFormatException ignored) {
+                    }
+                }
+            }
+        }
+        return pids;
+    }
+
+    /**
+     * @return the process's name and sockets; an entry without sockets when
+     *         its fds can't be read, null once it has exited
+     */
+    private ProcessEntry readProcess(int pid) {
+        Path dir = root.resolve(Integer.toString(pid));
+        ProcessEntry entry = new ProcessEntry();
+        try {
+            entry.name = Files.readString(dir.resolve("comm"), StandardCharsets.UTF_8).trim();
+        } catch (IOException e) {
+            return null;
+        }
+        fdDirectoryReads.increment();
+        try (DirectoryStream<Path> fds = Files.newDirectoryStream(dir.resolve("fd"))) {
+            for (Path fd : fds) {
+                long inode = socketInode(fd);
+                if (inode > 0) {
+                    entry.sockets.add(inode);
+                }
+            }
+        } catch (IOException e) {
+            // Another user's process, or exited while being read
+        }
+        return entry;
+    }
+
+    private static long socketInode(Path fd) {
+        String target;
+        try {
+            target = Files.readSymbolicLink(fd).toString();
+        } catch (IOException e) {
+            return -1; // closed meanwhile
+        }
+        if (!target.startsWith("socket:[") || !target.endsWith("]")) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(target.substring(8, target.length() - 1));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Inodes of every open socket, leaving out listening TCP sockets and
+     * sockets already released (inode 0).
+     */
+    private Set<Long> readSocketInodes() throws IOException {
+        Set<Long> inodes = new HashSet<>();
+        for (String table : SOCKET_TABLES) {
+            Path path = root.resolve(table);
+            if (!Files.isReadable(path)) {
+                continue; // e.g. IPv6 disabled
+            }
+            boolean tcp = table.startsWith("net/tcp");
+            Iterator<String> lines = Files.readAllLines(path, StandardCharsets.US_ASCII).iterator();
+            if (lines.hasNext()) {
+                lines.next(); // header
+            }
+            while (lines.hasNext()) {
+                // sl local rem st tx:rx tr:when retrnsmt uid timeout inode ...
+                String[] fields = lines.next().trim().split("\\s+");
+                if (fields.length < 10 || (tcp && fields[3].equals(TCP_LISTEN))) {
+                    continue;
+                }
+                try {
+                    long inode = Long.parseLong(fields[9]);
+                    if (inode > 0) {
+                        inodes.add(inode);
+                    }
+                } catch (NumberFormatException ignored) {
+                }
+            }
+        }
+        return inodes;
+    }
+}
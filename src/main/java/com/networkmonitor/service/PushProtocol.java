@@ -0,0 +1,233 @@
+package com.networkmonitor.service;
+
+import com.networkmonitor.model.UsageRecord;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.ProtocolException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/**
+ * Wire format between a {@link UsagePusher} and an {@link AggregatorService}.
+ * Every frame is a varint payload length followed by the payload, whose first
+ * byte is the frame type:
+ * <ul>
+ * <li>HELLO, pusher first: varint protocol version, varint name length, host
+ * name in UTF-8.</li>
+ * <li>BATCH: varint record count, then per record the zigzag varint
+ * timestamp delta from the previous record (the first from 0), varint
+ * download bytes and varint upload bytes, as in the binary export. A
+ * 2-second sample takes 3 to 8 bytes. An empty batch asks for an ACK.</li>
+ * <li>ACK, aggregator to pusher after each batch: varint timestamp of the
+ * newest record from that host that has been stored.</li>
+ * </ul>
+ */
+final class PushProtocol {
+
+    static final int VERSION = 1;
+    static final byte HELLO = 1;
+    static final byte BATCH = 2;
+    static final byte ACK = 3;
+    static final int MAX_FRAME_BYTES = 1 << 20;
+    static final int MAX_HOST_NAME_BYTES = 255;
+
+    /**
+     * Receives the records of a batch in order.
+     */
+    @FunctionalInterface
+    interface RecordVisitor {
+        void visit(long timestamp, long downloadBytes, long uploadBytes);
+    }
+
+    private PushProtocol() {
+    }
+
+    static byte[] hello(String hostName) {
+        byte[] name = hostName.getBytes(StandardCharsets.UTF_8);
+        ByteArrayOutputStream payload = new ByteArrayOutputStream(8 + name.length);
+        payload.write(HELLO);
+        writeVarLong(payload, VERSION);
+        writeVarLong(payload, name.length);
+        payload.write(name, 0, name.length);
+        return frame(payload);
+    }
+
+    static byte[] batch(List<UsageRecord> records) {
+        ByteArrayOutputStream payload = new ByteArrayOutputStream(8 + records.size() * 8);
+        payload.write(BATCH);
+        writeVarLong(payload, records.size());
+        long previousTimestamp = 0;
+        for (UsageRecord record : records) {
+            long delta = record.getTimestamp() - previousTimestamp;
+            previousTimestamp = record.getTimestamp();
+            writeVarLong(payload, (delta << 1) ^ (delta >> 63));
+            writeVarLong(payload, record.getDownloadBytes());
+            writeVarLong(payload, record.getUploadBytes());
+        }
+        return frame(payload);
+    }
+
+    static byte[] ack(long lastTimestamp) {
+        ByteArrayOutputStream payload = new ByteArrayOutputStream(11);
+        payload.write(ACK);
+        writeVarLong(payload, lastTimestamp);
+        return frame(payload);
+    }
+
+    private static byte[] frame(ByteArrayOutputStream payload) {
+        byte[] bytes = payload.toByteArray();
+        ByteArrayOutputStream out = new ByteArrayOutputStream(bytes.length + 5);
+        writeVarLong(out, bytes.length);
+        out.write(bytes, 0, bytes.length);
+        return out.toByteArray();
+    }
+
+    /**
+     * Takes the next complete frame from the buffer, leaving it positioned
+     * after the frame.
+     *
+     * @return the payload, starting with the type byte, or null if the
+     *         buffer doesn't hold a whole frame yet (position unchanged)
+     */
+    static ByteBuffer nextFrame(ByteBuffer in) throws ProtocolException {
+        int start = in.position();
+        long length;
+        try {
+            length = readVarLong(in);
+        } catch (BufferUnderflowException e) {
+            in.position(start);
+            return null;
+        }
+        if (length < 1 || length > MAX_FRAME_BYTES) {
+            throw new ProtocolException("Bad frame length " + length);
+        }
+        if (in.remaining() < length) {
+            in.position(start);
+            return null;
+        }
+        ByteBuffer payload = in.slice();
+        payload.limit((int) length);
+        in.position(in.position() + (int) length);
+        return payload;
+    }
+
+    /**
+     * Reads one whole frame from a blocking stream.
+     *
+     * @return the payload, starting with the type byte
+     */
+    static ByteBuffer readFrame(InputStream in) throws IOException {
+        long length = 0;
+        for (int shift = 0;; shift += 7) {
+            int b = in.read();
+            if (b < 0) {
+                throw new EOFException("Connection closed");
+            }
+            if (shift > 28) {
+                throw new ProtocolException("Bad frame length");
+            }
+            length |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                break;
+            }
+        }
+        if (length < 1 || length > MAX_FRAME_BYTES) {
+            throw new ProtocolException("Bad frame length " + length);
+        }
+        byte[] payload = in.readNBytes((int) length);
+        if (payload.length < length) {
+            throw new EOFException("Connection closed mid-frame");
+        }
+        return ByteBuffer.wrap(payload);
+    }
+
+    /**
+     * @param payload a HELLO payload after its type byte
+     * @return the host name
+     */
+    static String readHello(ByteBuffer payload) throws ProtocolException {
+        try {
+            long version = readVarLong(payload);
+            if (version != VERSION) {
+                throw new ProtocolException("Unsupported protocol version " + version);
+            }
+            long length = readVarLong(payload);
+            if (length < 1 || length > MAX_HOST_NAME_BYTES || length > payload.remaining()) {
+                throw new ProtocolException("Bad host name length " + length);
+            }
+            byte[] name = new byte[(int) length];
+            payload.get(name);
+            return new String(name, StandardCharsets.UTF_8);
+        } catch (BufferUnderflowException e) {
+            throw new ProtocolException("Truncated hello");
+        }
+    }
+
+    /**
+     * @param payload a BATCH payload after its type byte
+     * @return the number of records visited
+     */
+    static long readBatch(ByteBuffer payload, RecordVisitor visitor) throws ProtocolException {
+        try {
+            long count = readVarLong(payload);
+            // Each record takes at least 3 bytes
+            if (count < 0 || count > payload.remaining() / 3) {
+                throw new ProtocolException("Bad record count " + count);
+            }
+            long timestamp = 0;
+            for (long i = 0; i < count; i++) {
+                long zigzag = readVarLong(payload);
+                timestamp += (zigzag >>> 1) ^ -(zigzag & 1);
+                long download = readVarLong(payload);
+                long upload = readVarLong(payload);
+                if (download < 0 || upload < 0) {
+                    throw new ProtocolException("Negative byte count");
+                }
+                visitor.visit(timestamp, download, upload);
+            }
+            return count;
+        } catch (BufferUnderflowException e) {
+            throw new ProtocolException("Truncated batch");
+        }
+    }
+
+    /**
+     * @param payload an ACK payload after its type byte
+     */
+    static long readAck(ByteBuffer payload) throws ProtocolException {
+        try {
+            return readVarLong(payload);
+        } catch (BufferUnderflowException e) {
+            throw new ProtocolException("Truncated ack");
+        }
+    }
+
+    private static void writeVarLong(ByteArrayOutputStream out, long value) {
+        while ((value & ~0x7FL) != 0) {
+            out.write((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+
+    /**
+     * @throws BufferUnderflowException if the varint runs past the buffer
+     * @throws ProtocolException        if it is longer than 10 bytes
+     */
+    static long readVarLong(ByteBuffer in) throws ProtocolException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = in.get();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new ProtocolException("Varint too long");
+    }
+}
@@ -0,0 +1,82 @@
+package com.networkmonitor.service;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Runs dashboard queries on a dedicated background thread so the UI thread
+ * never waits on SQLite. Queries are submitted on a named channel; a newer
+ * query on the same channel supersedes the older one, which is skipped if it
+ * hasn't started and otherwise sees its cancellation flag raised so it can
+ * stop between statements.
+ */
+public class QueryService {
+
+    /**
+     * A query that may check between steps whether it has been superseded.
+     */
+    @FunctionalInterface
+    public interface Query<T> {
+        T run(BooleanSupplier cancelled);
+    }
+
+    private final ExecutorService executor;
+    private final Map<String, CompletableFuture<?>> latest = new HashMap<>();
+
+    public QueryService() {
+        executor = Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "dashboard-query");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Submits a query, cancelling the previous one on the same channel.
+     * The returned future completes on the query thread; a superseded future
+     * completes with a CancellationException.
+     */
+    public <T> CompletableFuture<T> submitLatest(String channel, Query<T> query) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        CompletableFuture<?> previous;
+        synchronized (latest) {
+            previous = latest.put(channel, future);
+        }
+        if (previous != null) {
+            previous.cancel(false);
+        }
+        execute(future, query);
+        return future;
+    }
+
+    /**
+     * Submits a query that is never superseded, e.g. a data purge.
+     */
+    public <T> CompletableFuture<T> submit(Query<T> query) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        execute(future, query);
+        return future;
+    }
+
+    private <T> void execute(CompletableFuture<T> future, Query<T> query) {
+        executor.execute(() -> {
+            if (future.isDone()) {
+                // Superseded while still queued
+                return;
+            }
+            try {
+                future.complete(query.run(future::isCancelled));
+            } catch (RuntimeException e) {
+                future.completeExceptionally(e);
+            }
+        });
+    }
+
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+}
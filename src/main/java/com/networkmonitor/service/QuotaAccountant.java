@@ -0,0 +1,238 @@
+package com.networkmonitor.service;
+
+import com.networkmonitor.model.UsageRecord;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.time.ZoneId;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Keeps a running month-to-date usage total so the quota tracker never has to
+ * re-sum the month. The total is loaded once, advanced with every sample, and
+ * checkpointed to the settings table so a restart only needs to read the
+ * samples written since the last checkpoint. The monitor is never held
+ * across database I/O: values are copied under it and written after
+ * releasing it, so recording and the UI getters never wait on the writer.
+ */
+public class QuotaAccountant {
+
+    private static final long CHECKPOINT_INTERVAL_MS = 60 * 1000;
+    private static final double BYTES_PER_GB = 1024.0 * 1024.0 * 1024.0;
+
+    private final DatabaseManager databaseManager;
+    private final ZoneId zone = ZoneId.systemDefault();
+
+    private YearMonth currentMonth;
+    private long monthStartMillis;
+    private long nextMonthStartMillis;
+    private long usedBytes;
+    private long lastSampleMillis;
+    private long lastCheckpointMillis;
+
+    private double monthlyQuotaGB;
+    private int alertThresholdPercent;
+    private String lastAlertMonth;
+
+    public QuotaAccountant(DatabaseManager databaseManager) {
+        this(databaseManager, System.currentTimeMillis());
+    }
+
+    /**
+     * @param loadedThroughMillis samples up to this are loaded from storage;
+     *                            later ones must be passed to
+     *                            {@link #record(UsageRecord)}
+     */
+    public QuotaAccountant(DatabaseManager databaseManager, long loadedThroughMillis) {
+        this.databaseManager = databaseManager;
+        this.monthlyQuotaGB = Double.parseDouble(databaseManager.getSetting("monthly_quota_gb", "0"));
+        this.alertThresholdPercent = Integer.parseInt(databaseManager.getSetting("alert_threshold_percent", "80"));
+        this.lastAlertMonth = databaseManager.getSetting("last_alert_month", "");
+        load(System.currentTimeMillis(), Math.min(loadedThroughMillis, System.currentTimeMillis()));
+    }
+
+    private void load(long now, long through) {
+        setMonth(monthOf(now));
+
+        String checkpointMonth = databaseManager.getSetting("quota_checkpoint_month", "");
+        long checkpointMillis = databaseManager.getLongSetting("quota_checkpoint_ts", 0);
+        long checkpointBytes = databaseManager.getLongSetting("quota_checkpoint_bytes", 0);
+
+        if (through < monthStartMillis) {
+            usedBytes = 0;
+        } else if (checkpointMonth.equals(currentMonth.toString())
+                && checkpointMillis >= monthStartMillis && checkpointMillis <= through) {
+            // Only the samples written after the checkpoint need reading
+            usedBytes = checkpointBytes + sumBytes(checkpointMillis + 1, through);
+        } else {
+            usedBytes = sumBytes(monthStartMillis, through);
+        }
+        lastSampleMillis = Math.max(through, monthStartMillis);
+        checkpoint();
+    }
+
+    /**
+     * Adds one sample to the running total, rolling over to a new month when
+     * the sample crosses the boundary.
+     */
+    public void record(UsageRecord record) {
+        Map<String, String> checkpoint = null;
+        synchronized (this) {
+            long timestamp = record.getTimestamp();
+            if (timestamp >= nextMonthStartMillis) {
+                setMonth(monthOf(timestamp));
+                usedBytes = 0;
+            }
+            if (timestamp >= monthStartMillis) {
+                usedBytes += record.getDownloadBytes() + record.getUploadBytes();
+            }
+            lastSampleMillis = Math.max(lastSampleMillis, timestamp);
+
+            if (lastSampleMillis - lastCheckpointMillis >= CHECKPOINT_INTERVAL_MS) {
+                checkpoint = takeCheckpoint();
+            }
+        }
+        if (checkpoint != null) {
+            databaseManager.saveSettings(checkpoint);
+        }
+    }
+
+    /**
+     * Recomputes the month-to-date total from storage, e.g. after data in the
+     * current month was purged.
+     */
+    public void reload() {
+        long now = System.currentTimeMillis();
+        YearMonth month = monthOf(now);
+        long monthStart = month.atDay(1).atStartOfDay(zone).toInstant().toEpochMilli();
+        long total = sumBytes(monthStart, now);
+        Map<String, String> checkpoint;
+        synchronized (this) {
+            setMonth(month);
+            usedBytes = total;
+            lastSampleMillis = now;
+            checkpoint = takeCheckpoint();
+        }
+        databaseManager.saveSettings(checkpoint);
+    }
+
+    /**
+     * Persists the running total so the next start can resume from it.
+     */
+    public void checkpoint() {
+        Map<String, String> checkpoint;
+        synchronized (this) {
+            checkpoint = takeCheckpoint();
+        }
+        databaseManager.saveSettings(checkpoint);
+    }
+
+    /**
+     * Call while holding the monitor. The three values are written in one
+     * transaction; a timestamp saved without its byte count would make the
+     * next start skip the samples in between.
+     */
+    private Map<String, String> takeCheckpoint() {
+        Map<String, String> checkpoint = new LinkedHashMap<>();
+        checkpoint.put("quota_checkpoint_month", currentMonth.toString());
+        checkpoint.put("quota_checkpoint_ts", String.valueOf(lastSampleMillis));
+        checkpoint.put("quota_checkpoint_bytes", String.valueOf(usedBytes));
+        lastCheckpointMillis = lastSampleMillis;
+        return checkpoint;
+    }
+
+    /**
+     * Applies new quota settings. The alert is re-armed so the new threshold is
+     * evaluated even if an alert already fired this month.
+     */
+    public void updateSettings(double quotaGB, int thresholdPercent) {
+        Map<String, String> settings = new LinkedHashMap<>();
+        synchronized (this) {
+            monthlyQuotaGB = quotaGB;
+            alertThresholdPercent = thresholdPercent;
+            lastAlertMonth = "";
+            settings.put("monthly_quota_gb", String.valueOf(monthlyQuotaGB));
+            settings.put("alert_threshold_percent", String.valueOf(alertThresholdPercent));
+            settings.put("last_alert_month", lastAlertMonth);
+        }
+        databaseManager.saveSettings(settings);
+    }
+
+    /**
+     * Returns true once per month when usage first crosses the alert threshold.
+     * Only decides, so it is safe on the UI thread; call
+     * {@link #saveAlertState()} off it afterwards so a restart doesn't alert
+     * again.
+     */
+    public synchronized boolean shouldAlert() {
+        if (!isQuotaSet() || !isOverThreshold()) {
+            return false;
+        }
+        String month = currentMonth.toString();
+        if (month.equals(lastAlertMonth)) {
+            return false;
+        }
+        lastAlertMonth = month;
+        return true;
+    }
+
+    /**
+     * Persists the month the alert last fired in.
+     */
+    public void saveAlertState() {
+        String month;
+        synchronized (this) {
+            month = lastAlertMonth;
+        }
+        databaseManager.saveSetting("last_alert_month", month);
+    }
+
+    public synchronized boolean isQuotaSet() {
+        return monthlyQuotaGB > 0;
+    }
+
+    public synchronized boolean isOverThreshold() {
+        return getProgress() >= alertThresholdPercent / 100.0;
+    }
+
+    public synchronized long getMonthToDateBytes() {
+        return usedBytes;
+    }
+
+    public synchronized double getUsedGB() {
+        return usedBytes / BYTES_PER_GB;
+    }
+
+    public synchronized double getProgress() {
+        if (monthlyQuotaGB <= 0) {
+            return 0.0;
+        }
+        return Math.min(1.0, getUsedGB() / monthlyQuotaGB);
+    }
+
+    public synchronized double getMonthlyQuotaGB() {
+        return monthlyQuotaGB;
+    }
+
+    public synchronized int getAlertThresholdPercent() {
+        return alertThresholdPercent;
+    }
+
+    private long sumBytes(long startMillis, long endMillis) {
+        UsageRecord total = databaseManager.getTotalUsage(startMillis, endMillis);
+        return total.getDownloadBytes() + total.getUploadBytes();
+    }
+
+    private YearMonth monthOf(long millis) {
+        LocalDate date = Instant.ofEpochMilli(millis).atZone(zone).toLocalDate();
+        return YearMonth.from(date);
+    }
+
+    private void setMonth(YearMonth month) {
+        currentMonth = month;
+        monthStartMillis = month.atDay(1).atStartOfDay(zone).toInstant().toEpochMilli();
+        nextMonthStartMillis = month.plusMonths(1).atDay(1).atStartOfDay(zone).toInstant().toEpochMilli();
+    }
+}
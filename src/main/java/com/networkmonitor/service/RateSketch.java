@@ -0,0 +1,230 @@
+package com.networkmonitor.service;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Mergeable quantile sketch of rates in bytes per second, in the style of
+ * DDSketch: values are counted in logarithmic bins 2% wide, so any quantile
+ * is within 1% of a value that was actually seen, whatever the range or
+ * number of values. Two sketches merge by adding their bins, which is what
+ * lets rollup buckets be combined into percentiles over any range. Min, max
+ * and the sum are exact.
+ * <p>
+ * Not thread-safe.
+ */
+public class RateSketch {
+
+    public static final double RELATIVE_ACCURACY = 0.01;
+    private static final double GAMMA = (1 + RELATIVE_ACCURACY) / (1 - RELATIVE_ACCURACY);
+    private static final double LOG_GAMMA = Math.log(GAMMA);
+    // Rates below this count as zero; also bounds the lowest bin
+    private static final double MIN_RATE = 1e-3;
+    private static final byte ENCODING_VERSION = 1;
+
+    // Bin i covers (GAMMA^(i-1), GAMMA^i]; bins[j] holds bin offset + j
+    private long[] bins = new long[0];
+    private int offset;
+    private long zeroCount;
+    private long count;
+    private double min = Double.POSITIVE_INFINITY;
+    private double max = Double.NEGATIVE_INFINITY;
+    private double sum;
+
+    public void add(double rate) {
+        double value = Math.max(0, rate);
+        count++;
+        sum += value;
+        min = Math.min(min, value);
+        max = Math.max(max, value);
+        if (value < MIN_RATE) {
+            zeroCount++;
+            return;
+        }
+        int index = (int) Math.ceil(Math.log(value) / LOG_GAMMA);
+        ensureRange(index, index);
+        bins[index - offset]++;
+    }
+
+    public void merge(RateSketch other) {
+        if (other.count == 0) {
+            return;
+        }
+        if (other.bins.length > 0) {
+            ensureRange(other.offset, other.offset + other.bins.length - 1);
+            for (int i = 0; i < other.bins.length; i++) {
+                bins[other.offset + i - offset] += other.bins[i];
+            }
+        }
+        zeroCount += other.zeroCount;
+        count += other.count;
+        sum += other.sum;
+        min = Math.min(min, other.min);
+        max = Math.max(max, other.max);
+    }
+
+    private void ensureRange(int lowIndex, int highIndex) {
+        if (bins.length == 0) {
+            offset = lowIndex;
+            bins = new long[highIndex - lowIndex + 1];
+            return;
+        }
+        int newOffset = Math.min(offset, lowIndex);
+        int newEnd = Math.max(offset + bins.length - 1, highIndex);
+        if (newOffset == offset && newEnd == offset + bins.length - 1) {
+            return;
+        }
+        long[] grown = new long[newEnd - newOffset + 1];
+        System.arraycopy(bins, 0, grown, offset - newOffset, bins.length);
+        bins = grown;
+        offset = newOffset;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public boolean isEmpty() {
+        return count == 0;
+    }
+
+    /** 0 when empty. */
+    public double getMin() {
+        return count == 0 ? 0 : min;
+    }
+
+    /** 0 when empty. */
+    public double getMax() {
+        return count == 0 ? 0 : max;
+    }
+
+    /** Mean of the rates added; 0 when empty. */
+    public double getMean() {
+        return count == 0 ? 0 : sum / count;
+    }
+
+    /**
+     * @param fraction e.g. 0.95 for the 95th percentile
+     * @return the rate at that rank, within 1%; 0 when empty
+     */
+    public double getQuantile(double fraction) {
+        if (count == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(fraction * count));
+        if (rank >= count) {
+            return max;
+        }
+        long seen = zeroCount;
+        if (seen >= rank) {
+            return min;
+        }
+        for (int i = 0; i < bins.length; i++) {
+            seen += bins[i];
+            if (seen >= rank) {
+                // Midpoint of the bin in relative terms
+                double value = 2 * Math.pow(GAMMA, offset + i) / (GAMMA + 1);
+                return Math.min(max, Math.max(min, value));
+            }
+        }
+        return max;
+    }
+
+    /**
+     * Compact form for the rollup tables: version, count, zero count, min,
+     * max and sum, then the non-empty bins as varint index deltas and counts.
+     * A minute of 2-second samples takes under 100 bytes.
+     */
+    public byte[] encode() {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(32 + bins.length * 2);
+        out.write(ENCODING_VERSION);
+        writeVarLong(out, count);
+        writeVarLong(out, zeroCount);
+        byte[] exact = ByteBuffer.allocate(24).putDouble(getMin()).putDouble(getMax()).putDouble(sum).array();
+        out.write(exact, 0, exact.length);
+        int nonEmpty = 0;
+        for (long bin : bins) {
+            if (bin != 0) {
+                nonEmpty++;
+            }
+        }
+        writeVarLong(out, nonEmpty);
+        long previousIndex = 0;
+        for (int i = 0; i < bins.length; i++) {
+            if (bins[i] == 0) {
+                continue;
+            }
+            long delta = (long) offset + i - previousIndex;
+            previousIndex = (long) offset + i;
+            writeVarLong(out, (delta << 1) ^ (delta >> 63));
+            writeVarLong(out, bins[i]);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * @param encoded from {@link #encode()}; null gives an empty sketch
+     * @throws IllegalArgumentException if the bytes are not a sketch
+     */
+    public static RateSketch decode(byte[] encoded) {
+        RateSketch sketch = new RateSketch();
+        if (encoded == null || encoded.length == 0) {
+            return sketch;
+        }
+        ByteBuffer in = ByteBuffer.wrap(encoded);
+        try {
+            if (in.get() != ENCODING_VERSION) {
+                throw new IllegalArgumentException("Unknown rate sketch version");
+            }
+            sketch.count = readVarLong(in);
+            sketch.zeroCount = readVarLong(in);
+            sketch.min = in.getDouble();
+            sketch.max = in.getDouble();
+            sketch.sum = in.getDouble();
+            int nonEmpty = (int) readVarLong(in);
+            int[] indexes = new int[nonEmpty];
+            long[] counts = new long[nonEmpty];
+            long index = 0;
+            for (int i = 0; i < nonEmpty; i++) {
+                long zigzag = readVarLong(in);
+                index += (zigzag >>> 1) ^ -(zigzag & 1);
+                indexes[i] = (int) index;
+                counts[i] = readVarLong(in);
+            }
+            if (nonEmpty > 0) {
+                sketch.offset = indexes[0];
+                sketch.bins = new long[indexes[nonEmpty - 1] - indexes[0] + 1];
+                for (int i = 0; i < nonEmpty; i++) {
+                    sketch.bins[indexes[i] - sketch.offset] = counts[i];
+                }
+            }
+        } catch (RuntimeException e) {
+            throw new IllegalArgumentException("Corrupt rate sketch", e);
+        }
+        if (sketch.count == 0) {
+            sketch.min = Double.POSITIVE_INFINITY;
+            sketch.max = Double.NEGATIVE_INFINITY;
+        }
+        return sketch;
+    }
+
+    private static void writeVarLong(ByteArrayOutputStream out, long value) {
+        while ((value & ~0x7FL) != 0) {
+            out.write((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+
+    private static long readVarLong(ByteBuffer in) {
+        long value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = in.get();
+            value |= (long) (b & 0x7F) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return value;
+    }
+}
@@ -0,0 +1,108 @@
+package com.networkmonitor.service;
+
+import java.io.IOException;
+import java.sql.SQLException;
+
+/**
+ * Distribution of per-sample rates over one bucket or range: min, max, mean
+ * and percentiles for each direction, from a {@link RateSketch} each. A
+ * sample's rate is its bytes over the time since the previous sample; the
+ * first sample, or the first after a gap longer than
+ * {@link #MAX_SAMPLE_GAP_MS}, has no known interval and is left out.
+ */
+public class RateStats {
+
+    // Beyond this the previous sample is from an earlier run, not this interval
+    public static final long MAX_SAMPLE_GAP_MS = 5 * 60 * 1000;
+
+    /**
+     * Receives samples in time order with the interval each covers, 0 when
+     * unknown.
+     */
+    @FunctionalInterface
+    public interface SampleVisitor {
+        void visit(long timestamp, long downloadBytes, long uploadBytes, long intervalMillis) throws IOException;
+    }
+
+    private final long timestamp;
+    private final RateSketch download;
+    private final RateSketch upload;
+
+    public RateStats(long timestamp) {
+        this(timestamp, new RateSketch(), new RateSketch());
+    }
+
+    public RateStats(long timestamp, RateSketch download, RateSketch upload) {
+        this.timestamp = timestamp;
+        this.download = download;
+        this.upload = upload;
+    }
+
+    /**
+     * @param previousTimestamp Long.MIN_VALUE when there is none
+     * @return the interval a sample at timestamp covers, or 0 when unknown
+     */
+    public static long intervalBetween(long previousTimestamp, long timestamp) {
+        if (previousTimestamp == Long.MIN_VALUE) {
+            return 0;
+        }
+        long gap = timestamp - previousTimestamp;
+        return gap > 0 && gap <= MAX_SAMPLE_GAP_MS ? gap : 0;
+    }
+
+    /**
+     * Adds a sample's rates; samples without a known interval are ignored.
+     */
+    public void addSample(long downloadBytes, long uploadBytes, long intervalMillis) {
+        if (intervalMillis <= 0) {
+            return;
+        }
+        download.add(downloadBytes * 1000.0 / intervalMillis);
+        upload.add(uploadBytes * 1000.0 / intervalMillis);
+    }
+
+    public void merge(RateStats other) {
+        download.merge(other.download);
+        upload.merge(other.upload);
+    }
+
+    /**
+     * Visits the samples in [fromMillis, toMillis) with their intervals.
+     * Reads a little before the range so the first sample's interval is the
+     * same one the rollups were built with.
+     */
+    static void scan(UsageStore store, long fromMillis, long toMillis, SampleVisitor visitor)
+            throws SQLException, IOException {
+        long[] previous = { Long.MIN_VALUE };
+        long leadIn = fromMillis == Long.MIN_VALUE ? fromMillis : fromMillis - MAX_SAMPLE_GAP_MS;
+        store.scanTotals(leadIn, toMillis, (timestamp, download, upload) -> {
+            long interval = intervalBetween(previous[0], timestamp);
+            previous[0] = timestamp;
+            if (timestamp >= fromMillis) {
+                visitor.visit(timestamp, download, upload, interval);
+            }
+        });
+    }
+
+    /** Start of the bucket or range. */
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public RateSketch getDownload() {
+        return download;
+    }
+
+    public RateSketch getUpload() {
+        return upload;
+    }
+
+    /** Samples with a known rate. */
+    public long getSampleCount() {
+        return download.getCount();
+    }
+
+    public boolean isEmpty() {
+        return download.isEmpty();
+    }
+}
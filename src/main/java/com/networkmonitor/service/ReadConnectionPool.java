@@ -0,0 +1,126 @@
+package com.networkmonitor.service;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Small pool of read-only connections. In WAL mode each reader sees a
+ * consistent snapshot while the writer keeps appending, so long aggregate
+ * reads neither block nor are blocked by inserts. Connections are opened on
+ * demand up to the pool size and each keeps its own statement cache.
+ */
+public class ReadConnectionPool {
+
+    private final String dbPath;
+    private final int size;
+    private final long cacheSizeKb;
+    private final long mmapSizeBytes;
+    private final BlockingQueue<StatementCache> idle;
+    private final List<StatementCache> all = new ArrayList<>();
+    private boolean closed = false;
+
+    public ReadConnectionPool(String dbPath, int size, long cacheSizeKb, long mmapSizeBytes) {
+        this.dbPath = dbPath;
+        this.size = Math.max(1, size);
+        this.cacheSizeKb = cacheSizeKb;
+        this.mmapSizeBytes = mmapSizeBytes;
+        this.idle = new ArrayBlockingQueue<>(this.size);
+    }
+
+    /**
+     * Borrows a connection, waiting if all of them are in use.
+     * Close the lease to give it back.
+     */
+    public Lease acquire() throws SQLException {
+        StatementCache statements = idle.poll();
+        if (statements == null) {
+            statements = openIfBelowSize();
+        }
+        if (statements == null) {
+            try {
+                statements = idle.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new SQLException("Interrupted while waiting for a read connection", e);
+            }
+        }
+        return new Lease(statements);
+    }
+
+    private synchronized StatementCache openIfBelowSize() throws SQLException {
+        if (closed) {
+            throw new SQLException("Read connection pool is closed");
+        }
+        if (all.size() >= size) {
+            return null;
+        }
+        StatementCache statements = new StatementCache(openConnection(dbPath, cacheSizeKb, mmapSizeBytes));
+        all.add(statements);
+        return statements;
+    }
+
+    /**
+     * Opens a standalone read-only connection with the same tuning, for
+     * long-running reads (e.g. exports) that shouldn't occupy a pooled one.
+     */
+    public Connection openStandalone() throws SQLException {
+        return openConnection(dbPath, cacheSizeKb, mmapSizeBytes);
+    }
+
+    static Connection openConnection(String dbPath, long cacheSizeKb, long mmapSizeBytes) throws SQLException {
+        org.sqlite.SQLiteConfig config = new org.sqlite.SQLiteConfig();
+        config.setReadOnly(true);
+        Connection connection = DriverManager.getConnection("jdbc:sqlite:" + dbPath, config.toProperties());
+        try (Statement stmt = connection.createStatement()) {
+            // Negative cache_size is in KiB; mmap lets reads skip the page cache copy
+            stmt.execute("PRAGMA cache_size=-" + cacheSizeKb + ";");
+            stmt.execute("PRAGMA mmap_size=" + mmapSizeBytes + ";");
+        }
+        return connection;
+    }
+
+    public synchronized void close() {
+        closed = true;
+        for (StatementCache statements : all) {
+            statements.close();
+            try {
+                statements.getConnection().close();
+            } catch (SQLException e) {
+                System.err.println("Error closing read connection: " + e.getMessage());
+            }
+        }
+        all.clear();
+        idle.clear();
+    }
+
+    /**
+     * A borrowed connection. Not thread-safe; use from one thread and close it.
+     */
+    public final class Lease implements AutoCloseable {
+        private final StatementCache statements;
+
+        private Lease(StatementCache statements) {
+            this.statements = statements;
+        }
+
+        public PreparedStatement prepare(String sql) throws SQLException {
+            return statements.prepare(sql);
+        }
+
+        @Override
+        public void close() {
+            synchronized (ReadConnectionPool.this) {
+                if (!closed) {
+                    idle.offer(statements);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,155 @@
+package com.networkmonitor.service;
+
+import com.networkmonitor.model.UsageRecord;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Fixed-capacity ring buffer of the most recent samples, kept as primitive
+ * columns so live-window queries never touch the database.
+ * Timestamps are expected to be appended in non-decreasing order.
+ */
+public class RecentSampleBuffer {
+
+    private final long[] timestamps;
+    private final long[] downloads;
+    private final long[] uploads;
+    private int head = 0; // index of the oldest sample
+    private int size = 0;
+    private long coverageStartMillis;
+
+    /**
+     * @param capacity           maximum number of samples retained.
+     * @param coverageStartMillis time from which every sample is known to be in
+     *                           the buffer (usually the moment collection started).
+     */
+    public RecentSampleBuffer(int capacity, long coverageStartMillis) {
+        this.timestamps = new long[capacity];
+        this.downloads = new long[capacity];
+        this.uploads = new long[capacity];
+        this.coverageStartMillis = coverageStartMillis;
+    }
+
+    public synchronized void append(long timestamp, long downloadBytes, long uploadBytes) {
+        int capacity = timestamps.length;
+        int index;
+        if (size == capacity) {
+            // Overwrite the oldest sample; anything at or before it is no longer covered
+            index = head;
+            coverageStartMillis = Math.max(coverageStartMillis, timestamps[head] + 1);
+            head = (head + 1) % capacity;
+        } else {
+            index = (head + size) % capacity;
+            size++;
+        }
+        timestamps[index] = timestamp;
+        downloads[index] = downloadBytes;
+        uploads[index] = uploadBytes;
+    }
+
+    /**
+     * Whether every sample with a timestamp at or after startMillis is held here.
+     */
+    public synchronized boolean covers(long startMillis) {
+        return startMillis >= coverageStartMillis;
+    }
+
+    public synchronized long getCoverageStartMillis() {
+        return coverageStartMillis;
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    public int capacity() {
+        return timestamps.length;
+    }
+
+    public synchronized List<UsageRecord> getRange(long startMillis, long endMillis) {
+        List<UsageRecord> records = new ArrayList<>();
+        for (int i = lowerBound(startMillis); i < size; i++) {
+            int index = physical(i);
+            if (timestamps[index] > endMillis) {
+                break;
+            }
+            records.add(new UsageRecord(timestamps[index], downloads[index], uploads[index]));
+        }
+        return records;
+    }
+
+    /**
+     * Sums the samples within [startMillis, endMillis] into out[0] (download)
+     * and out[1] (upload).
+     */
+    public synchronized void sumRange(long startMillis, long endMillis, long[] out) {
+        long down = 0;
+        long up = 0;
+        for (int i = lowerBound(startMillis); i < size; i++) {
+            int index = physical(i);
+            if (timestamps[index] > endMillis) {
+                break;
+            }
+            down += downloads[index];
+            up += uploads[index];
+        }
+        out[0] = down;
+        out[1] = up;
+    }
+
+    /**
+     * Copies up to n of the newest samples, oldest first, into the given arrays.
+     *
+     * @return the number of samples copied.
+     */
+    public synchronized int copyLatest(int n, long[] outTimestamps, long[] outDownloads, long[] outUploads) {
+        int count = Math.min(Math.min(n, size), outTimestamps.length);
+        for (int i = 0; i < count; i++) {
+            int index = physical(size - count + i);
+            outTimestamps[i] = timestamps[index];
+            outDownloads[i] = downloads[index];
+            outUploads[i] = uploads[index];
+        }
+        return count;
+    }
+
+    /**
+     * Drops samples within [startMillis, endMillis], keeping the rest in order.
+     */
+    public synchronized void removeRange(long startMillis, long endMillis) {
+        int kept = 0;
+        for (int i = 0; i < size; i++) {
+            int index = physical(i);
+            if (timestamps[index] >= startMillis && timestamps[index] <= endMillis) {
+                continue;
+            }
+            int target = physical(kept++);
+            timestamps[target] = timestamps[index];
+            downloads[target] = downloads[index];
+            uploads[target] = uploads[index];
+        }
+        size = kept;
+    }
+
+    private int physical(int logicalIndex) {
+        return (head + logicalIndex) % timestamps.length;
+    }
+
+    /**
+     * Logical index of the first sample with timestamp >= millis.
+     */
+    private int lowerBound(long millis) {
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (timestamps[physical(mid)] < millis) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+}
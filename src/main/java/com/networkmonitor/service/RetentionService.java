@@ -0,0 +1,82 @@
+package com.networkmonitor.service;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Expires old samples in the background. Runs shortly after startup and then
+ * periodically, so a long-idle database is trimmed without delaying the
+ * dashboard. The retention period is the retention_days setting; 0 keeps
+ * everything.
+ */
+public class RetentionService {
+
+    private static final long INITIAL_DELAY_MS = 30_000;
+    private static final long PERIOD_MS = 6 * 60 * 60 * 1000;
+    private static final long DAY_MS = 24L * 60 * 60 * 1000;
+
+    private final DatabaseManager databaseManager;
+    private final ScheduledExecutorService executor;
+    private volatile boolean stopped = false;
+
+    public RetentionService(DatabaseManager databaseManager) {
+        this.databaseManager = databaseManager;
+        this.executor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "usage-retention");
+            t.setDaemon(true);
+            // Housekeeping only; sampling and flushing come first
+            t.setPriority(Thread.MIN_PRIORITY);
+            return t;
+        });
+    }
+
+    public void start() {
+        executor.scheduleWithFixedDelay(this::runOnce, INITIAL_DELAY_MS, PERIOD_MS, TimeUnit.MILLISECONDS);
+    }
+
+    public long getRetentionDays() {
+        return Math.max(0, databaseManager.getLongSetting("retention_days", DatabaseManager.DEFAULT_RETENTION_DAYS));
+    }
+
+    /**
+     * Saves the retention period and applies it right away in the background.
+     */
+    public void setRetentionDays(long days) {
+        days = Math.max(0, days);
+        if (days == getRetentionDays()) {
+            return;
+        }
+        databaseManager.saveSetting("retention_days", String.valueOf(days));
+        if (!stopped) {
+            executor.execute(this::runOnce);
+        }
+    }
+
+    private void runOnce() {
+        long days = getRetentionDays();
+        if (days == 0 || stopped) {
+            return;
+        }
+        try {
+            databaseManager.applyRetention(System.currentTimeMillis() - days * DAY_MS,
+                    () -> stopped || Thread.currentThread().isInterrupted());
+        } catch (RuntimeException e) {
+            // An exception would silently cancel the periodic task
+            System.err.println("Error applying retention: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Stops between chunks; whatever was deleted so far stays deleted.
+     */
+    public void stop() {
+        stopped = true;
+        executor.shutdownNow();
+        try {
+            executor.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
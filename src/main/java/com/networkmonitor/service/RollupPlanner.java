@@ -0,0 +1,101 @@
+package com.networkmonitor.service;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Splits a time range into segments that can each be answered from a single
+ * tier: whole buckets come from the coarsest allowed rollup, and the ragged
+ * edges fall back to progressively finer tiers down to the raw samples.
+ */
+public final class RollupPlanner {
+
+    private RollupPlanner() {
+    }
+
+    public static final class Segment {
+        private final RollupTier tier;
+        private final long fromMillis;
+        private final long toMillis;
+
+        Segment(RollupTier tier, long fromMillis, long toMillis) {
+            this.tier = tier;
+            this.fromMillis = fromMillis;
+            this.toMillis = toMillis;
+        }
+
+        public RollupTier getTier() {
+            return tier;
+        }
+
+        /** Inclusive lower bound. */
+        public long getFromMillis() {
+            return fromMillis;
+        }
+
+        /** Exclusive upper bound. */
+        public long getToMillis() {
+            return toMillis;
+        }
+
+        @Override
+        public String toString() {
+            return tier + "[" + fromMillis + ", " + toMillis + ")";
+        }
+    }
+
+    /**
+     * Plans the half-open range [fromMillis, toMillis) using tiers no coarser
+     * than maxTier. Segments are returned in time order.
+     */
+    public static List<Segment> plan(long fromMillis, long toMillis, RollupTier maxTier) {
+        List<Segment> segments = new ArrayList<>();
+        plan(fromMillis, toMillis, maxTier.ordinal(), segments);
+        return segments;
+    }
+
+    private static void plan(long from, long to, int tierIndex, List<Segment> out) {
+        if (from >= to) {
+            return;
+        }
+        RollupTier tier = RollupTier.values()[tierIndex];
+        if (!tier.isRollup()) {
+            out.add(new Segment(tier, from, to));
+            return;
+        }
+
+        long resolution = tier.getResolutionMillis();
+        long alignedFrom = ceilToMultiple(from, resolution);
+        long alignedTo = floorToMultiple(to, resolution);
+        if (alignedFrom >= alignedTo) {
+            plan(from, to, tierIndex - 1, out);
+            return;
+        }
+
+        plan(from, alignedFrom, tierIndex - 1, out);
+        out.add(new Segment(tier, alignedFrom, alignedTo));
+        plan(alignedTo, to, tierIndex - 1, out);
+    }
+
+    /**
+     * The first multiple of resolution at or after value, or Long.MAX_VALUE
+     * when it would overflow; no bucket starts that late anyway.
+     */
+    private static long ceilToMultiple(long value, long resolution) {
+        long remainder = Math.floorMod(value, resolution);
+        if (remainder == 0) {
+            return value;
+        }
+        long step = resolution - remainder;
+        return value > Long.MAX_VALUE - step ? Long.MAX_VALUE : value + step;
+    }
+
+    /**
+     * The last multiple of resolution at or before value, or Long.MIN_VALUE
+     * when it would overflow.
+     */
+    private static long floorToMultiple(long value, long resolution) {
+        long remainder = Math.floorMod(value, resolution);
+        return value < Long.MIN_VALUE + remainder ? Long.MIN_VALUE : value - remainder;
+    }
+}
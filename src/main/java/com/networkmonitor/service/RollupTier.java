@@ -0,0 +1,81 @@
+package com.networkmonitor.service;
+
+/**
+ * Storage resolutions for usage data, from raw samples up to daily rollups.
+ * Rollup buckets are aligned to UTC epoch multiples of their resolution.
+ * Raw samples are spread over monthly tables, so RAW names only the legacy
+ * table; query raw data through {@link UsagePartitions}.
+ */
+public enum RollupTier {
+    RAW(1, UsagePartitions.LEGACY_TABLE, "timestamp"),
+    MINUTE(60_000L, "usage_1m", "bucket"),
+    HOUR(60 * 60_000L, "usage_1h", "bucket"),
+    DAY(24 * 60 * 60_000L, "usage_1d", "bucket");
+
+    private final long resolutionMillis;
+    private final String tableName;
+    private final String timeColumn;
+
+    RollupTier(long resolutionMillis, String tableName, String timeColumn) {
+        this.resolutionMillis = resolutionMillis;
+        this.tableName = tableName;
+        this.timeColumn = timeColumn;
+    }
+
+    public long getResolutionMillis() {
+        return resolutionMillis;
+    }
+
+    public String getTableName() {
+        return tableName;
+    }
+
+    public String getTimeColumn() {
+        return timeColumn;
+    }
+
+    public boolean isRollup() {
+        return this != RAW;
+    }
+
+    public long bucketOf(long timestamp) {
+        return Math.floorDiv(timestamp, resolutionMillis) * resolutionMillis;
+    }
+
+    /**
+     * Returns the coarsest tier whose buckets fit evenly into the given
+     * interval, so grouping its rows by the interval stays exact.
+     */
+    public static RollupTier coarsestFor(long intervalMillis) {
+        RollupTier[] tiers = values();
+        for (int i = tiers.length - 1; i > 0; i--) {
+            if (intervalMillis >= tiers[i].resolutionMillis && intervalMillis % tiers[i].resolutionMillis == 0) {
+                return tiers[i];
+            }
+        }
+        return RAW;
+    }
+
+    /**
+     * Rounds a bucket interval up to a multiple of the coarsest tier it is
+     * close to, so queries grouped by it can read that tier's rollups instead
+     * of raw samples. Intervals far below a minute are returned unchanged.
+     * The result is at most four times the requested interval.
+     */
+    public static long alignInterval(long intervalMillis) {
+        RollupTier[] tiers = values();
+        for (int i = tiers.length - 1; i > 0; i--) {
+            long resolution = tiers[i].resolutionMillis;
+            if (intervalMillis >= (resolution + 3) / 4) {
+                long remainder = intervalMillis % resolution;
+                if (remainder == 0) {
+                    return intervalMillis;
+                }
+                // Rounded down instead where rounding up would overflow
+                return intervalMillis > Long.MAX_VALUE - (resolution - remainder) ? intervalMillis - remainder
+                        : intervalMillis + (resolution - remainder);
+            }
+        }
+        return intervalMillis;
+    }
+}
@@ -0,0 +1,59 @@
+package com.networkmonitor.service;
+
+import java.util.Arrays;
+
+/**
+ * Raw rows of one flush, kept as parallel columns so stores can write them
+ * without a per-row object.
+ */
+public class SampleBatch {
+
+    private long[] interfaceIds;
+    private long[] timestamps;
+    private long[] downloadBytes;
+    private long[] uploadBytes;
+    private int size;
+
+    public SampleBatch(int initialCapacity) {
+        int capacity = Math.max(1, initialCapacity);
+        interfaceIds = new long[capacity];
+        timestamps = new long[capacity];
+        downloadBytes = new long[capacity];
+        uploadBytes = new long[capacity];
+    }
+
+    public void add(long interfaceId, long timestamp, long download, long upload) {
+        if (size == timestamps.length) {
+            int capacity = size * 2;
+            interfaceIds = Arrays.copyOf(interfaceIds, capacity);
+            timestamps = Arrays.copyOf(timestamps, capacity);
+            downloadBytes = Arrays.copyOf(downloadBytes, capacity);
+            uploadBytes = Arrays.copyOf(uploadBytes, capacity);
+        }
+        interfaceIds[size] = interfaceId;
+        timestamps[size] = timestamp;
+        downloadBytes[size] = download;
+        uploadBytes[size] = upload;
+        size++;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public long getInterfaceId(int index) {
+        return interfaceIds[index];
+    }
+
+    public long getTimestamp(int index) {
+        return timestamps[index];
+    }
+
+    public long getDownloadBytes(int index) {
+        return downloadBytes[index];
+    }
+
+    public long getUploadBytes(int index) {
+        return uploadBytes[index];
+    }
+}
@@ -0,0 +1,134 @@
+package com.networkmonitor.service;
+
+import com.networkmonitor.model.InterfaceUsageRecord;
+import com.networkmonitor.model.UsageRecord;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Folds high-frequency samples into coarser periods, summing byte deltas
+ * (overall and per interface) and the elapsed time they cover. The peak
+ * per-sample rate within each period is kept so short bursts stay visible.
+ */
+public class SampleCoalescer {
+
+    private final long periodMillis;
+
+    private long windowStartMillis = Long.MIN_VALUE;
+    private long downloadBytes;
+    private long uploadBytes;
+    private long elapsedNanos;
+    private double peakDownloadRate;
+    private double peakUploadRate;
+    private final Map<String, long[]> interfaceBytes = new LinkedHashMap<>();
+
+    // Result of the last completed period
+    private UsageRecord record;
+    private List<InterfaceUsageRecord> interfaceRecords = Collections.emptyList();
+    private long recordElapsedNanos;
+    private double recordPeakDownloadRate;
+    private double recordPeakUploadRate;
+
+    public SampleCoalescer(long periodMillis) {
+        this.periodMillis = periodMillis;
+    }
+
+    /**
+     * Adds one sample covering intervalNanos.
+     *
+     * @return true when the sample completed a period; the coalesced result is
+     *         then available from {@link #getRecord()}.
+     */
+    public boolean offer(UsageRecord sample, List<InterfaceUsageRecord> interfaces, long intervalNanos) {
+        if (windowStartMillis == Long.MIN_VALUE) {
+            windowStartMillis = sample.getTimestamp() - intervalNanos / 1_000_000;
+        }
+        downloadBytes += sample.getDownloadBytes();
+        uploadBytes += sample.getUploadBytes();
+        elapsedNanos += intervalNanos;
+        peakDownloadRate = Math.max(peakDownloadRate, ratePerSecond(sample.getDownloadBytes(), intervalNanos));
+        peakUploadRate = Math.max(peakUploadRate, ratePerSecond(sample.getUploadBytes(), intervalNanos));
+        for (InterfaceUsageRecord row : interfaces) {
+            long[] totals = interfaceBytes.computeIfAbsent(row.getInterfaceName(), k -> new long[2]);
+            totals[0] += row.getDownloadBytes();
+            totals[1] += row.getUploadBytes();
+        }
+
+        if (sample.getTimestamp() - windowStartMillis >= periodMillis) {
+            complete(sample.getTimestamp());
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Completes the current period early, e.g. on shutdown.
+     *
+     * @return false if there was nothing pending.
+     */
+    public boolean drain(long timestamp) {
+        if (windowStartMillis == Long.MIN_VALUE) {
+            return false;
+        }
+        complete(timestamp);
+        return true;
+    }
+
+    private void complete(long timestamp) {
+        record = new UsageRecord(timestamp, downloadBytes, uploadBytes);
+        if (interfaceBytes.isEmpty()) {
+            interfaceRecords = Collections.emptyList();
+        } else {
+            interfaceRecords = new ArrayList<>(interfaceBytes.size());
+            for (Map.Entry<String, long[]> entry : interfaceBytes.entrySet()) {
+                interfaceRecords.add(new InterfaceUsageRecord(entry.getKey(), timestamp,
+                        entry.getValue()[0], entry.getValue()[1]));
+            }
+        }
+        recordElapsedNanos = elapsedNanos;
+        recordPeakDownloadRate = peakDownloadRate;
+        recordPeakUploadRate = peakUploadRate;
+
+        windowStartMillis = timestamp;
+        downloadBytes = 0;
+        uploadBytes = 0;
+        elapsedNanos = 0;
+        peakDownloadRate = 0;
+        peakUploadRate = 0;
+        interfaceBytes.clear();
+    }
+
+    public UsageRecord getRecord() {
+        return record;
+    }
+
+    public List<InterfaceUsageRecord> getInterfaceRecords() {
+        return interfaceRecords;
+    }
+
+    public long getElapsedNanos() {
+        return recordElapsedNanos;
+    }
+
+    public double getPeakDownloadRate() {
+        return recordPeakDownloadRate;
+    }
+
+    public double getPeakUploadRate() {
+        return recordPeakUploadRate;
+    }
+
+    /**
+     * Bytes per second for a delta measured over elapsedNanos.
+     */
+    public static double ratePerSecond(long bytes, long elapsedNanos) {
+        if (elapsedNanos <= 0) {
+            return 0.0;
+        }
+        return bytes * 1_000_000_000.0 / elapsedNanos;
+    }
+}
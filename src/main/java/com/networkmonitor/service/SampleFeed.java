@@ -0,0 +1,24 @@
+package com.networkmonitor.service;
+
+/**
+ * A stream of usage samples, either collected locally or followed from a
+ * database another process writes to.
+ */
+public interface SampleFeed {
+
+    void addListener(SampleListener listener);
+
+    void start();
+
+    void stop();
+
+    long getSampleIntervalMillis();
+
+    QuotaAccountant getQuotaAccountant();
+
+    /**
+     * Whether this feed only reads; settings and maintenance belong to the
+     * process that writes the database.
+     */
+    boolean isReadOnly();
+}
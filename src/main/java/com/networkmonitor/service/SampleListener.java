@@ -0,0 +1,16 @@
+package com.networkmonitor.service;
+
+import com.networkmonitor.model.UsageRecord;
+
+/**
+ * Receives every sample from a {@link SampleFeed}, on the feed's own thread.
+ */
+@FunctionalInterface
+public interface SampleListener {
+
+    /**
+     * @param record        the delta for this sample.
+     * @param intervalNanos time the delta actually covers.
+     */
+    void onSample(UsageRecord record, long intervalNanos);
+}
@@ -0,0 +1,171 @@
+package com.networkmonitor.service;
+
+import com.networkmonitor.model.InterfaceUsageRecord;
+import com.networkmonitor.model.UsageRecord;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Bounded lock-free hand-off of samples from the sampling thread to one
+ * consumer thread. The sampler never blocks: when the consumer falls behind
+ * and the queue is full, samples are folded together (deltas and intervals
+ * summed) and handed over as one once there is room again, so no bytes are
+ * lost, only time resolution. Folded samples are counted.
+ * <p>
+ * Exactly one thread may publish and one thread may poll.
+ */
+class SampleQueue {
+
+    /**
+     * A sample as handed over: the total, its per-interface rows and the
+     * interval it covers.
+     */
+    static final class Sample {
+        final UsageRecord record;
+        final List<InterfaceUsageRecord> interfaces;
+        final long intervalNanos;
+        final long queuedNanos;
+
+        Sample(UsageRecord record, List<InterfaceUsageRecord> interfaces, long intervalNanos, long queuedNanos) {
+            this.record = record;
+            this.interfaces = interfaces;
+            this.intervalNanos = intervalNanos;
+            this.queuedNanos = queuedNanos;
+        }
+    }
+
+    private final AtomicReferenceArray<Sample> slots;
+    private final int mask;
+    // Next slot to read, advanced by the consumer
+    private final AtomicLong head = new AtomicLong();
+    // Next slot to write, advanced by the publisher
+    private final AtomicLong tail = new AtomicLong();
+    private final Diagnostics.Counter foldedCounter;
+    private volatile Thread consumer;
+
+    // Owned by the publisher: samples waiting for room, folded into one
+    private final SampleCoalescer overflow = new SampleCoalescer(Long.MAX_VALUE);
+    private boolean overflowing = false;
+    private long overflowEndMillis;
+
+    /**
+     * @param capacity rounded up to a power of two
+     * @param name     for the fold counter, e.g. "store"
+     */
+    SampleQueue(int capacity, String name) {
+        int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+        this.slots = new AtomicReferenceArray<>(size);
+        this.mask = size - 1;
+        this.foldedCounter = Diagnostics.counter("queue." + name + ".folded");
+    }
+
+    /**
+     * Registers the thread that polls, so publishing can wake it.
+     */
+    void setConsumer(Thread consumer) {
+        this.consumer = consumer;
+    }
+
+    /**
+     * Hands a sample to the consumer, or folds it into the overflow while the
+     * queue is full. Called by the publishing thread only.
+     */
+    void publish(UsageRecord record, List<InterfaceUsageRecord> interfaces, long intervalNanos) {
+        if (overflowing) {
+            overflow.offer(record, interfaces, intervalNanos);
+            overflowEndMillis = record.getTimestamp();
+            foldedCounter.increment();
+            if (hasRoom()) {
+                // The folded sample ends at this one, so order is kept
+                overflow.drain(record.getTimestamp());
+                offer(new Sample(overflow.getRecord(), overflow.getInterfaceRecords(), overflow.getElapsedNanos(),
+                        System.nanoTime()));
+                overflowing = false;
+            }
+            return;
+        }
+        if (!offer(new Sample(record, interfaces, intervalNanos, System.nanoTime()))) {
+            overflow.offer(record, interfaces, intervalNanos);
+            overflowEndMillis = record.getTimestamp();
+            foldedCounter.increment();
+            overflowing = true;
+        }
+    }
+
+    /**
+     * Hands over anything still folded in the overflow, waiting up to
+     * timeoutMillis for room. Called by the publishing thread once it has
+     * stopped publishing.
+     *
+     * @return false if the overflow could not be handed over in time
+     */
+    boolean flushOverflow(long timeoutMillis) {
+        if (!overflowing) {
+            return true;
+        }
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        while (!hasRoom()) {
+            if (System.nanoTime() > deadline) {
+                return false;
+            }
+            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(1));
+        }
+        overflow.drain(overflowEndMillis);
+        offer(new Sample(overflow.getRecord(), overflow.getInterfaceRecords(), overflow.getElapsedNanos(),
+                System.nanoTime()));
+        overflowing = false;
+        return true;
+    }
+
+    private boolean hasRoom() {
+        return tail.get() - head.get() < slots.length();
+    }
+
+    private boolean offer(Sample sample) {
+        long t = tail.get();
+        if (t - head.get() >= slots.length()) {
+            return false;
+        }
+        slots.set((int) t & mask, sample);
+        // Publishes the slot to the consumer, which reads tail first
+        tail.lazySet(t + 1);
+        Thread waiting = consumer;
+        if (waiting != null) {
+            LockSupport.unpark(waiting);
+        }
+        return true;
+    }
+
+    /**
+     * Takes the next sample, waiting up to maxWaitNanos for one. Called by the
+     * consumer thread only.
+     *
+     * @return null if none arrived in time
+     */
+    Sample poll(long maxWaitNanos) {
+        long h = head.get();
+        if (h >= tail.get()) {
+            LockSupport.parkNanos(this, maxWaitNanos);
+            if (h >= tail.get()) {
+                return null;
+            }
+        }
+        int slot = (int) h & mask;
+        Sample sample = slots.get(slot);
+        slots.set(slot, null);
+        head.lazySet(h + 1);
+        return sample;
+    }
+
+    boolean isEmpty() {
+        return head.get() >= tail.get();
+    }
+
+    long getFoldedCount() {
+        return foldedCounter.get();
+    }
+}
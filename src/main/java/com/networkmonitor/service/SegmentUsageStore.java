@@ -0,0 +1,573 @@
+package com.networkmonitor.service;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.YearMonth;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Raw samples in append-only, memory-mapped segment files, one series of
+ * files per UTC month (raw-YYYYMM-NNNN.seg). Each file holds a fixed number of
+ * rows as columns: timestamps, download bytes, upload bytes (8 bytes each) and
+ * interface ids (4 bytes), after a 64 byte header. Rows are in time order, so
+ * a range is found by binary search on the timestamp column and read with a
+ * sequential scan; there is no separate index.
+ * <p>
+ * The header's row count is written after the rows, so a reader in another
+ * process never sees a half-written row. Like SQLite with synchronous=NORMAL,
+ * data reaches the disk when the OS writes the pages back; a crash can lose
+ * the last rows but not corrupt earlier ones.
+ * <p>
+ * Deletes are staged like appends: files to remove stay on disk and partly
+ * deleted files are rewritten to temporary copies, and both only replace the
+ * originals on commit. Until then only the writer thread sees them, as with
+ * an open SQLite transaction.
+ */
+public class SegmentUsageStore implements UsageStore {
+
+    private static final int MAGIC = 0x4E4D5347; // "NMSG"
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 64;
+    private static final int CAPACITY_OFFSET = 8;
+    private static final int COUNT_OFFSET = 12;
+    // 7 MiB files; the unwritten tail of a new file is sparse on disk
+    public static final int DEFAULT_SEGMENT_ROWS = 1 << 18;
+    // Keeps column offsets within an int
+    private static final int MAX_SEGMENT_ROWS = 1 << 24;
+    private static final long REFRESH_INTERVAL_MS = 10_000;
+    private static final String PREFIX = "raw-";
+    private static final String SUFFIX = ".seg";
+    private static final DateTimeFormatter MONTH_FORMAT = DateTimeFormatter.ofPattern("yyyyMM");
+
+    private static final class Segment {
+        private final Path path;
+        private final Object fileKey;
+        private final YearMonth month;
+        private final int sequence;
+        private final MappedByteBuffer map;
+        private final int capacity;
+        private final boolean readOnly;
+        private final int downloadOffset;
+        private final int uploadOffset;
+        private final int interfaceOffset;
+        // Rows visible to readers; in read-only mode the header is the source
+        private volatile int committed;
+        // Rows written by the writer, committed or not
+        private int staged;
+
+        Segment(Path path, Object fileKey, YearMonth month, int sequence, MappedByteBuffer map, boolean readOnly) {
+            this.path = path;
+            this.fileKey = fileKey;
+            this.month = month;
+            this.sequence = sequence;
+            this.map = map;
+            this.readOnly = readOnly;
+            this.capacity = map.getInt(CAPACITY_OFFSET);
+            this.downloadOffset = HEADER_BYTES + 8 * capacity;
+            this.uploadOffset = HEADER_BYTES + 16 * capacity;
+            this.interfaceOffset = HEADER_BYTES + 24 * capacity;
+            this.committed = map.getInt(COUNT_OFFSET);
+            this.staged = committed;
+        }
+
+        int count() {
+            return readOnly ? Math.min(capacity, map.getInt(COUNT_OFFSET)) : committed;
+        }
+
+        long timestamp(int row) {
+            return map.getLong(HEADER_BYTES + 8 * row);
+        }
+
+        long download(int row) {
+            return map.getLong(downloadOffset + 8 * row);
+        }
+
+        long upload(int row) {
+            return map.getLong(uploadOffset + 8 * row);
+        }
+
+        int interfaceId(int row) {
+            return map.getInt(interfaceOffset + 4 * row);
+        }
+
+        void put(int row, long timestamp, long download, long upload, long interfaceId) {
+            map.putLong(HEADER_BYTES + 8 * row, timestamp);
+            map.putLong(downloadOffset + 8 * row, download);
+            map.putLong(uploadOffset + 8 * row, upload);
+            map.putInt(interfaceOffset + 4 * row, (int) interfaceId);
+        }
+
+        /** First row in [0, count) with a timestamp at or after the given one. */
+        int lowerBound(long timestamp, int count) {
+            int low = 0;
+            int high = count;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (timestamp(mid) < timestamp) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return low;
+        }
+    }
+
+    @FunctionalInterface
+    private interface SegmentScan {
+        void row(Segment segment, int row) throws IOException;
+    }
+
+    private final Path directory;
+    private final boolean readOnly;
+    private final int segmentRows;
+    // Guards writes, same as for the SQLite store
+    private final Object writeLock;
+    private volatile List<Segment> segments = Collections.emptyList();
+    private volatile long loadedAtMillis;
+
+    // Writer state, guarded by writeLock
+    private final List<Segment> touched = new ArrayList<>();
+    private final List<Segment> created = new ArrayList<>();
+    // Segments as the writer sees them while deletes are staged, else null
+    private List<Segment> stagedSegments;
+    // Files to unlink on commit
+    private final List<Path> deletedPaths = new ArrayList<>();
+    // Final path of each rewritten segment to its uncommitted copy
+    private final Map<Path, Segment> rewritten = new HashMap<>();
+    private long copySequence;
+    private Segment tail;
+    private long lastTimestamp = Long.MIN_VALUE;
+    private long committedLastTimestamp = Long.MIN_VALUE;
+
+    public SegmentUsageStore(Path directory, boolean readOnly, int segmentRows, Object writeLock) throws IOException {
+        this.directory = directory;
+        this.readOnly = readOnly;
+        this.segmentRows = Math.min(MAX_SEGMENT_ROWS, Math.max(1024, segmentRows));
+        this.writeLock = writeLock;
+        if (!readOnly) {
+            Files.createDirectories(directory);
+            // Copies left by a transaction that never committed
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, PREFIX + "*" + SUFFIX + ".tmp*")) {
+                for (Path path : stream) {
+                    deleteQuietly(path);
+                }
+            }
+        }
+        load();
+        if (!readOnly) {
+            List<Segment> all = segments;
+            tail = all.isEmpty() ? null : all.get(all.size() - 1);
+            if (tail != null && tail.committed > 0) {
+                lastTimestamp = tail.timestamp(tail.committed - 1);
+            }
+            committedLastTimestamp = lastTimestamp;
+        }
+    }
+
+    private void load() throws IOException {
+        Map<Path, Segment> known = new HashMap<>();
+        for (Segment segment : segments) {
+            known.put(segment.path, segment);
+        }
+        List<Segment> found = new ArrayList<>();
+        if (Files.isDirectory(directory)) {
+            List<Path> paths = new ArrayList<>();
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, PREFIX + "*" + SUFFIX)) {
+                for (Path path : stream) {
+                    paths.add(path);
+                }
+            }
+            // Names sort by month, then sequence
+            Collections.sort(paths);
+            for (Path path : paths) {
+                Object fileKey = Files.readAttributes(path, java.nio.file.attribute.BasicFileAttributes.class)
+                        .fileKey();
+                Segment existing = known.get(path);
+                if (existing != null && (fileKey == null || fileKey.equals(existing.fileKey))) {
+                    found.add(existing);
+                    continue;
+                }
+                try {
+                    found.add(open(path, fileKey));
+                } catch (IOException | RuntimeException e) {
+                    System.err.println("Error opening segment " + path.getFileName() + ": " + e.getMessage());
+                }
+            }
+        }
+        segments = Collections.unmodifiableList(found);
+        loadedAtMillis = System.currentTimeMillis();
+    }
+
+    private Segment open(Path path, Object fileKey) throws IOException {
+        String name = path.getFileName().toString();
+        String[] parts = name.substring(PREFIX.length(), name.length() - SUFFIX.length()).split("-");
+        YearMonth month = YearMonth.parse(parts[0], MONTH_FORMAT);
+        int sequence = Integer.parseInt(parts[1]);
+        try (FileChannel channel = readOnly
+                ? FileChannel.open(path, StandardOpenOption.READ)
+                : FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            // The mapping stays valid after the channel is closed
+            MappedByteBuffer map = channel.map(readOnly ? FileChannel.MapMode.READ_ONLY : FileChannel.MapMode.READ_WRITE,
+                    0, channel.size());
+            if (map.getInt(0) != MAGIC || map.getInt(4) != VERSION) {
+                throw new IOException("not a usage segment");
+            }
+            return new Segment(path, fileKey, month, sequence, map, readOnly);
+        }
+    }
+
+    private Segment create(YearMonth month, int sequence, String suffix) throws IOException {
+        Path path = directory.resolve(PREFIX + month.format(MONTH_FORMAT) + "-" +
+                String.format("%04d", sequence) + SUFFIX + suffix);
+        long size = HEADER_BYTES + 28L * segmentRows;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW,
+                StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            MappedByteBuffer map = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            map.putInt(0, MAGIC);
+            map.putInt(4, VERSION);
+            map.putInt(CAPACITY_OFFSET, segmentRows);
+            map.putInt(COUNT_OFFSET, 0);
+            return new Segment(path, null, month, sequence, map, false);
+        }
+    }
+
+    private List<Segment> getSegments() throws IOException {
+        if (readOnly && System.currentTimeMillis() - loadedAtMillis > REFRESH_INTERVAL_MS) {
+            synchronized (this) {
+                if (System.currentTimeMillis() - loadedAtMillis > REFRESH_INTERVAL_MS) {
+                    load();
+                }
+            }
+        }
+        List<Segment> staged = stagedSegments;
+        return staged != null && Thread.holdsLock(writeLock) ? staged : segments;
+    }
+
+    private static YearMonth monthOf(long timestamp) {
+        return YearMonth.from(Instant.ofEpochMilli(timestamp).atZone(ZoneOffset.UTC));
+    }
+
+    /**
+     * Rows stay in time order: a timestamp earlier than the last stored one
+     * (the clock was set back) is stored at the last one.
+     */
+    @Override
+    public void append(SampleBatch batch) throws IOException {
+        synchronized (writeLock) {
+            for (int i = 0; i < batch.size(); i++) {
+                long timestamp = Math.max(batch.getTimestamp(i), lastTimestamp);
+                YearMonth month = monthOf(timestamp);
+                if (tail == null || !tail.month.equals(month) || tail.staged == tail.capacity) {
+                    int sequence = tail != null && tail.month.equals(month) ? tail.sequence + 1 : 0;
+                    tail = create(month, sequence, "");
+                    created.add(tail);
+                }
+                tail.put(tail.staged++, timestamp, batch.getDownloadBytes(i), batch.getUploadBytes(i),
+                        batch.getInterfaceId(i));
+                if (!touched.contains(tail)) {
+                    touched.add(tail);
+                }
+                lastTimestamp = timestamp;
+            }
+        }
+    }
+
+    @Override
+    public void commit() {
+        synchronized (writeLock) {
+            if (stagedSegments != null) {
+                publishDeletes();
+            }
+            for (Segment segment : touched) {
+                // Rows first, then the count that makes them visible
+                segment.map.putInt(COUNT_OFFSET, segment.staged);
+                segment.committed = segment.staged;
+            }
+            touched.clear();
+            if (!created.isEmpty()) {
+                List<Segment> updated = new ArrayList<>(segments);
+                updated.addAll(created);
+                segments = Collections.unmodifiableList(updated);
+                created.clear();
+            }
+            committedLastTimestamp = lastTimestamp;
+        }
+    }
+
+    @Override
+    public void rollback() {
+        synchronized (writeLock) {
+            for (Segment segment : touched) {
+                segment.staged = segment.committed;
+            }
+            touched.clear();
+            for (Segment segment : created) {
+                deleteQuietly(segment.path);
+            }
+            created.clear();
+            for (Segment copy : rewritten.values()) {
+                deleteQuietly(copy.path);
+            }
+            rewritten.clear();
+            deletedPaths.clear();
+            stagedSegments = null;
+            List<Segment> all = segments;
+            tail = all.isEmpty() ? null : all.get(all.size() - 1);
+            lastTimestamp = committedLastTimestamp;
+        }
+    }
+
+    /**
+     * Visits rows in [fromMillis, toMillis) across segments, in time order.
+     */
+    private void scan(long fromMillis, long toMillis, SegmentScan scan) throws IOException {
+        for (Segment segment : getSegments()) {
+            int count = segment.count();
+            if (count == 0 || segment.timestamp(0) >= toMillis || segment.timestamp(count - 1) < fromMillis) {
+                continue;
+            }
+            for (int row = segment.lowerBound(fromMillis, count); row < count; row++) {
+                if (segment.timestamp(row) >= toMillis) {
+                    break;
+                }
+                scan.row(segment, row);
+            }
+        }
+    }
+
+    @Override
+    public void scanTotals(long fromMillis, long toMillis, RowVisitor visitor) throws IOException {
+        Merger merger = new Merger(visitor);
+        scan(fromMillis, toMillis, (segment, row) ->
+                merger.add(segment.timestamp(row), segment.download(row), segment.upload(row)));
+        merger.finish();
+    }
+
+    @Override
+    public void aggregate(long fromMillis, long toMillis, long bucketMillis, long offsetMillis, RowVisitor visitor)
+            throws IOException {
+        Merger merger = new Merger(visitor);
+        scan(fromMillis, toMillis, (segment, row) -> {
+            long slot = Math.floorDiv(segment.timestamp(row) + offsetMillis, bucketMillis) * bucketMillis
+                    - offsetMillis;
+            merger.add(slot, segment.download(row), segment.upload(row));
+        });
+        merger.finish();
+    }
+
+    @Override
+    public long[] sum(long fromMillis, long toMillis) throws IOException {
+        long[] totals = new long[2];
+        scan(fromMillis, toMillis, (segment, row) -> {
+            totals[0] += segment.download(row);
+            totals[1] += segment.upload(row);
+        });
+        return totals;
+    }
+
+    @Override
+    public Map<Long, long[]> sumByInterface(long fromMillis, long toMillis) throws IOException {
+        Map<Long, long[]> totalsById = new HashMap<>();
+        scan(fromMillis, toMillis, (segment, row) -> {
+            long[] totals = totalsById.computeIfAbsent((long) segment.interfaceId(row), k -> new long[2]);
+            totals[0] += segment.download(row);
+            totals[1] += segment.upload(row);
+        });
+        return totalsById;
+    }
+
+    @Override
+    public long[] getTimeRange() throws IOException {
+        long first = Long.MAX_VALUE;
+        long last = Long.MIN_VALUE;
+        for (Segment segment : getSegments()) {
+            int count = segment.count();
+            if (count > 0) {
+                first = Math.min(first, segment.timestamp(0));
+                last = Math.max(last, segment.timestamp(count - 1));
+            }
+        }
+        return first == Long.MAX_VALUE ? null : new long[] { first, last };
+    }
+
+    @Override
+    public long delete(long fromMillis, long toMillis) throws IOException {
+        synchronized (writeLock) {
+            long rows = 0;
+            for (Segment segment : stagedSegments != null ? new ArrayList<>(stagedSegments) : segments) {
+                rows += deleteFrom(segment, fromMillis, toMillis);
+            }
+            return rows;
+        }
+    }
+
+    /**
+     * Whole files are deleted; a file that is only partly expired is
+     * rewritten, one file at a time. Each file is committed on its own, since
+     * retention runs outside any transaction.
+     */
+    @Override
+    public long expireBefore(long cutoffMillis, BooleanSupplier cancelled) throws IOException {
+        long rows = 0;
+        for (Segment segment : segments) {
+            if (cancelled.getAsBoolean()) {
+                break;
+            }
+            synchronized (writeLock) {
+                if (segments.contains(segment)) {
+                    rows += deleteFrom(segment, Long.MIN_VALUE, cutoffMillis);
+                    commit();
+                }
+            }
+        }
+        return rows;
+    }
+
+    private long deleteFrom(Segment segment, long fromMillis, long toMillis) throws IOException {
+        int count = segment.committed;
+        if (count == 0 || segment.timestamp(0) >= toMillis || segment.timestamp(count - 1) < fromMillis) {
+            return 0;
+        }
+        int first = segment.lowerBound(fromMillis, count);
+        int end = segment.lowerBound(toMillis, count);
+        Path finalPath = finalPath(segment);
+        if (first == 0 && end == count) {
+            replace(segment, null);
+            if (rewritten.remove(finalPath) != null) {
+                deleteQuietly(segment.path);
+            }
+            deletedPaths.add(finalPath);
+            return count;
+        }
+
+        // Copy the rows we keep to a new file; commit swaps it in atomically
+        // and readers still holding the old mapping keep reading the old file
+        Segment copy = create(segment.month, segment.sequence, ".tmp" + copySequence++);
+        int kept = 0;
+        for (int row = 0; row < count; row++) {
+            if (row < first || row >= end) {
+                copy.put(kept++, segment.timestamp(row), segment.download(row), segment.upload(row),
+                        segment.interfaceId(row));
+            }
+        }
+        copy.map.putInt(COUNT_OFFSET, kept);
+        copy.committed = kept;
+        copy.staged = kept;
+        replace(segment, copy);
+        Segment previous = rewritten.put(finalPath, copy);
+        if (previous != null) {
+            // Rewritten twice in one transaction: the first copy is not needed
+            deleteQuietly(previous.path);
+        }
+        return count - kept;
+    }
+
+    private Path finalPath(Segment segment) {
+        return directory.resolve(PREFIX + segment.month.format(MONTH_FORMAT) + "-" +
+                String.format("%04d", segment.sequence) + SUFFIX);
+    }
+
+    /**
+     * Moves rewritten copies over their originals and unlinks deleted files.
+     * A copy that can't be moved is dropped and the original kept, so a
+     * failure leaves rows behind rather than losing any.
+     */
+    private void publishDeletes() {
+        List<Segment> updated = stagedSegments;
+        for (Map.Entry<Path, Segment> entry : rewritten.entrySet()) {
+            Segment copy = entry.getValue();
+            int index = updated.indexOf(copy);
+            Segment published;
+            try {
+                copy.map.force();
+                Files.move(copy.path, entry.getKey(), StandardCopyOption.REPLACE_EXISTING,
+                        StandardCopyOption.ATOMIC_MOVE);
+                published = open(entry.getKey(), Files.readAttributes(entry.getKey(),
+                        java.nio.file.attribute.BasicFileAttributes.class).fileKey());
+            } catch (IOException | RuntimeException e) {
+                System.err.println("Error replacing segment " + entry.getKey().getFileName() + ": " + e.getMessage());
+                deleteQuietly(copy.path);
+                published = findCommitted(entry.getKey());
+            }
+            if (published != null) {
+                updated.set(index, published);
+            } else {
+                updated.remove(index);
+            }
+            if (tail == copy) {
+                tail = published;
+            }
+        }
+        for (Path path : deletedPaths) {
+            deleteQuietly(path);
+        }
+        rewritten.clear();
+        deletedPaths.clear();
+        stagedSegments = null;
+        segments = Collections.unmodifiableList(updated);
+        if (tail == null && !updated.isEmpty()) {
+            tail = updated.get(updated.size() - 1);
+        }
+    }
+
+    private Segment findCommitted(Path path) {
+        for (Segment segment : segments) {
+            if (segment.path.equals(path)) {
+                return segment;
+            }
+        }
+        return null;
+    }
+
+    /** Swaps a segment in the writer's staged view; commit publishes it. */
+    private void replace(Segment segment, Segment replacement) {
+        if (stagedSegments == null) {
+            stagedSegments = new ArrayList<>(segments);
+        }
+        List<Segment> updated = stagedSegments;
+        int index = updated.indexOf(segment);
+        if (replacement == null) {
+            updated.remove(index);
+        } else {
+            updated.set(index, replacement);
+        }
+        if (tail == segment) {
+            tail = replacement != null ? replacement : (updated.isEmpty() ? null : updated.get(updated.size() - 1));
+        }
+    }
+
+    private static void deleteQuietly(Path path) {
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException e) {
+            System.err.println("Error deleting segment " + path.getFileName() + ": " + e.getMessage());
+        }
+    }
+
+    @Override
+    public void close() {
+        if (readOnly) {
+            return;
+        }
+        synchronized (writeLock) {
+            for (Segment segment : segments) {
+                segment.map.force();
+            }
+        }
+    }
+}
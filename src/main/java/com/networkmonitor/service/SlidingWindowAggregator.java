@@ -0,0 +1,128 @@
+package com.networkmonitor.service;
+
+import com.networkmonitor.model.UsageRecord;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Running download/upload totals over a sliding time window.
+ * Each new sample is added and samples that fall out of the window are
+ * subtracted, so the totals stay exact without re-summing the window.
+ */
+public class SlidingWindowAggregator {
+
+    private static final int INITIAL_CAPACITY = 256;
+
+    private final DatabaseManager databaseManager;
+    private long windowMillis;
+    private long[] timestamps = new long[INITIAL_CAPACITY];
+    private long[] downloads = new long[INITIAL_CAPACITY];
+    private long[] uploads = new long[INITIAL_CAPACITY];
+    private int head = 0;
+    private int size = 0;
+    private long downloadTotal = 0;
+    private long uploadTotal = 0;
+    private long lastTimestamp = Long.MIN_VALUE;
+
+    public SlidingWindowAggregator(DatabaseManager databaseManager) {
+        this.databaseManager = databaseManager;
+    }
+
+    /**
+     * Switches to a new window length and seeds it once from storage.
+     * Samples already covered by the seed are ignored if they are added again.
+     * The query runs without the lock; samples added while it runs that are
+     * newer than the seed are carried over.
+     */
+    public void reseed(long windowMillis) {
+        long now = System.currentTimeMillis();
+        List<UsageRecord> seed = databaseManager.getUsageInRange(now - windowMillis, now);
+
+        synchronized (this) {
+            long seedEnd = seed.isEmpty() ? Long.MIN_VALUE : seed.get(seed.size() - 1).getTimestamp();
+            List<UsageRecord> newer = new ArrayList<>();
+            for (int i = 0; i < size; i++) {
+                int index = (head + i) % timestamps.length;
+                if (timestamps[index] > seedEnd) {
+                    newer.add(new UsageRecord(timestamps[index], downloads[index], uploads[index]));
+                }
+            }
+
+            this.windowMillis = windowMillis;
+            head = 0;
+            size = 0;
+            downloadTotal = 0;
+            uploadTotal = 0;
+            lastTimestamp = Long.MIN_VALUE;
+
+            for (UsageRecord record : seed) {
+                add(record.getTimestamp(), record.getDownloadBytes(), record.getUploadBytes());
+            }
+            for (UsageRecord record : newer) {
+                add(record.getTimestamp(), record.getDownloadBytes(), record.getUploadBytes());
+            }
+            evictBefore(now - windowMillis);
+        }
+    }
+
+    public synchronized void add(long timestamp, long downloadBytes, long uploadBytes) {
+        if (timestamp <= lastTimestamp) {
+            return;
+        }
+        if (size == timestamps.length) {
+            grow();
+        }
+        int index = (head + size) % timestamps.length;
+        timestamps[index] = timestamp;
+        downloads[index] = downloadBytes;
+        uploads[index] = uploadBytes;
+        size++;
+        downloadTotal += downloadBytes;
+        uploadTotal += uploadBytes;
+        lastTimestamp = timestamp;
+
+        evictBefore(timestamp - windowMillis);
+    }
+
+    /**
+     * Drops samples that are older than the window ending at nowMillis.
+     */
+    public synchronized void advance(long nowMillis) {
+        evictBefore(nowMillis - windowMillis);
+    }
+
+    public synchronized long getDownloadTotal() {
+        return downloadTotal;
+    }
+
+    public synchronized long getUploadTotal() {
+        return uploadTotal;
+    }
+
+    private void evictBefore(long cutoffMillis) {
+        while (size > 0 && timestamps[head] < cutoffMillis) {
+            downloadTotal -= downloads[head];
+            uploadTotal -= uploads[head];
+            head = (head + 1) % timestamps.length;
+            size--;
+        }
+    }
+
+    private void grow() {
+        int capacity = timestamps.length * 2;
+        long[] newTimestamps = new long[capacity];
+        long[] newDownloads = new long[capacity];
+        long[] newUploads = new long[capacity];
+        for (int i = 0; i < size; i++) {
+            int index = (head + i) % timestamps.length;
+            newTimestamps[i] = timestamps[index];
+            newDownloads[i] = downloads[index];
+            newUploads[i] = uploads[index];
+        }
+        timestamps = newTimestamps;
+        downloads = newDownloads;
+        uploads = newUploads;
+        head = 0;
+    }
+}
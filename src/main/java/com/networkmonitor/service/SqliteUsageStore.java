@@ -0,0 +1,318 @@
+package com.networkmonitor.service;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Raw samples in SQLite, one table per month (see {@link UsagePartitions}).
+ * Grouping and summing run inside SQLite, one statement per partition.
+ * Reads use the read pool, except on a thread holding the writer, which must
+ * see its own uncommitted changes (e.g. a purge rebuilding rollups).
+ */
+public class SqliteUsageStore implements UsageStore {
+
+    // Rows per retention transaction, so the writer is never held for long
+    static final int CHUNK_ROWS = 1000;
+    static final long CHUNK_PAUSE_MS = 20;
+
+    private final Connection writeConnection;
+    private final StatementCache writeStatements;
+    private final ReadConnectionPool readPool;
+    private final UsagePartitions partitions;
+    private boolean droppedInTransaction = false;
+
+    public SqliteUsageStore(StatementCache writeStatements, ReadConnectionPool readPool,
+            UsagePartitions partitions) {
+        this.writeConnection = writeStatements.getConnection();
+        this.writeStatements = writeStatements;
+        this.readPool = readPool;
+        this.partitions = partitions;
+    }
+
+    @FunctionalInterface
+    private interface Preparer {
+        PreparedStatement prepare(String sql) throws SQLException;
+    }
+
+    @FunctionalInterface
+    private interface ReadAction<T> {
+        T run(Preparer statements) throws SQLException, IOException;
+    }
+
+    private <T> T read(ReadAction<T> action) throws SQLException, IOException {
+        if (Thread.holdsLock(writeConnection)) {
+            return action.run(writeStatements::prepare);
+        }
+        try (ReadConnectionPool.Lease lease = readPool.acquire()) {
+            return action.run(lease::prepare);
+        }
+    }
+
+    @Override
+    public void append(SampleBatch batch) throws SQLException {
+        Map<String, PreparedStatement> inserts = new LinkedHashMap<>();
+        for (int i = 0; i < batch.size(); i++) {
+            String table = partitions.ensurePartition(batch.getTimestamp(i));
+            PreparedStatement insert = inserts.get(table);
+            if (insert == null) {
+                insert = writeStatements.prepare("INSERT INTO " + table +
+                        "(interface_id, timestamp, download_bytes, upload_bytes) VALUES(?, ?, ?, ?)");
+                inserts.put(table, insert);
+            }
+            insert.setLong(1, batch.getInterfaceId(i));
+            insert.setLong(2, batch.getTimestamp(i));
+            insert.setLong(3, batch.getDownloadBytes(i));
+            insert.setLong(4, batch.getUploadBytes(i));
+            insert.addBatch();
+        }
+        for (PreparedStatement insert : inserts.values()) {
+            insert.executeBatch();
+        }
+    }
+
+    @Override
+    public void commit() {
+        partitions.publishCreated();
+        droppedInTransaction = false;
+    }
+
+    @Override
+    public void rollback() {
+        partitions.discardCreated();
+        if (droppedInTransaction) {
+            partitions.load();
+            droppedInTransaction = false;
+        }
+    }
+
+    @Override
+    public void scanTotals(long fromMillis, long toMillis, RowVisitor visitor) throws SQLException, IOException {
+        read(statements -> {
+            // Partitions hold disjoint, increasing time spans, so reading them
+            // in order keeps the result sorted
+            for (UsagePartitions.Slice slice : partitions.rawSlices(fromMillis, toMillis)) {
+                PreparedStatement pstmt = statements.prepare(
+                        "SELECT timestamp, SUM(download_bytes), SUM(upload_bytes) " +
+                                "FROM " + slice.getTable() + " WHERE timestamp >= ? AND timestamp < ? " +
+                                "GROUP BY timestamp ORDER BY timestamp ASC");
+                pstmt.setLong(1, slice.getFromMillis());
+                pstmt.setLong(2, slice.getToMillis());
+                try (ResultSet rs = pstmt.executeQuery()) {
+                    while (rs.next()) {
+                        visitor.visit(rs.getLong(1), rs.getLong(2), rs.getLong(3));
+                    }
+                }
+            }
+            return null;
+        });
+    }
+
+    @Override
+    public void aggregate(long fromMillis, long toMillis, long bucketMillis, long offsetMillis, RowVisitor visitor)
+            throws SQLException, IOException {
+        read(statements -> {
+            // A bucket can span two partitions and then arrives as two rows
+            Merger merger = new Merger(visitor);
+            for (UsagePartitions.Slice slice : partitions.rawSlices(fromMillis, toMillis)) {
+                PreparedStatement pstmt = statements.prepare(
+                        "SELECT ((timestamp + ?) / ?) * ? - ? as slot, SUM(download_bytes), SUM(upload_bytes) " +
+                                "FROM " + slice.getTable() + " WHERE timestamp >= ? AND timestamp < ? " +
+                                "GROUP BY slot ORDER BY slot ASC");
+                pstmt.setLong(1, offsetMillis);
+                pstmt.setLong(2, bucketMillis);
+                pstmt.setLong(3, bucketMillis);
+                pstmt.setLong(4, offsetMillis);
+                pstmt.setLong(5, slice.getFromMillis());
+                pstmt.setLong(6, slice.getToMillis());
+                try (ResultSet rs = pstmt.executeQuery()) {
+                    while (rs.next()) {
+                        merger.add(rs.getLong(1), rs.getLong(2), rs.getLong(3));
+                    }
+                }
+            }
+            merger.finish();
+            return null;
+        });
+    }
+
+    @Override
+    public long[] sum(long fromMillis, long toMillis) throws SQLException, IOException {
+        return read(statements -> {
+            long[] totals = new long[2];
+            for (UsagePartitions.Slice slice : partitions.rawSlices(fromMillis, toMillis)) {
+                PreparedStatement pstmt = statements.prepare(
+                        "SELECT SUM(download_bytes), SUM(upload_bytes) " +
+                                "FROM " + slice.getTable() + " WHERE timestamp >= ? AND timestamp < ?");
+                pstmt.setLong(1, slice.getFromMillis());
+                pstmt.setLong(2, slice.getToMillis());
+                try (ResultSet rs = pstmt.executeQuery()) {
+                    if (rs.next()) {
+                        totals[0] += rs.getLong(1);
+                        totals[1] += rs.getLong(2);
+                    }
+                }
+            }
+            return totals;
+        });
+    }
+
+    @Override
+    public Map<Long, long[]> sumByInterface(long fromMillis, long toMillis) throws SQLException, IOException {
+        return read(statements -> {
+            Map<Long, long[]> totalsById = new HashMap<>();
+            for (UsagePartitions.Slice slice : partitions.rawSlices(fromMillis, toMillis)) {
+                PreparedStatement pstmt = statements.prepare(
+                        "SELECT interface_id, SUM(download_bytes), SUM(upload_bytes) " +
+                                "FROM " + slice.getTable() + " WHERE timestamp >= ? AND timestamp < ? " +
+                                "GROUP BY interface_id");
+                pstmt.setLong(1, slice.getFromMillis());
+                pstmt.setLong(2, slice.getToMillis());
+                try (ResultSet rs = pstmt.executeQuery()) {
+                    while (rs.next()) {
+                        long[] totals = totalsById.computeIfAbsent(rs.getLong(1), k -> new long[2]);
+                        totals[0] += rs.getLong(2);
+                        totals[1] += rs.getLong(3);
+                    }
+                }
+            }
+            return totalsById;
+        });
+    }
+
+    @Override
+    public long[] getTimeRange() throws SQLException, IOException {
+        List<UsagePartitions.Partition> all = partitions.getPartitions();
+        if (all.isEmpty()) {
+            return null;
+        }
+        long[] first = sliceBounds(all.get(0).getTable());
+        long[] last = sliceBounds(all.get(all.size() - 1).getTable());
+        if (first == null || last == null) {
+            return first != null ? first : last;
+        }
+        return new long[] { first[0], last[1] };
+    }
+
+    private long[] sliceBounds(String table) throws SQLException, IOException {
+        return read(statements -> {
+            PreparedStatement pstmt = statements.prepare("SELECT MIN(timestamp), MAX(timestamp) FROM " + table);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                if (rs.next() && rs.getObject(1) != null) {
+                    return new long[] { rs.getLong(1), rs.getLong(2) };
+                }
+            }
+            return null;
+        });
+    }
+
+    /**
+     * Months that fall entirely inside the range are dropped rather than
+     * deleted row by row.
+     */
+    @Override
+    public long delete(long fromMillis, long toMillis) throws SQLException {
+        long rows = 0;
+        synchronized (writeConnection) {
+            for (UsagePartitions.Partition partition : partitions.getPartitions()) {
+                if (partition.getToMillis() <= fromMillis || partition.getFromMillis() >= toMillis) {
+                    continue;
+                }
+                if (partition.getFromMillis() >= fromMillis && partition.getToMillis() <= toMillis) {
+                    droppedInTransaction = true;
+                    dropPartition(partition);
+                    continue;
+                }
+                PreparedStatement pstmt = writeStatements.prepare(
+                        "DELETE FROM " + partition.getTable() + " WHERE timestamp >= ? AND timestamp < ?");
+                pstmt.setLong(1, fromMillis);
+                pstmt.setLong(2, toMillis);
+                rows += pstmt.executeUpdate();
+            }
+        }
+        return rows;
+    }
+
+    @Override
+    public long expireBefore(long cutoffMillis, BooleanSupplier cancelled) throws SQLException {
+        long rows = 0;
+        for (UsagePartitions.Partition partition : partitions.getPartitions()) {
+            if (cancelled.getAsBoolean() || partition.getFromMillis() >= cutoffMillis) {
+                continue;
+            }
+            if (partition.getToMillis() <= cutoffMillis) {
+                synchronized (writeConnection) {
+                    try {
+                        dropPartition(partition);
+                    } catch (SQLException e) {
+                        partitions.load();
+                        throw e;
+                    }
+                }
+                System.out.println("Retention: Dropped " + partition.getTable());
+            } else {
+                rows += deleteInChunks(writeStatements, partition.getTable(), RollupTier.RAW.getTimeColumn(),
+                        cutoffMillis, cancelled);
+            }
+        }
+        return rows;
+    }
+
+    /**
+     * Call while holding the writer. Takes the partition out of new queries
+     * first; on failure the caller reloads the partition list.
+     */
+    private void dropPartition(UsagePartitions.Partition partition) throws SQLException {
+        partitions.remove(partition);
+        try (Statement stmt = writeConnection.createStatement()) {
+            stmt.execute("DROP TABLE IF EXISTS " + partition.getTable());
+        }
+    }
+
+    /**
+     * Deletes rows with column before the given value a chunk per
+     * transaction, letting other writes in between.
+     */
+    static long deleteInChunks(StatementCache statements, String table, String column, long before,
+            BooleanSupplier cancelled) throws SQLException {
+        String sql = "DELETE FROM " + table + " WHERE rowid IN " +
+                "(SELECT rowid FROM " + table + " WHERE " + column + " < ? LIMIT " + CHUNK_ROWS + ")";
+        long total = 0;
+        while (!cancelled.getAsBoolean()) {
+            int rows;
+            synchronized (statements.getConnection()) {
+                PreparedStatement pstmt = statements.prepare(sql);
+                pstmt.setLong(1, before);
+                rows = pstmt.executeUpdate();
+            }
+            total += rows;
+            if (rows < CHUNK_ROWS || !pauseBetweenChunks()) {
+                break;
+            }
+        }
+        return total;
+    }
+
+    static boolean pauseBetweenChunks() {
+        try {
+            Thread.sleep(CHUNK_PAUSE_MS);
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    @Override
+    public void close() {
+        // Connections and statements belong to DatabaseManager
+    }
+}
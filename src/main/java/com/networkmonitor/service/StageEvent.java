@@ -0,0 +1,30 @@
+package com.networkmonitor.service;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * JFR event for one timed stage, so a recording lines stalls up against GC,
+ * I/O and lock events. Only built when a recording has it enabled.
+ */
+@Name("com.networkmonitor.Stage")
+@Label("Monitor Stage")
+@Category("Network Monitor")
+@Description("One timed stage of sampling, UI refresh or a database call")
+@StackTrace(false)
+final class StageEvent extends jdk.jfr.Event {
+
+    @Label("Stage")
+    String stage;
+
+    @Label("Elapsed")
+    @Timespan(Timespan.NANOSECONDS)
+    long elapsed;
+
+    @Label("Rows")
+    long rows;
+}
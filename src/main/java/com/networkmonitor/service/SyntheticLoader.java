@@ -0,0 +1,81 @@
+package com.networkmonitor.service;
+
+import com.networkmonitor.model.InterfaceUsageRecord;
+import com.networkmonitor.model.UsageRecord;
+
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.LongConsumer;
+
+/**
+ * Bulk-fills an empty database with {@link SyntheticTraffic}, e.g. a year of
+ * 2-second samples, to test at production scale without waiting for it.
+ * Samples are written in large blocks, one transaction each, straight to the
+ * store and rollups.
+ */
+public class SyntheticLoader {
+
+    private static final int BLOCK_SAMPLES = 16384;
+
+    private final DatabaseManager databaseManager;
+    private final SyntheticTraffic traffic;
+
+    public SyntheticLoader(DatabaseManager databaseManager, SyntheticTraffic traffic) {
+        this.databaseManager = databaseManager;
+        this.traffic = traffic;
+    }
+
+    /**
+     * Writes one sample per interval over [startMillis, endMillis), reporting
+     * the number of samples written after each block.
+     *
+     * @return samples written, or -1 if the database already holds samples or
+     *         a block failed
+     */
+    public long fill(long startMillis, long endMillis, long intervalMillis, LongConsumer progress) {
+        try {
+            if (databaseManager.getUsageStore().getTimeRange() != null) {
+                System.err.println("Error generating samples: the database already holds samples");
+                return -1;
+            }
+        } catch (SQLException | IOException e) {
+            System.err.println("Error generating samples: " + e.getMessage());
+            return -1;
+        }
+
+        long interval = Math.max(1, intervalMillis);
+        long[] bytes = new long[2];
+        List<UsageRecord> records = new ArrayList<>(BLOCK_SAMPLES);
+        List<List<InterfaceUsageRecord>> interfaceRecords = new ArrayList<>(BLOCK_SAMPLES);
+        long written = 0;
+        for (long t = startMillis; t < endMillis; t += interval) {
+            List<InterfaceUsageRecord> rows = new ArrayList<>(traffic.getInterfaceCount());
+            long down = 0;
+            long up = 0;
+            for (int i = 0; i < traffic.getInterfaceCount(); i++) {
+                traffic.bytes(i, t, interval, bytes);
+                rows.add(new InterfaceUsageRecord(traffic.getInterfaceName(i), t, bytes[0], bytes[1]));
+                down += bytes[0];
+                up += bytes[1];
+            }
+            records.add(new UsageRecord(t, down, up));
+            interfaceRecords.add(rows);
+
+            if (records.size() == BLOCK_SAMPLES || t + interval >= endMillis) {
+                if (!databaseManager.importSamples(records, interfaceRecords)) {
+                    return -1;
+                }
+                written += records.size();
+                records.clear();
+                interfaceRecords.clear();
+                progress.accept(written);
+            }
+        }
+
+        // The quota total was checkpointed before these samples existed
+        databaseManager.saveSetting("quota_checkpoint_month", "");
+        return written;
+    }
+}
@@ -0,0 +1,127 @@
+package com.networkmonitor.service;
+
+import java.util.Arrays;
+
+/**
+ * Fake collector that serves counters generated from {@link SyntheticTraffic}.
+ * Every sample advances a simulated clock by a fixed step, so for a given
+ * seed, start and step the counters are the same on every run, whatever the
+ * real sampling rate. It also reproduces what real counters do:
+ * <ul>
+ * <li>wlan0 is a 32-bit counter and wraps around every few minutes;</li>
+ * <li>usb0 disappears for one sample every resetEvery samples and comes back
+ * with its counters at zero, like a re-plugged device.</li>
+ * </ul>
+ * Alongside the counters it keeps the bytes a tracker should report, i.e.
+ * the generated traffic minus the deltas a wrap or reset makes unknowable,
+ * so soak runs can check nothing was lost or counted twice.
+ */
+public class SyntheticNetworkCollector implements NetworkCollector {
+
+    public static final long DEFAULT_RESET_EVERY = 1800;
+
+    private static final int WRAPPING_INTERFACE = 1;
+    private static final int RESETTING_INTERFACE = 2;
+    private static final long COUNTER_32_MASK = 0xFFFFFFFFL;
+    // Close enough to the limit that the first wrap comes within minutes
+    private static final long WRAP_HEADROOM = 8L * 1024 * 1024;
+
+    private final SyntheticTraffic traffic;
+    private final long stepMillis;
+    private final long resetEvery;
+    private final long[] bytesRecv;
+    private final long[] bytesSent;
+    // What the last sample reported per interface, or -1 where it was absent
+    private final long[] reportedRecv;
+    private final long[] reportedSent;
+    private final long[] delta = new long[2];
+    private long clockMillis;
+    private long samples = 0;
+    private long generatedBytes = 0;
+    private long expectedRecv = 0;
+    private long expectedSent = 0;
+
+    public SyntheticNetworkCollector(SyntheticTraffic traffic, long stepMillis, long startMillis) {
+        this(traffic, stepMillis, startMillis, DEFAULT_RESET_EVERY);
+    }
+
+    public SyntheticNetworkCollector(SyntheticTraffic traffic, long stepMillis, long startMillis, long resetEvery) {
+        this.traffic = traffic;
+        this.stepMillis = Math.max(1, stepMillis);
+        this.clockMillis = startMillis;
+        this.resetEvery = Math.max(2, resetEvery);
+        int count = traffic.getInterfaceCount();
+        bytesRecv = new long[count];
+        bytesSent = new long[count];
+        reportedRecv = new long[count];
+        reportedSent = new long[count];
+        Arrays.fill(reportedRecv, -1);
+        Arrays.fill(reportedSent, -1);
+        bytesRecv[WRAPPING_INTERFACE] = COUNTER_32_MASK - WRAP_HEADROOM;
+        bytesSent[WRAPPING_INTERFACE] = COUNTER_32_MASK - WRAP_HEADROOM / 4;
+    }
+
+    @Override
+    public synchronized void sample(InterfaceCounters counters) {
+        clockMillis += stepMillis;
+        samples++;
+        counters.clear();
+        for (int i = 0; i < traffic.getInterfaceCount(); i++) {
+            if (i == RESETTING_INTERFACE && samples % resetEvery == 0) {
+                // Unplugged: the next sample starts from zero
+                bytesRecv[i] = 0;
+                bytesSent[i] = 0;
+                reportedRecv[i] = -1;
+                reportedSent[i] = -1;
+                continue;
+            }
+
+            traffic.bytes(i, clockMillis, stepMillis, delta);
+            bytesRecv[i] += delta[0];
+            bytesSent[i] += delta[1];
+            generatedBytes += delta[0] + delta[1];
+
+            long recv = i == WRAPPING_INTERFACE ? bytesRecv[i] & COUNTER_32_MASK : bytesRecv[i];
+            long sent = i == WRAPPING_INTERFACE ? bytesSent[i] & COUNTER_32_MASK : bytesSent[i];
+            // A tracker only sees a delta against a previous reading, and drops it
+            // when the counter went backwards
+            if (reportedRecv[i] >= 0 && recv >= reportedRecv[i]) {
+                expectedRecv += delta[0];
+            }
+            if (reportedSent[i] >= 0 && sent >= reportedSent[i]) {
+                expectedSent += delta[1];
+            }
+            reportedRecv[i] = recv;
+            reportedSent[i] = sent;
+            counters.add(traffic.getInterfaceName(i), recv, sent);
+        }
+    }
+
+    public synchronized long getSampleCount() {
+        return samples;
+    }
+
+    public synchronized long getClockMillis() {
+        return clockMillis;
+    }
+
+    /**
+     * @return all bytes generated so far, including those no tracker can see.
+     */
+    public synchronized long getGeneratedBytes() {
+        return generatedBytes;
+    }
+
+    /**
+     * @return {download, upload} a tracker sampling every reading should have
+     *         reported so far.
+     */
+    public synchronized long[] getExpectedBytes() {
+        return new long[] { expectedRecv, expectedSent };
+    }
+
+    @Override
+    public String getName() {
+        return "synthetic";
+    }
+}
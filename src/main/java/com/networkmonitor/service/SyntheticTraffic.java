@@ -0,0 +1,89 @@
+package com.networkmonitor.service;
+
+import java.time.Instant;
+import java.time.ZoneId;
+
+/**
+ * Deterministic model of household traffic for load and soak testing.
+ * Each interface follows a daily curve (quiet mornings, evening peak, busier
+ * weekends) with per-sample noise and occasional bursts of 5-20x lasting ten
+ * minutes. The bytes for any interval are a pure function of the seed and
+ * the time, so the bulk loader and the fake collector see the same traffic
+ * and any range can be regenerated without replaying what came before.
+ */
+public class SyntheticTraffic {
+
+    public static final long DEFAULT_SEED = 1;
+
+    private static final long HOUR_MS = 60 * 60 * 1000L;
+    private static final long DAY_MS = 24 * HOUR_MS;
+    private static final long BURST_SLOT_MS = 10 * 60 * 1000L;
+    private static final double BURST_PROBABILITY = 0.05;
+
+    private static final String[] NAMES = { "eth0", "wlan0", "usb0" };
+    // Peak download rate in bytes/s; upload is a fixed fraction of it
+    private static final double[] PEAK_DOWN_RATE = { 2_500_000, 600_000, 150_000 };
+    private static final double[] UP_RATIO = { 0.12, 0.2, 0.5 };
+
+    private final long seed;
+    // Fixed at construction: hour-of-day shifts by an hour across DST changes
+    private final long zoneOffsetMillis;
+
+    public SyntheticTraffic(long seed) {
+        this(seed, ZoneId.systemDefault().getRules().getOffset(Instant.now()).getTotalSeconds() * 1000L);
+    }
+
+    public SyntheticTraffic(long seed, long zoneOffsetMillis) {
+        this.seed = seed;
+        this.zoneOffsetMillis = zoneOffsetMillis;
+    }
+
+    public int getInterfaceCount() {
+        return NAMES.length;
+    }
+
+    public String getInterfaceName(int index) {
+        return NAMES[index];
+    }
+
+    /**
+     * Fills out with {download, upload} bytes for one interface over the
+     * interval ending at timestampMillis.
+     */
+    public void bytes(int index, long timestampMillis, long intervalMillis, long[] out) {
+        long local = timestampMillis + zoneOffsetMillis;
+        double hourOfDay = Math.floorMod(local, DAY_MS) / (double) HOUR_MS;
+        // Epoch day 0 was a Thursday
+        int dayOfWeek = (int) Math.floorMod(Math.floorDiv(local, DAY_MS) + 3, 7L);
+
+        // Lowest at 08:00, highest at 20:00
+        double curve = 0.5 - 0.5 * Math.cos(2 * Math.PI * (hourOfDay - 8) / 24);
+        double level = 0.08 + 0.92 * curve * curve;
+        if (dayOfWeek >= 5) {
+            level *= 1.3;
+        }
+
+        long slot = Math.floorDiv(timestampMillis, BURST_SLOT_MS);
+        double burstRoll = unit(mix(seed, slot, index, 1));
+        if (burstRoll < BURST_PROBABILITY) {
+            level *= 5 + 15 * (burstRoll / BURST_PROBABILITY);
+        }
+
+        double noise = 0.5 + unit(mix(seed, timestampMillis, index, 2));
+        double down = PEAK_DOWN_RATE[index] * level * noise * intervalMillis / 1000.0;
+        out[0] = (long) down;
+        out[1] = (long) (down * UP_RATIO[index] * (0.5 + unit(mix(seed, timestampMillis, index, 3))));
+    }
+
+    private static long mix(long seed, long value, int index, int stream) {
+        // SplitMix64 finalizer over the combined inputs
+        long z = seed * 0x9E3779B97F4A7C15L + value * 0xBF58476D1CE4E5B9L + index * 0x94D049BB133111EBL + stream;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    private static double unit(long bits) {
+        return (bits >>> 11) * 0x1.0p-53;
+    }
+}
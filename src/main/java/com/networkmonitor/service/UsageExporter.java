@@ -0,0 +1,432 @@
+package com.networkmonitor.service;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.zone.ZoneOffsetTransition;
+import java.time.zone.ZoneRules;
+import java.time.format.DateTimeFormatter;
+import java.util.TimeZone;
+import java.util.concurrent.CancellationException;
+
+/**
+ * Streams usage rows from a JDBC cursor straight to a file, so exports of any
+ * length run in constant memory. Rows are either raw samples (summed over
+ * interfaces) or buckets of any size, read from the coarsest rollup that
+ * fits. Bucketed CSV and JSON Lines exports also carry each bucket's peak,
+ * 95th and 99th percentile rates. Meant to run off the UI thread; progress
+ * is reported and cancellation checked every {@value #PROGRESS_EVERY_ROWS}
+ * rows.
+ */
+public class UsageExporter {
+
+    private static final int PROGRESS_EVERY_ROWS = 4096;
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final long DAY_MS = 24L * 60 * 60 * 1000;
+    static final byte[] BINARY_MAGIC = { 'N', 'M', 'U', 'X' };
+    static final int BINARY_VERSION = 1;
+
+    public enum Format {
+        /**
+         * timestamp,time,download_bytes,upload_bytes; buckets add
+         * download_peak_rate,download_p95_rate,download_p99_rate and the
+         * same for upload, in bytes per second.
+         */
+        CSV("csv"),
+        /** One JSON object per line, with the same fields as CSV. */
+        JSONL("jsonl"),
+        /**
+         * "NMUX", version byte, bucket size (varint, 0 for raw), then per row:
+         * zigzag varint timestamp delta from the previous row (the first from
+         * 0), varint download bytes, varint upload bytes. No rate statistics.
+         */
+        BINARY("nmux");
+
+        private final String extension;
+
+        Format(String extension) {
+            this.extension = extension;
+        }
+
+        public String getExtension() {
+            return extension;
+        }
+    }
+
+    /**
+     * Receives progress from the exporting thread.
+     */
+    public interface Progress {
+        void update(long rows, double fraction);
+
+        boolean isCancelled();
+    }
+
+    private final DatabaseManager databaseManager;
+
+    public UsageExporter(DatabaseManager databaseManager) {
+        this.databaseManager = databaseManager;
+    }
+
+    /**
+     * Writes usage within [startMillis, endMillis] to file.
+     *
+     * @param bucketMillis 0 for raw samples, otherwise the bucket size. Whole
+     *                     days follow calendar days in the local zone, so a
+     *                     day with a DST change is 23 or 25 hours long; shorter
+     *                     buckets are aligned to local time at the start of the
+     *                     range.
+     * @return the number of rows written.
+     * @throws CancellationException if the progress reported cancellation; the
+     *                               partial file is deleted.
+     */
+    public long export(File file, Format format, long startMillis, long endMillis, long bucketMillis,
+            Progress progress) throws IOException, SQLException {
+        // Samples still queued in memory belong in the export too
+        databaseManager.flushPendingWrites();
+
+        boolean completed = false;
+        try (Connection connection = databaseManager.openReadConnection();
+                RowWriter writer = createWriter(file, format, bucketMillis > 0, bucketMillis)) {
+            long rows;
+            if (bucketMillis <= 0) {
+                rows = exportRaw(writer, startMillis, endMillis, progress);
+            } else {
+                rows = exportBuckets(connection, writer, startMillis, endMillis, bucketMillis, progress);
+            }
+            completed = true;
+            progress.update(rows, 1.0);
+            return rows;
+        } finally {
+            if (!completed && !file.delete() && file.exists()) {
+                System.err.println("Error removing partial export: " + file.getPath());
+            }
+        }
+    }
+
+    private long exportRaw(RowWriter writer, long startMillis, long endMillis, Progress progress)
+            throws IOException, SQLException {
+        long toExclusive = endMillis == Long.MAX_VALUE ? endMillis : endMillis + 1;
+        long[] rows = new long[1];
+        databaseManager.getUsageStore().scanTotals(startMillis, toExclusive, (timestamp, download, upload) -> {
+            writer.write(timestamp, download, upload, null);
+            rows[0] = reportEvery(rows[0] + 1, timestamp, startMillis, endMillis, progress);
+        });
+        return rows[0];
+    }
+
+    private long exportBuckets(Connection connection, RowWriter writer, long startMillis, long endMillis,
+            long bucketMillis, Progress progress) throws IOException, SQLException {
+        long offset = TimeZone.getDefault().getOffset(startMillis);
+        ZoneId zone = bucketMillis % DAY_MS == 0 ? ZoneId.systemDefault() : null;
+        long toExclusive = endMillis == Long.MAX_VALUE ? endMillis : endMillis + 1;
+        // Tier buckets must not straddle export buckets once shifted to local time
+        long alignment = zone != null ? dayAlignment(zone, startMillis, toExclusive)
+                : offset == 0 ? bucketMillis : gcd(bucketMillis, Math.abs(offset));
+        RollupTier maxTier = RollupTier.coarsestFor(alignment);
+
+        // Segments come in time order, so a bucket split across two segments
+        // arrives as consecutive rows and is merged here. Rollup rows are
+        // grouped here rather than in SQL since their rate sketches merge in Java.
+        long[] rows = new long[1];
+        BucketMerger merger = new BucketMerger(bucketMillis, offset, zone, (slot, down, up, rates) -> {
+            writer.write(slot, down, up, rates);
+            rows[0] = reportEvery(rows[0] + 1, slot, startMillis, endMillis, progress);
+        });
+        for (RollupPlanner.Segment segment : RollupPlanner.plan(startMillis, toExclusive, maxTier)) {
+            if (!segment.getTier().isRollup()) {
+                RateStats.scan(databaseManager.getUsageStore(), segment.getFromMillis(), segment.getToMillis(),
+                        merger::addSample);
+                continue;
+            }
+            String sql = "SELECT bucket, download_bytes, upload_bytes, download_rates, upload_rates " +
+                    "FROM " + segment.getTier().getTableName() + " " +
+                    "WHERE bucket >= ? AND bucket < ? " +
+                    "ORDER BY bucket ASC";
+            try (PreparedStatement pstmt = connection.prepareStatement(sql)) {
+                pstmt.setLong(1, segment.getFromMillis());
+                pstmt.setLong(2, segment.getToMillis());
+                ResultSet rs = pstmt.executeQuery();
+                while (rs.next()) {
+                    long bucket = rs.getLong(1);
+                    merger.addBucket(bucket, rs.getLong(2), rs.getLong(3), new RateStats(bucket,
+                            RateSketch.decode(rs.getBytes(4)), RateSketch.decode(rs.getBytes(5))));
+                }
+            }
+        }
+        merger.finish();
+        return rows[0];
+    }
+
+    /**
+     * The largest interval that divides the time from every local midnight in
+     * [fromMillis, toMillis) to the epoch, i.e. a day and every UTC offset the
+     * zone uses in the range.
+     */
+    private static long dayAlignment(ZoneId zone, long fromMillis, long toMillis) {
+        ZoneRules rules = zone.getRules();
+        Instant at = Instant.ofEpochMilli(fromMillis);
+        long alignment = gcd(DAY_MS, Math.abs(rules.getOffset(at).getTotalSeconds() * 1000L));
+        // Zones with DST have transitions forever; samples never lie that far ahead
+        long until = Math.min(toMillis, System.currentTimeMillis() + 366 * DAY_MS);
+        ZoneOffsetTransition transition;
+        while ((transition = rules.nextTransition(at)) != null && transition.getInstant().toEpochMilli() < until) {
+            alignment = gcd(alignment, Math.abs(transition.getOffsetAfter().getTotalSeconds() * 1000L));
+            at = transition.getInstant();
+        }
+        return alignment;
+    }
+
+    private interface BucketVisitor {
+        void visit(long slot, long downloadBytes, long uploadBytes, RateStats rates) throws IOException;
+    }
+
+    /**
+     * Groups samples and rollup rows arriving in time order into export
+     * buckets, passing each on once the rows move past it. With a zone, buckets
+     * are runs of whole local days; otherwise fixed spans shifted by offset.
+     */
+    private static final class BucketMerger {
+        private final long bucketMillis;
+        private final long offset;
+        private final ZoneId zone;
+        private final BucketVisitor visitor;
+        private long slot = Long.MIN_VALUE;
+        private long slotEnd = Long.MIN_VALUE;
+        private long download;
+        private long upload;
+        private RateStats rates;
+
+        BucketMerger(long bucketMillis, long offset, ZoneId zone, BucketVisitor visitor) {
+            this.bucketMillis = bucketMillis;
+            this.offset = offset;
+            this.zone = zone;
+            this.visitor = visitor;
+        }
+
+        void addSample(long timestamp, long downloadBytes, long uploadBytes, long intervalMillis)
+                throws IOException {
+            moveTo(timestamp);
+            download += downloadBytes;
+            upload += uploadBytes;
+            rates.addSample(downloadBytes, uploadBytes, intervalMillis);
+        }
+
+        void addBucket(long bucket, long downloadBytes, long uploadBytes, RateStats bucketRates)
+                throws IOException {
+            moveTo(bucket);
+            download += downloadBytes;
+            upload += uploadBytes;
+            rates.merge(bucketRates);
+        }
+
+        private void moveTo(long timestamp) throws IOException {
+            if (rates != null && timestamp >= slot && timestamp < slotEnd) {
+                return;
+            }
+            finish();
+            if (zone != null) {
+                long days = bucketMillis / DAY_MS;
+                long firstDay = Math.floorDiv(Instant.ofEpochMilli(timestamp).atZone(zone).toLocalDate().toEpochDay(),
+                        days) * days;
+                slot = LocalDate.ofEpochDay(firstDay).atStartOfDay(zone).toInstant().toEpochMilli();
+                slotEnd = LocalDate.ofEpochDay(firstDay + days).atStartOfDay(zone).toInstant().toEpochMilli();
+            } else {
+                slot = Math.floorDiv(timestamp + offset, bucketMillis) * bucketMillis - offset;
+                slotEnd = slot + bucketMillis;
+            }
+            rates = new RateStats(slot);
+        }
+
+        void finish() throws IOException {
+            if (rates != null) {
+                visitor.visit(slot, download, upload, rates);
+                download = 0;
+                upload = 0;
+                rates = null;
+            }
+        }
+    }
+
+    private static long reportEvery(long rows, long timestamp, long startMillis, long endMillis, Progress progress) {
+        if (rows % PROGRESS_EVERY_ROWS == 0) {
+            if (progress.isCancelled() || Thread.currentThread().isInterrupted()) {
+                throw new CancellationException("Export cancelled");
+            }
+            double span = Math.max(1, (double) endMillis - startMillis);
+            progress.update(rows, Math.min(1.0, Math.max(0.0, (timestamp - startMillis) / span)));
+        }
+        return rows;
+    }
+
+    private static long gcd(long a, long b) {
+        while (b != 0) {
+            long t = a % b;
+            a = b;
+            b = t;
+        }
+        return a;
+    }
+
+    private static RowWriter createWriter(File file, Format format, boolean withRates, long bucketMillis)
+            throws IOException {
+        OutputStream out = new BufferedOutputStream(new FileOutputStream(file), BUFFER_SIZE);
+        switch (format) {
+            case CSV:
+                return new CsvWriter(out, withRates);
+            case JSONL:
+                return new JsonLinesWriter(out, withRates);
+            default:
+                return new BinaryWriter(out, bucketMillis);
+        }
+    }
+
+    private interface RowWriter extends AutoCloseable {
+        /**
+         * @param rates null for raw samples
+         */
+        void write(long timestamp, long downloadBytes, long uploadBytes, RateStats rates) throws IOException;
+
+        @Override
+        void close() throws IOException;
+    }
+
+    private static final class CsvWriter implements RowWriter {
+        private static final DateTimeFormatter TIME_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss")
+                .withZone(ZoneId.systemDefault());
+        private final Writer writer;
+        private final boolean withRates;
+        // Reused per row instead of formatting through printf
+        private final StringBuilder line = new StringBuilder(64);
+
+        CsvWriter(OutputStream out, boolean withRates) throws IOException {
+            this.writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), BUFFER_SIZE);
+            this.withRates = withRates;
+            writer.write("timestamp,time,download_bytes,upload_bytes");
+            if (withRates) {
+                writer.write(",download_peak_rate,download_p95_rate,download_p99_rate" +
+                        ",upload_peak_rate,upload_p95_rate,upload_p99_rate");
+            }
+            writer.write('\n');
+        }
+
+        @Override
+        public void write(long timestamp, long downloadBytes, long uploadBytes, RateStats rates)
+                throws IOException {
+            line.setLength(0);
+            line.append(timestamp).append(',');
+            TIME_FORMAT.formatTo(Instant.ofEpochMilli(timestamp), line);
+            line.append(',').append(downloadBytes).append(',').append(uploadBytes);
+            if (withRates) {
+                appendRates(line, rates.getDownload());
+                appendRates(line, rates.getUpload());
+            }
+            line.append('\n');
+            writer.append(line);
+        }
+
+        /** Empty when no sample in the bucket had a rate. */
+        private static void appendRates(StringBuilder line, RateSketch sketch) {
+            if (sketch.isEmpty()) {
+                line.append(",,,");
+                return;
+            }
+            line.append(',').append(Math.round(sketch.getMax()))
+                    .append(',').append(Math.round(sketch.getQuantile(0.95)))
+                    .append(',').append(Math.round(sketch.getQuantile(0.99)));
+        }
+
+        @Override
+        public void close() throws IOException {
+            writer.close();
+        }
+    }
+
+    private static final class JsonLinesWriter implements RowWriter {
+        private final Writer writer;
+        private final boolean withRates;
+        private final StringBuilder line = new StringBuilder(96);
+
+        JsonLinesWriter(OutputStream out, boolean withRates) {
+            this.writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), BUFFER_SIZE);
+            this.withRates = withRates;
+        }
+
+        @Override
+        public void write(long timestamp, long downloadBytes, long uploadBytes, RateStats rates)
+                throws IOException {
+            line.setLength(0);
+            line.append("{\"timestamp\":").append(timestamp)
+                    .append(",\"download_bytes\":").append(downloadBytes)
+                    .append(",\"upload_bytes\":").append(uploadBytes);
+            if (withRates && !rates.isEmpty()) {
+                appendRates(line, "download", rates.getDownload());
+                appendRates(line, "upload", rates.getUpload());
+            }
+            line.append("}\n");
+            writer.append(line);
+        }
+
+        private static void appendRates(StringBuilder line, String direction, RateSketch sketch) {
+            line.append(",\"").append(direction).append("_peak_rate\":").append(Math.round(sketch.getMax()))
+                    .append(",\"").append(direction).append("_p95_rate\":")
+                    .append(Math.round(sketch.getQuantile(0.95)))
+                    .append(",\"").append(direction).append("_p99_rate\":")
+                    .append(Math.round(sketch.getQuantile(0.99)));
+        }
+
+        @Override
+        public void close() throws IOException {
+            writer.close();
+        }
+    }
+
+    private static final class BinaryWriter implements RowWriter {
+        private final DataOutputStream out;
+        private long previousTimestamp = 0;
+
+        BinaryWriter(OutputStream out, long bucketMillis) throws IOException {
+            this.out = new DataOutputStream(out);
+            this.out.write(BINARY_MAGIC);
+            this.out.writeByte(BINARY_VERSION);
+            writeVarLong(Math.max(0, bucketMillis));
+        }
+
+        @Override
+        public void write(long timestamp, long downloadBytes, long uploadBytes, RateStats rates)
+                throws IOException {
+            long delta = timestamp - previousTimestamp;
+            previousTimestamp = timestamp;
+            writeVarLong((delta << 1) ^ (delta >> 63));
+            writeVarLong(downloadBytes);
+            writeVarLong(uploadBytes);
+        }
+
+        private void writeVarLong(long value) throws IOException {
+            while ((value & ~0x7FL) != 0) {
+                out.writeByte((int) ((value & 0x7F) | 0x80));
+                value >>>= 7;
+            }
+            out.writeByte((int) value);
+        }
+
+        @Override
+        public void close() throws IOException {
+            out.close();
+        }
+    }
+}
@@ -0,0 +1,256 @@
+package com.networkmonitor.service;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.Instant;
+import java.time.YearMonth;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Raw samples are stored in one table per UTC month (usage_raw_YYYYMM), so
+ * expiring a month is a DROP TABLE instead of deleting millions of rows.
+ * A network_usage table from before partitioning is kept as a legacy
+ * partition; it is no longer written and always holds the oldest rows.
+ * Queries ask for {@link Slice}s and run once per table.
+ */
+public class UsagePartitions {
+
+    static final String LEGACY_TABLE = "network_usage";
+    private static final String PREFIX = "usage_raw_";
+    private static final DateTimeFormatter MONTH_FORMAT = DateTimeFormatter.ofPattern("yyyyMM");
+    // How often a read-only viewer looks for months created by the collector
+    private static final long REFRESH_INTERVAL_MS = 10_000;
+
+    /**
+     * A raw sample table covering [fromMillis, toMillis).
+     */
+    public static final class Partition {
+        private final String table;
+        private final long fromMillis;
+        private final long toMillis;
+        private final boolean legacy;
+
+        Partition(String table, long fromMillis, long toMillis, boolean legacy) {
+            this.table = table;
+            this.fromMillis = fromMillis;
+            this.toMillis = toMillis;
+            this.legacy = legacy;
+        }
+
+        public String getTable() {
+            return table;
+        }
+
+        public long getFromMillis() {
+            return fromMillis;
+        }
+
+        public long getToMillis() {
+            return toMillis;
+        }
+
+        public boolean isLegacy() {
+            return legacy;
+        }
+    }
+
+    /**
+     * One table to query for part of a time range.
+     */
+    public static final class Slice {
+        private final String table;
+        private final long fromMillis;
+        private final long toMillis;
+
+        Slice(String table, long fromMillis, long toMillis) {
+            this.table = table;
+            this.fromMillis = fromMillis;
+            this.toMillis = toMillis;
+        }
+
+        public String getTable() {
+            return table;
+        }
+
+        /** Inclusive lower bound. */
+        public long getFromMillis() {
+            return fromMillis;
+        }
+
+        /** Exclusive upper bound. */
+        public long getToMillis() {
+            return toMillis;
+        }
+    }
+
+    private final Connection connection;
+    private final boolean readOnly;
+    // Legacy first, then by month
+    private List<Partition> partitions = Collections.emptyList();
+    // Created in the writer's open transaction, listed once it commits
+    private final List<Partition> uncommitted = new ArrayList<>();
+    private long loadedAtMillis;
+
+    /**
+     * @param connection the writer, or in read-only mode a connection used
+     *                   only to discover tables
+     */
+    public UsagePartitions(Connection connection, boolean readOnly) {
+        this.connection = connection;
+        this.readOnly = readOnly;
+        load();
+    }
+
+    /**
+     * Re-reads the partition list from the schema, e.g. after a rolled-back
+     * drop.
+     */
+    void load() {
+        List<Partition> found = new ArrayList<>();
+        synchronized (connection) {
+            try (Statement stmt = connection.createStatement()) {
+                List<String> tables = new ArrayList<>();
+                try (ResultSet rs = stmt.executeQuery("SELECT name FROM sqlite_master WHERE type = 'table' " +
+                        "AND (name = '" + LEGACY_TABLE + "' OR name LIKE '" + PREFIX + "%') ORDER BY name")) {
+                    while (rs.next()) {
+                        tables.add(rs.getString(1));
+                    }
+                }
+                for (String table : tables) {
+                    if (LEGACY_TABLE.equals(table)) {
+                        try (ResultSet rs = stmt.executeQuery(
+                                "SELECT MIN(timestamp), MAX(timestamp) FROM " + LEGACY_TABLE)) {
+                            if (rs.next() && rs.getObject(1) != null) {
+                                found.add(0, new Partition(LEGACY_TABLE, rs.getLong(1), rs.getLong(2) + 1, true));
+                            }
+                        }
+                    } else {
+                        Partition partition = monthPartition(table);
+                        if (partition != null) {
+                            found.add(partition);
+                        }
+                    }
+                }
+            } catch (SQLException e) {
+                System.err.println("Error loading usage partitions: " + e.getMessage());
+            }
+        }
+        synchronized (this) {
+            partitions = Collections.unmodifiableList(found);
+            loadedAtMillis = System.currentTimeMillis();
+        }
+    }
+
+    private static Partition monthPartition(String table) {
+        try {
+            YearMonth month = YearMonth.parse(table.substring(PREFIX.length()), MONTH_FORMAT);
+            return new Partition(table, monthStart(month), monthStart(month.plusMonths(1)), false);
+        } catch (RuntimeException e) {
+            return null;
+        }
+    }
+
+    private static long monthStart(YearMonth month) {
+        return month.atDay(1).atStartOfDay(ZoneOffset.UTC).toInstant().toEpochMilli();
+    }
+
+    /**
+     * Current partitions, oldest first.
+     */
+    public List<Partition> getPartitions() {
+        if (readOnly && System.currentTimeMillis() - loadedAtMillis > REFRESH_INTERVAL_MS) {
+            load();
+        }
+        synchronized (this) {
+            return partitions;
+        }
+    }
+
+    /**
+     * Tables holding raw samples in [fromMillis, toMillis), in time order.
+     */
+    public List<Slice> rawSlices(long fromMillis, long toMillis) {
+        List<Slice> slices = new ArrayList<>();
+        for (Partition partition : getPartitions()) {
+            long from = Math.max(fromMillis, partition.fromMillis);
+            long to = Math.min(toMillis, partition.toMillis);
+            if (from < to) {
+                slices.add(new Slice(partition.table, from, to));
+            }
+        }
+        return slices;
+    }
+
+    /**
+     * Returns the table for samples at the given time, creating it if
+     * needed. Call on the writer; a new table is only listed for readers
+     * after {@link #publishCreated()}, once its transaction has committed.
+     */
+    String ensurePartition(long timestamp) throws SQLException {
+        YearMonth month = YearMonth.from(Instant.ofEpochMilli(timestamp).atZone(ZoneOffset.UTC));
+        String table = PREFIX + month.format(MONTH_FORMAT);
+        synchronized (this) {
+            for (Partition partition : partitions) {
+                if (partition.table.equals(table)) {
+                    return table;
+                }
+            }
+            for (Partition partition : uncommitted) {
+                if (partition.table.equals(table)) {
+                    return table;
+                }
+            }
+        }
+        synchronized (connection) {
+            try (Statement stmt = connection.createStatement()) {
+                stmt.execute("CREATE TABLE IF NOT EXISTS " + table + " (" +
+                        "timestamp INTEGER NOT NULL," +
+                        "download_bytes INTEGER," +
+                        "upload_bytes INTEGER," +
+                        "interface_id INTEGER NOT NULL DEFAULT 0" +
+                        ");");
+                stmt.execute("CREATE INDEX IF NOT EXISTS idx_" + table + "_timestamp ON " + table + "(timestamp);");
+                stmt.execute("CREATE INDEX IF NOT EXISTS idx_" + table + "_interface_timestamp ON " + table +
+                        "(interface_id, timestamp);");
+            }
+        }
+        synchronized (this) {
+            uncommitted.add(monthPartition(table));
+        }
+        return table;
+    }
+
+    synchronized void publishCreated() {
+        if (uncommitted.isEmpty()) {
+            return;
+        }
+        List<Partition> updated = new ArrayList<>(partitions);
+        updated.addAll(uncommitted);
+        uncommitted.clear();
+        updated.sort((a, b) -> a.legacy != b.legacy ? (a.legacy ? -1 : 1) : Long.compare(a.fromMillis, b.fromMillis));
+        partitions = Collections.unmodifiableList(updated);
+    }
+
+    /**
+     * Call after a rollback; the tables were rolled back with it.
+     */
+    synchronized void discardCreated() {
+        uncommitted.clear();
+    }
+
+    /**
+     * Forgets a partition whose table is about to be dropped, so new
+     * queries stop reading it.
+     */
+    synchronized void remove(Partition partition) {
+        List<Partition> updated = new ArrayList<>(partitions);
+        updated.remove(partition);
+        partitions = Collections.unmodifiableList(updated);
+    }
+}
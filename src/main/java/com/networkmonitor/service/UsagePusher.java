@@ -0,0 +1,277 @@
+package com.networkmonitor.service;
+
+import com.networkmonitor.model.UsageRecord;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ProtocolException;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Sends this collector's samples to an {@link AggregatorService} on another
+ * machine. Samples are queued as they arrive and pushed in batches every
+ * {@value #PUSH_INTERVAL_MS} ms over one connection. The aggregator
+ * acknowledges records once it has stored them, which is some seconds after
+ * they arrive, so each is sent once per connection and stays queued until
+ * acknowledged. An outage or restart on either side loses nothing as long as
+ * the queue (about two days at the default interval) doesn't overflow.
+ * Enabled by --push=host:port or the push_target setting; the host name sent
+ * defaults to this machine's and can be set with the host_name setting.
+ */
+public class UsagePusher implements SampleListener {
+
+    public static final long PUSH_INTERVAL_MS = 2000;
+    private static final int MAX_BATCH = 4096;
+    private static final int MAX_QUEUED = 100_000;
+    private static final int CONNECT_TIMEOUT_MS = 5000;
+    private static final int ACK_TIMEOUT_MS = 10_000;
+    private static final long MAX_RETRY_DELAY_MS = 60_000;
+    private static final long STOP_TIMEOUT_MS = 5000;
+
+    private static final Diagnostics.Stage PUSH_STAGE = Diagnostics.stage("push.batch");
+    private static final Diagnostics.Counter RECONNECTS = Diagnostics.counter("push.reconnects");
+    private static final Diagnostics.Counter DROPPED = Diagnostics.counter("push.dropped");
+
+    private final String hostName;
+    private final String targetHost;
+    private final int targetPort;
+    private final ArrayDeque<UsageRecord> queue = new ArrayDeque<>();
+    private long lastQueuedTimestamp = Long.MIN_VALUE;
+    private Thread thread;
+    private volatile boolean running;
+
+    // Owned by the push thread
+    private Socket socket;
+    // Newest timestamp sent on this connection
+    private long sentTimestamp = Long.MIN_VALUE;
+    private long retryDelayMillis = PUSH_INTERVAL_MS;
+
+    public UsagePusher(String hostName, String targetHost, int targetPort) {
+        this.hostName = hostName;
+        this.targetHost = targetHost;
+        this.targetPort = targetPort;
+    }
+
+    /**
+     * Starts pushing the feed's samples if a target is configured, from
+     * -Dnetworkmonitor.push.target (set by --push) or the push_target
+     * setting. Only collectors push; a viewer or an aggregator doesn't. Call
+     * before the feed starts.
+     *
+     * @return the running pusher, or null when disabled or the target is invalid
+     */
+    public static UsagePusher startIfEnabled(SampleFeed feed, DatabaseManager databaseManager) {
+        String target = System.getProperty("networkmonitor.push.target",
+                databaseManager.getSetting("push_target", ""));
+        if (target.isEmpty() || !(feed instanceof CollectorService)) {
+            return null;
+        }
+        int colon = target.lastIndexOf(':');
+        int port = -1;
+        try {
+            port = colon > 0 ? Integer.parseInt(target.substring(colon + 1)) : -1;
+        } catch (NumberFormatException ignored) {
+        }
+        if (port <= 0 || port > 65535) {
+            System.err.println("Error: push target must be host:port, got " + target);
+            return null;
+        }
+        UsagePusher pusher = new UsagePusher(databaseManager.getSetting("host_name", localHostName()),
+                target.substring(0, colon), port);
+        feed.addListener(pusher);
+        pusher.start();
+        System.out.println("Pushing usage to " + target + " as " + pusher.hostName);
+        return pusher;
+    }
+
+    private static String localHostName() {
+        try {
+            return InetAddress.getLocalHost().getHostName();
+        } catch (IOException e) {
+            return "localhost";
+        }
+    }
+
+    public synchronized void start() {
+        if (thread != null) {
+            return;
+        }
+        running = true;
+        thread = new Thread(this::run, "usage-push");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Pushes what is still queued, giving up after a few seconds if the
+     * aggregator can't be reached, and disconnects.
+     */
+    public synchronized void stop() {
+        if (thread == null) {
+            return;
+        }
+        running = false;
+        LockSupport.unpark(thread);
+        try {
+            thread.join(CONNECT_TIMEOUT_MS + ACK_TIMEOUT_MS + STOP_TIMEOUT_MS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        thread = null;
+    }
+
+    @Override
+    public void onSample(UsageRecord record, long intervalNanos) {
+        synchronized (queue) {
+            // The aggregator drops anything not newer than what it has, so a
+            // clock stepping back must not make timestamps repeat
+            long timestamp = Math.max(record.getTimestamp(), lastQueuedTimestamp + 1);
+            lastQueuedTimestamp = timestamp;
+            if (queue.size() >= MAX_QUEUED) {
+                queue.pollFirst();
+                DROPPED.increment();
+            }
+            queue.addLast(timestamp == record.getTimestamp() ? record
+                    : new UsageRecord(timestamp, record.getDownloadBytes(), record.getUploadBytes()));
+        }
+    }
+
+    private void run() {
+        while (running) {
+            LockSupport.parkNanos(this, TimeUnit.MILLISECONDS.toNanos(PUSH_INTERVAL_MS));
+            if (!pushQueued()) {
+                // Back off while the aggregator is unreachable
+                long retryAt = System.currentTimeMillis() + retryDelayMillis;
+                while (running && System.currentTimeMillis() < retryAt) {
+                    LockSupport.parkNanos(this,
+                            TimeUnit.MILLISECONDS.toNanos(retryAt - System.currentTimeMillis()));
+                }
+                retryDelayMillis = Math.min(MAX_RETRY_DELAY_MS, retryDelayMillis * 2);
+            }
+        }
+        // One last attempt; what's left is lost with this process
+        pushQueued();
+        disconnect();
+    }
+
+    /**
+     * Sends the queued samples not yet sent on this connection, a batch at a
+     * time. With nothing new to send, an empty batch still asks for the
+     * latest acknowledgement.
+     *
+     * @return false if the connection failed
+     */
+    private boolean pushQueued() {
+        while (true) {
+            List<UsageRecord> batch = new ArrayList<>();
+            synchronized (queue) {
+                if (queue.isEmpty()) {
+                    return true;
+                }
+                if (queue.peekLast().getTimestamp() > sentTimestamp) {
+                    // Skip the records already sent, newest first
+                    Iterator<UsageRecord> newest = queue.descendingIterator();
+                    int unsent = 0;
+                    while (newest.hasNext() && newest.next().getTimestamp() > sentTimestamp) {
+                        unsent++;
+                    }
+                    int skip = queue.size() - unsent;
+                    for (UsageRecord record : queue) {
+                        if (skip-- > 0) {
+                            continue;
+                        }
+                        if (batch.size() == MAX_BATCH) {
+                            break;
+                        }
+                        batch.add(record);
+                    }
+                }
+            }
+            long started = System.nanoTime();
+            long acked;
+            try {
+                acked = send(batch);
+            } catch (IOException e) {
+                System.err.println("Error pushing usage to " + targetHost + ":" + targetPort + ": "
+                        + e.getMessage());
+                disconnect();
+                RECONNECTS.increment();
+                return false;
+            }
+            retryDelayMillis = PUSH_INTERVAL_MS;
+            if (!batch.isEmpty()) {
+                sentTimestamp = batch.get(batch.size() - 1).getTimestamp();
+            }
+            synchronized (queue) {
+                while (!queue.isEmpty() && queue.peekFirst().getTimestamp() <= acked) {
+                    queue.pollFirst();
+                }
+            }
+            PUSH_STAGE.record(started, batch.size());
+            if (batch.size() < MAX_BATCH) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * @return the newest timestamp the aggregator has from this host
+     */
+    private long send(List<UsageRecord> batch) throws IOException {
+        if (socket == null) {
+            Socket connecting = new Socket();
+            try {
+                connecting.connect(new InetSocketAddress(targetHost, targetPort), CONNECT_TIMEOUT_MS);
+                connecting.setSoTimeout(ACK_TIMEOUT_MS);
+                connecting.setTcpNoDelay(true);
+                connecting.getOutputStream().write(PushProtocol.hello(hostName));
+            } catch (IOException e) {
+                connecting.close();
+                throw e;
+            }
+            socket = connecting;
+        }
+        OutputStream out = socket.getOutputStream();
+        out.write(PushProtocol.batch(batch));
+        out.flush();
+        InputStream in = socket.getInputStream();
+        ByteBuffer payload = PushProtocol.readFrame(in);
+        if (payload.get() != PushProtocol.ACK) {
+            throw new ProtocolException("Expected an ack");
+        }
+        return PushProtocol.readAck(payload);
+    }
+
+    private void disconnect() {
+        // A new connection resends everything not acknowledged
+        sentTimestamp = Long.MIN_VALUE;
+        if (socket != null) {
+            try {
+                socket.close();
+            } catch (IOException ignored) {
+            }
+            socket = null;
+        }
+    }
+
+    public String getHostName() {
+        return hostName;
+    }
+
+    /** Samples waiting to be acknowledged. */
+    public int getQueuedCount() {
+        synchronized (queue) {
+            return queue.size();
+        }
+    }
+}
@@ -0,0 +1,125 @@
+package com.networkmonitor.service;
+
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.Map;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Storage for raw per-interface samples, the part of the database that grows
+ * with every tick. Rollups, settings and the interface dictionary stay in
+ * SQLite whichever store is used. Time ranges are half-open
+ * [fromMillis, toMillis).
+ * <p>
+ * Writes (append, commit, rollback, delete, expire) are made while holding
+ * the SQLite writer connection, so they never interleave with each other.
+ */
+public interface UsageStore {
+
+    /** Storage backend names, as stored in the storage_backend setting. */
+    String SQLITE = "sqlite";
+    String SEGMENTS = "segments";
+
+    /**
+     * Receives rows in time order.
+     */
+    @FunctionalInterface
+    interface RowVisitor {
+        void visit(long timestamp, long downloadBytes, long uploadBytes) throws IOException;
+    }
+
+    /**
+     * Sums consecutive rows with the same timestamp into one, for results
+     * that are read a table or file at a time and may be split at the seam.
+     */
+    final class Merger {
+        private final RowVisitor visitor;
+        private long timestamp = Long.MIN_VALUE;
+        private long download;
+        private long upload;
+        private boolean hasRow = false;
+
+        public Merger(RowVisitor visitor) {
+            this.visitor = visitor;
+        }
+
+        public void add(long rowTimestamp, long downloadBytes, long uploadBytes) throws IOException {
+            if (hasRow && rowTimestamp != timestamp) {
+                visitor.visit(timestamp, download, upload);
+                download = 0;
+                upload = 0;
+            }
+            hasRow = true;
+            timestamp = rowTimestamp;
+            download += downloadBytes;
+            upload += uploadBytes;
+        }
+
+        public void finish() throws IOException {
+            if (hasRow) {
+                visitor.visit(timestamp, download, upload);
+                hasRow = false;
+                download = 0;
+                upload = 0;
+            }
+        }
+    }
+
+    /**
+     * Stages rows; they become visible to readers on {@link #commit()}.
+     * Rows arrive in time order, one flush at a time.
+     */
+    void append(SampleBatch batch) throws SQLException, IOException;
+
+    /** Publishes rows staged since the last commit or rollback. */
+    void commit() throws IOException;
+
+    /** Discards rows staged since the last commit or rollback. */
+    void rollback();
+
+    /**
+     * Visits each timestamp once, with its interfaces' rows summed.
+     */
+    void scanTotals(long fromMillis, long toMillis, RowVisitor visitor) throws SQLException, IOException;
+
+    /**
+     * Visits one row per bucket, in bucket order. A row at t falls in the bucket
+     * starting at ((t + offsetMillis) / bucketMillis) * bucketMillis - offsetMillis,
+     * so a non-zero offset aligns buckets to local time.
+     */
+    void aggregate(long fromMillis, long toMillis, long bucketMillis, long offsetMillis, RowVisitor visitor)
+            throws SQLException, IOException;
+
+    /**
+     * @return {download, upload} over the range.
+     */
+    long[] sum(long fromMillis, long toMillis) throws SQLException, IOException;
+
+    /**
+     * @return {download, upload} per interface id over the range.
+     */
+    Map<Long, long[]> sumByInterface(long fromMillis, long toMillis) throws SQLException, IOException;
+
+    /**
+     * @return {first, last} stored timestamp, or null when empty.
+     */
+    long[] getTimeRange() throws SQLException, IOException;
+
+    /**
+     * Deletes rows in the range. The SQLite store does this inside the
+     * writer's open transaction.
+     *
+     * @return rows deleted, where known
+     */
+    long delete(long fromMillis, long toMillis) throws SQLException, IOException;
+
+    /**
+     * Deletes everything older than cutoffMillis in small steps, stopping
+     * early once cancelled.
+     *
+     * @return rows deleted, where known
+     */
+    long expireBefore(long cutoffMillis, BooleanSupplier cancelled) throws SQLException, IOException;
+
+    void close();
+}
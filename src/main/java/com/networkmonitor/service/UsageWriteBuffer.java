@@ -0,0 +1,325 @@
+package com.networkmonitor.service;
+
+import com.networkmonitor.model.InterfaceUsageRecord;
+import com.networkmonitor.model.UsageRecord;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Write-behind buffer for usage samples.
+ * Samples are collected in memory and written in a single transaction,
+ * either when the batch is full or when the flush interval elapses.
+ * Raw rows are stored per interface in the {@link UsageStore}, while the same
+ * transaction folds the interface totals, and each sample's rate, into the
+ * rollup tables. A non-SQLite store publishes its rows once that
+ * transaction commits.
+ * Readers that combine stored rows with pending samples hold the read side
+ * of {@link #getVisibilityLock()} so a flush can't move samples between the
+ * two while they look.
+ * While writes keep failing, samples stay queued up to a cap; past it the
+ * oldest are dropped and counted, so a broken database can't exhaust memory.
+ */
+public class UsageWriteBuffer {
+
+    // A day of samples at one per second
+    private static final int MAX_PENDING = 100_000;
+
+    private static final Diagnostics.Stage FLUSH_STAGE = Diagnostics.stage("db.flush");
+    private static final Diagnostics.Counter DROPPED = Diagnostics.counter("db.droppedSamples");
+
+    private final Connection connection;
+    private final StatementCache statements;
+    private final UsageStore store;
+    private final int maxBatchSize;
+    private final ScheduledExecutorService flushExecutor;
+    // Totals per sample, with the matching per-interface rows at the same index
+    private final List<UsageRecord> pending = new ArrayList<>();
+    private final List<List<InterfaceUsageRecord>> pendingInterfaces = new ArrayList<>();
+    private final InterfaceRegistry interfaceRegistry;
+    private final ReadWriteLock visibilityLock = new ReentrantReadWriteLock();
+    // Last sample written, for the rate of the first one in the next batch
+    private long lastSampleMillis = Long.MIN_VALUE;
+
+    /**
+     * @param statements the writer's statement cache; the owner closes it
+     */
+    public UsageWriteBuffer(StatementCache statements, UsageStore store,
+            InterfaceRegistry interfaceRegistry, int maxBatchSize, long flushIntervalMillis) {
+        this.connection = statements.getConnection();
+        this.statements = statements;
+        this.store = store;
+        this.interfaceRegistry = interfaceRegistry;
+        this.maxBatchSize = Math.max(1, maxBatchSize);
+        this.flushExecutor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "usage-flush");
+            t.setDaemon(true);
+            return t;
+        });
+        long interval = Math.max(100, flushIntervalMillis);
+        flushExecutor.scheduleWithFixedDelay(this::flush, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Queues a sample. When no per-interface rows are given the total is stored
+     * as a single unattributed row.
+     */
+    public void add(UsageRecord record, List<InterfaceUsageRecord> interfaceRecords) {
+        boolean full;
+        synchronized (pending) {
+            pending.add(record);
+            pendingInterfaces.add(interfaceRecords);
+            trimPending();
+            full = pending.size() >= maxBatchSize;
+        }
+        if (full) {
+            flushExecutor.execute(this::flush);
+        }
+    }
+
+    /**
+     * Sums the samples that have not been written yet, so totals stay exact
+     * between flushes.
+     *
+     * @return {download, upload} for pending samples within the range.
+     */
+    public long[] sumPending(long startMillis, long endMillis) {
+        long down = 0;
+        long up = 0;
+        synchronized (pending) {
+            for (UsageRecord record : pending) {
+                if (record.getTimestamp() >= startMillis && record.getTimestamp() <= endMillis) {
+                    down += record.getDownloadBytes();
+                    up += record.getUploadBytes();
+                }
+            }
+        }
+        return new long[] { down, up };
+    }
+
+    public List<UsageRecord> getPendingInRange(long startMillis, long endMillis) {
+        List<UsageRecord> records = new ArrayList<>();
+        synchronized (pending) {
+            for (UsageRecord record : pending) {
+                if (record.getTimestamp() >= startMillis && record.getTimestamp() <= endMillis) {
+                    records.add(record);
+                }
+            }
+        }
+        return records;
+    }
+
+    /**
+     * Call while holding pending. Drops the oldest samples beyond the cap.
+     */
+    private void trimPending() {
+        int excess = pending.size() - MAX_PENDING;
+        if (excess > 0) {
+            pending.subList(0, excess).clear();
+            pendingInterfaces.subList(0, excess).clear();
+            DROPPED.add(excess);
+        }
+    }
+
+    public ReadWriteLock getVisibilityLock() {
+        return visibilityLock;
+    }
+
+    /**
+     * Writes all pending samples in one transaction.
+     *
+     * @return false if the write failed and the samples are still pending
+     */
+    public boolean flush() {
+        // Taken before the connection so settings writes aren't held up while a
+        // long read finishes
+        visibilityLock.writeLock().lock();
+        try {
+            return flushLocked();
+        } finally {
+            visibilityLock.writeLock().unlock();
+        }
+    }
+
+    private boolean flushLocked() {
+        synchronized (connection) {
+            List<UsageRecord> batch;
+            List<List<InterfaceUsageRecord>> interfaceBatch;
+            synchronized (pending) {
+                if (pending.isEmpty()) {
+                    return true;
+                }
+                batch = new ArrayList<>(pending);
+                interfaceBatch = new ArrayList<>(pendingInterfaces);
+                pending.clear();
+                pendingInterfaces.clear();
+            }
+
+            try {
+                long started = System.nanoTime();
+                int rows = write(batch, interfaceBatch);
+                FLUSH_STAGE.record(started, rows);
+                return true;
+            } catch (SQLException | IOException e) {
+                System.err.println("Error flushing usage batch: " + e.getMessage());
+                // Keep the samples so the next flush can retry them
+                synchronized (pending) {
+                    pending.addAll(0, batch);
+                    pendingInterfaces.addAll(0, interfaceBatch);
+                    trimPending();
+                }
+                return false;
+            }
+        }
+    }
+
+    /**
+     * Writes the given samples in one transaction right away, bypassing the
+     * queue. Meant for bulk loads, which pass thousands of samples per call.
+     */
+    public void writeNow(List<UsageRecord> batch, List<List<InterfaceUsageRecord>> interfaceBatch)
+            throws SQLException, IOException {
+        visibilityLock.writeLock().lock();
+        try {
+            synchronized (connection) {
+                write(batch, interfaceBatch);
+            }
+        } finally {
+            visibilityLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Call while holding the connection. Leaves nothing behind on failure.
+     *
+     * @return raw rows written
+     */
+    private int write(List<UsageRecord> batch, List<List<InterfaceUsageRecord>> interfaceBatch)
+            throws SQLException, IOException {
+        try {
+            SampleBatch rows = new SampleBatch(batch.size());
+            for (int i = 0; i < batch.size(); i++) {
+                List<InterfaceUsageRecord> interfaceRows = interfaceBatch.get(i);
+                if (interfaceRows == null || interfaceRows.isEmpty()) {
+                    addRow(rows, InterfaceRegistry.UNATTRIBUTED_ID, batch.get(i));
+                    continue;
+                }
+                for (InterfaceUsageRecord row : interfaceRows) {
+                    addRow(rows, interfaceRegistry.resolve(row.getInterfaceName()), row);
+                }
+            }
+            connection.setAutoCommit(false);
+            store.append(rows);
+            updateRollups(batch);
+            connection.commit();
+            store.commit();
+            for (UsageRecord record : batch) {
+                lastSampleMillis = Math.max(lastSampleMillis, record.getTimestamp());
+            }
+            return rows.size();
+        } catch (SQLException | IOException e) {
+            try {
+                connection.rollback();
+            } catch (SQLException ignored) {
+            }
+            store.rollback();
+            throw e;
+        } finally {
+            try {
+                connection.setAutoCommit(true);
+            } catch (SQLException ignored) {
+            }
+        }
+    }
+
+    private static void addRow(SampleBatch rows, long interfaceId, UsageRecord record) {
+        rows.add(interfaceId, record.getTimestamp(), record.getDownloadBytes(), record.getUploadBytes());
+    }
+
+    private void updateRollups(List<UsageRecord> batch) throws SQLException {
+        long[] intervals = new long[batch.size()];
+        long previous = lastSampleMillis;
+        for (int i = 0; i < batch.size(); i++) {
+            // A backfilled sample older than the last one has no rate and
+            // doesn't stretch the next one's interval
+            intervals[i] = RateStats.intervalBetween(previous, batch.get(i).getTimestamp());
+            previous = Math.max(previous, batch.get(i).getTimestamp());
+        }
+
+        for (RollupTier tier : RollupTier.values()) {
+            if (!tier.isRollup()) {
+                continue;
+            }
+
+            // Pre-aggregate so each touched bucket is upserted once per flush
+            Map<Long, long[]> buckets = new LinkedHashMap<>();
+            Map<Long, RateStats> rates = new LinkedHashMap<>();
+            for (int i = 0; i < batch.size(); i++) {
+                UsageRecord record = batch.get(i);
+                long bucket = tier.bucketOf(record.getTimestamp());
+                long[] totals = buckets.computeIfAbsent(bucket, k -> new long[2]);
+                totals[0] += record.getDownloadBytes();
+                totals[1] += record.getUploadBytes();
+                rates.computeIfAbsent(bucket, RateStats::new)
+                        .addSample(record.getDownloadBytes(), record.getUploadBytes(), intervals[i]);
+            }
+
+            // Sketches can't be added in SQL, so existing ones are merged here
+            PreparedStatement select = statements.prepare(
+                    "SELECT download_rates, upload_rates FROM " + tier.getTableName() + " WHERE bucket = ?");
+            PreparedStatement upsert = statements.prepare(rollupUpsertSql(tier));
+            for (Map.Entry<Long, long[]> entry : buckets.entrySet()) {
+                RateStats stats = rates.get(entry.getKey());
+                select.setLong(1, entry.getKey());
+                try (ResultSet rs = select.executeQuery()) {
+                    if (rs.next()) {
+                        stats.merge(new RateStats(entry.getKey(), RateSketch.decode(rs.getBytes(1)),
+                                RateSketch.decode(rs.getBytes(2))));
+                    }
+                }
+                upsert.setLong(1, entry.getKey());
+                upsert.setLong(2, entry.getValue()[0]);
+                upsert.setLong(3, entry.getValue()[1]);
+                upsert.setBytes(4, stats.isEmpty() ? null : stats.getDownload().encode());
+                upsert.setBytes(5, stats.isEmpty() ? null : stats.getUpload().encode());
+                upsert.addBatch();
+            }
+            upsert.executeBatch();
+        }
+    }
+
+    private static String rollupUpsertSql(RollupTier tier) {
+        return "INSERT INTO " + tier.getTableName() +
+                "(bucket, download_bytes, upload_bytes, download_rates, upload_rates) VALUES(?, ?, ?, ?, ?) " +
+                "ON CONFLICT(bucket) DO UPDATE SET " +
+                "download_bytes = download_bytes + excluded.download_bytes, " +
+                "upload_bytes = upload_bytes + excluded.upload_bytes, " +
+                "download_rates = excluded.download_rates, " +
+                "upload_rates = excluded.upload_rates";
+    }
+
+    /**
+     * Stops the background flush and writes whatever is still pending.
+     */
+    public void close() {
+        flushExecutor.shutdown();
+        try {
+            flushExecutor.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        flush();
+    }
+}
@@ -1,32 +1,63 @@
 package com.networkmonitor.ui;
 
 import com.networkmonitor.model.UsageRecord;
+import com.networkmonitor.service.AggregatorService;
+import com.networkmonitor.service.AnomalyDetector;
+import com.networkmonitor.service.CollectorService;
+import com.networkmonitor.service.DatabaseFollower;
 import com.networkmonitor.service.DatabaseManager;
+import com.networkmonitor.service.Diagnostics;
+import com.networkmonitor.service.Downsampler;
+import com.networkmonitor.service.MetricsServer;
+import com.networkmonitor.service.ProcessAttributor;
 import com.networkmonitor.service.NetworkTracker;
+import com.networkmonitor.service.QueryService;
+import com.networkmonitor.service.QuotaAccountant;
+import com.networkmonitor.service.RateSketch;
+import com.networkmonitor.service.RateStats;
+import com.networkmonitor.service.RollupTier;
+import com.networkmonitor.service.SampleCoalescer;
+import com.networkmonitor.service.SampleFeed;
+import com.networkmonitor.service.SlidingWindowAggregator;
+import com.networkmonitor.service.UsagePusher;
+import com.networkmonitor.service.UsageExporter;
 import javafx.application.Platform;
 import javafx.event.ActionEvent;
 import javafx.fxml.FXML;
 import javafx.scene.chart.AreaChart;
-import javafx.scene.chart.CategoryAxis;
 import javafx.scene.chart.NumberAxis;
 import javafx.scene.chart.XYChart;
 import javafx.scene.control.Label;
 import javafx.scene.control.ProgressBar;
 import javafx.scene.layout.HBox;
 import javafx.stage.FileChooser;
+import javafx.util.StringConverter;
 
-import java.io.PrintWriter;
-import java.io.IOException;
-
-import java.text.SimpleDateFormat;
-import java.util.Date;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.Collections;
 import java.util.List;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 public class DashboardController {
 
+    // When sampling faster than this, chart points are coalesced
+    private static final long DISPLAY_PERIOD_MS = 1000;
+    // Used until the chart has been laid out
+    private static final int DEFAULT_CHART_POINTS = 800;
+    private static final int MIN_CHART_POINTS = 100;
+    private static final double BYTES_PER_MB = 1024.0 * 1024.0;
+
+    private static final Diagnostics.Stage SAMPLE_STAGE = Diagnostics.stage("ui.onSample");
+    private static final Diagnostics.Stage DISPATCH_STAGE = Diagnostics.stage("ui.runLaterWait");
+    private static final Diagnostics.Stage REFRESH_STAGE = Diagnostics.stage("ui.refreshLiveUi");
+    private static final Diagnostics.Stage QUOTA_STAGE = Diagnostics.stage("ui.checkQuota");
+
     @FXML
     private Label downloadSpeedLabel;
     @FXML
@@ -36,6 +67,12 @@ public class DashboardController {
     @FXML
     private Label totalUploadLabel;
     @FXML
+    private Label downloadRateStatsLabel;
+    @FXML
+    private Label uploadRateStatsLabel;
+    @FXML
+    private Label billingRateLabel;
+    @FXML
     private Label rangeDescriptionLabel;
     @FXML
     private Label quotaStatusLabel;
@@ -44,50 +81,92 @@ public class DashboardController {
     @FXML
     private HBox filterBar;
     @FXML
-    private AreaChart<String, Number> usageChart;
+    private AreaChart<Number, Number> usageChart;
     @FXML
-    private CategoryAxis xAxis;
+    private NumberAxis xAxis;
     @FXML
     private NumberAxis yAxis;
+    @FXML
+    private LiveChart liveChart;
+    @FXML
+    private javafx.scene.control.ProgressIndicator loadingIndicator;
+    @FXML
+    private javafx.scene.control.Button breakdownButton;
 
-    private NetworkTracker networkTracker;
     private DatabaseManager databaseManager;
-    private ScheduledExecutorService executorService;
-    private XYChart.Series<String, Number> downloadSeries;
-    private XYChart.Series<String, Number> uploadSeries;
+    private SampleFeed sampleFeed;
+    private MetricsServer metricsServer; // null unless enabled
+    private ProcessAttributor processAttributor; // null unless collecting on Linux
+    private UsagePusher usagePusher; // null unless pushing to an aggregator
+    private AnomalyDetector anomalyDetector;
+    private CollectorService collectorService; // null when viewing another process's database
+    private QuotaAccountant quotaAccountant;
+    private SlidingWindowAggregator liveWindow;
+    // All dashboard queries run here, never on the FX thread
+    private final QueryService queryService = new QueryService();
+    private CompletableFuture<ChartData> currentLoad;
+
+    // Owned by the listener thread
+    private final SampleCoalescer displayCoalescer = new SampleCoalescer(DISPLAY_PERIOD_MS);
+
+    // Handed from the listener thread to the FX thread
+    private final AtomicBoolean uiUpdatePending = new AtomicBoolean(false);
+    private volatile long uiUpdateQueuedNanos;
+    private final ConcurrentLinkedQueue<double[]> pendingChartPoints = new ConcurrentLinkedQueue<>();
+    private volatile double latestDownloadRate = 0;
+    private volatile double latestUploadRate = 0;
+    private volatile UsageRecord latestLiveTotal = null;
+    private XYChart.Series<Number, Number> downloadSeries;
+    private XYChart.Series<Number, Number> uploadSeries;
 
     private long totalDownloadBytes = 0;
     private long totalUploadBytes = 0;
     private long lastSelectionStart = 0;
     private long lastSelectionEnd = 0;
 
-    private double monthlyQuotaGB = 0;
-    private int alertThresholdPercent = 80;
-    private boolean alertTriggeredThisMonth = false;
-    private String lastAlertMonth = ""; // Format: YYYY-MM
-
     @FXML
     public void initialize() {
-        networkTracker = new NetworkTracker();
         databaseManager = DatabaseManager.getInstance();
 
         setupChart();
 
-        executorService = Executors.newSingleThreadScheduledExecutor();
-        executorService.scheduleAtFixedRate(this::updateNetworkStats, 0, 2, TimeUnit.SECONDS);
-
-        // Load settings
-        monthlyQuotaGB = Double.parseDouble(databaseManager.getSetting("monthly_quota_gb", "0"));
-        alertThresholdPercent = Integer.parseInt(databaseManager.getSetting("alert_threshold_percent", "80"));
-        lastAlertMonth = databaseManager.getSetting("last_alert_month", "");
-
-        // Perform auto-cleanup on startup
-        databaseManager.performAutoCleanup();
+        if (databaseManager.isReadOnly()) {
+            // Attached to a database written by a headless collector
+            sampleFeed = new DatabaseFollower(databaseManager);
+        } else if (AggregatorService.configuredPort() > 0) {
+            sampleFeed = new AggregatorService(databaseManager, AggregatorService.configuredPort());
+        } else {
+            collectorService = new CollectorService(databaseManager);
+            sampleFeed = collectorService;
+        }
+        quotaAccountant = sampleFeed.getQuotaAccountant();
+
+        // Running totals for the live window, seeded with each live chart load
+        liveWindow = new SlidingWindowAggregator(databaseManager);
+
+        sampleFeed.addListener(this::onSample);
+        metricsServer = MetricsServer.startIfEnabled(sampleFeed, databaseManager);
+        processAttributor = ProcessAttributor.startIfEnabled(sampleFeed, databaseManager);
+        usagePusher = UsagePusher.startIfEnabled(sampleFeed, databaseManager);
+        anomalyDetector = AnomalyDetector.start(sampleFeed, databaseManager);
+        if (Boolean.parseBoolean(databaseManager.getSetting("fleet_database", "false"))) {
+            // The interfaces of a fleet database are the pushing hosts
+            breakdownButton.setText("Hosts");
+        }
+        sampleFeed.start();
 
-        // Load initial data (e.g., last 30 mins)
-        loadChartData(System.currentTimeMillis() - 1800 * 1000, System.currentTimeMillis());
+        // Load initial data for the live window
+        long now = System.currentTimeMillis();
+        reloadChart(now - currentWindowMillis, now);
     }
 
+    private static final DateTimeFormatter TIME_SECONDS_FORMAT = DateTimeFormatter.ofPattern("HH:mm:ss")
+            .withZone(ZoneId.systemDefault());
+    private static final DateTimeFormatter TIME_FORMAT = DateTimeFormatter.ofPattern("HH:mm")
+            .withZone(ZoneId.systemDefault());
+    private static final DateTimeFormatter DATE_TIME_FORMAT = DateTimeFormatter.ofPattern("MM-dd HH:mm")
+            .withZone(ZoneId.systemDefault());
+
     private void setupChart() {
         downloadSeries = new XYChart.Series<>();
         downloadSeries.setName("Download");
@@ -96,115 +175,163 @@ public class DashboardController {
 
         usageChart.getData().addAll(downloadSeries, uploadSeries);
         xAxis.setLabel("Time");
-        yAxis.setLabel("Usage (MB)");
+        // X values are epoch millis; only tick labels are formatted
+        xAxis.setAutoRanging(false);
+        xAxis.setForceZeroInRange(false);
+        xAxis.setMinorTickVisible(false);
+        xAxis.setTickLabelFormatter(new StringConverter<Number>() {
+            @Override
+            public String toString(Number millis) {
+                long range = (long) (xAxis.getUpperBound() - xAxis.getLowerBound());
+                DateTimeFormatter format = range <= 10 * 60 * 1000 ? TIME_SECONDS_FORMAT
+                        : range <= 24 * 60 * 60 * 1000 ? TIME_FORMAT : DATE_TIME_FORMAT;
+                return format.format(Instant.ofEpochMilli(millis.longValue()));
+            }
+
+            @Override
+            public Number fromString(String text) {
+                return null;
+            }
+        });
+        yAxis.setLabel("Rate (MB/s)");
         usageChart.setAnimated(false); // Disable animation for real-time updates
         usageChart.setCreateSymbols(false); // Disable symbols to save memory and CPU
     }
 
-    private void updateNetworkStats() {
-        UsageRecord record = networkTracker.getNetworkUsageDelta();
-        databaseManager.insertUsage(record);
+    /**
+     * Called on the feed's listener thread for every sample.
+     */
+    private void onSample(UsageRecord record, long intervalNanos) {
+        long started = System.nanoTime();
+        // True rates from the measured interval rather than the nominal one
+        latestDownloadRate = SampleCoalescer.ratePerSecond(record.getDownloadBytes(), intervalNanos);
+        latestUploadRate = SampleCoalescer.ratePerSecond(record.getUploadBytes(), intervalNanos);
 
-        // If in live mode, calculate totals for the rolling window
-        UsageRecord liveTotal = null;
+        // If in live mode, advance the running totals for the rolling window
         if (isLive) {
-            long now = System.currentTimeMillis();
-            liveTotal = databaseManager.getTotalUsage(now - currentWindowMillis, now);
+            liveWindow.add(record.getTimestamp(), record.getDownloadBytes(), record.getUploadBytes());
+            latestLiveTotal = new UsageRecord(record.getTimestamp(), liveWindow.getDownloadTotal(),
+                    liveWindow.getUploadTotal());
+        }
+
+        // One chart point per display period, holding the peak rate so bursts survive
+        if (displayCoalescer.offer(record, Collections.emptyList(), intervalNanos)) {
+            pendingChartPoints.add(new double[] { displayCoalescer.getRecord().getTimestamp(),
+                    displayCoalescer.getPeakDownloadRate(), displayCoalescer.getPeakUploadRate() });
+        }
+
+        // Coalesce UI work: at most one refresh queued on the FX thread at a time
+        if (uiUpdatePending.compareAndSet(false, true)) {
+            uiUpdateQueuedNanos = System.nanoTime();
+            Platform.runLater(this::refreshLiveUi);
         }
+        SAMPLE_STAGE.record(started);
+    }
 
-        final UsageRecord finalLiveTotal = liveTotal;
+    private void refreshLiveUi() {
+        long started = System.nanoTime();
+        // How long the FX thread took to get to us: a backlog shows up here
+        DISPATCH_STAGE.record(uiUpdateQueuedNanos);
+        uiUpdatePending.set(false);
+        updateLabels(latestDownloadRate, latestUploadRate);
 
-        Platform.runLater(() -> {
-            updateLabels(record);
+        double[] point;
+        while ((point = pendingChartPoints.poll()) != null) {
             if (isLive) {
-                updateChart(record);
-                if (finalLiveTotal != null) {
-                    totalDownloadLabel.setText(formatSize(finalLiveTotal.getDownloadBytes()));
-                    totalUploadLabel.setText(formatSize(finalLiveTotal.getUploadBytes()));
-                }
+                liveChart.addSample((long) point[0], point[1], point[2]);
             }
-            checkQuota(record);
-        });
+        }
+        if (isLive) {
+            liveChart.scrollTo(System.currentTimeMillis());
+        }
+        UsageRecord liveTotal = latestLiveTotal;
+        if (isLive && liveTotal != null) {
+            totalDownloadLabel.setText(formatSize(liveTotal.getDownloadBytes()));
+            totalUploadLabel.setText(formatSize(liveTotal.getUploadBytes()));
+        }
+        checkQuota();
+        checkAnomalies();
+        REFRESH_STAGE.record(started);
     }
 
-    private void checkQuota(UsageRecord record) {
-        if (monthlyQuotaGB <= 0) {
-            javafx.application.Platform.runLater(() -> {
-                quotaStatusLabel.setText("Quota not set");
-                quotaProgressBar.setProgress(0.0);
-            });
-            return;
+    private void checkAnomalies() {
+        AnomalyDetector.Anomaly anomaly;
+        while ((anomaly = anomalyDetector.pollAlert()) != null) {
+            javafx.scene.control.Alert alert = new javafx.scene.control.Alert(
+                    javafx.scene.control.Alert.AlertType.WARNING);
+            alert.setTitle("Traffic Alert");
+            alert.setHeaderText("Unusual " + anomaly.getDirection() + " traffic");
+            alert.setContentText(String.format("%s at %s for the last minute, against a usual %s at this hour "
+                    + "(%.1f standard deviations above normal).",
+                    anomaly.getDirection().equals("download") ? "Downloading" : "Uploading",
+                    formatSpeed((long) anomaly.getRate()), formatSpeed((long) anomaly.getExpectedRate()),
+                    anomaly.getScore()));
+            alert.show();
         }
+    }
 
-        // Current month start
-        java.util.Calendar cal = java.util.Calendar.getInstance();
-        cal.set(java.util.Calendar.DAY_OF_MONTH, 1);
-        cal.set(java.util.Calendar.HOUR_OF_DAY, 0);
-        cal.set(java.util.Calendar.MINUTE, 0);
-        cal.set(java.util.Calendar.SECOND, 0);
-        long startOfMonth = cal.getTimeInMillis();
-
-        UsageRecord monthlyUsage = databaseManager.getTotalUsage(startOfMonth, System.currentTimeMillis());
-        double totalUsedBytes = monthlyUsage.getDownloadBytes() + monthlyUsage.getUploadBytes();
-        double totalUsedGB = totalUsedBytes / (1024.0 * 1024.0 * 1024.0);
-
-        double thresholdGB = (monthlyQuotaGB * alertThresholdPercent) / 100.0;
-        double progress = Math.min(1.0, totalUsedGB / monthlyQuotaGB);
+    private void checkQuota() {
+        long started = System.nanoTime();
+        if (!quotaAccountant.isQuotaSet()) {
+            quotaStatusLabel.setText("Quota not set");
+            quotaProgressBar.setProgress(0.0);
+            QUOTA_STAGE.record(started);
+            return;
+        }
 
-        String currentMonth = new SimpleDateFormat("yyyy-MM").format(new Date());
+        double monthlyQuotaGB = quotaAccountant.getMonthlyQuotaGB();
+        double totalUsedGB = quotaAccountant.getUsedGB();
+        double progress = quotaAccountant.getProgress();
 
-        javafx.application.Platform.runLater(() -> {
-            quotaStatusLabel.setText(String.format("%.2f GB / %.1f GB (%.0f%%)",
-                    totalUsedGB, monthlyQuotaGB, progress * 100));
-            quotaProgressBar.setProgress(progress);
+        quotaStatusLabel.setText(String.format("%.2f GB / %.1f GB (%.0f%%)",
+                totalUsedGB, monthlyQuotaGB, progress * 100));
+        quotaProgressBar.setProgress(progress);
 
-            if (progress >= (alertThresholdPercent / 100.0)) {
-                if (!quotaProgressBar.getStyleClass().contains("danger")) {
-                    quotaProgressBar.getStyleClass().add("danger");
-                }
-            } else {
-                quotaProgressBar.getStyleClass().remove("danger");
+        if (quotaAccountant.isOverThreshold()) {
+            if (!quotaProgressBar.getStyleClass().contains("danger")) {
+                quotaProgressBar.getStyleClass().add("danger");
             }
-        });
-
-        if (totalUsedGB >= thresholdGB && !currentMonth.equals(lastAlertMonth)) {
-            lastAlertMonth = currentMonth;
-            databaseManager.saveSetting("last_alert_month", lastAlertMonth);
+        } else {
+            quotaProgressBar.getStyleClass().remove("danger");
+        }
 
-            javafx.application.Platform.runLater(() -> {
-                javafx.scene.control.Alert alert = new javafx.scene.control.Alert(
-                        javafx.scene.control.Alert.AlertType.WARNING);
-                alert.setTitle("Data Usage Alert");
-                alert.setHeaderText("Threshold Reached");
-                alert.setContentText(String.format("You have used %.2f GB (%.0f%% of your %.1f GB quota).",
-                        totalUsedGB, (totalUsedGB / monthlyQuotaGB) * 100, monthlyQuotaGB));
-                alert.show();
+        if (quotaAccountant.shouldAlert()) {
+            queryService.submit(cancelled -> {
+                quotaAccountant.saveAlertState();
+                return null;
             });
+            javafx.scene.control.Alert alert = new javafx.scene.control.Alert(
+                    javafx.scene.control.Alert.AlertType.WARNING);
+            alert.setTitle("Data Usage Alert");
+            alert.setHeaderText("Threshold Reached");
+            alert.setContentText(String.format("You have used %.2f GB (%.0f%% of your %.1f GB quota).",
+                    totalUsedGB, (totalUsedGB / monthlyQuotaGB) * 100, monthlyQuotaGB));
+            alert.show();
         }
+        QUOTA_STAGE.record(started);
     }
 
-    private void updateLabels(UsageRecord record) {
-        downloadSpeedLabel.setText(formatSpeed(record.getDownloadBytes()));
-        uploadSpeedLabel.setText(formatSpeed(record.getUploadBytes()));
+    private void updateLabels(double downloadRate, double uploadRate) {
+        downloadSpeedLabel.setText(formatSpeed((long) downloadRate));
+        uploadSpeedLabel.setText(formatSpeed((long) uploadRate));
     }
 
-    private void updateChart(UsageRecord record) {
-        String timeLabel = new SimpleDateFormat("HH:mm:ss").format(new Date(record.getTimestamp()));
-
-        // Add new data (converted to MB)
-        downloadSeries.getData().add(new XYChart.Data<>(timeLabel, record.getDownloadBytes() / (1024.0 * 1024.0)));
-        uploadSeries.getData().add(new XYChart.Data<>(timeLabel, record.getUploadBytes() / (1024.0 * 1024.0)));
-
-        // Enforce sliding window based on time, not just count
-        // removing points older than window
-        // But for performance, limit count is easier.
-        // Let's assume 1 point per second.
-        int maxPoints = (int) (currentWindowMillis / 1000);
-
-        if (downloadSeries.getData().size() > maxPoints) {
-            downloadSeries.getData().remove(0);
-            uploadSeries.getData().remove(0);
+    /**
+     * Number of points worth drawing: roughly one per horizontal pixel.
+     */
+    private int chartPointBudget() {
+        // Only one of the two charts is laid out at a time
+        double width = Math.max(xAxis.getWidth(), liveChart.getWidth());
+        if (width <= 0) {
+            return DEFAULT_CHART_POINTS;
         }
+        return Math.max(MIN_CHART_POINTS, (int) width);
+    }
+
+    private void setTimeRange(long start, long end) {
+        xAxis.setLowerBound(start);
+        xAxis.setUpperBound(end);
+        xAxis.setTickUnit(Math.max(1, (end - start) / 6.0));
     }
 
     private String formatSpeed(long bytesPerSecond) {
@@ -284,8 +411,68 @@ public class DashboardController {
         }
     }
 
+    /**
+     * Shows per-stage latency since startup (or the last reset), to tell
+     * whether a stutter comes from sampling, storage, queries or the FX thread.
+     */
+    @FXML
+    public void handleDiagnostics(ActionEvent event) {
+        javafx.scene.control.Dialog<javafx.scene.control.ButtonType> dialog = new javafx.scene.control.Dialog<>();
+        dialog.setTitle("Diagnostics");
+        dialog.setHeaderText("Stage latency and rows since startup");
+
+        javafx.scene.control.ButtonType resetButtonType = new javafx.scene.control.ButtonType("Reset",
+                javafx.scene.control.ButtonBar.ButtonData.LEFT);
+        dialog.getDialogPane().getButtonTypes().addAll(resetButtonType, javafx.scene.control.ButtonType.CLOSE);
+
+        javafx.scene.control.TextArea reportArea = new javafx.scene.control.TextArea(Diagnostics.report());
+        reportArea.setEditable(false);
+        reportArea.setStyle("-fx-font-family: monospace;");
+        reportArea.setPrefColumnCount(84);
+        reportArea.setPrefRowCount(24);
+        dialog.getDialogPane().setContent(reportArea);
+
+        dialog.showAndWait().ifPresent(result -> {
+            if (result == resetButtonType) {
+                Diagnostics.reset();
+            }
+        });
+    }
+
     @FXML
     public void handleSettings(ActionEvent event) {
+        if (collectorService == null) {
+            javafx.scene.control.Alert alert = new javafx.scene.control.Alert(
+                    javafx.scene.control.Alert.AlertType.INFORMATION);
+            alert.setTitle("Usage Settings");
+            if (sampleFeed instanceof AggregatorService) {
+                alert.setHeaderText("Fleet aggregator");
+                alert.setContentText("Quotas, interfaces and sampling are set on each collector that pushes here.");
+            } else {
+                alert.setHeaderText("Read-only viewer");
+                alert.setContentText(
+                        "Settings and data maintenance are managed by the collector that owns this database.");
+            }
+            alert.showAndWait();
+            return;
+        }
+        // Saved values are read on the query thread; the FX thread never waits on the database
+        queryService.submit(cancelled -> {
+            SavedSettings saved = new SavedSettings();
+            saved.include = databaseManager.getSetting("interface_include", "");
+            saved.exclude = databaseManager.getSetting("interface_exclude",
+                    NetworkTracker.DEFAULT_EXCLUDED_INTERFACES);
+            saved.retentionDays = collectorService.getRetentionService().getRetentionDays();
+            return saved;
+        }).whenCompleteAsync((saved, error) -> {
+            if (saved != null) {
+                showSettingsDialog(saved);
+            }
+        }, Platform::runLater);
+    }
+
+    private void showSettingsDialog(SavedSettings saved) {
+
         javafx.scene.control.Dialog<javafx.util.Pair<String, String>> dialog = new javafx.scene.control.Dialog<>();
         dialog.setTitle("Usage Settings");
         dialog.setHeaderText("Set Monthly Quota & Alerts");
@@ -299,19 +486,48 @@ public class DashboardController {
         grid.setVgap(10);
         grid.setPadding(new javafx.geometry.Insets(20, 150, 10, 10));
 
-        javafx.scene.control.TextField quotaField = new javafx.scene.control.TextField(String.valueOf(monthlyQuotaGB));
+        javafx.scene.control.TextField quotaField = new javafx.scene.control.TextField(
+                String.valueOf(quotaAccountant.getMonthlyQuotaGB()));
         javafx.scene.control.TextField thresholdField = new javafx.scene.control.TextField(
-                String.valueOf(alertThresholdPercent));
+                String.valueOf(quotaAccountant.getAlertThresholdPercent()));
 
         grid.add(new javafx.scene.control.Label("Monthly Quota (GB):"), 0, 0);
         grid.add(quotaField, 1, 0);
         grid.add(new javafx.scene.control.Label("Alert at (%):"), 0, 1);
         grid.add(thresholdField, 1, 1);
 
+        // Interface Filter Section
+        javafx.scene.control.TextField includeField = new javafx.scene.control.TextField(saved.include);
+        includeField.setPromptText("All interfaces");
+        javafx.scene.control.TextField excludeField = new javafx.scene.control.TextField(saved.exclude);
+
+        grid.add(new javafx.scene.control.Label("Include interfaces:"), 0, 2);
+        grid.add(includeField, 1, 2);
+        grid.add(new javafx.scene.control.Label("Exclude interfaces:"), 0, 3);
+        grid.add(excludeField, 1, 3);
+
+        // Under 1000 ms enables high-frequency mode
+        javafx.scene.control.TextField intervalField = new javafx.scene.control.TextField(
+                String.valueOf(collectorService.getSampleIntervalMillis()));
+        grid.add(new javafx.scene.control.Label("Sample interval (ms):"), 0, 4);
+        grid.add(intervalField, 1, 4);
+
+        // Standard deviations above the usual rate for the hour of the week
+        javafx.scene.control.TextField sensitivityField = new javafx.scene.control.TextField(
+                String.valueOf(anomalyDetector.getSensitivity()));
+        grid.add(new javafx.scene.control.Label("Traffic alert at (\u03c3, 0 = off):"), 0, 5);
+        grid.add(sensitivityField, 1, 5);
+
         // Data Maintenance Section
         javafx.scene.control.Label maintenanceHeader = new javafx.scene.control.Label("DATA MAINTENANCE");
         maintenanceHeader.setStyle("-fx-font-weight: bold; -fx-text-fill: #3b82f6; -fx-padding: 10 0 0 0;");
-        grid.add(maintenanceHeader, 0, 2, 2, 1);
+        grid.add(maintenanceHeader, 0, 6, 2, 1);
+
+        // Older samples are removed in the background; 0 keeps everything
+        javafx.scene.control.TextField retentionField = new javafx.scene.control.TextField(
+                String.valueOf(saved.retentionDays));
+        grid.add(new javafx.scene.control.Label("Keep history (days):"), 0, 7);
+        grid.add(retentionField, 1, 7);
 
         javafx.scene.control.Button clearDataBtn = new javafx.scene.control.Button("Clear History Options...");
         clearDataBtn.setOnAction(e -> {
@@ -325,27 +541,40 @@ public class DashboardController {
             java.util.Optional<String> clearResult = clearDialog.showAndWait();
             clearResult.ifPresent(choice -> {
                 long now = System.currentTimeMillis();
+                long clearStart;
+                long clearEnd = now;
                 if (choice.equals("All Time History")) {
-                    databaseManager.clearDataInRange(0, now);
+                    clearStart = 0;
                 } else if (choice.equals("Last 30 Days")) {
-                    databaseManager.clearDataInRange(now - (30L * 24 * 60 * 60 * 1000), now);
+                    clearStart = now - (30L * 24 * 60 * 60 * 1000);
+                } else if (lastSelectionStart > 0 && lastSelectionEnd > 0) {
+                    // Current Filter Range: the last reload range
+                    clearStart = lastSelectionStart;
+                    clearEnd = lastSelectionEnd;
                 } else {
-                    // Current Filter Range
-                    // We can use the last reload range if available
-                    if (lastSelectionStart > 0 && lastSelectionEnd > 0) {
-                        databaseManager.clearDataInRange(lastSelectionStart, lastSelectionEnd);
+                    // Fallback to last hour if live
+                    clearStart = now - 3600 * 1000;
+                }
+
+                long purgeStart = clearStart;
+                long purgeEnd = clearEnd;
+                showLoading(true);
+                queryService.submit(cancelled -> {
+                    databaseManager.clearDataInRange(purgeStart, purgeEnd);
+                    // Purged data may fall in the current month
+                    quotaAccountant.reload();
+                    return null;
+                }).whenCompleteAsync((result, error) -> {
+                    // Refresh chart
+                    if (lastSelectionStart > 0) {
+                        reloadChart(lastSelectionStart, lastSelectionEnd);
                     } else {
-                        // Fallback to last hour if live
-                        databaseManager.clearDataInRange(now - 3600 * 1000, now);
+                        showLoading(false);
                     }
-                }
-                // Refresh chart
-                if (lastSelectionStart > 0) {
-                    reloadChart(lastSelectionStart, lastSelectionEnd);
-                }
+                }, Platform::runLater);
             });
         });
-        grid.add(clearDataBtn, 0, 3, 2, 1);
+        grid.add(clearDataBtn, 0, 8, 2, 1);
 
         dialog.getDialogPane().setContent(grid);
 
@@ -359,33 +588,190 @@ public class DashboardController {
         java.util.Optional<javafx.util.Pair<String, String>> result = dialog.showAndWait();
 
         result.ifPresent(settings -> {
+            // Validate every field before applying any, so bad input changes nothing
+            double monthlyQuotaGB;
+            int alertThresholdPercent;
+            long intervalMillis;
+            long retentionDays;
+            double sensitivity;
             try {
-                monthlyQuotaGB = Double.parseDouble(settings.getKey());
-                alertThresholdPercent = Integer.parseInt(settings.getValue());
-
-                databaseManager.saveSetting("monthly_quota_gb", String.valueOf(monthlyQuotaGB));
-                databaseManager.saveSetting("alert_threshold_percent", String.valueOf(alertThresholdPercent));
-                alertTriggeredThisMonth = false; // Reset alert to re-check with new settings
-            } catch (NumberFormatException e) {
-                // Silently fail or show small error
+                monthlyQuotaGB = parseSetting("Monthly quota", settings.getKey(), 0, Double.MAX_VALUE, false);
+                alertThresholdPercent = (int) parseSetting("Alert threshold", settings.getValue(), 0, 100, true);
+                intervalMillis = (long) parseSetting("Sample interval", intervalField.getText(), 1, Long.MAX_VALUE,
+                        true);
+                retentionDays = (long) parseSetting("Retention", retentionField.getText(), 0, Long.MAX_VALUE, true);
+                sensitivity = parseSetting("Anomaly sensitivity", sensitivityField.getText(), 0, Double.MAX_VALUE,
+                        false);
+            } catch (IllegalArgumentException e) {
+                javafx.scene.control.Alert alert = new javafx.scene.control.Alert(
+                        javafx.scene.control.Alert.AlertType.ERROR);
+                alert.setTitle("Usage Settings");
+                alert.setHeaderText("Settings not saved");
+                alert.setContentText(e.getMessage());
+                alert.show();
+                return;
             }
+            // Comma-separated globs, e.g. "eth*,wlan0"
+            String include = includeField.getText();
+            String exclude = excludeField.getText();
+
+            // Saving writes to the database, so it runs on the query thread
+            queryService.submit(cancelled -> {
+                // Saves the settings and re-arms the alert to re-check with them
+                quotaAccountant.updateSettings(monthlyQuotaGB, alertThresholdPercent);
+                collectorService.setInterfaceFilter(include, exclude);
+                collectorService.setSampleInterval(intervalMillis);
+                collectorService.getRetentionService().setRetentionDays(retentionDays);
+                anomalyDetector.setSensitivity(sensitivity);
+                databaseManager.saveSetting("anomaly_sensitivity", String.valueOf(sensitivity));
+                return null;
+            }).whenCompleteAsync((ignored, error) -> checkQuota(), Platform::runLater);
         });
     }
 
+    /**
+     * Parses a number from a settings field.
+     *
+     * @throws IllegalArgumentException naming the field if the text is not a
+     *         number between min and max, or not a whole one when whole is set
+     */
+    private static double parseSetting(String name, String text, double min, double max, boolean whole) {
+        double value;
+        try {
+            value = Double.parseDouble(text.trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(name + " must be a number.");
+        }
+        if (whole && value != Math.rint(value)) {
+            throw new IllegalArgumentException(name + " must be a whole number.");
+        }
+        if (!(value >= min && value <= max)) {
+            throw new IllegalArgumentException(name + " must be at least " + formatBound(min)
+                    + (max < Long.MAX_VALUE ? " and at most " + formatBound(max) : "") + ".");
+        }
+        return value;
+    }
+
+    private static String formatBound(double bound) {
+        return bound == Math.rint(bound) ? String.valueOf((long) bound) : String.valueOf(bound);
+    }
+
+    /**
+     * Switches the chart to a new range. The queries run on the query thread;
+     * a newer selection supersedes a load still in flight.
+     */
     private void reloadChart(long start, long end) {
         this.lastSelectionStart = start;
         this.lastSelectionEnd = end;
         downloadSeries.getData().clear();
         uploadSeries.getData().clear();
+        liveChart.clear();
+
+        // The canvas chart draws the live window; history uses the area chart
+        boolean live = isLive;
+        usageChart.setVisible(!live);
+        usageChart.setManaged(!live);
+        liveChart.setVisible(live);
+        liveChart.setManaged(live);
+        long sampleIntervalMillis = sampleFeed.getSampleIntervalMillis();
+        if (live) {
+            liveChart.setWindow(end - start);
+            liveChart.setGapMillis(3 * Math.max(sampleIntervalMillis, DISPLAY_PERIOD_MS));
+            liveChart.scrollTo(end);
+        } else {
+            setTimeRange(start, end);
+        }
+
+        int budget = chartPointBudget();
+        showLoading(true);
+        CompletableFuture<ChartData> load = queryService.submitLatest("chart", cancelled -> {
+            if (live) {
+                liveWindow.reseed(end - start);
+            }
+            ChartData data = live
+                    ? queryLiveData(start, end, sampleIntervalMillis)
+                    : queryHistoryData(start, end, budget);
+            if (cancelled.getAsBoolean()) {
+                return null;
+            }
+            data.total = databaseManager.getTotalUsage(start, end);
+            data.rates = databaseManager.getRateStats(start, end);
+            data.billingRates = databaseManager.getBillingRates(start, end, 0.95);
+            return data;
+        });
+        currentLoad = load;
+
+        load.whenCompleteAsync((data, error) -> {
+            if (load != currentLoad) {
+                // Superseded; the newer load owns the chart and the loading state
+                return;
+            }
+            showLoading(false);
+            if (error != null) {
+                Throwable cause = error instanceof CompletionException ? error.getCause() : error;
+                if (!(cause instanceof CancellationException)) {
+                    System.err.println("Error loading chart data: " + cause.getMessage());
+                }
+                return;
+            }
+            applyChartData(data);
+        }, Platform::runLater);
+    }
+
+    private void showLoading(boolean loading) {
+        loadingIndicator.setVisible(loading);
+        usageChart.setOpacity(loading ? 0.5 : 1.0);
+        liveChart.setOpacity(loading ? 0.5 : 1.0);
+    }
+
+    /**
+     * Query results for one chart range, built on the query thread.
+     */
+    /** Settings the dialog shows, read off the FX thread. */
+    private static final class SavedSettings {
+        String include;
+        String exclude;
+        long retentionDays;
+    }
 
-        loadChartData(start, end);
-        updateTotals(start, end);
+    private static final class ChartData {
+        boolean live;
+        long[] timestamps;
+        double[] downloadRates;
+        double[] uploadRates;
+        int count;
+        // Points kept by downsampling (history only)
+        int[] downloadPoints;
+        int[] uploadPoints;
+        UsageRecord total;
+        RateStats rates;
+        // 95th percentile of 5-minute averages, {download, upload}
+        double[] billingRates;
     }
 
-    private void updateTotals(long start, long end) {
-        UsageRecord total = databaseManager.getTotalUsage(start, end);
-        totalDownloadLabel.setText(formatSize(total.getDownloadBytes()));
-        totalUploadLabel.setText(formatSize(total.getUploadBytes()));
+    private void applyChartData(ChartData data) {
+        if (data.live) {
+            liveChart.setSamples(data.timestamps, data.downloadRates, data.uploadRates, data.count);
+        } else {
+            addPoints(downloadSeries, data.timestamps, data.downloadRates, data.downloadPoints);
+            addPoints(uploadSeries, data.timestamps, data.uploadRates, data.uploadPoints);
+        }
+        totalDownloadLabel.setText(formatSize(data.total.getDownloadBytes()));
+        totalUploadLabel.setText(formatSize(data.total.getUploadBytes()));
+        downloadRateStatsLabel.setText(formatRateStats(data.rates.getDownload()));
+        uploadRateStatsLabel.setText(formatRateStats(data.rates.getUpload()));
+        billingRateLabel.setText(data.rates.isEmpty() ? "" : "95th percentile (5 min): " +
+                formatSpeed((long) data.billingRates[0]) + " in, " +
+                formatSpeed((long) data.billingRates[1]) + " out");
+    }
+
+    private String formatRateStats(RateSketch rates) {
+        if (rates.isEmpty()) {
+            return "";
+        }
+        return "Peak " + formatSpeed((long) rates.getMax()) +
+                " · p99 " + formatSpeed((long) rates.getQuantile(0.99)) +
+                " · p95 " + formatSpeed((long) rates.getQuantile(0.95));
     }
 
     @FXML
@@ -443,38 +829,142 @@ public class DashboardController {
         });
     }
 
-    private void loadChartData(long start, long end) {
-        boolean useRawData = isLive && (end - start) <= 3600 * 1000;
-        List<UsageRecord> records;
+    /**
+     * The live window (at most an hour) is drawn from raw samples; rates come
+     * from the actual spacing between them.
+     */
+    private ChartData queryLiveData(long start, long end, long sampleIntervalMillis) {
+        List<UsageRecord> records = databaseManager.getUsageInRange(start, end);
+        ChartData data = new ChartData();
+        data.live = true;
+        data.count = records.size();
+        data.timestamps = new long[data.count];
+        data.downloadRates = new double[data.count];
+        data.uploadRates = new double[data.count];
+        long previousTimestamp = -1;
+        for (int i = 0; i < data.count; i++) {
+            UsageRecord record = records.get(i);
+            long elapsedNanos = (previousTimestamp < 0
+                    ? sampleIntervalMillis
+                    : Math.max(1, record.getTimestamp() - previousTimestamp)) * 1_000_000;
+            previousTimestamp = record.getTimestamp();
+            data.timestamps[i] = record.getTimestamp();
+            data.downloadRates[i] = SampleCoalescer.ratePerSecond(record.getDownloadBytes(), elapsedNanos);
+            data.uploadRates[i] = SampleCoalescer.ratePerSecond(record.getUploadBytes(), elapsedNanos);
+        }
+        return data;
+    }
 
-        if (useRawData) {
-            records = databaseManager.getUsageInRange(start, end);
-        } else {
-            long interval = (end - start) / 60;
-            if (interval < 1000)
-                interval = 1000;
-            records = databaseManager.getAggregatedUsage(start, end, interval);
-
-            // Note: Since we don't have setters in UsageRecord, we'll handle the scaling
-            // in the loop below by dividing the sum by (interval / 1000)
-            final double secondsPerBucket = interval / 1000.0;
-            SimpleDateFormat sdf = new SimpleDateFormat("HH:mm");
-            for (UsageRecord record : records) {
-                String timeLabel = sdf.format(new Date(record.getTimestamp()));
-                double downloadMBs = (record.getDownloadBytes() / secondsPerBucket) / (1024.0 * 1024.0);
-                double uploadMBs = (record.getUploadBytes() / secondsPerBucket) / (1024.0 * 1024.0);
-                downloadSeries.getData().add(new XYChart.Data<>(timeLabel, downloadMBs));
-                uploadSeries.getData().add(new XYChart.Data<>(timeLabel, uploadMBs));
+    /**
+     * Queries a few buckets per pixel so downsampling has peaks to keep;
+     * buckets without traffic are filled with zeros. The bucket width is
+     * rounded to whole minutes, hours or days so longer ranges are read from
+     * the rollups.
+     */
+    private ChartData queryHistoryData(long start, long end, int budget) {
+        long interval = RollupTier.alignInterval(Math.max(1000, (end - start) / (budget * 4L)));
+        List<UsageRecord> records = databaseManager.getAggregatedUsage(start, end, interval);
+        final double secondsPerBucket = interval / 1000.0;
+        long firstSlot = (start / interval) * interval;
+        ChartData data = new ChartData();
+        data.count = (int) ((end - 1 - firstSlot) / interval) + 1;
+        data.timestamps = new long[data.count];
+        data.downloadRates = new double[data.count];
+        data.uploadRates = new double[data.count];
+        for (int i = 0; i < data.count; i++) {
+            data.timestamps[i] = firstSlot + i * interval;
+        }
+        for (UsageRecord record : records) {
+            int slot = (int) ((record.getTimestamp() - firstSlot) / interval);
+            if (slot >= 0 && slot < data.count) {
+                data.downloadRates[slot] = (record.getDownloadBytes() / secondsPerBucket) / BYTES_PER_MB;
+                data.uploadRates[slot] = (record.getUploadBytes() / secondsPerBucket) / BYTES_PER_MB;
             }
-            return;
         }
+        data.downloadPoints = Downsampler.lttb(data.timestamps, data.downloadRates, data.count, budget);
+        data.uploadPoints = Downsampler.lttb(data.timestamps, data.uploadRates, data.count, budget);
+        return data;
+    }
 
-        SimpleDateFormat sdf = new SimpleDateFormat("HH:mm:ss");
-        for (UsageRecord record : records) {
-            String timeLabel = sdf.format(new Date(record.getTimestamp()));
-            downloadSeries.getData().add(new XYChart.Data<>(timeLabel, record.getDownloadBytes() / (1024.0 * 1024.0)));
-            uploadSeries.getData().add(new XYChart.Data<>(timeLabel, record.getUploadBytes() / (1024.0 * 1024.0)));
+    private void addPoints(XYChart.Series<Number, Number> series, long[] timestamps, double[] rates,
+            int[] selected) {
+        List<XYChart.Data<Number, Number>> points = new java.util.ArrayList<>(selected.length);
+        for (int index : selected) {
+            points.add(new XYChart.Data<>(timestamps[index], rates[index]));
         }
+        series.getData().setAll(points);
+    }
+
+    /**
+     * Shows the estimated traffic per process over the current range, from
+     * the buckets stored by the collector.
+     */
+    @FXML
+    public void handleProcesses(ActionEvent event) {
+        long[] range = currentRange();
+        showUsageTable("Traffic by Process", "Estimated from process I/O; busiest first", "Process",
+                "No process data for this range (Linux collectors only)",
+                () -> databaseManager.getUsageByProcess(range[0], range[1]));
+    }
+
+    /**
+     * Shows the totals per interface over the current range; in a fleet
+     * database, per pushing host.
+     */
+    @FXML
+    public void handleBreakdown(ActionEvent event) {
+        long[] range = currentRange();
+        boolean hosts = breakdownButton.getText().equals("Hosts");
+        showUsageTable(hosts ? "Traffic by Host" : "Traffic by Interface", "Busiest first",
+                hosts ? "Host" : "Interface", "No data for this range",
+                () -> databaseManager.getUsageByInterface(range[0], range[1]));
+    }
+
+    private long[] currentRange() {
+        if (isLive) {
+            long end = System.currentTimeMillis();
+            return new long[] { end - currentWindowMillis, end };
+        }
+        return new long[] { lastSelectionStart, lastSelectionEnd };
+    }
+
+    private void showUsageTable(String title, String header, String nameHeader, String placeholder,
+            java.util.function.Supplier<java.util.Map<String, UsageRecord>> query) {
+        javafx.scene.control.TableView<java.util.Map.Entry<String, UsageRecord>> table =
+                new javafx.scene.control.TableView<>();
+        table.setPlaceholder(new javafx.scene.control.Label(placeholder));
+        table.setColumnResizePolicy(javafx.scene.control.TableView.CONSTRAINED_RESIZE_POLICY);
+        table.setPrefSize(520, 360);
+
+        javafx.scene.control.TableColumn<java.util.Map.Entry<String, UsageRecord>, String> nameColumn =
+                new javafx.scene.control.TableColumn<>(nameHeader);
+        nameColumn.setCellValueFactory(row -> new javafx.beans.property.ReadOnlyStringWrapper(
+                row.getValue().getKey()));
+        javafx.scene.control.TableColumn<java.util.Map.Entry<String, UsageRecord>, String> downloadColumn =
+                new javafx.scene.control.TableColumn<>("Download");
+        downloadColumn.setCellValueFactory(row -> new javafx.beans.property.ReadOnlyStringWrapper(
+                formatSize(row.getValue().getValue().getDownloadBytes())));
+        javafx.scene.control.TableColumn<java.util.Map.Entry<String, UsageRecord>, String> uploadColumn =
+                new javafx.scene.control.TableColumn<>("Upload");
+        uploadColumn.setCellValueFactory(row -> new javafx.beans.property.ReadOnlyStringWrapper(
+                formatSize(row.getValue().getValue().getUploadBytes())));
+        table.getColumns().add(nameColumn);
+        table.getColumns().add(downloadColumn);
+        table.getColumns().add(uploadColumn);
+
+        javafx.scene.control.Dialog<javafx.scene.control.ButtonType> dialog = new javafx.scene.control.Dialog<>();
+        dialog.setTitle(title);
+        dialog.setHeaderText(header);
+        dialog.getDialogPane().getButtonTypes().add(javafx.scene.control.ButtonType.CLOSE);
+        dialog.getDialogPane().setContent(table);
+
+        queryService.submit(cancelled -> query.get())
+                .whenCompleteAsync((usage, error) -> {
+                    if (usage != null) {
+                        table.getItems().setAll(usage.entrySet());
+                    }
+                }, Platform::runLater);
+        dialog.show();
     }
 
     @FXML
@@ -488,55 +978,137 @@ public class DashboardController {
             end = lastSelectionEnd;
         }
 
+        // Granularity and format first, so the file chooser can suggest an extension
+        javafx.scene.control.Dialog<javafx.scene.control.ButtonType> dialog = new javafx.scene.control.Dialog<>();
+        dialog.setTitle("Export Usage Data");
+        dialog.setHeaderText("Choose what to export");
+        dialog.getDialogPane().getButtonTypes().addAll(javafx.scene.control.ButtonType.OK,
+                javafx.scene.control.ButtonType.CANCEL);
+
+        javafx.scene.control.ChoiceBox<String> granularityBox = new javafx.scene.control.ChoiceBox<>();
+        granularityBox.getItems().addAll(EXPORT_GRANULARITIES);
+        granularityBox.setValue("Daily");
+        javafx.scene.control.ChoiceBox<UsageExporter.Format> formatBox = new javafx.scene.control.ChoiceBox<>();
+        formatBox.getItems().addAll(UsageExporter.Format.values());
+        formatBox.setValue(UsageExporter.Format.CSV);
+
+        javafx.scene.layout.GridPane grid = new javafx.scene.layout.GridPane();
+        grid.setHgap(10);
+        grid.setVgap(10);
+        grid.setPadding(new javafx.geometry.Insets(20, 150, 10, 10));
+        grid.add(new javafx.scene.control.Label("Granularity:"), 0, 0);
+        grid.add(granularityBox, 1, 0);
+        grid.add(new javafx.scene.control.Label("Format:"), 0, 1);
+        grid.add(formatBox, 1, 1);
+        dialog.getDialogPane().setContent(grid);
+
+        if (dialog.showAndWait().orElse(javafx.scene.control.ButtonType.CANCEL)
+                != javafx.scene.control.ButtonType.OK) {
+            return;
+        }
+        UsageExporter.Format format = formatBox.getValue();
+        long bucketMillis = EXPORT_BUCKET_MILLIS[granularityBox.getItems().indexOf(granularityBox.getValue())];
+
         FileChooser fileChooser = new FileChooser();
         fileChooser.setTitle("Export Usage Data");
-        fileChooser.getExtensionFilters().add(new FileChooser.ExtensionFilter("CSV Files", "*.csv"));
-        fileChooser.setInitialFileName("network_usage_export.csv");
+        fileChooser.getExtensionFilters().add(new FileChooser.ExtensionFilter(
+                format + " Files", "*." + format.getExtension()));
+        fileChooser.setInitialFileName("network_usage_export." + format.getExtension());
 
         java.io.File file = fileChooser.showSaveDialog(filterBar.getScene().getWindow());
         if (file != null) {
-            exportToCSV(file, start, end);
+            exportInBackground(file, format, start, end, bucketMillis);
         }
     }
 
-    private void exportToCSV(java.io.File file, long start, long end) {
-        List<UsageRecord> records = databaseManager.getDailyUsage(start, end);
-        SimpleDateFormat sdf = new SimpleDateFormat("yyyy-MM-dd");
-
-        try (PrintWriter writer = new PrintWriter(file)) {
-            writer.println("Date,Download_MB,Upload_MB,Total_MB");
-            for (UsageRecord record : records) {
-                double downMB = record.getDownloadBytes() / (1024.0 * 1024.0);
-                double upMB = record.getUploadBytes() / (1024.0 * 1024.0);
-                double totalMB = downMB + upMB;
-
-                writer.printf("%s,%.2f,%.2f,%.2f%n",
-                        sdf.format(new Date(record.getTimestamp())),
-                        downMB,
-                        upMB,
-                        totalMB);
+    private static final String[] EXPORT_GRANULARITIES = { "Raw samples", "1 Minute", "15 Minutes", "1 Hour",
+            "Daily" };
+    private static final long[] EXPORT_BUCKET_MILLIS = { 0, 60 * 1000L, 15 * 60 * 1000L, 60 * 60 * 1000L,
+            24 * 60 * 60 * 1000L };
+
+    /**
+     * Streams the export on a background thread with a progress dialog that
+     * can cancel it.
+     */
+    private void exportInBackground(java.io.File file, UsageExporter.Format format, long start, long end,
+            long bucketMillis) {
+        javafx.concurrent.Task<Long> task = new javafx.concurrent.Task<>() {
+            @Override
+            protected Long call() throws Exception {
+                javafx.concurrent.Task<Long> self = this;
+                return new UsageExporter(databaseManager).export(file, format, start, end, bucketMillis,
+                        new UsageExporter.Progress() {
+                            @Override
+                            public void update(long rows, double fraction) {
+                                updateProgress(fraction, 1.0);
+                                updateMessage(rows + " rows written");
+                            }
+
+                            @Override
+                            public boolean isCancelled() {
+                                return self.isCancelled();
+                            }
+                        });
+            }
+        };
+
+        javafx.scene.control.ProgressBar progressBar = new javafx.scene.control.ProgressBar();
+        progressBar.setPrefWidth(300);
+        progressBar.progressProperty().bind(task.progressProperty());
+        javafx.scene.control.Label progressLabel = new javafx.scene.control.Label();
+        progressLabel.textProperty().bind(task.messageProperty());
+
+        javafx.scene.control.Alert progressAlert = new javafx.scene.control.Alert(
+                javafx.scene.control.Alert.AlertType.NONE, "", javafx.scene.control.ButtonType.CANCEL);
+        progressAlert.setTitle("Exporting");
+        progressAlert.setHeaderText("Exporting to " + file.getName());
+        progressAlert.getDialogPane().setContent(new javafx.scene.layout.VBox(10, progressBar, progressLabel));
+        progressAlert.setOnHidden(e -> {
+            if (task.isRunning()) {
+                task.cancel();
             }
+        });
 
+        task.setOnSucceeded(e -> {
+            progressAlert.close();
             javafx.scene.control.Alert alert = new javafx.scene.control.Alert(
                     javafx.scene.control.Alert.AlertType.INFORMATION);
             alert.setTitle("Export Successful");
             alert.setHeaderText(null);
-            alert.setContentText("Daily report exported successfully to " + file.getName());
+            alert.setContentText(task.getValue() + " rows exported successfully to " + file.getName());
             alert.showAndWait();
-
-        } catch (IOException e) {
+        });
+        task.setOnFailed(e -> {
+            progressAlert.close();
             javafx.scene.control.Alert alert = new javafx.scene.control.Alert(
                     javafx.scene.control.Alert.AlertType.ERROR);
             alert.setTitle("Export Error");
             alert.setHeaderText("Failed to export report");
-            alert.setContentText(e.getMessage());
+            alert.setContentText(task.getException().getMessage());
             alert.showAndWait();
-        }
+        });
+        task.setOnCancelled(e -> progressAlert.close());
+
+        Thread thread = new Thread(task, "usage-export");
+        thread.setDaemon(true);
+        thread.start();
+        progressAlert.show();
     }
 
     public void shutdown() {
-        if (executorService != null) {
-            executorService.shutdownNow();
+        queryService.shutdown();
+        if (metricsServer != null) {
+            metricsServer.stop();
+        }
+        if (processAttributor != null) {
+            processAttributor.stop();
+        }
+        if (sampleFeed != null) {
+            // Stores the partial high-frequency period and the quota checkpoint
+            sampleFeed.stop();
+        }
+        if (usagePusher != null) {
+            usagePusher.stop();
         }
     }
 }
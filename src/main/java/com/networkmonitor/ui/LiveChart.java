@@ -0,0 +1,543 @@
+package com.networkmonitor.ui;
+
+import javafx.application.Platform;
+import javafx.geometry.VPos;
+import javafx.scene.canvas.Canvas;
+import javafx.scene.canvas.GraphicsContext;
+import javafx.scene.input.MouseEvent;
+import javafx.scene.layout.Region;
+import javafx.scene.paint.Color;
+import javafx.scene.paint.CycleMethod;
+import javafx.scene.paint.LinearGradient;
+import javafx.scene.paint.Stop;
+import javafx.scene.text.Font;
+import javafx.scene.text.TextAlignment;
+
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+
+/**
+ * Canvas-backed download/upload rate chart for the live window.
+ * Samples are kept in primitive ring arrays and reduced to one peak value per
+ * pixel column. When the window scrolls, existing columns are shifted and only
+ * the newly exposed ones are computed, so no scene-graph nodes are created or
+ * laid out per sample.
+ */
+public class LiveChart extends Region {
+
+    private static final double LEFT_MARGIN = 56;
+    private static final double RIGHT_MARGIN = 12;
+    private static final double TOP_MARGIN = 28;
+    private static final double BOTTOM_MARGIN = 24;
+    private static final int Y_TICKS = 4;
+    private static final int X_TICKS = 6;
+    private static final double BYTES_PER_MB = 1024.0 * 1024.0;
+
+    private static final Color DOWNLOAD_COLOR = Color.web("#10b981");
+    private static final Color UPLOAD_COLOR = Color.web("#3b82f6");
+    private static final Color GRID_COLOR = Color.rgb(255, 255, 255, 0.05);
+    private static final Color LABEL_COLOR = Color.web("#4b5563");
+    private static final Color CROSSHAIR_COLOR = Color.rgb(255, 255, 255, 0.3);
+    private static final Color TOOLTIP_BACKGROUND = Color.web("#111827", 0.92);
+    private static final Color TOOLTIP_TEXT = Color.web("#f8fafc");
+    private static final Font LABEL_FONT = Font.font(10);
+    private static final Font LEGEND_FONT = Font.font(11);
+
+    private static final DateTimeFormatter TIME_SECONDS_FORMAT = DateTimeFormatter.ofPattern("HH:mm:ss")
+            .withZone(ZoneId.systemDefault());
+    private static final DateTimeFormatter TIME_FORMAT = DateTimeFormatter.ofPattern("HH:mm")
+            .withZone(ZoneId.systemDefault());
+
+    private final Canvas canvas = new Canvas();
+    private final LinearGradient downloadFill = areaFill(DOWNLOAD_COLOR);
+    private final LinearGradient uploadFill = areaFill(UPLOAD_COLOR);
+
+    // Samples in bytes/s, oldest first starting at head
+    private long[] timestamps = new long[1024];
+    private double[] downloads = new double[1024];
+    private double[] uploads = new double[1024];
+    private int head = 0;
+    private int size = 0;
+
+    private long windowMillis = 60 * 60 * 1000;
+    private long endMillis = System.currentTimeMillis();
+    private long gapMillis = Long.MAX_VALUE;
+
+    // Peak per pixel column; column i covers [(firstColumn + i) * msPerColumn, +msPerColumn)
+    private double[] columnDownloads = new double[0];
+    private double[] columnUploads = new double[0];
+    private boolean[] columnHasData = new boolean[0];
+    private long firstColumn;
+    private long msPerColumn = 1;
+    private boolean columnsValid = false;
+
+    private double crosshairX = -1;
+    private boolean redrawPending = false;
+
+    public LiveChart() {
+        getChildren().add(canvas);
+        canvas.addEventHandler(MouseEvent.MOUSE_MOVED, e -> {
+            crosshairX = e.getX();
+            requestRedraw();
+        });
+        canvas.addEventHandler(MouseEvent.MOUSE_EXITED, e -> {
+            crosshairX = -1;
+            requestRedraw();
+        });
+    }
+
+    /**
+     * Sets the visible time span; the right edge follows {@link #scrollTo(long)}.
+     */
+    public void setWindow(long windowMillis) {
+        this.windowMillis = Math.max(1, windowMillis);
+        columnsValid = false;
+        requestRedraw();
+    }
+
+    /**
+     * Gaps between samples longer than this are drawn as zero traffic rather
+     * than interpolated (e.g. while the collector was stopped).
+     */
+    public void setGapMillis(long gapMillis) {
+        this.gapMillis = gapMillis;
+        requestRedraw();
+    }
+
+    /**
+     * Replaces the samples with a loaded history. Rates are in bytes/s;
+     * timestamps ascending. Samples already added that are newer than the
+     * history (e.g. arrived while it was loading) are kept after it.
+     */
+    public void setSamples(long[] sampleTimestamps, double[] downloadRates, double[] uploadRates, int count) {
+        long lastLoaded = count > 0 ? sampleTimestamps[count - 1] : Long.MIN_VALUE;
+        int newer = size - lowerBound(lastLoaded + 1);
+        long[] newerTimestamps = new long[newer];
+        double[] newerDownloads = new double[newer];
+        double[] newerUploads = new double[newer];
+        for (int i = 0; i < newer; i++) {
+            int index = physical(size - newer + i);
+            newerTimestamps[i] = timestamps[index];
+            newerDownloads[i] = downloads[index];
+            newerUploads[i] = uploads[index];
+        }
+
+        head = 0;
+        size = 0;
+        ensureCapacity(count + newer);
+        System.arraycopy(sampleTimestamps, 0, timestamps, 0, count);
+        System.arraycopy(downloadRates, 0, downloads, 0, count);
+        System.arraycopy(uploadRates, 0, uploads, 0, count);
+        System.arraycopy(newerTimestamps, 0, timestamps, count, newer);
+        System.arraycopy(newerDownloads, 0, downloads, count, newer);
+        System.arraycopy(newerUploads, 0, uploads, count, newer);
+        size = count + newer;
+        columnsValid = false;
+        requestRedraw();
+    }
+
+    public void clear() {
+        head = 0;
+        size = 0;
+        columnsValid = false;
+        requestRedraw();
+    }
+
+    /**
+     * Appends one sample (rates in bytes/s). Samples older than the window are
+     * dropped from the ring.
+     */
+    public void addSample(long timestamp, double downloadRate, double uploadRate) {
+        if (size > 0 && timestamp <= timestamps[physical(size - 1)]) {
+            return;
+        }
+        long cutoff = Math.max(endMillis, timestamp) - windowMillis;
+        while (size > 0 && timestamps[head] < cutoff) {
+            head = (head + 1) % timestamps.length;
+            size--;
+        }
+        ensureCapacity(size + 1);
+        int index = physical(size);
+        timestamps[index] = timestamp;
+        downloads[index] = downloadRate;
+        uploads[index] = uploadRate;
+        size++;
+
+        if (columnsValid) {
+            int column = (int) (Math.floorDiv(timestamp, msPerColumn) - firstColumn);
+            if (column >= 0 && column < columnHasData.length) {
+                accumulate(column, downloadRate, uploadRate);
+            }
+        }
+        requestRedraw();
+    }
+
+    /**
+     * Moves the right edge of the window, shifting the cached columns and
+     * computing only the ones that scrolled into view.
+     */
+    public void scrollTo(long endMillis) {
+        if (endMillis <= this.endMillis) {
+            return;
+        }
+        this.endMillis = endMillis;
+        if (columnsValid) {
+            int columns = columnHasData.length;
+            long newFirst = Math.floorDiv(endMillis, msPerColumn) - columns + 1;
+            long shift = newFirst - firstColumn;
+            if (shift >= columns) {
+                columnsValid = false;
+            } else if (shift > 0) {
+                int kept = columns - (int) shift;
+                System.arraycopy(columnDownloads, (int) shift, columnDownloads, 0, kept);
+                System.arraycopy(columnUploads, (int) shift, columnUploads, 0, kept);
+                System.arraycopy(columnHasData, (int) shift, columnHasData, 0, kept);
+                firstColumn = newFirst;
+                fillColumns(kept, columns);
+            }
+        }
+        requestRedraw();
+    }
+
+    @Override
+    protected void layoutChildren() {
+        double width = snapSizeX(getWidth());
+        double height = snapSizeY(getHeight());
+        if (canvas.getWidth() != width || canvas.getHeight() != height) {
+            canvas.setWidth(width);
+            canvas.setHeight(height);
+            columnsValid = false;
+            redraw();
+        }
+    }
+
+    private void requestRedraw() {
+        // Several updates in one pulse cost a single repaint
+        if (!redrawPending) {
+            redrawPending = true;
+            Platform.runLater(this::redraw);
+        }
+    }
+
+    private void redraw() {
+        redrawPending = false;
+        double width = canvas.getWidth();
+        double height = canvas.getHeight();
+        GraphicsContext gc = canvas.getGraphicsContext2D();
+        gc.clearRect(0, 0, width, height);
+
+        double plotWidth = width - LEFT_MARGIN - RIGHT_MARGIN;
+        double plotHeight = height - TOP_MARGIN - BOTTOM_MARGIN;
+        if (plotWidth < 2 || plotHeight < 2) {
+            return;
+        }
+        if (!columnsValid || columnHasData.length != (int) plotWidth) {
+            rebuildColumns((int) plotWidth);
+        }
+
+        double maxRate = 0;
+        for (int i = 0; i < columnHasData.length; i++) {
+            if (columnHasData[i]) {
+                maxRate = Math.max(maxRate, Math.max(columnDownloads[i], columnUploads[i]));
+            }
+        }
+        double yMax = niceCeiling(maxRate / BYTES_PER_MB);
+
+        drawGrid(gc, plotWidth, plotHeight, yMax);
+        drawSeries(gc, columnDownloads, DOWNLOAD_COLOR, downloadFill, plotHeight, yMax);
+        drawSeries(gc, columnUploads, UPLOAD_COLOR, uploadFill, plotHeight, yMax);
+        drawLegend(gc);
+        if (crosshairX >= LEFT_MARGIN && crosshairX <= LEFT_MARGIN + plotWidth) {
+            drawCrosshair(gc, plotWidth, plotHeight, yMax);
+        }
+    }
+
+    private void rebuildColumns(int columns) {
+        columnDownloads = new double[columns];
+        columnUploads = new double[columns];
+        columnHasData = new boolean[columns];
+        msPerColumn = Math.max(1, (windowMillis + columns - 1) / columns);
+        firstColumn = Math.floorDiv(endMillis, msPerColumn) - columns + 1;
+        fillColumns(0, columns);
+        columnsValid = true;
+    }
+
+    /**
+     * Recomputes columns [from, to) from the ring.
+     */
+    private void fillColumns(int from, int to) {
+        for (int i = from; i < to; i++) {
+            columnDownloads[i] = 0;
+            columnUploads[i] = 0;
+            columnHasData[i] = false;
+        }
+        long startMillis = (firstColumn + from) * msPerColumn;
+        long endExclusive = (firstColumn + to) * msPerColumn;
+        for (int i = lowerBound(startMillis); i < size; i++) {
+            int index = physical(i);
+            if (timestamps[index] >= endExclusive) {
+                break;
+            }
+            int column = (int) (Math.floorDiv(timestamps[index], msPerColumn) - firstColumn);
+            accumulate(column, downloads[index], uploads[index]);
+        }
+    }
+
+    private void accumulate(int column, double downloadRate, double uploadRate) {
+        if (columnHasData[column]) {
+            columnDownloads[column] = Math.max(columnDownloads[column], downloadRate);
+            columnUploads[column] = Math.max(columnUploads[column], uploadRate);
+        } else {
+            columnDownloads[column] = downloadRate;
+            columnUploads[column] = uploadRate;
+            columnHasData[column] = true;
+        }
+    }
+
+    private void drawGrid(GraphicsContext gc, double plotWidth, double plotHeight, double yMax) {
+        gc.setStroke(GRID_COLOR);
+        gc.setLineWidth(1);
+        gc.setFill(LABEL_COLOR);
+        gc.setFont(LABEL_FONT);
+
+        gc.setTextAlign(TextAlignment.RIGHT);
+        gc.setTextBaseline(VPos.CENTER);
+        for (int i = 0; i <= Y_TICKS; i++) {
+            double y = snap(TOP_MARGIN + plotHeight - plotHeight * i / Y_TICKS);
+            gc.strokeLine(LEFT_MARGIN, y, LEFT_MARGIN + plotWidth, y);
+            gc.fillText(formatAxisValue(yMax * i / Y_TICKS), LEFT_MARGIN - 8, y);
+        }
+
+        DateTimeFormatter format = windowMillis <= 10 * 60 * 1000 ? TIME_SECONDS_FORMAT : TIME_FORMAT;
+        gc.setTextAlign(TextAlignment.CENTER);
+        gc.setTextBaseline(VPos.TOP);
+        long start = endMillis - windowMillis;
+        for (int i = 0; i <= X_TICKS; i++) {
+            double x = snap(LEFT_MARGIN + plotWidth * i / X_TICKS);
+            gc.strokeLine(x, TOP_MARGIN, x, TOP_MARGIN + plotHeight);
+            long millis = start + windowMillis * i / X_TICKS;
+            gc.fillText(format.format(Instant.ofEpochMilli(millis)), x, TOP_MARGIN + plotHeight + 6);
+        }
+
+        gc.save();
+        gc.translate(12, TOP_MARGIN + plotHeight / 2);
+        gc.rotate(-90);
+        gc.setTextBaseline(VPos.CENTER);
+        gc.fillText("Rate (MB/s)", 0, 0);
+        gc.restore();
+    }
+
+    private void drawSeries(GraphicsContext gc, double[] values, Color stroke, LinearGradient fill,
+            double plotHeight, double yMax) {
+        double baseline = TOP_MARGIN + plotHeight;
+        double scale = plotHeight / (yMax * BYTES_PER_MB);
+        long gapColumns = gapMillis == Long.MAX_VALUE ? Long.MAX_VALUE : Math.max(1, gapMillis / msPerColumn);
+
+        // Runs of columns closer together than the gap are drawn as one area
+        int i = 0;
+        int columns = columnHasData.length;
+        while (i < columns) {
+            if (!columnHasData[i]) {
+                i++;
+                continue;
+            }
+            int runStart = i;
+            int runEnd = i;
+            for (int j = i + 1; j < columns; j++) {
+                if (columnHasData[j]) {
+                    if (j - runEnd > gapColumns) {
+                        break;
+                    }
+                    runEnd = j;
+                }
+            }
+
+            gc.beginPath();
+            gc.moveTo(LEFT_MARGIN + runStart, baseline);
+            for (int j = runStart; j <= runEnd; j++) {
+                if (columnHasData[j]) {
+                    gc.lineTo(LEFT_MARGIN + j, baseline - values[j] * scale);
+                }
+            }
+            gc.lineTo(LEFT_MARGIN + runEnd, baseline);
+            gc.closePath();
+            gc.setFill(fill);
+            gc.fill();
+
+            gc.beginPath();
+            boolean first = true;
+            for (int j = runStart; j <= runEnd; j++) {
+                if (columnHasData[j]) {
+                    double x = LEFT_MARGIN + j;
+                    double y = baseline - values[j] * scale;
+                    if (first) {
+                        gc.moveTo(x, y);
+                        first = false;
+                    } else {
+                        gc.lineTo(x, y);
+                    }
+                }
+            }
+            gc.setStroke(stroke);
+            gc.setLineWidth(2);
+            gc.stroke();
+
+            i = runEnd + 1;
+        }
+    }
+
+    private void drawLegend(GraphicsContext gc) {
+        gc.setFont(LEGEND_FONT);
+        gc.setTextAlign(TextAlignment.LEFT);
+        gc.setTextBaseline(VPos.CENTER);
+        double x = LEFT_MARGIN;
+        double y = TOP_MARGIN / 2;
+        gc.setFill(DOWNLOAD_COLOR);
+        gc.fillRoundRect(x, y - 5, 10, 10, 3, 3);
+        gc.fillText("Download", x + 16, y);
+        x += 90;
+        gc.setFill(UPLOAD_COLOR);
+        gc.fillRoundRect(x, y - 5, 10, 10, 3, 3);
+        gc.fillText("Upload", x + 16, y);
+    }
+
+    private void drawCrosshair(GraphicsContext gc, double plotWidth, double plotHeight, double yMax) {
+        if (size == 0) {
+            return;
+        }
+        long millis = endMillis - windowMillis + (long) ((crosshairX - LEFT_MARGIN) / plotWidth * windowMillis);
+        int nearest = nearestSample(millis);
+        int index = physical(nearest);
+        long timestamp = timestamps[index];
+        if (timestamp < endMillis - windowMillis) {
+            return;
+        }
+
+        double x = snap(LEFT_MARGIN + (double) (timestamp - (endMillis - windowMillis)) / windowMillis * plotWidth);
+        double baseline = TOP_MARGIN + plotHeight;
+        double scale = plotHeight / (yMax * BYTES_PER_MB);
+        gc.setStroke(CROSSHAIR_COLOR);
+        gc.setLineWidth(1);
+        gc.strokeLine(x, TOP_MARGIN, x, baseline);
+        gc.setFill(DOWNLOAD_COLOR);
+        gc.fillOval(x - 3, baseline - downloads[index] * scale - 3, 6, 6);
+        gc.setFill(UPLOAD_COLOR);
+        gc.fillOval(x - 3, baseline - uploads[index] * scale - 3, 6, 6);
+
+        String[] lines = {
+                TIME_SECONDS_FORMAT.format(Instant.ofEpochMilli(timestamp)),
+                "Down " + formatRate(downloads[index]),
+                "Up " + formatRate(uploads[index]) };
+        double boxWidth = 120;
+        double boxHeight = 14 * lines.length + 10;
+        double boxX = x + 10 + boxWidth > LEFT_MARGIN + plotWidth ? x - 10 - boxWidth : x + 10;
+        double boxY = TOP_MARGIN + 4;
+        gc.setFill(TOOLTIP_BACKGROUND);
+        gc.fillRoundRect(boxX, boxY, boxWidth, boxHeight, 8, 8);
+        gc.setFont(LABEL_FONT);
+        gc.setTextAlign(TextAlignment.LEFT);
+        gc.setTextBaseline(VPos.TOP);
+        Color[] colors = { TOOLTIP_TEXT, DOWNLOAD_COLOR, UPLOAD_COLOR };
+        for (int i = 0; i < lines.length; i++) {
+            gc.setFill(colors[i]);
+            gc.fillText(lines[i], boxX + 8, boxY + 5 + 14 * i);
+        }
+    }
+
+    private int nearestSample(long millis) {
+        int upper = lowerBound(millis);
+        if (upper >= size) {
+            return size - 1;
+        }
+        if (upper == 0) {
+            return 0;
+        }
+        long before = millis - timestamps[physical(upper - 1)];
+        long after = timestamps[physical(upper)] - millis;
+        return before <= after ? upper - 1 : upper;
+    }
+
+    private void ensureCapacity(int required) {
+        if (required <= timestamps.length) {
+            return;
+        }
+        int capacity = Math.max(required, timestamps.length * 2);
+        long[] newTimestamps = new long[capacity];
+        double[] newDownloads = new double[capacity];
+        double[] newUploads = new double[capacity];
+        for (int i = 0; i < size; i++) {
+            int index = physical(i);
+            newTimestamps[i] = timestamps[index];
+            newDownloads[i] = downloads[index];
+            newUploads[i] = uploads[index];
+        }
+        timestamps = newTimestamps;
+        downloads = newDownloads;
+        uploads = newUploads;
+        head = 0;
+    }
+
+    private int physical(int logicalIndex) {
+        return (head + logicalIndex) % timestamps.length;
+    }
+
+    /**
+     * Logical index of the first sample with timestamp >= millis.
+     */
+    private int lowerBound(long millis) {
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (timestamps[physical(mid)] < millis) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Rounds up to 1, 2 or 5 times a power of ten so grid labels stay readable.
+     */
+    private static double niceCeiling(double value) {
+        if (value <= 0) {
+            return 0.1;
+        }
+        double magnitude = Math.pow(10, Math.floor(Math.log10(value)));
+        double fraction = value / magnitude;
+        double nice = fraction <= 1 ? 1 : fraction <= 2 ? 2 : fraction <= 5 ? 5 : 10;
+        return nice * magnitude;
+    }
+
+    private static String formatAxisValue(double megabytesPerSecond) {
+        if (megabytesPerSecond == 0) {
+            return "0";
+        }
+        if (megabytesPerSecond < 1) {
+            return String.format("%.2f", megabytesPerSecond);
+        }
+        return String.format("%.1f", megabytesPerSecond);
+    }
+
+    private static String formatRate(double bytesPerSecond) {
+        if (bytesPerSecond < 1024)
+            return String.format("%.0f B/s", bytesPerSecond);
+        if (bytesPerSecond < 1024 * 1024)
+            return String.format("%.1f KB/s", bytesPerSecond / 1024.0);
+        return String.format("%.1f MB/s", bytesPerSecond / BYTES_PER_MB);
+    }
+
+    private static double snap(double coordinate) {
+        // Centers 1px lines on a pixel so they stay crisp
+        return Math.floor(coordinate) + 0.5;
+    }
+
+    private static LinearGradient areaFill(Color color) {
+        return new LinearGradient(0, 0, 0, 1, true, CycleMethod.NO_CYCLE,
+                new Stop(0, Color.color(color.getRed(), color.getGreen(), color.getBlue(), 0.2)),
+                new Stop(1, Color.color(color.getRed(), color.getGreen(), color.getBlue(), 0)));
+    }
+}
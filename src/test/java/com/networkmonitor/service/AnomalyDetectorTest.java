@@ -0,0 +1,48 @@
+package com.networkmonitor.service;
+
+import com.networkmonitor.model.UsageRecord;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Coverage of stored hours, estimated from their rate sketches when seeding.
+ */
+class AnomalyDetectorTest {
+
+    private static final long HOUR_MS = 3_600_000;
+
+    /** An hour with samples every intervalMillis for coveredMillis of it. */
+    private static double covered(long coveredMillis, long intervalMillis, long bytesPerSample) {
+        RateStats rates = new RateStats(0);
+        long samples = coveredMillis / intervalMillis;
+        for (long i = 0; i < samples; i++) {
+            rates.addSample(bytesPerSample, bytesPerSample / 2, intervalMillis);
+        }
+        UsageRecord hour = new UsageRecord(0, samples * bytesPerSample, samples * (bytesPerSample / 2));
+        return AnomalyDetector.coveredMillis(hour, rates, 2000);
+    }
+
+    @Test
+    void partlySampledHourCoversOnlyTheSampledTime() {
+        assertEquals(10 * 60_000, covered(10 * 60_000, 2000, 50_000), 1);
+        assertEquals(10 * 60_000, covered(10 * 60_000, 500, 50_000), 1);
+    }
+
+    @Test
+    void fullySampledHourCoversTheHour() {
+        assertEquals(HOUR_MS, covered(HOUR_MS, 2000, 50_000), 1);
+    }
+
+    @Test
+    void idleHourIsEstimatedFromTheSampleCount() {
+        assertEquals(20 * 60_000, covered(20 * 60_000, 2000, 0), 1);
+        assertEquals(HOUR_MS, covered(HOUR_MS, 2000, 0), 1);
+    }
+
+    @Test
+    void hourWithoutRatedSamplesIsNotCovered() {
+        assertEquals(0, AnomalyDetector.coveredMillis(new UsageRecord(0, 1000, 1000), null, 2000));
+        assertEquals(0, AnomalyDetector.coveredMillis(new UsageRecord(0, 1000, 1000), new RateStats(0), 2000));
+    }
+}
@@ -0,0 +1,148 @@
+package com.networkmonitor.service;
+
+import com.networkmonitor.model.InterfaceUsageRecord;
+import com.networkmonitor.model.UsageRecord;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Parses captured /proc/net/dev files from src/test/resources/proc. Each test
+ * rewrites one file in place, as the kernel does, so the collector keeps
+ * reading through its open handle.
+ */
+class ProcNetDevCollectorTest {
+
+    @TempDir
+    Path dir;
+
+    private Path file;
+    private ProcNetDevCollector collector;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        file = dir.resolve("dev");
+        load("net-dev-base.txt");
+        collector = new ProcNetDevCollector(file);
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        collector.close();
+    }
+
+    private void load(String fixture) throws IOException {
+        try (InputStream in = getClass().getResourceAsStream("/proc/" + fixture)) {
+            Files.write(file, in.readAllBytes());
+        }
+    }
+
+    private Map<String, long[]> sample() throws IOException {
+        InterfaceCounters counters = new InterfaceCounters();
+        collector.sample(counters);
+        Map<String, long[]> byName = new HashMap<>();
+        for (int i = 0; i < counters.size(); i++) {
+            byName.put(counters.getName(i), new long[] { counters.getBytesRecv(i), counters.getBytesSent(i) });
+        }
+        return byName;
+    }
+
+    private static Map<String, long[]> deltas(NetworkTracker tracker) {
+        tracker.getNetworkUsageDelta();
+        Map<String, long[]> byName = new HashMap<>();
+        for (InterfaceUsageRecord record : tracker.getLastInterfaceDeltas()) {
+            byName.put(record.getInterfaceName(),
+                    new long[] { record.getDownloadBytes(), record.getUploadBytes() });
+        }
+        return byName;
+    }
+
+    @Test
+    void readsReceiveAndTransmitBytesSkippingLoopback() throws IOException {
+        Map<String, long[]> counters = sample();
+
+        assertEquals(2, counters.size());
+        assertEquals(1000, counters.get("eth0")[0]);
+        assertEquals(2000, counters.get("eth0")[1]);
+        assertEquals(500, counters.get("wlan0")[0]);
+        assertEquals(600, counters.get("wlan0")[1]);
+    }
+
+    @Test
+    void rereadsTheFileOnEverySample() throws IOException {
+        sample();
+        load("net-dev-next.txt");
+
+        assertEquals(1500, sample().get("eth0")[0]);
+    }
+
+    @Test
+    void trackerReportsDeltasBetweenSamples() throws IOException {
+        NetworkTracker tracker = new NetworkTracker(collector);
+        load("net-dev-next.txt");
+
+        UsageRecord total = tracker.getNetworkUsageDelta();
+
+        assertEquals(500 + 300, total.getDownloadBytes());
+        assertEquals(600 + 100, total.getUploadBytes());
+    }
+
+    @Test
+    void counterThatWentBackwardsCountsNothingThenResumesFromThere() throws IOException {
+        NetworkTracker tracker = new NetworkTracker(collector);
+        load("net-dev-wrapped.txt");
+
+        Map<String, long[]> wrapped = deltas(tracker);
+        assertFalse(wrapped.containsKey("eth0"));
+        assertEquals(400, wrapped.get("wlan0")[0]);
+
+        load("net-dev-next.txt");
+        assertEquals(1400, deltas(tracker).get("eth0")[0]);
+    }
+
+    @Test
+    void missingInterfaceGetsAFreshBaselineWhenItReturns() throws IOException {
+        NetworkTracker tracker = new NetworkTracker(collector);
+        load("net-dev-missing.txt");
+
+        Map<String, long[]> missing = deltas(tracker);
+        assertEquals(700, missing.get("eth0")[0]);
+        assertFalse(missing.containsKey("wlan0"));
+
+        // Back with higher counters: not counted as traffic since it left
+        load("net-dev-next.txt");
+        assertFalse(deltas(tracker).containsKey("wlan0"));
+    }
+
+    @Test
+    void malformedLinesAreSkipped() throws IOException {
+        load("net-dev-malformed.txt");
+
+        Map<String, long[]> counters = sample();
+
+        assertEquals(2, counters.size());
+        assertEquals(1900, counters.get("eth0")[0]);
+        assertEquals(1000, counters.get("wlan0")[0]);
+        assertEquals(800, counters.get("wlan0")[1]);
+    }
+
+    @Test
+    void closeReleasesTheFile() throws IOException {
+        NetworkTracker tracker = new NetworkTracker(collector);
+        tracker.close();
+
+        assertThrows(IOException.class, this::sample);
+    }
+}
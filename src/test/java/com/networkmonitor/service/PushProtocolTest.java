@@ -0,0 +1,162 @@
+package com.networkmonitor.service;
+
+import com.networkmonitor.model.UsageRecord;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class PushProtocolTest {
+
+    private static ByteBuffer payload(byte[] frame, byte expectedType) throws ProtocolException {
+        ByteBuffer payload = PushProtocol.nextFrame(ByteBuffer.wrap(frame));
+        assertEquals(expectedType, payload.get());
+        return payload;
+    }
+
+    private static List<long[]> decode(ByteBuffer payload) throws ProtocolException {
+        List<long[]> records = new ArrayList<>();
+        PushProtocol.readBatch(payload, (timestamp, download, upload) ->
+                records.add(new long[] { timestamp, download, upload }));
+        return records;
+    }
+
+    /** A frame around a hand-built payload. */
+    private static byte[] frame(int... payload) {
+        byte[] bytes = new byte[payload.length + 1];
+        bytes[0] = (byte) payload.length;
+        for (int i = 0; i < payload.length; i++) {
+            bytes[i + 1] = (byte) payload[i];
+        }
+        return bytes;
+    }
+
+    @Test
+    void helloRoundTrip() throws ProtocolException {
+        ByteBuffer payload = payload(PushProtocol.hello("host-ü-01"), PushProtocol.HELLO);
+
+        assertEquals("host-ü-01", PushProtocol.readHello(payload));
+    }
+
+    @Test
+    void batchRoundTripKeepsOrderAndValues() throws ProtocolException {
+        List<UsageRecord> records = Arrays.asList(
+                new UsageRecord(1_700_000_000_000L, 0, 0),
+                new UsageRecord(1_700_000_002_000L, 123_456, 7),
+                // Timestamps may step back; deltas are zigzag encoded
+                new UsageRecord(1_699_999_999_000L, Long.MAX_VALUE, 1L << 40));
+
+        List<long[]> decoded = decode(payload(PushProtocol.batch(records), PushProtocol.BATCH));
+
+        assertEquals(records.size(), decoded.size());
+        for (int i = 0; i < records.size(); i++) {
+            assertArrayEquals(new long[] { records.get(i).getTimestamp(), records.get(i).getDownloadBytes(),
+                    records.get(i).getUploadBytes() }, decoded.get(i));
+        }
+    }
+
+    @Test
+    void emptyBatchRoundTrip() throws ProtocolException {
+        ByteBuffer payload = payload(PushProtocol.batch(new ArrayList<>()), PushProtocol.BATCH);
+
+        assertEquals(0, PushProtocol.readBatch(payload, (timestamp, download, upload) -> {
+        }));
+    }
+
+    @Test
+    void ackRoundTripThroughAStream() throws Exception {
+        ByteBuffer payload = PushProtocol.readFrame(new ByteArrayInputStream(PushProtocol.ack(1_700_000_000_123L)));
+
+        assertEquals(PushProtocol.ACK, payload.get());
+        assertEquals(1_700_000_000_123L, PushProtocol.readAck(payload));
+    }
+
+    @Test
+    void partialFrameIsLeftInTheBuffer() throws ProtocolException {
+        byte[] frame = PushProtocol.hello("host");
+        ByteBuffer in = ByteBuffer.wrap(frame, 0, frame.length - 1);
+
+        assertNull(PushProtocol.nextFrame(in));
+        assertEquals(0, in.position());
+    }
+
+    @Test
+    void consecutiveFramesAreSplit() throws ProtocolException {
+        byte[] first = PushProtocol.ack(1);
+        byte[] second = PushProtocol.ack(2);
+        ByteBuffer in = ByteBuffer.allocate(first.length + second.length).put(first).put(second).flip();
+
+        ByteBuffer a = PushProtocol.nextFrame(in);
+        ByteBuffer b = PushProtocol.nextFrame(in);
+        a.get();
+        b.get();
+
+        assertEquals(1, PushProtocol.readAck(a));
+        assertEquals(2, PushProtocol.readAck(b));
+        assertNull(PushProtocol.nextFrame(in));
+    }
+
+    @Test
+    void rejectsBadFrameLengths() {
+        assertThrows(ProtocolException.class, () -> PushProtocol.nextFrame(ByteBuffer.wrap(new byte[] { 0 })));
+        // 2 MB, over the limit
+        byte[] huge = { (byte) 0x80, (byte) 0x80, (byte) 0x80, 0x01 };
+        assertThrows(ProtocolException.class, () -> PushProtocol.nextFrame(ByteBuffer.wrap(huge)));
+        assertThrows(ProtocolException.class, () -> PushProtocol.readFrame(new ByteArrayInputStream(huge)));
+    }
+
+    @Test
+    void rejectsTruncatedStreams() {
+        byte[] frame = PushProtocol.ack(42);
+
+        assertThrows(EOFException.class,
+                () -> PushProtocol.readFrame(new ByteArrayInputStream(Arrays.copyOf(frame, frame.length - 1))));
+        assertThrows(EOFException.class, () -> PushProtocol.readFrame(new ByteArrayInputStream(new byte[0])));
+    }
+
+    @Test
+    void rejectsMalformedHellos() {
+        // Wrong version
+        assertThrows(ProtocolException.class,
+                () -> PushProtocol.readHello(payload(frame(PushProtocol.HELLO, 9, 1, 'a'), PushProtocol.HELLO)));
+        // Name longer than the payload
+        assertThrows(ProtocolException.class,
+                () -> PushProtocol.readHello(payload(frame(PushProtocol.HELLO, 1, 5, 'a'), PushProtocol.HELLO)));
+        // Empty name
+        assertThrows(ProtocolException.class,
+                () -> PushProtocol.readHello(payload(frame(PushProtocol.HELLO, 1, 0), PushProtocol.HELLO)));
+    }
+
+    @Test
+    void rejectsMalformedBatches() {
+        // More records than the payload can hold
+        assertThrows(ProtocolException.class,
+                () -> decode(payload(frame(PushProtocol.BATCH, 2, 2, 1, 1), PushProtocol.BATCH)));
+        // Last record cut short after two valid ones fit the count check
+        assertThrows(ProtocolException.class,
+                () -> decode(payload(frame(PushProtocol.BATCH, 2, 2, 1, 1, 2, 0x81, 0x81), PushProtocol.BATCH)));
+        // Varint longer than 10 bytes
+        int[] longVarint = new int[14];
+        longVarint[0] = PushProtocol.BATCH;
+        longVarint[1] = 1;
+        Arrays.fill(longVarint, 2, 14, 0x80);
+        assertThrows(ProtocolException.class, () -> decode(payload(frame(longVarint), PushProtocol.BATCH)));
+    }
+
+    @Test
+    void rejectsNegativeByteCounts() {
+        byte[] negative = PushProtocol.batch(List.of(new UsageRecord(1000, -1, 0)));
+
+        assertThrows(ProtocolException.class, () -> decode(payload(negative, PushProtocol.BATCH)));
+    }
+}
@@ -0,0 +1,156 @@
+package com.networkmonitor.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RateSketchTest {
+
+    private static final double[] QUANTILES = { 0.01, 0.1, 0.25, 0.5, 0.75, 0.9, 0.95, 0.99, 1.0 };
+
+    /** The value at the same rank as the sketch uses. */
+    private static double exactQuantile(double[] sorted, double fraction) {
+        int rank = (int) Math.max(1, Math.ceil(fraction * sorted.length));
+        return sorted[rank - 1];
+    }
+
+    private static void assertWithinAccuracy(double[] values, RateSketch sketch) {
+        double[] sorted = values.clone();
+        Arrays.sort(sorted);
+        for (double fraction : QUANTILES) {
+            double expected = exactQuantile(sorted, fraction);
+            double actual = sketch.getQuantile(fraction);
+            assertEquals(expected, actual, expected * RateSketch.RELATIVE_ACCURACY + 1e-9,
+                    "quantile " + fraction);
+        }
+    }
+
+    private static RateSketch sketchOf(double... values) {
+        RateSketch sketch = new RateSketch();
+        for (double value : values) {
+            sketch.add(value);
+        }
+        return sketch;
+    }
+
+    @Test
+    void quantilesAreWithinOnePercentAcrossManyMagnitudes() {
+        Random random = new Random(42);
+        double[] values = new double[50_000];
+        for (int i = 0; i < values.length; i++) {
+            // 1 B/s to 10 GB/s, log-uniform
+            values[i] = Math.pow(10, random.nextDouble() * 10);
+        }
+
+        assertWithinAccuracy(values, sketchOf(values));
+    }
+
+    @Test
+    void minMaxMeanAndCountAreExact() {
+        RateSketch sketch = sketchOf(0, 5, 1000, 123_456.5);
+
+        assertEquals(4, sketch.getCount());
+        assertEquals(0, sketch.getMin());
+        assertEquals(123_456.5, sketch.getMax());
+        assertEquals((5 + 1000 + 123_456.5) / 4, sketch.getMean(), 1e-9);
+        // Zeros count below every bin
+        assertEquals(0, sketch.getQuantile(0.25));
+    }
+
+    @Test
+    void emptySketchReportsZero() {
+        RateSketch sketch = new RateSketch();
+
+        assertTrue(sketch.isEmpty());
+        assertEquals(0, sketch.getMin());
+        assertEquals(0, sketch.getMax());
+        assertEquals(0, sketch.getQuantile(0.5));
+    }
+
+    @Test
+    void mergeOfDisjointBinRangesMatchesOneSketch() {
+        double[] low = { 1, 2, 3, 5, 8, 13 };
+        double[] high = { 1e6, 2e6, 4e6, 8e6 };
+        double[] all = new double[low.length + high.length];
+        System.arraycopy(low, 0, all, 0, low.length);
+        System.arraycopy(high, 0, all, low.length, high.length);
+
+        // Both orders, so the bins grow downwards as well as upwards
+        RateSketch lowFirst = sketchOf(low);
+        lowFirst.merge(sketchOf(high));
+        RateSketch highFirst = sketchOf(high);
+        highFirst.merge(sketchOf(low));
+
+        for (RateSketch merged : new RateSketch[] { lowFirst, highFirst }) {
+            assertEquals(all.length, merged.getCount());
+            assertEquals(1, merged.getMin());
+            assertEquals(8e6, merged.getMax());
+            assertWithinAccuracy(all, merged);
+            assertArrayEquals(sketchOf(all).encode(), merged.encode());
+        }
+    }
+
+    @Test
+    void mergeWithEmptySketchesChangesNothing() {
+        RateSketch sketch = sketchOf(10, 20, 30);
+        byte[] before = sketch.encode();
+
+        sketch.merge(new RateSketch());
+        assertArrayEquals(before, sketch.encode());
+
+        RateSketch empty = new RateSketch();
+        empty.merge(sketch);
+        assertArrayEquals(before, empty.encode());
+    }
+
+    @Test
+    void encodeDecodeRoundTrip() {
+        Random random = new Random(7);
+        double[] values = new double[5000];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = i % 10 == 0 ? 0 : Math.exp(random.nextGaussian() * 3 + 10);
+        }
+        RateSketch sketch = sketchOf(values);
+
+        RateSketch decoded = RateSketch.decode(sketch.encode());
+
+        assertEquals(sketch.getCount(), decoded.getCount());
+        assertEquals(sketch.getMin(), decoded.getMin());
+        assertEquals(sketch.getMax(), decoded.getMax());
+        assertEquals(sketch.getMean(), decoded.getMean());
+        for (double fraction : QUANTILES) {
+            assertEquals(sketch.getQuantile(fraction), decoded.getQuantile(fraction));
+        }
+        assertArrayEquals(sketch.encode(), decoded.encode());
+    }
+
+    @Test
+    void decodedSketchesStillMerge() {
+        RateSketch merged = RateSketch.decode(sketchOf(1, 2, 3).encode());
+        merged.merge(RateSketch.decode(sketchOf(1000, 2000).encode()));
+
+        assertArrayEquals(sketchOf(1, 2, 3, 1000, 2000).encode(), merged.encode());
+    }
+
+    @Test
+    void emptyAndNullDecodeToEmpty() {
+        assertTrue(RateSketch.decode(null).isEmpty());
+        assertTrue(RateSketch.decode(new byte[0]).isEmpty());
+        assertTrue(RateSketch.decode(new RateSketch().encode()).isEmpty());
+    }
+
+    @Test
+    void rejectsCorruptEncodings() {
+        byte[] encoded = sketchOf(1, 2, 3).encode();
+
+        assertThrows(IllegalArgumentException.class, () -> RateSketch.decode(new byte[] { 9 }));
+        assertThrows(IllegalArgumentException.class,
+                () -> RateSketch.decode(Arrays.copyOf(encoded, encoded.length - 1)));
+    }
+}
@@ -0,0 +1,99 @@
+package com.networkmonitor.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RollupPlannerTest {
+
+    private static final long MINUTE = 60_000;
+    private static final long HOUR = 60 * MINUTE;
+    private static final long DAY = 24 * HOUR;
+    // 2026-01-01T00:00Z, a whole number of days
+    private static final long BASE = 20_454 * DAY;
+
+    /**
+     * Segments must cover the range exactly, in order, with every rollup
+     * segment on its tier's bucket boundaries and no tier above maxTier.
+     */
+    private static List<RollupPlanner.Segment> planChecked(long from, long to, RollupTier maxTier) {
+        List<RollupPlanner.Segment> segments = RollupPlanner.plan(from, to, maxTier);
+        long next = from;
+        for (RollupPlanner.Segment segment : segments) {
+            assertEquals(next, segment.getFromMillis(), "contiguous: " + segments);
+            assertTrue(segment.getFromMillis() < segment.getToMillis(), "non-empty: " + segments);
+            assertTrue(segment.getTier().ordinal() <= maxTier.ordinal(), "capped: " + segments);
+            if (segment.getTier().isRollup()) {
+                long resolution = segment.getTier().getResolutionMillis();
+                assertEquals(0, Math.floorMod(segment.getFromMillis(), resolution), "aligned: " + segment);
+                assertEquals(0, Math.floorMod(segment.getToMillis(), resolution), "aligned: " + segment);
+            }
+            next = segment.getToMillis();
+        }
+        if (from < to) {
+            assertEquals(to, next, "covers the range: " + segments);
+        }
+        return segments;
+    }
+
+    private static void assertTiers(List<RollupPlanner.Segment> segments, RollupTier... tiers) {
+        assertEquals(tiers.length, segments.size(), segments.toString());
+        for (int i = 0; i < tiers.length; i++) {
+            assertEquals(tiers[i], segments.get(i).getTier(), segments.toString());
+        }
+    }
+
+    @Test
+    void alignedRangeIsOneSegment() {
+        assertTiers(planChecked(BASE, BASE + 3 * DAY, RollupTier.DAY), RollupTier.DAY);
+        assertTiers(planChecked(BASE, BASE + 3 * DAY, RollupTier.HOUR), RollupTier.HOUR);
+    }
+
+    @Test
+    void unalignedEdgesStepDownThroughFinerTiers() {
+        long from = BASE + 5 * HOUR + 7 * MINUTE + 1234;
+        long to = BASE + 3 * DAY + 2 * HOUR + 3 * MINUTE + 10;
+
+        List<RollupPlanner.Segment> segments = planChecked(from, to, RollupTier.DAY);
+
+        assertTiers(segments, RollupTier.RAW, RollupTier.MINUTE, RollupTier.HOUR, RollupTier.DAY,
+                RollupTier.HOUR, RollupTier.MINUTE, RollupTier.RAW);
+        assertEquals(BASE + DAY, segments.get(3).getFromMillis());
+        assertEquals(BASE + 3 * DAY, segments.get(3).getToMillis());
+    }
+
+    @Test
+    void rangeShorterThanABucketUsesFinerTiers() {
+        long from = BASE + 10 * HOUR + 30_000;
+        long to = BASE + 10 * HOUR + 5 * MINUTE + 10_000;
+
+        assertTiers(planChecked(from, to, RollupTier.DAY), RollupTier.RAW, RollupTier.MINUTE, RollupTier.RAW);
+        assertTiers(planChecked(BASE + 1000, BASE + 59_000, RollupTier.DAY), RollupTier.RAW);
+    }
+
+    @Test
+    void emptyAndInvertedRangesHaveNoSegments() {
+        assertTiers(planChecked(BASE, BASE, RollupTier.DAY));
+        assertTiers(RollupPlanner.plan(BASE + DAY, BASE, RollupTier.DAY));
+    }
+
+    @Test
+    void rawOnlyWhenMaxTierIsRaw() {
+        assertTiers(planChecked(BASE, BASE + DAY, RollupTier.RAW), RollupTier.RAW);
+    }
+
+    @Test
+    void openEndedRangesDoNotOverflow() {
+        List<RollupPlanner.Segment> all = planChecked(Long.MIN_VALUE, Long.MAX_VALUE, RollupTier.DAY);
+        assertTiers(all, RollupTier.RAW, RollupTier.MINUTE, RollupTier.HOUR, RollupTier.DAY,
+                RollupTier.HOUR, RollupTier.MINUTE, RollupTier.RAW);
+
+        planChecked(Long.MIN_VALUE, BASE + 1000, RollupTier.DAY);
+        planChecked(BASE + 1000, Long.MAX_VALUE, RollupTier.DAY);
+        assertTiers(planChecked(Long.MAX_VALUE - 10, Long.MAX_VALUE, RollupTier.DAY), RollupTier.RAW);
+        assertTiers(planChecked(Long.MIN_VALUE, Long.MIN_VALUE + 10, RollupTier.DAY), RollupTier.RAW);
+    }
+}
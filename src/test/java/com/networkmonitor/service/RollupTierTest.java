@@ -0,0 +1,57 @@
+package com.networkmonitor.service;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RollupTierTest {
+
+    private static final long MINUTE = 60_000;
+    private static final long HOUR = 60 * MINUTE;
+    private static final long DAY = 24 * HOUR;
+
+    @Test
+    void coarsestForPicksTheLargestTierThatDivides() {
+        assertEquals(RollupTier.RAW, RollupTier.coarsestFor(10_000));
+        assertEquals(RollupTier.RAW, RollupTier.coarsestFor(90_000));
+        assertEquals(RollupTier.MINUTE, RollupTier.coarsestFor(15 * MINUTE));
+        assertEquals(RollupTier.HOUR, RollupTier.coarsestFor(6 * HOUR));
+        assertEquals(RollupTier.DAY, RollupTier.coarsestFor(7 * DAY));
+    }
+
+    @Test
+    void alignIntervalRoundsUpToTheNearestTier() {
+        assertEquals(14_999, RollupTier.alignInterval(14_999));
+        assertEquals(MINUTE, RollupTier.alignInterval(15_000));
+        assertEquals(2 * MINUTE, RollupTier.alignInterval(61_000));
+        assertEquals(14 * MINUTE, RollupTier.alignInterval(14 * MINUTE - 1));
+        assertEquals(HOUR, RollupTier.alignInterval(15 * MINUTE));
+        assertEquals(6 * HOUR, RollupTier.alignInterval(6 * HOUR - MINUTE));
+        assertEquals(DAY, RollupTier.alignInterval(6 * HOUR));
+        assertEquals(3 * DAY, RollupTier.alignInterval(2 * DAY + 1));
+    }
+
+    @Test
+    void alignIntervalStaysWithinFourTimesTheRequest() {
+        for (long interval = 1000; interval < 10 * DAY; interval = interval * 11 / 10 + 7) {
+            long aligned = RollupTier.alignInterval(interval);
+            assertTrue(aligned >= interval, interval + " -> " + aligned);
+            assertTrue(aligned <= 4 * interval, interval + " -> " + aligned);
+            if (interval >= 15_000) {
+                assertTrue(RollupTier.coarsestFor(aligned).isRollup(), interval + " -> " + aligned);
+            }
+        }
+    }
+
+    @Test
+    void alignIntervalDoesNotOverflow() {
+        long half = RollupTier.alignInterval(Long.MAX_VALUE / 2);
+        assertEquals(0, half % DAY);
+        assertTrue(half >= Long.MAX_VALUE / 2);
+
+        long max = RollupTier.alignInterval(Long.MAX_VALUE);
+        assertEquals(0, max % DAY);
+        assertTrue(max > Long.MAX_VALUE - DAY);
+    }
+}
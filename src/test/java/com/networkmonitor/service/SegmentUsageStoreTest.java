@@ -0,0 +1,122 @@
+package com.networkmonitor.service;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Deletes must behave like a transaction: rows stay on disk and visible to
+ * other threads until commit, and come back on rollback.
+ */
+class SegmentUsageStoreTest {
+
+    // Two segments of 1024 rows, one sample per second from here
+    private static final long START = 1_700_000_000_000L;
+    private static final int ROWS = 2048;
+
+    @TempDir
+    Path dir;
+
+    private final Object writeLock = new Object();
+    private SegmentUsageStore store;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        store = new SegmentUsageStore(dir, false, 1024, writeLock);
+        SampleBatch batch = new SampleBatch(ROWS);
+        for (int i = 0; i < ROWS; i++) {
+            batch.add(1, START + i * 1000L, 10, 1);
+        }
+        store.append(batch);
+        store.commit();
+    }
+
+    private long[] sumOnAnotherThread() {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return store.sum(Long.MIN_VALUE, Long.MAX_VALUE);
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }).join();
+    }
+
+    private long segmentFiles() throws IOException {
+        try (Stream<Path> files = Files.list(dir)) {
+            return files.count();
+        }
+    }
+
+    @Test
+    void stagedDeleteIsSeenOnlyByTheWriter() throws IOException {
+        synchronized (writeLock) {
+            // All of the first segment and half of the second
+            assertEquals(1536, store.delete(START, START + 1536 * 1000L));
+
+            assertArrayEquals(new long[] { 5120, 512 }, store.sum(Long.MIN_VALUE, Long.MAX_VALUE));
+            assertArrayEquals(new long[] { 20480, 2048 }, sumOnAnotherThread());
+        }
+    }
+
+    @Test
+    void rollbackKeepsEveryRow() throws IOException {
+        synchronized (writeLock) {
+            store.delete(START, START + 1536 * 1000L);
+            store.rollback();
+        }
+
+        assertArrayEquals(new long[] { 20480, 2048 }, store.sum(Long.MIN_VALUE, Long.MAX_VALUE));
+        assertEquals(2, segmentFiles());
+        store.close();
+        SegmentUsageStore reopened = new SegmentUsageStore(dir, true, 1024, new Object());
+        assertArrayEquals(new long[] { START, START + (ROWS - 1) * 1000L }, reopened.getTimeRange());
+    }
+
+    @Test
+    void commitRemovesTheRowsFromDisk() throws IOException {
+        synchronized (writeLock) {
+            store.delete(START, START + 1536 * 1000L);
+            store.commit();
+        }
+
+        assertArrayEquals(new long[] { 5120, 512 }, sumOnAnotherThread());
+        assertEquals(1, segmentFiles());
+        SegmentUsageStore reopened = new SegmentUsageStore(dir, true, 1024, new Object());
+        assertArrayEquals(new long[] { START + 1536 * 1000L, START + (ROWS - 1) * 1000L }, reopened.getTimeRange());
+    }
+
+    @Test
+    void segmentRewrittenTwiceKeepsOnlyTheLastCopy() throws IOException {
+        synchronized (writeLock) {
+            store.delete(START + 1024 * 1000L, START + 1100 * 1000L);
+            store.delete(START + 1100 * 1000L, START + 1200 * 1000L);
+            store.commit();
+        }
+
+        assertArrayEquals(new long[] { (ROWS - 176) * 10L, ROWS - 176 }, store.sum(Long.MIN_VALUE, Long.MAX_VALUE));
+        assertEquals(2, segmentFiles());
+    }
+
+    @Test
+    void appendsContinueAfterACommittedRewrite() throws IOException {
+        synchronized (writeLock) {
+            store.delete(START + 2000 * 1000L, Long.MAX_VALUE);
+            store.commit();
+        }
+        SampleBatch batch = new SampleBatch(1);
+        batch.add(1, START + ROWS * 1000L, 10, 1);
+        store.append(batch);
+        store.commit();
+
+        assertArrayEquals(new long[] { 20010, 2001 }, sumOnAnotherThread());
+    }
+}
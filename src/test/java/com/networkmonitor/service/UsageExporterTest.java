@@ -0,0 +1,156 @@
+package com.networkmonitor.service;
+
+import com.networkmonitor.model.InterfaceUsageRecord;
+import com.networkmonitor.model.UsageRecord;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.TimeZone;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Daily exports in Europe/Berlin across the 2026 DST changes: days follow
+ * local midnight, so the spring-forward day is 23 hours and the fall-back
+ * day 25, and each day holds exactly the raw samples inside it.
+ */
+class UsageExporterTest {
+
+    private static final ZoneId BERLIN = ZoneId.of("Europe/Berlin");
+    private static final long HOUR_MS = 3_600_000;
+    private static final long DAY_MS = 24 * HOUR_MS;
+    private static final long SAMPLE_MS = 60_000;
+    private static final UsageExporter.Progress NO_PROGRESS = new UsageExporter.Progress() {
+        @Override
+        public void update(long rows, double fraction) {
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return false;
+        }
+    };
+
+    @TempDir
+    static Path dir;
+
+    private static TimeZone previousZone;
+    private static DatabaseManager databaseManager;
+
+    @BeforeAll
+    static void setUp() {
+        previousZone = TimeZone.getDefault();
+        TimeZone.setDefault(TimeZone.getTimeZone(BERLIN));
+        DatabaseManager.configure(dir.resolve("usage.db").toString(), false);
+        databaseManager = DatabaseManager.getInstance();
+        // Three days around each change, one sample a minute
+        importSamples(LocalDate.of(2026, 3, 28), LocalDate.of(2026, 3, 31));
+        importSamples(LocalDate.of(2026, 10, 24), LocalDate.of(2026, 10, 27));
+    }
+
+    @AfterAll
+    static void tearDown() {
+        databaseManager.closeConnection();
+        TimeZone.setDefault(previousZone);
+    }
+
+    private static long midnight(LocalDate date) {
+        return date.atStartOfDay(BERLIN).toInstant().toEpochMilli();
+    }
+
+    private static void importSamples(LocalDate from, LocalDate to) {
+        List<UsageRecord> records = new ArrayList<>();
+        for (long t = midnight(from); t < midnight(to); t += SAMPLE_MS) {
+            records.add(new UsageRecord(t, download(t), 1));
+        }
+        List<List<InterfaceUsageRecord>> interfaces = new ArrayList<>(Collections.nCopies(records.size(), null));
+        assertTrue(databaseManager.importSamples(records, interfaces));
+    }
+
+    private static long download(long timestamp) {
+        return 1000 + timestamp / SAMPLE_MS % 97;
+    }
+
+    /** {timestamp, download, upload} per exported row. */
+    private static List<long[]> export(LocalDate from, LocalDate to, long bucketMillis) throws Exception {
+        File file = dir.resolve("export-" + bucketMillis + "-" + from + ".csv").toFile();
+        new UsageExporter(databaseManager).export(file, UsageExporter.Format.CSV, midnight(from),
+                midnight(to) - 1, bucketMillis, NO_PROGRESS);
+        List<long[]> rows = new ArrayList<>();
+        List<String> lines = Files.readAllLines(file.toPath());
+        for (String line : lines.subList(1, lines.size())) {
+            String[] fields = line.split(",");
+            rows.add(new long[] { Long.parseLong(fields[0]), Long.parseLong(fields[2]), Long.parseLong(fields[3]) });
+        }
+        return rows;
+    }
+
+    /** Sums the raw export's rows in [from, to). */
+    private static long[] rawTotals(List<long[]> raw, long from, long to) {
+        long[] totals = new long[2];
+        for (long[] row : raw) {
+            if (row[0] >= from && row[0] < to) {
+                totals[0] += row[1];
+                totals[1] += row[2];
+            }
+        }
+        return totals;
+    }
+
+    private static void assertDays(LocalDate from, LocalDate to, LocalDate changeDay, long changeDayHours)
+            throws Exception {
+        List<long[]> days = export(from, to, DAY_MS);
+        List<long[]> raw = export(from, to, 0);
+
+        assertEquals(3, days.size());
+        LocalDate date = from;
+        long[] exported = new long[2];
+        for (long[] day : days) {
+            long start = midnight(date);
+            long end = midnight(date.plusDays(1));
+            assertEquals(start, day[0], "bucket for " + date + " starts at local midnight");
+            assertEquals(date.equals(changeDay) ? changeDayHours : 24, (end - start) / HOUR_MS);
+            long[] expected = rawTotals(raw, start, end);
+            assertArrayEquals(expected, new long[] { day[1], day[2] }, "totals for " + date);
+            assertEquals((end - start) / SAMPLE_MS, day[2], "one sample a minute on " + date);
+            exported[0] += day[1];
+            exported[1] += day[2];
+            date = date.plusDays(1);
+        }
+        assertArrayEquals(rawTotals(raw, Long.MIN_VALUE, Long.MAX_VALUE), exported);
+    }
+
+    @Test
+    void springForwardDayIs23Hours() throws Exception {
+        assertDays(LocalDate.of(2026, 3, 28), LocalDate.of(2026, 3, 31), LocalDate.of(2026, 3, 29), 23);
+    }
+
+    @Test
+    void fallBackDayIs25Hours() throws Exception {
+        assertDays(LocalDate.of(2026, 10, 24), LocalDate.of(2026, 10, 27), LocalDate.of(2026, 10, 25), 25);
+    }
+
+    @Test
+    void hourBucketsStillAlignToTheHour() throws Exception {
+        List<long[]> hours = export(LocalDate.of(2026, 3, 29), LocalDate.of(2026, 3, 30), HOUR_MS);
+
+        assertEquals(23, hours.size());
+        for (long[] hour : hours) {
+            assertEquals(0, hour[0] % HOUR_MS);
+            assertEquals(HOUR_MS / SAMPLE_MS, hour[2]);
+        }
+    }
+}